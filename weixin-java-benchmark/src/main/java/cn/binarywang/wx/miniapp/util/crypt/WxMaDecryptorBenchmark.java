@@ -0,0 +1,86 @@
+package cn.binarywang.wx.miniapp.util.crypt;
+
+import me.chanjar.weixin.benchmark.Benchmarks;
+import me.chanjar.weixin.common.util.crypto.PKCS7Encoder;
+import org.apache.commons.codec.binary.Base64;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.AlgorithmParameters;
+
+/**
+ * <pre>
+ * 小程序encryptedData解密的压测，不属于单元测试，需要时直接运行main方法
+ * 对比原先每次创建Cipher的静态方法、{@link WxMaCryptUtils#decrypt(String, String, String)} 和每批100条的 {@link WxMaDecryptor}，
+ * 输出每秒解密的条数
+ * </pre>
+ */
+public class WxMaDecryptorBenchmark {
+
+  private static final String SESSION_KEY = "tiihtNczf5v6AKRyjwEUhQ==";
+  private static final String IV = "r7BXXKkLb8qrSNn05n0qiA==";
+
+  public static void main(String[] args) throws Exception {
+    int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+    final String encryptedData = encrypt("{\"openId\":\"oGZUI0egBJY1zhBYw2KhdUfwVJJE\",\"nickName\":\"Band\","
+      + "\"gender\":1,\"language\":\"zh_CN\",\"city\":\"Guangzhou\",\"province\":\"Guangdong\",\"country\":\"CN\","
+      + "\"avatarUrl\":\"http://wx.qlogo.cn/mmopen/vi_32/aSKcBBPpibyKNicHNTMM0qJVh8Kjgiak2AHWr8MHM4WgMEm7GFhsf8OYrySdbvAMvTsw3mo8ibKicsnfN5pRjl1p8HQ/0\","
+      + "\"unionId\":\"ocMvos6NjeKLIBqg5Mr9QjxrP1FA\",\"watermark\":{\"timestamp\":1477314187,\"appid\":\"wx4f4bc4dec97d474b\"}}");
+    final WxMaDecryptor decryptor = new WxMaDecryptor();
+
+    for (int round = 0; round < 3; round++) {
+      Benchmarks.run("legacy", "payload", seconds, 100, 1, new Runnable() {
+        @Override
+        public void run() {
+          legacyDecrypt(SESSION_KEY, encryptedData, IV);
+        }
+      });
+      Benchmarks.run("static", "payload", seconds, 100, 1, new Runnable() {
+        @Override
+        public void run() {
+          WxMaCryptUtils.decrypt(SESSION_KEY, encryptedData, IV);
+        }
+      });
+      Benchmarks.run("batch of 100", "payload", seconds, 100, 100, new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 100; i++) {
+            decryptor.add(SESSION_KEY, encryptedData, IV);
+          }
+          decryptor.decrypt();
+          for (int i = 0; i < 100; i++) {
+            decryptor.getString(i);
+          }
+          decryptor.clear();
+        }
+      });
+    }
+  }
+
+  /**
+   * 原先 {@link WxMaCryptUtils#decrypt(String, String, String)} 的做法
+   */
+  private static String legacyDecrypt(String sessionKey, String encryptedData, String ivStr) {
+    try {
+      AlgorithmParameters params = AlgorithmParameters.getInstance("AES");
+      params.init(new IvParameterSpec(Base64.decodeBase64(ivStr)));
+
+      Cipher cipher = Cipher.getInstance("AES/CBC/NoPadding");
+      cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(Base64.decodeBase64(sessionKey), "AES"), params);
+
+      return new String(PKCS7Encoder.decode(cipher.doFinal(Base64.decodeBase64(encryptedData))), StandardCharsets.UTF_8);
+    } catch (Exception e) {
+      throw new RuntimeException("AES解密失败", e);
+    }
+  }
+
+  private static String encrypt(String plainText) throws Exception {
+    Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+    cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(Base64.decodeBase64(SESSION_KEY), "AES"),
+      new IvParameterSpec(Base64.decodeBase64(IV)));
+    return Base64.encodeBase64String(cipher.doFinal(plainText.getBytes(StandardCharsets.UTF_8)));
+  }
+
+}
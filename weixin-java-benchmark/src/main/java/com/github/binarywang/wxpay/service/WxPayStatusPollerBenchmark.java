@@ -0,0 +1,106 @@
+package com.github.binarywang.wxpay.service;
+
+import com.github.binarywang.wxpay.bean.result.WxPayOrderQueryResult;
+import com.github.binarywang.wxpay.exception.WxPayException;
+import com.github.binarywang.wxpay.service.WxPayStatusPoller.Policy;
+import com.github.binarywang.wxpay.service.WxPayStatusPoller.StatusQuery;
+import com.google.common.util.concurrent.ListenableFuture;
+import me.chanjar.weixin.benchmark.Benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <pre>
+ * 状态轮询的压测，不属于单元测试，需要时直接运行main方法
+ * 模拟指定笔数（默认30万笔）待查询的交易，每笔第3次查询时得到最终状态，每次查询耗时1毫秒。
+ * 分别用每笔交易一个线程循环sleep的原有做法（只模拟其中的2000笔）和 {@link WxPayStatusPoller} 轮询，
+ * 输出等待期间的线程数、每笔交易占用的堆内存和完成全部轮询的时间
+ * </pre>
+ */
+public class WxPayStatusPollerBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 300000;
+    final AtomicLong queries = new AtomicLong();
+
+    int threadCount = Math.min(count, 2000);
+    final CountDownLatch done = new CountDownLatch(threadCount);
+    long before = Benchmarks.usedMemory();
+    long start = System.nanoTime();
+    for (int i = 0; i < threadCount; i++) {
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int attempt = 1; attempt <= 3; attempt++) {
+              Thread.sleep(1000L * attempt);
+              query(queries);
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          done.countDown();
+        }
+      };
+      thread.setDaemon(true);
+      thread.start();
+    }
+    report("thread", threadCount, before, start);
+    done.await();
+    System.out.printf("%-8s finished in %,d ms%n", "thread", (System.nanoTime() - start) / 1000000);
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    WxPayStatusPoller poller = new WxPayStatusPoller(executor, 8);
+    Policy policy = new Policy(1000L, 10000L, 2, 600000L);
+    before = Benchmarks.usedMemory();
+    start = System.nanoTime();
+    List<ListenableFuture<WxPayOrderQueryResult>> futures = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      final int[] attempts = new int[1];
+      futures.add(poller.poll("1000001", new StatusQuery<WxPayOrderQueryResult>() {
+        @Override
+        public WxPayOrderQueryResult query() throws WxPayException {
+          WxPayStatusPollerBenchmark.query(queries);
+          WxPayOrderQueryResult result = new WxPayOrderQueryResult();
+          result.setTradeState(++attempts[0] >= 3 ? "SUCCESS" : "USERPAYING");
+          return result;
+        }
+
+        @Override
+        public boolean isFinal(WxPayOrderQueryResult result) {
+          return "SUCCESS".equals(result.getTradeState());
+        }
+      }, policy));
+    }
+    report("poller", count, before, start);
+    for (ListenableFuture<WxPayOrderQueryResult> future : futures) {
+      future.get();
+    }
+    System.out.printf("%-8s finished in %,d ms, queries: %,d%n", "poller", (System.nanoTime() - start) / 1000000,
+      queries.get());
+    poller.close();
+    executor.shutdown();
+  }
+
+  private static void query(AtomicLong queries) {
+    queries.incrementAndGet();
+    try {
+      Thread.sleep(1);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void report(String name, int count, long before, long start) {
+    System.out.printf("%-8s pending: %,d  threads: %,d  heap bytes per pending: %,d  submit ms: %,d%n", name, count,
+      ManagementFactory.getThreadMXBean().getThreadCount(), (Benchmarks.usedMemory() - before) / count,
+      (System.nanoTime() - start) / 1000000);
+  }
+
+}
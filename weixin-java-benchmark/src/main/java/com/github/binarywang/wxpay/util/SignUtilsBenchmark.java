@@ -0,0 +1,154 @@
+package com.github.binarywang.wxpay.util;
+
+import com.github.binarywang.wxpay.bean.request.WxPayUnifiedOrderRequest;
+import com.github.binarywang.wxpay.constant.WxPayConstants.SignType;
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+import me.chanjar.weixin.benchmark.Benchmarks;
+import me.chanjar.weixin.common.annotation.Required;
+import me.chanjar.weixin.common.util.BeanUtils;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <pre>
+ * 请求参数检查和签名的压测，不属于单元测试，需要时直接运行main方法
+ * 分别测试每次反射读取属性的做法和缓存的 {@link me.chanjar.weixin.common.util.XmlBeanAccessor}，输出每秒处理的请求数
+ * 以及拼接字符串后签名的原有做法和 {@link SignUtils} 对map的MD5、HMAC-SHA256签名
+ * </pre>
+ */
+public class SignUtilsBenchmark {
+
+  private static final String KEY = "192006250b4c09247ec02edce69f6a2d";
+
+  public static void main(String[] args) throws Exception {
+    int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+    final WxPayUnifiedOrderRequest request = SignUtilsTest.newRequest();
+    final Map<String, String> params = BeanUtils.xmlBean2Map(request);
+
+    for (int round = 0; round < 3; round++) {
+      Benchmarks.run("reflection", "request", seconds, new Runnable() {
+        @Override
+        public void run() {
+          reflectionCheckRequired(request);
+          SignUtils.createSign(reflectionBean2Map(request), KEY);
+        }
+      });
+      Benchmarks.run("accessor", "request", seconds, new Runnable() {
+        @Override
+        public void run() {
+          try {
+            BeanUtils.checkRequiredFields(request);
+          } catch (Exception e) {
+            throw new IllegalStateException(e);
+          }
+          SignUtils.createSign(request, KEY);
+        }
+      });
+      Benchmarks.run("legacy md5", "request", seconds, new Runnable() {
+        @Override
+        public void run() {
+          legacySign(params, SignType.MD5);
+        }
+      });
+      Benchmarks.run("md5", "request", seconds, new Runnable() {
+        @Override
+        public void run() {
+          SignUtils.createSign(params, SignType.MD5, KEY);
+        }
+      });
+      Benchmarks.run("legacy hmac", "request", seconds, new Runnable() {
+        @Override
+        public void run() {
+          legacySign(params, SignType.HMAC_SHA256);
+        }
+      });
+      Benchmarks.run("hmac", "request", seconds, new Runnable() {
+        @Override
+        public void run() {
+          SignUtils.createSign(params, SignType.HMAC_SHA256, KEY);
+        }
+      });
+    }
+  }
+
+  /**
+   * 原先 {@link SignUtils#createSign(Map, String)} 的做法：复制成TreeMap，拼接字符串后签名，HMAC每次重新初始化Mac
+   */
+  private static String legacySign(Map<String, String> params, String signType) {
+    Map<String, String> sortedMap = new TreeMap<>(params);
+    StringBuilder toSign = new StringBuilder();
+    for (String key : sortedMap.keySet()) {
+      String value = params.get(key);
+      if (StringUtils.isNotEmpty(value) && !"sign".equals(key) && !"key".equals(key)) {
+        toSign.append(key).append("=").append(value).append("&");
+      }
+    }
+    toSign.append("key=").append(KEY);
+
+    if (SignType.MD5.equals(signType)) {
+      return DigestUtils.md5Hex(toSign.toString()).toUpperCase();
+    }
+    try {
+      Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(KEY.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+      return Hex.encodeHexString(mac.doFinal(toSign.toString().getBytes(StandardCharsets.UTF_8))).toUpperCase();
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * 原先 {@link BeanUtils#checkRequiredFields(Object)} 的做法
+   */
+  private static List<String> reflectionCheckRequired(Object bean) {
+    List<String> requiredFields = new ArrayList<>();
+    List<Field> fields = new ArrayList<>(Arrays.asList(bean.getClass().getDeclaredFields()));
+    fields.addAll(Arrays.asList(bean.getClass().getSuperclass().getDeclaredFields()));
+    for (Field field : fields) {
+      try {
+        field.setAccessible(true);
+        if (field.isAnnotationPresent(Required.class) && field.get(bean) == null) {
+          requiredFields.add(field.getName());
+        }
+      } catch (IllegalAccessException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+    return requiredFields;
+  }
+
+  /**
+   * 原先 {@link BeanUtils#xmlBean2Map(Object)} 的做法
+   */
+  private static Map<String, String> reflectionBean2Map(Object bean) {
+    Map<String, String> result = new HashMap<>();
+    List<Field> fields = new ArrayList<>(Arrays.asList(bean.getClass().getDeclaredFields()));
+    fields.addAll(Arrays.asList(bean.getClass().getSuperclass().getDeclaredFields()));
+    for (Field field : fields) {
+      try {
+        field.setAccessible(true);
+        Object value = field.get(bean);
+        if (value != null && field.isAnnotationPresent(XStreamAlias.class)) {
+          result.put(field.getAnnotation(XStreamAlias.class).value(), value.toString());
+        }
+      } catch (IllegalAccessException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+    return result;
+  }
+
+}
@@ -0,0 +1,49 @@
+package com.github.binarywang.wxpay.util;
+
+import com.github.binarywang.wxpay.util.WxPayBillTable.AmountColumn;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * <pre>
+ * 对账单加载的压测，不属于单元测试，需要时直接运行main方法
+ * 生成指定条数（默认150万条）的对账单文件，比较 {@link WxPayBillReader} 逐行读取和 {@link WxPayBillLoader} 并行加载的耗时
+ * </pre>
+ */
+public class WxPayBillLoaderBenchmark {
+
+  public static void main(String[] args) throws IOException {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 1500000;
+    Path file = Files.createTempFile("bill", ".csv");
+    try {
+      Files.write(file, WxPayBillLoaderTest.createBill(count).getBytes(StandardCharsets.UTF_8));
+      System.out.printf("bill rows: %,d  size: %,d bytes%n", count, Files.size(file));
+
+      for (int round = 0; round < 3; round++) {
+        long start = System.nanoTime();
+        long rows = 0;
+        try (InputStream in = Files.newInputStream(file);
+             WxPayBillReader reader = new WxPayBillReader(in)) {
+          while (reader.hasNext()) {
+            reader.next();
+            rows++;
+          }
+        }
+        System.out.printf("%-10s rows: %,d  ms: %,d%n", "reader", rows, (System.nanoTime() - start) / 1000000);
+
+        start = System.nanoTime();
+        WxPayBillTable table = WxPayBillLoader.load(file);
+        long sum = table.sum(AmountColumn.TOTAL_FEE);
+        System.out.printf("%-10s rows: %,d  ms: %,d  total fee: %,d%n", "loader", table.size(),
+          (System.nanoTime() - start) / 1000000, sum);
+      }
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+}
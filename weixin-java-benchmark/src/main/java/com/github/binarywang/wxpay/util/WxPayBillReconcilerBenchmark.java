@@ -0,0 +1,86 @@
+package com.github.binarywang.wxpay.util;
+
+import com.github.binarywang.wxpay.util.WxPayBillReconciler.Mismatch;
+import com.github.binarywang.wxpay.util.WxPayBillReconciler.MismatchHandler;
+import com.github.binarywang.wxpay.util.WxPayBillReconciler.MismatchType;
+import com.github.binarywang.wxpay.util.WxPayBillReconciler.Side;
+import me.chanjar.weixin.benchmark.Benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <pre>
+ * 对账的压测，不属于单元测试，需要时直接运行main方法
+ * 本地订单和对账单各有指定条数（默认1000万条）的记录，其中约千分之一有差异，
+ * 分别用HashMap按订单号逐条比较的原有做法和 {@link WxPayBillReconciler} 对账，输出每秒处理的记录数和索引占用的堆内存
+ * </pre>
+ */
+public class WxPayBillReconcilerBenchmark {
+
+  public static void main(String[] args) {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+
+    for (int round = 0; round < 3; round++) {
+      long before = Benchmarks.usedMemory();
+      long start = System.nanoTime();
+      Map<String, long[]> ledger = new HashMap<>();
+      for (int i = 0; i < count; i++) {
+        ledger.put(outTradeNo(i), new long[]{fee(i), 0});
+      }
+      long memory = Benchmarks.usedMemory() - before;
+      long mismatches = 0;
+      for (int i = 0; i < count; i++) {
+        long[] order = ledger.remove(outTradeNo(i + count / 1000));
+        if (order == null || order[0] != billFee(i + count / 1000)) {
+          mismatches++;
+        }
+      }
+      mismatches += ledger.size();
+      report("HashMap", count, start, memory, mismatches);
+      ledger = null;
+
+      before = Benchmarks.usedMemory();
+      start = System.nanoTime();
+      final long[] counter = new long[1];
+      WxPayBillReconciler reconciler = new WxPayBillReconciler(Side.LEDGER, count, new MismatchHandler() {
+        @Override
+        public void handle(Mismatch mismatch) {
+          counter[0]++;
+        }
+      });
+      for (int i = 0; i < count; i++) {
+        reconciler.addLedgerOrder(outTradeNo(i), fee(i), "SUCCESS", 0);
+      }
+      memory = Benchmarks.usedMemory() - before;
+      for (int i = 0; i < count; i++) {
+        reconciler.addBillRecord(outTradeNo(i + count / 1000), billFee(i + count / 1000), "SUCCESS", 0);
+      }
+      reconciler.finish();
+      report("reconciler", count, start, memory, counter[0]);
+      System.out.printf("  missing in bill: %,d  missing in ledger: %,d  amount differs: %,d%n",
+        reconciler.getMismatchCount(MismatchType.MISSING_IN_BILL),
+        reconciler.getMismatchCount(MismatchType.MISSING_IN_LEDGER),
+        reconciler.getMismatchCount(MismatchType.AMOUNT_DIFFERS));
+    }
+  }
+
+  private static String outTradeNo(int i) {
+    return "2017040519091" + (10000000000L + i);
+  }
+
+  private static long fee(int i) {
+    return 100 + i % 10000;
+  }
+
+  private static long billFee(int i) {
+    return i % 1000 == 7 ? fee(i) + 1 : fee(i);
+  }
+
+  private static void report(String name, int count, long start, long memory, long mismatches) {
+    long elapsed = System.nanoTime() - start;
+    System.out.printf("%-12s rows/s: %,d  index heap MB: %,d  mismatches: %,d%n", name,
+      count * 2L * 1000000000L / elapsed, memory / 1024 / 1024, mismatches);
+  }
+
+}
@@ -0,0 +1,59 @@
+package me.chanjar.weixin.benchmark;
+
+/**
+ * <pre>
+ * 各个压测共用的计时和内存统计
+ * 压测都是带main方法的类，不属于单元测试，需要时直接运行
+ * </pre>
+ */
+public final class Benchmarks {
+
+  private Benchmarks() {
+  }
+
+  /**
+   * 在指定秒数内每批执行1000次task，每次处理一个
+   *
+   * @see #run(String, String, int, int, int, Runnable)
+   */
+  public static void run(String name, String unit, int seconds, Runnable task) {
+    run(name, unit, seconds, 1000, 1, task);
+  }
+
+  /**
+   * 在指定秒数内反复执行task，每执行loops次检查一次是否超时，最后输出每秒处理的个数和每个的耗时
+   *
+   * @param name      输出中的名称
+   * @param unit      计量单位，如message
+   * @param seconds   运行的秒数
+   * @param loops     每检查一次时间之间执行task的次数
+   * @param batchSize 每执行一次task处理的个数
+   * @param task      被测的操作
+   */
+  public static void run(String name, String unit, int seconds, int loops, int batchSize, Runnable task) {
+    long deadline = System.currentTimeMillis() + seconds * 1000L;
+    long count = 0;
+    long start = System.nanoTime();
+    while (System.currentTimeMillis() < deadline) {
+      for (int i = 0; i < loops; i++) {
+        task.run();
+      }
+      count += (long) loops * batchSize;
+    }
+    long elapsed = System.nanoTime() - start;
+    System.out.printf("%-22s %ss/s: %,d  ns/%s: %,d%n", name, unit,
+      count * 1000000000L / elapsed, unit, elapsed / count);
+  }
+
+  /**
+   * 多次gc之后已使用的堆内存
+   */
+  public static long usedMemory() {
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    Runtime runtime = Runtime.getRuntime();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+}
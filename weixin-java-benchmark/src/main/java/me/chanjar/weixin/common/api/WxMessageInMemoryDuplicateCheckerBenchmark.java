@@ -0,0 +1,54 @@
+package me.chanjar.weixin.common.api;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <pre>
+ * 消息排重的写入压测，不属于单元测试，需要时直接运行main方法
+ * 多个线程持续写入不重复的消息id，输出每秒写入量和内存中保存的消息id个数
+ * </pre>
+ */
+public class WxMessageInMemoryDuplicateCheckerBenchmark {
+
+  public static void main(String[] args) throws InterruptedException {
+    int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+    int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+    int maxSize = args.length > 2 ? Integer.parseInt(args[2]) : WxMessageInMemoryDuplicateChecker.DEFAULT_MAX_SIZE;
+
+    final WxMessageInMemoryDuplicateChecker checker =
+      new WxMessageInMemoryDuplicateChecker(15 * 1000L, 5 * 1000L, maxSize);
+    final AtomicLong counter = new AtomicLong();
+    final long deadline = System.currentTimeMillis() + seconds * 1000L;
+    final CountDownLatch done = new CountDownLatch(threads);
+
+    for (int t = 0; t < threads; t++) {
+      final String prefix = "1234567890-oXYZ" + t + "-";
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          long i = 0;
+          while (System.currentTimeMillis() < deadline) {
+            for (int j = 0; j < 1000; j++) {
+              checker.isDuplicate(prefix + (i++));
+            }
+            counter.addAndGet(1000);
+          }
+          done.countDown();
+        }
+      }).start();
+    }
+
+    long last = 0;
+    Runtime runtime = Runtime.getRuntime();
+    while (done.getCount() > 0) {
+      Thread.sleep(1000L);
+      long total = counter.get();
+      System.out.printf("inserts/s: %,d  size: %,d  heap used: %,d MB%n", total - last, checker.size(),
+        (runtime.totalMemory() - runtime.freeMemory()) / 1024 / 1024);
+      last = total;
+    }
+    done.await();
+  }
+
+}
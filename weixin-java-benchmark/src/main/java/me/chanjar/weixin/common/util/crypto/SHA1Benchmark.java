@@ -0,0 +1,79 @@
+package me.chanjar.weixin.common.util.crypto;
+
+import me.chanjar.weixin.benchmark.Benchmarks;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Arrays;
+
+/**
+ * <pre>
+ * sha1签名的压测，不属于单元测试，需要时直接运行main方法
+ * 分别测试回调消息验签（token、timestamp、nonce）和JSAPI签名，对比拼接字符串后调用DigestUtils的原有做法和 {@link SHA1}
+ * </pre>
+ */
+public class SHA1Benchmark {
+
+  private static final String TOKEN = "pamtest";
+  private static final String TIMESTAMP = "1409304348";
+  private static final String NONCE = "xxxxxx";
+  private static final String SIGNATURE = SHA1.gen(TOKEN, TIMESTAMP, NONCE);
+
+  private static final String[] JSAPI_PARAMS = {
+    "jsapi_ticket=sM4AOVdWfPE4DxkXGEs8VMCPGGVi4C3VM0P37wVUCFvkVAy_90u5h9nbSlYy3-Sl-HhTdfl2fzFy1AOcHKP7qg",
+    "noncestr=Wm3WZYTPz0wzccnW",
+    "timestamp=1414587457",
+    "url=http://mp.weixin.qq.com?params=value"
+  };
+
+  public static void main(String[] args) {
+    int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+
+    for (int round = 0; round < 3; round++) {
+      Benchmarks.run("legacy check", "op", seconds, new Runnable() {
+        @Override
+        public void run() {
+          legacyGen(false, TOKEN, TIMESTAMP, NONCE).equals(SIGNATURE);
+        }
+      });
+      Benchmarks.run("check", "op", seconds, new Runnable() {
+        @Override
+        public void run() {
+          SHA1.check(SIGNATURE, TOKEN, TIMESTAMP, NONCE);
+        }
+      });
+      Benchmarks.run("legacy genWithAmple", "op", seconds, new Runnable() {
+        @Override
+        public void run() {
+          legacyGen(true, JSAPI_PARAMS.clone());
+        }
+      });
+      Benchmarks.run("genWithAmple", "op", seconds, new Runnable() {
+        @Override
+        public void run() {
+          SHA1.genWithAmple(JSAPI_PARAMS.clone());
+        }
+      });
+    }
+  }
+
+  /**
+   * 原先的做法：排序后拼接成一个字符串，每次由DigestUtils创建MessageDigest
+   */
+  private static String legacyGen(boolean withAmple, String... arr) {
+    if (StringUtils.isAnyEmpty(arr)) {
+      throw new IllegalArgumentException("非法请求参数，有部分参数为空 : " + Arrays.toString(arr));
+    }
+
+    Arrays.sort(arr);
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < arr.length; i++) {
+      if (withAmple && i != 0) {
+        sb.append('&');
+      }
+      sb.append(arr[i]);
+    }
+    return DigestUtils.sha1Hex(sb.toString());
+  }
+
+}
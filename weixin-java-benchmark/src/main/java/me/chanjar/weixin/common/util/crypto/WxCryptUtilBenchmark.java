@@ -0,0 +1,100 @@
+package me.chanjar.weixin.common.util.crypto;
+
+import me.chanjar.weixin.benchmark.Benchmarks;
+import org.apache.commons.codec.binary.Base64;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * <pre>
+ * 消息加解密的压测，不属于单元测试，需要时直接运行main方法
+ * 分别用1KB和8KB的明文测试每次创建Cipher的原有做法和 {@link WxCryptUtil}，输出每秒加密、解密的消息数
+ * </pre>
+ */
+public class WxCryptUtilBenchmark {
+
+  private static final String TOKEN = "pamtest";
+  private static final String AES_KEY = "abcdefghijklmnopqrstuvwxyz0123456789ABCDEFG";
+  private static final String APP_ID = "wxb11529c136998cb6";
+  private static final String RANDOM_STR = "aaaabbbbccccdddd";
+
+  public static void main(String[] args) throws Exception {
+    int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+    final WxCryptUtil cryptUtil = new WxCryptUtil(TOKEN, AES_KEY, APP_ID);
+    final byte[] aesKey = Base64.decodeBase64(AES_KEY + "=");
+
+    for (int size : new int[]{1024, 8 * 1024}) {
+      char[] chars = new char[size];
+      Arrays.fill(chars, 'x');
+      final String plainText = new String(chars);
+      final String cipherText = cryptUtil.encrypt(RANDOM_STR, plainText);
+
+      for (int round = 0; round < 3; round++) {
+        Benchmarks.run("legacy encrypt " + size, "message", seconds, 100, 1, new Runnable() {
+          @Override
+          public void run() {
+            legacyEncrypt(aesKey, plainText);
+          }
+        });
+        Benchmarks.run("encrypt " + size, "message", seconds, 100, 1, new Runnable() {
+          @Override
+          public void run() {
+            cryptUtil.encrypt(RANDOM_STR, plainText);
+          }
+        });
+        Benchmarks.run("legacy decrypt " + size, "message", seconds, 100, 1, new Runnable() {
+          @Override
+          public void run() {
+            legacyDecrypt(aesKey, cipherText);
+          }
+        });
+        Benchmarks.run("decrypt " + size, "message", seconds, 100, 1, new Runnable() {
+          @Override
+          public void run() {
+            cryptUtil.decrypt(cipherText);
+          }
+        });
+      }
+    }
+  }
+
+  /**
+   * 原先的加密做法：每次创建Cipher，用ByteGroup拼接明文
+   */
+  private static String legacyEncrypt(byte[] aesKey, String plainText) {
+    ByteGroup byteCollector = new ByteGroup();
+    byte[] textBytes = plainText.getBytes(StandardCharsets.UTF_8);
+    byteCollector.addBytes(RANDOM_STR.getBytes(StandardCharsets.UTF_8));
+    byteCollector.addBytes(new byte[]{0, 0, (byte) (textBytes.length >> 8), (byte) textBytes.length});
+    byteCollector.addBytes(textBytes);
+    byteCollector.addBytes(APP_ID.getBytes(StandardCharsets.UTF_8));
+    byteCollector.addBytes(PKCS7Encoder.encode(byteCollector.size()));
+    try {
+      Cipher cipher = Cipher.getInstance("AES/CBC/NoPadding");
+      cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(aesKey, "AES"), new IvParameterSpec(aesKey, 0, 16));
+      return new Base64().encodeToString(cipher.doFinal(byteCollector.toBytes()));
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * 原先的解密做法：每次创建Cipher，解码、去补位、截取明文各复制一次
+   */
+  private static String legacyDecrypt(byte[] aesKey, String cipherText) {
+    try {
+      Cipher cipher = Cipher.getInstance("AES/CBC/NoPadding");
+      cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(aesKey, "AES"), new IvParameterSpec(aesKey, 0, 16));
+      byte[] bytes = PKCS7Encoder.decode(cipher.doFinal(Base64.decodeBase64(cipherText)));
+      int xmlLength = (bytes[16] & 0xff) << 24 | (bytes[17] & 0xff) << 16 | (bytes[18] & 0xff) << 8 | (bytes[19] & 0xff);
+      return new String(Arrays.copyOfRange(bytes, 20, 20 + xmlLength), StandardCharsets.UTF_8);
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+}
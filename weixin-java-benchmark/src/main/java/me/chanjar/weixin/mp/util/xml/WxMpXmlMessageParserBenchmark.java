@@ -0,0 +1,53 @@
+package me.chanjar.weixin.mp.util.xml;
+
+import me.chanjar.weixin.benchmark.Benchmarks;
+import me.chanjar.weixin.mp.bean.message.WxMpLazyXmlMessage;
+import me.chanjar.weixin.mp.bean.message.WxMpXmlMessage;
+
+/**
+ * <pre>
+ * 消息解析的压测，不属于单元测试，需要时直接运行main方法
+ * 用同一条文本消息分别测试XStream、{@link WxMpXmlMessageParser} 和 {@link WxMpLazyXmlMessage}，输出每秒解析的消息数
+ * </pre>
+ */
+public class WxMpXmlMessageParserBenchmark {
+
+  private static final String XML = "<xml>"
+    + "<ToUserName><![CDATA[gh_1a2b3c4d5e6f]]></ToUserName>"
+    + "<FromUserName><![CDATA[oXYZ1234567890abcdefghijklmn]]></FromUserName>"
+    + "<CreateTime>1348831860</CreateTime>"
+    + "<MsgType><![CDATA[text]]></MsgType>"
+    + "<Content><![CDATA[this is a test]]></Content>"
+    + "<MsgId>1234567890123456</MsgId>"
+    + "</xml>";
+
+  public static void main(String[] args) {
+    int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+
+    for (int round = 0; round < 3; round++) {
+      Benchmarks.run("xstream", "message", seconds, new Runnable() {
+        @Override
+        public void run() {
+          XStreamTransformer.fromXml(WxMpXmlMessage.class, XML);
+        }
+      });
+      Benchmarks.run("stax", "message", seconds, new Runnable() {
+        @Override
+        public void run() {
+          WxMpXmlMessageParser.fromXml(XML);
+        }
+      });
+      Benchmarks.run("lazy", "message", seconds, new Runnable() {
+        @Override
+        public void run() {
+          // 只读取路由和handler常用的几个属性
+          WxMpLazyXmlMessage message = WxMpLazyXmlMessage.fromXml(XML);
+          message.getMsgType();
+          message.getFromUser();
+          message.getContent();
+        }
+      });
+    }
+  }
+
+}
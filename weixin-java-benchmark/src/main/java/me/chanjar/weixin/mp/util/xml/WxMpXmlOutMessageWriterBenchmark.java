@@ -0,0 +1,85 @@
+package me.chanjar.weixin.mp.util.xml;
+
+import me.chanjar.weixin.benchmark.Benchmarks;
+import me.chanjar.weixin.mp.api.WxMpInMemoryConfigStorage;
+import me.chanjar.weixin.mp.bean.message.WxMpXmlOutMessage;
+import me.chanjar.weixin.mp.bean.message.WxMpXmlOutNewsMessage;
+import me.chanjar.weixin.mp.bean.message.WxMpXmlOutTextMessage;
+import me.chanjar.weixin.mp.util.crypto.WxMpCryptUtil;
+
+/**
+ * <pre>
+ * 被动回复消息生成的压测，不属于单元测试，需要时直接运行main方法
+ * 分别测试XStream和 {@link WxMpXmlOutMessageWriter} 生成明文和加密回复，输出每秒生成的消息数
+ * </pre>
+ */
+public class WxMpXmlOutMessageWriterBenchmark {
+
+  public static void main(String[] args) {
+    int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+
+    final WxMpXmlOutTextMessage text = WxMpXmlOutMessage.TEXT()
+      .content("this is a test")
+      .fromUser("gh_1a2b3c4d5e6f")
+      .toUser("oXYZ1234567890abcdefghijklmn")
+      .build();
+
+    WxMpXmlOutNewsMessage.Item item = new WxMpXmlOutNewsMessage.Item();
+    item.setTitle("公众平台官网链接");
+    item.setDescription("公众平台官网链接");
+    item.setPicUrl("http://mmbiz.qpic.cn/mmbiz/abcdefg/0");
+    item.setUrl("https://mp.weixin.qq.com");
+    final WxMpXmlOutNewsMessage news = WxMpXmlOutMessage.NEWS()
+      .fromUser("gh_1a2b3c4d5e6f")
+      .toUser("oXYZ1234567890abcdefghijklmn")
+      .addArticle(item)
+      .addArticle(item)
+      .build();
+
+    WxMpInMemoryConfigStorage config = new WxMpInMemoryConfigStorage();
+    config.setAppId("wxb11529c136998cb6");
+    config.setToken("pamtest");
+    config.setAesKey("abcdefghijklmnopqrstuvwxyz0123456789ABCDEFG");
+    final WxMpCryptUtil cryptUtil = new WxMpCryptUtil(config);
+
+    for (int round = 0; round < 3; round++) {
+      Benchmarks.run("xstream text", "message", seconds, new Runnable() {
+        @Override
+        public void run() {
+          XStreamTransformer.toXml(WxMpXmlOutTextMessage.class, text);
+        }
+      });
+      Benchmarks.run("writer text", "message", seconds, new Runnable() {
+        @Override
+        public void run() {
+          WxMpXmlOutMessageWriter.toXml(text);
+        }
+      });
+      Benchmarks.run("xstream news", "message", seconds, new Runnable() {
+        @Override
+        public void run() {
+          XStreamTransformer.toXml(WxMpXmlOutNewsMessage.class, news);
+        }
+      });
+      Benchmarks.run("writer news", "message", seconds, new Runnable() {
+        @Override
+        public void run() {
+          WxMpXmlOutMessageWriter.toXml(news);
+        }
+      });
+      Benchmarks.run("xstream encrypted", "message", seconds, new Runnable() {
+        @Override
+        public void run() {
+          cryptUtil.encrypt(XStreamTransformer.toXml(WxMpXmlOutTextMessage.class, text));
+        }
+      });
+      Benchmarks.run("writer encrypted", "message", seconds, new Runnable() {
+        @Override
+        public void run() {
+          cryptUtil.encrypt(WxMpXmlOutMessageWriter.toXml(text));
+        }
+      });
+    }
+  }
+
+}
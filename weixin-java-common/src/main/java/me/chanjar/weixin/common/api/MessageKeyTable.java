@@ -0,0 +1,182 @@
+package me.chanjar.weixin.common.api;
+
+/**
+ * <pre>
+ * 128位消息key->时间戳的开放寻址哈希表，所有数据保存在long数组中，不产生装箱对象
+ * 表被分成若干段，每段独立加锁，降低并发写入时的争用
+ * 时间戳必须大于0，0用来表示空槽位；线性探测的槽位不能直接清空，撤销时把时间戳改为 {@link #EXPIRED}
+ * </pre>
+ */
+class MessageKeyTable {
+
+  /**
+   * 被撤销的消息key的时间戳，早于任何有效的写入时间，会被当作已过期
+   */
+  static final long EXPIRED = 1L;
+
+  private static final int SEGMENT_BITS = 6;
+
+  private static final int SEGMENT_COUNT = 1 << SEGMENT_BITS;
+
+  private final Segment[] segments = new Segment[SEGMENT_COUNT];
+
+  MessageKeyTable() {
+    for (int i = 0; i < SEGMENT_COUNT; i++) {
+      this.segments[i] = new Segment();
+    }
+  }
+
+  private static long spread(long keyHigh, long keyLow) {
+    long h = keyHigh * 0x9E3779B97F4A7C15L ^ keyLow;
+    h ^= h >>> 32;
+    h *= 0xff51afd7ed558ccdL;
+    return h ^ (h >>> 29);
+  }
+
+  private Segment segmentFor(long hash) {
+    return this.segments[(int) (hash >>> (64 - SEGMENT_BITS))];
+  }
+
+  /**
+   * @return 时间戳，不存在时返回0
+   */
+  long get(long keyHigh, long keyLow) {
+    long hash = spread(keyHigh, keyLow);
+    return segmentFor(hash).get(hash, keyHigh, keyLow);
+  }
+
+  /**
+   * 不存在时写入
+   *
+   * @return 已有的时间戳，写入成功时返回0
+   */
+  long putIfAbsent(long keyHigh, long keyLow, long timestamp) {
+    long hash = spread(keyHigh, keyLow);
+    return segmentFor(hash).put(hash, keyHigh, keyLow, timestamp, true);
+  }
+
+  /**
+   * 覆盖写入
+   *
+   * @return 原来的时间戳，原来不存在时返回0
+   */
+  long put(long keyHigh, long keyLow, long timestamp) {
+    long hash = spread(keyHigh, keyLow);
+    return segmentFor(hash).put(hash, keyHigh, keyLow, timestamp, false);
+  }
+
+  /**
+   * 已存在时把时间戳改为 {@link #EXPIRED}
+   */
+  void expire(long keyHigh, long keyLow) {
+    long hash = spread(keyHigh, keyLow);
+    segmentFor(hash).expire(hash, keyHigh, keyLow);
+  }
+
+  int size() {
+    int size = 0;
+    for (Segment segment : this.segments) {
+      size += segment.size();
+    }
+    return size;
+  }
+
+  /**
+   * 每个槽位占3个long：key高64位、key低64位、时间戳
+   */
+  private static class Segment {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] table = new long[INITIAL_CAPACITY * 3];
+
+    private int mask = INITIAL_CAPACITY - 1;
+
+    private volatile int size;
+
+    synchronized long get(long hash, long keyHigh, long keyLow) {
+      long[] tab = this.table;
+      int i = (int) hash & this.mask;
+      while (true) {
+        int base = i * 3;
+        long timestamp = tab[base + 2];
+        if (timestamp == 0) {
+          return 0;
+        }
+        if (tab[base] == keyHigh && tab[base + 1] == keyLow) {
+          return timestamp;
+        }
+        i = (i + 1) & this.mask;
+      }
+    }
+
+    synchronized long put(long hash, long keyHigh, long keyLow, long timestamp, boolean onlyIfAbsent) {
+      long[] tab = this.table;
+      int i = (int) hash & this.mask;
+      while (true) {
+        int base = i * 3;
+        long existing = tab[base + 2];
+        if (existing == 0) {
+          tab[base] = keyHigh;
+          tab[base + 1] = keyLow;
+          tab[base + 2] = timestamp;
+          // 负载因子0.5
+          if (++this.size > (this.mask + 1) >>> 1) {
+            resize();
+          }
+          return 0;
+        }
+        if (tab[base] == keyHigh && tab[base + 1] == keyLow) {
+          if (!onlyIfAbsent) {
+            tab[base + 2] = timestamp;
+          }
+          return existing;
+        }
+        i = (i + 1) & this.mask;
+      }
+    }
+
+    synchronized void expire(long hash, long keyHigh, long keyLow) {
+      long[] tab = this.table;
+      int i = (int) hash & this.mask;
+      while (true) {
+        int base = i * 3;
+        if (tab[base + 2] == 0) {
+          return;
+        }
+        if (tab[base] == keyHigh && tab[base + 1] == keyLow) {
+          tab[base + 2] = EXPIRED;
+          return;
+        }
+        i = (i + 1) & this.mask;
+      }
+    }
+
+    private void resize() {
+      long[] oldTable = this.table;
+      int newCapacity = (this.mask + 1) << 1;
+      long[] newTable = new long[newCapacity * 3];
+      int newMask = newCapacity - 1;
+      for (int base = 0; base < oldTable.length; base += 3) {
+        if (oldTable[base + 2] == 0) {
+          continue;
+        }
+        long keyHigh = oldTable[base];
+        long keyLow = oldTable[base + 1];
+        int i = (int) spread(keyHigh, keyLow) & newMask;
+        while (newTable[i * 3 + 2] != 0) {
+          i = (i + 1) & newMask;
+        }
+        newTable[i * 3] = keyHigh;
+        newTable[i * 3 + 1] = keyLow;
+        newTable[i * 3 + 2] = oldTable[base + 2];
+      }
+      this.table = newTable;
+      this.mask = newMask;
+    }
+
+    int size() {
+      return this.size;
+    }
+  }
+
+}
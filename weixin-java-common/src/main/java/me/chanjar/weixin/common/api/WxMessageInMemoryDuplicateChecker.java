@@ -1,16 +1,43 @@
 package me.chanjar.weixin.common.api;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import me.chanjar.weixin.common.util.SharedScheduler;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * <pre>
  * 默认消息重复检查器
- * 将每个消息id保存在内存里，每隔5秒清理已经过期的消息id，每个消息id的过期时间是15秒
+ * 将每个消息id保存在内存里，每个消息id的过期时间是15秒，每隔5秒清理一次
+ *
+ * 消息id先被转换成128位的消息key（见 {@link WxMessageKeys}），保存在基于long数组的哈希表中，
+ * 每个消息只占用24字节，也不会产生装箱对象。
+ * 消息key按照写入时间分代保存，每一代是一个独立的哈希表，覆盖一个清理周期，
+ * 清理时直接丢弃最老的一代，不需要遍历任何消息id，所以清理的开销和消息量无关。
+ * 判断是否重复时会核对消息id的写入时间，所以过期时间仍然是精确的。
+ *
+ * 内存中最多保存 maxSize 个消息id（默认100万个），超过后会提前丢弃最老的一代，
+ * 如果仍然放不下，新的消息id将不再被记录（即按非重复消息处理）。
+ * 清理任务运行在 {@link SharedScheduler} 共享的后台线程上，不会为每个实例单独启动线程。
  * </pre>
  */
-public class WxMessageInMemoryDuplicateChecker implements WxMessageDuplicateChecker {
+public class WxMessageInMemoryDuplicateChecker implements WxMessageKeyDuplicateChecker,
+  WxMessageRemovableDuplicateChecker {
+
+  /**
+   * 默认最多保存的消息id个数
+   */
+  public static final int DEFAULT_MAX_SIZE = 1000000;
+
+  private static final SharedScheduler.WeakTask<WxMessageInMemoryDuplicateChecker> ROTATE_TASK =
+    new SharedScheduler.WeakTask<WxMessageInMemoryDuplicateChecker>() {
+      @Override
+      public void run(WxMessageInMemoryDuplicateChecker checker) {
+        checker.rotate();
+      }
+    };
 
   /**
    * 一个消息ID在内存的过期时间：15秒
@@ -23,12 +50,24 @@ public class WxMessageInMemoryDuplicateChecker implements WxMessageDuplicateChec
   private final Long clearPeriod;
 
   /**
-   * 消息id->消息时间戳的map
+   * 最多保存的消息id个数
+   */
+  private final int maxSize;
+
+  /**
+   * 当前保存的消息id个数
    */
-  private final ConcurrentHashMap<String, Long> msgId2Timestamp = new ConcurrentHashMap<>();
+  private final AtomicInteger size = new AtomicInteger();
 
   /**
-   * 后台清理线程是否已经开启
+   * 各代的消息key->消息时间戳的哈希表，下标0为最新的一代，只会被整体替换
+   */
+  private volatile MessageKeyTable[] generations;
+
+  private final ScheduledExecutorService scheduler;
+
+  /**
+   * 后台清理任务是否已经开启
    */
   private final AtomicBoolean backgroundProcessStarted = new AtomicBoolean(false);
 
@@ -40,8 +79,7 @@ public class WxMessageInMemoryDuplicateChecker implements WxMessageDuplicateChec
    * </pre>
    */
   public WxMessageInMemoryDuplicateChecker() {
-    this.timeToLive = 15 * 1000l;
-    this.clearPeriod = 5 * 1000l;
+    this(15 * 1000L, 5 * 1000L);
   }
 
   /**
@@ -51,34 +89,95 @@ public class WxMessageInMemoryDuplicateChecker implements WxMessageDuplicateChec
    * @param clearPeriod 每隔多少周期检查消息ID是否过期：毫秒
    */
   public WxMessageInMemoryDuplicateChecker(Long timeToLive, Long clearPeriod) {
+    this(timeToLive, clearPeriod, DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * WxMsgIdInMemoryDuplicateChecker构造函数
+   *
+   * @param timeToLive  一个消息ID在内存的过期时间：毫秒
+   * @param clearPeriod 每隔多少周期检查消息ID是否过期：毫秒
+   * @param maxSize     最多保存的消息id个数
+   */
+  public WxMessageInMemoryDuplicateChecker(Long timeToLive, Long clearPeriod, int maxSize) {
+    this(timeToLive, clearPeriod, maxSize, SharedScheduler.get());
+  }
+
+  /**
+   * WxMsgIdInMemoryDuplicateChecker构造函数
+   *
+   * @param timeToLive  一个消息ID在内存的过期时间：毫秒
+   * @param clearPeriod 每隔多少周期检查消息ID是否过期：毫秒
+   * @param maxSize     最多保存的消息id个数
+   * @param scheduler   执行清理任务的线程池
+   */
+  public WxMessageInMemoryDuplicateChecker(Long timeToLive, Long clearPeriod, int maxSize,
+                                           ScheduledExecutorService scheduler) {
     this.timeToLive = timeToLive;
     this.clearPeriod = clearPeriod;
+    this.maxSize = maxSize;
+    this.scheduler = scheduler;
+
+    // 最老的一代被丢弃时，其中的消息id至少已经保存了timeToLive
+    int generationCount = (int) ((timeToLive + clearPeriod - 1) / clearPeriod) + 1;
+    MessageKeyTable[] gens = new MessageKeyTable[Math.max(2, generationCount)];
+    for (int i = 0; i < gens.length; i++) {
+      gens[i] = new MessageKeyTable();
+    }
+    this.generations = gens;
   }
 
   protected void checkBackgroundProcessStarted() {
     if (this.backgroundProcessStarted.getAndSet(true)) {
       return;
     }
-    Thread t = new Thread(new Runnable() {
-      @Override
-      public void run() {
-        try {
-          while (true) {
-            Thread.sleep(WxMessageInMemoryDuplicateChecker.this.clearPeriod);
-            Long now = System.currentTimeMillis();
-            for (Map.Entry<String, Long> entry : WxMessageInMemoryDuplicateChecker.this.msgId2Timestamp.entrySet()) {
-              if (now - entry.getValue() > WxMessageInMemoryDuplicateChecker.this.timeToLive) {
-                WxMessageInMemoryDuplicateChecker.this.msgId2Timestamp.entrySet().remove(entry);
-              }
-            }
-          }
-        } catch (InterruptedException e) {
-          e.printStackTrace();
-        }
+    SharedScheduler.scheduleWeakly(this.scheduler, this, ROTATE_TASK, this.clearPeriod, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * 新建一代，同时丢弃最老的一代
+   */
+  protected synchronized void rotate() {
+    MessageKeyTable[] gens = this.generations;
+    MessageKeyTable[] newGens = new MessageKeyTable[gens.length];
+    newGens[0] = new MessageKeyTable();
+    System.arraycopy(gens, 0, newGens, 1, gens.length - 1);
+    this.generations = newGens;
+    this.recountSize(newGens);
+  }
+
+  /**
+   * 超过容量时提前丢弃最老的非空的一代（不包括当前正在写入的一代）
+   *
+   * @return 是否丢弃了消息id
+   */
+  private synchronized boolean evictOldest() {
+    MessageKeyTable[] gens = this.generations;
+    for (int i = gens.length - 1; i > 0; i--) {
+      if (gens[i].size() > 0) {
+        MessageKeyTable[] newGens = gens.clone();
+        newGens[i] = new MessageKeyTable();
+        this.generations = newGens;
+        this.recountSize(newGens);
+        return true;
       }
-    });
-    t.setDaemon(true);
-    t.start();
+    }
+    return false;
+  }
+
+  /**
+   * <pre>
+   * 按仍然保留的各代重新统计消息id个数
+   * 写入线程可能还持有替换前的generations，在替换之后才增加计数，
+   * 如果按丢弃的个数做减法，这样的误差会一直累积下去；每次替换时重新统计，误差不会超过一个清理周期内的并发写入
+   * </pre>
+   */
+  private void recountSize(MessageKeyTable[] gens) {
+    int count = 0;
+    for (MessageKeyTable generation : gens) {
+      count += generation.size();
+    }
+    this.size.set(count);
   }
 
   @Override
@@ -86,10 +185,64 @@ public class WxMessageInMemoryDuplicateChecker implements WxMessageDuplicateChec
     if (messageId == null) {
       return false;
     }
+    return isDuplicate(WxMessageKeys.high(messageId), WxMessageKeys.low(messageId));
+  }
+
+  @Override
+  public boolean isDuplicate(long keyHigh, long keyLow) {
     checkBackgroundProcessStarted();
-    Long timestamp = this.msgId2Timestamp.putIfAbsent(messageId, System.currentTimeMillis());
-    return timestamp != null;
+    long now = System.currentTimeMillis();
+
+    MessageKeyTable[] gens = this.generations;
+    for (MessageKeyTable generation : gens) {
+      long timestamp = generation.get(keyHigh, keyLow);
+      if (timestamp != 0 && now - timestamp <= this.timeToLive) {
+        return true;
+      }
+    }
+
+    if (this.size.get() >= this.maxSize) {
+      if (!evictOldest() && this.size.get() >= this.maxSize) {
+        // 已经没有可以丢弃的消息id，为保证内存上限，不再记录
+        return false;
+      }
+      gens = this.generations;
+    }
+
+    long timestamp = gens[0].putIfAbsent(keyHigh, keyLow, now);
+    if (timestamp == 0) {
+      this.size.incrementAndGet();
+      return false;
+    }
+    if (now - timestamp > this.timeToLive) {
+      gens[0].put(keyHigh, keyLow, now);
+      return false;
+    }
+    return true;
   }
 
+  @Override
+  public void remove(String messageId) {
+    if (messageId == null) {
+      return;
+    }
+    this.remove(WxMessageKeys.high(messageId), WxMessageKeys.low(messageId));
+  }
+
+  /**
+   * 撤销消息key的记录，所在的槽位在下次清理这一代时释放
+   */
+  public void remove(long keyHigh, long keyLow) {
+    for (MessageKeyTable generation : this.generations) {
+      generation.expire(keyHigh, keyLow);
+    }
+  }
+
+  /**
+   * 当前保存的消息id个数（近似值）
+   */
+  public int size() {
+    return this.size.get();
+  }
 
 }
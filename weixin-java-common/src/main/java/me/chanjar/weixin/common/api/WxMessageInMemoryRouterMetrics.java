@@ -0,0 +1,126 @@
+package me.chanjar.weixin.common.api;
+
+import me.chanjar.weixin.common.exception.WxErrorException;
+import me.chanjar.weixin.common.util.metrics.LatencyHistogram;
+import me.chanjar.weixin.common.util.metrics.StripedCounter;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <pre>
+ * 默认的路由器监控实现，所有数据保存在内存中
+ * 计数使用分段计数器，耗时使用固定分桶的直方图，记录数据时不会产生对象分配
+ * 可以通过 {@link #getRuleStats()} 等方法读取数据，再自行导出到监控系统
+ * </pre>
+ */
+public class WxMessageInMemoryRouterMetrics implements WxMessageRouterMetrics {
+
+  private final ConcurrentMap<String, RuleStats> ruleStats = new ConcurrentHashMap<>();
+
+  private final StripedCounter duplicateDropped = new StripedCounter();
+
+  private final LatencyHistogram asyncQueueWait = new LatencyHistogram();
+
+  @Override
+  public void onDuplicateDropped() {
+    this.duplicateDropped.increment();
+  }
+
+  @Override
+  public void onRuleMatched(String ruleName) {
+    stats(ruleName).matched.increment();
+  }
+
+  @Override
+  public void onInterceptorRejected(String ruleName) {
+    stats(ruleName).rejected.increment();
+  }
+
+  @Override
+  public void onHandlerCompleted(String ruleName, long elapsedNanos) {
+    stats(ruleName).handlerLatency.record(elapsedNanos);
+  }
+
+  @Override
+  public void onAsyncQueueWait(long waitNanos) {
+    this.asyncQueueWait.record(waitNanos);
+  }
+
+  @Override
+  public void onException(String ruleName, WxErrorException e) {
+    stats(ruleName).errors.increment();
+  }
+
+  private RuleStats stats(String ruleName) {
+    RuleStats stats = this.ruleStats.get(ruleName);
+    if (stats == null) {
+      RuleStats newStats = new RuleStats();
+      stats = this.ruleStats.putIfAbsent(ruleName, newStats);
+      if (stats == null) {
+        stats = newStats;
+      }
+    }
+    return stats;
+  }
+
+  /**
+   * 规则名称->规则统计数据
+   */
+  public Map<String, RuleStats> getRuleStats() {
+    return Collections.<String, RuleStats>unmodifiableMap(this.ruleStats);
+  }
+
+  public RuleStats getRuleStats(String ruleName) {
+    return this.ruleStats.get(ruleName);
+  }
+
+  public long getDuplicateDropped() {
+    return this.duplicateDropped.sum();
+  }
+
+  public LatencyHistogram getAsyncQueueWait() {
+    return this.asyncQueueWait;
+  }
+
+  /**
+   * 单个规则的统计数据
+   */
+  public static class RuleStats {
+    private final StripedCounter matched = new StripedCounter();
+    private final StripedCounter rejected = new StripedCounter();
+    private final StripedCounter errors = new StripedCounter();
+    private final LatencyHistogram handlerLatency = new LatencyHistogram();
+
+    /**
+     * 匹配次数
+     */
+    public long getMatched() {
+      return this.matched.sum();
+    }
+
+    /**
+     * 被拦截器拦截的次数
+     */
+    public long getRejected() {
+      return this.rejected.sum();
+    }
+
+    /**
+     * 交给WxErrorExceptionHandler处理的异常次数
+     */
+    public long getErrors() {
+      return this.errors.sum();
+    }
+
+    /**
+     * handler耗时直方图，单位纳秒
+     */
+    public LatencyHistogram getHandlerLatency() {
+      return this.handlerLatency;
+    }
+  }
+
+}
@@ -0,0 +1,171 @@
+package me.chanjar.weixin.common.api;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <pre>
+ * 基于Redis的消息重复检查器，适用于多个节点共同处理回调消息的场景
+ * 微信的重试请求经过负载均衡后可能落到其他节点上，只在本机内存中排重会漏掉这些消息
+ *
+ * 每个消息在Redis中用 SET key 1 NX PX timeToLive 原子地写入，写入成功说明是第一次出现，
+ * key由128位消息key（见 {@link WxMessageKeys}）得出，字符串消息id也先换算成消息key，各入口的key保持一致。
+ * 本机还维护了一个最近消息id的内存缓存，重试请求落在同一个节点时直接在本机判定为重复，不需要访问Redis；
+ * 第一次出现的消息只需要一次Redis往返。
+ * Redis访问出错时按非重复消息处理，以免因为Redis故障而丢弃消息。
+ * </pre>
+ */
+public class WxMessageInRedisDuplicateChecker implements WxMessageKeyDuplicateChecker,
+  WxMessageRemovableDuplicateChecker {
+
+  private static final String DEFAULT_KEY_PREFIX = "wechat_msg_dup_";
+
+  private static final String NX = "NX";
+
+  private static final String PX = "PX";
+
+  private final Logger log = LoggerFactory.getLogger(WxMessageInRedisDuplicateChecker.class);
+
+  private final JedisPool jedisPool;
+
+  private final String keyPrefix;
+
+  /**
+   * 一个消息ID在Redis中的过期时间，毫秒
+   */
+  private final long timeToLive;
+
+  /**
+   * 本机最近消息id缓存
+   */
+  private final WxMessageInMemoryDuplicateChecker localChecker;
+
+  /**
+   * 消息ID过期时间为15秒，本机最多缓存10万个消息id
+   */
+  public WxMessageInRedisDuplicateChecker(JedisPool jedisPool) {
+    this(jedisPool, DEFAULT_KEY_PREFIX, 15 * 1000L, 100000);
+  }
+
+  /**
+   * @param jedisPool      Redis连接池
+   * @param keyPrefix      Redis key前缀
+   * @param timeToLive     一个消息ID的过期时间：毫秒
+   * @param localCacheSize 本机最多缓存的消息id个数
+   */
+  public WxMessageInRedisDuplicateChecker(JedisPool jedisPool, String keyPrefix, long timeToLive, int localCacheSize) {
+    this.jedisPool = jedisPool;
+    this.keyPrefix = keyPrefix;
+    this.timeToLive = timeToLive;
+    this.localChecker = new WxMessageInMemoryDuplicateChecker(timeToLive, Math.max(1000L, timeToLive / 3), localCacheSize);
+  }
+
+  @Override
+  public boolean isDuplicate(String messageId) {
+    if (messageId == null) {
+      return false;
+    }
+    return this.isDuplicate(WxMessageKeys.high(messageId), WxMessageKeys.low(messageId));
+  }
+
+  /**
+   * 本机缓存命中时不产生任何临时对象，需要访问Redis时使用 {@link #redisKey(long, long)}
+   */
+  @Override
+  public boolean isDuplicate(long keyHigh, long keyLow) {
+    if (this.localChecker.isDuplicate(keyHigh, keyLow)) {
+      return true;
+    }
+
+    String key = this.redisKey(keyHigh, keyLow);
+    try (Jedis jedis = this.jedisPool.getResource()) {
+      return jedis.set(key, "1", NX, PX, this.timeToLive) == null;
+    } catch (RuntimeException e) {
+      this.log.error("Error happened when checking duplicate message in redis, key={}", key, e);
+      return false;
+    }
+  }
+
+  /**
+   * 同时撤销本机缓存和Redis中的记录，Redis访问出错时只记录日志
+   */
+  @Override
+  public void remove(String messageId) {
+    if (messageId == null) {
+      return;
+    }
+
+    long keyHigh = WxMessageKeys.high(messageId);
+    long keyLow = WxMessageKeys.low(messageId);
+    this.localChecker.remove(keyHigh, keyLow);
+    String key = this.redisKey(keyHigh, keyLow);
+    try (Jedis jedis = this.jedisPool.getResource()) {
+      jedis.del(key);
+    } catch (RuntimeException e) {
+      this.log.error("Error happened when removing duplicate message in redis, key={}", key, e);
+    }
+  }
+
+  /**
+   * <pre>
+   * 批量检查消息是否重复，用于批量重放消息等场景
+   * 本机缓存未命中的消息id通过一次pipeline提交给Redis
+   * </pre>
+   *
+   * @param messageIds 消息id列表
+   * @return 与messageIds一一对应，true表示重复消息
+   */
+  public boolean[] isDuplicate(List<String> messageIds) {
+    boolean[] result = new boolean[messageIds.size()];
+    List<Integer> remoteIndexes = new ArrayList<>();
+    for (int i = 0; i < messageIds.size(); i++) {
+      String messageId = messageIds.get(i);
+      if (messageId == null) {
+        continue;
+      }
+      if (this.localChecker.isDuplicate(WxMessageKeys.high(messageId), WxMessageKeys.low(messageId))) {
+        result[i] = true;
+      } else {
+        remoteIndexes.add(i);
+      }
+    }
+    if (remoteIndexes.isEmpty()) {
+      return result;
+    }
+
+    try (Jedis jedis = this.jedisPool.getResource()) {
+      Pipeline pipeline = jedis.pipelined();
+      List<Response<String>> responses = new ArrayList<>(remoteIndexes.size());
+      for (Integer index : remoteIndexes) {
+        String messageId = messageIds.get(index);
+        String key = this.redisKey(WxMessageKeys.high(messageId), WxMessageKeys.low(messageId));
+        responses.add(pipeline.set(key, "1", NX, PX, (int) this.timeToLive));
+      }
+      pipeline.sync();
+      for (int i = 0; i < remoteIndexes.size(); i++) {
+        result[remoteIndexes.get(i)] = responses.get(i).get() == null;
+      }
+    } catch (RuntimeException e) {
+      this.log.error("Error happened when checking duplicate messages in redis", e);
+    }
+    return result;
+  }
+
+  /**
+   * <pre>
+   * 消息在Redis中的key：前缀加上128位消息key的16进制形式
+   * 字符串消息id、批量检查和直接传入消息key的方式都使用这个key，同一条消息不论从哪个入口检查都会命中
+   * </pre>
+   */
+  protected String redisKey(long keyHigh, long keyLow) {
+    return this.keyPrefix + Long.toHexString(keyHigh) + '-' + Long.toHexString(keyLow);
+  }
+
+}
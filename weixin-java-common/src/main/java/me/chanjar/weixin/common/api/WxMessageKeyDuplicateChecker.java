@@ -0,0 +1,20 @@
+package me.chanjar.weixin.common.api;
+
+/**
+ * <pre>
+ * 支持128位消息key的消息重复检查器
+ * 消息key由 {@link WxMessageKeys} 直接根据消息字段计算得到，不需要拼接字符串，
+ * 路由器发现排重器实现了该接口时会优先使用这种方式，避免每条消息产生临时对象
+ * </pre>
+ */
+public interface WxMessageKeyDuplicateChecker extends WxMessageDuplicateChecker {
+
+  /**
+   * @param keyHigh 消息key的高64位
+   * @param keyLow  消息key的低64位
+   * @return 如果是重复消息，返回true，否则返回false
+   * @see WxMessageKeys
+   */
+  boolean isDuplicate(long keyHigh, long keyLow);
+
+}
@@ -0,0 +1,98 @@
+package me.chanjar.weixin.common.api;
+
+/**
+ * <pre>
+ * 计算用于排重的128位消息key，计算过程中不产生任何临时对象
+ *
+ * 有MsgId的消息：高64位为 {@link #MSG_ID_HIGH}，低64位就是MsgId，不会冲突；
+ * 事件消息：对 CreateTime、AgentId（企业号）、FromUserName、EventKey、Event 分别做两个不同参数的64位哈希，
+ * 拼成128位，冲突概率可以忽略不计。
+ * 空字段和空字符串等价，与原来拼接字符串的方式一致。
+ * </pre>
+ */
+public final class WxMessageKeys {
+
+  /**
+   * 以MsgId排重时消息key的高64位
+   */
+  public static final long MSG_ID_HIGH = 0x4D73674964000000L;
+
+  private static final long HIGH_SEED = 0xcbf29ce484222325L;
+
+  private static final long HIGH_PRIME = 0x100000001b3L;
+
+  private static final long LOW_SEED = 0x6a09e667f3bcc909L;
+
+  private static final long LOW_PRIME = 0x9E3779B97F4A7C15L;
+
+  private WxMessageKeys() {
+  }
+
+  /**
+   * 事件消息key的高64位
+   */
+  public static long eventHigh(long createTime, long agentId, CharSequence fromUser, CharSequence eventKey, CharSequence event) {
+    return event(HIGH_SEED, HIGH_PRIME, createTime, agentId, fromUser, eventKey, event);
+  }
+
+  /**
+   * 事件消息key的低64位
+   */
+  public static long eventLow(long createTime, long agentId, CharSequence fromUser, CharSequence eventKey, CharSequence event) {
+    return event(LOW_SEED, LOW_PRIME, createTime, agentId, fromUser, eventKey, event);
+  }
+
+  /**
+   * 任意字符串消息id的高64位
+   */
+  public static long high(CharSequence messageId) {
+    return fmix(hash(HIGH_SEED, HIGH_PRIME, messageId));
+  }
+
+  /**
+   * 任意字符串消息id的低64位
+   */
+  public static long low(CharSequence messageId) {
+    return fmix(hash(LOW_SEED, LOW_PRIME, messageId));
+  }
+
+  private static long event(long seed, long prime, long createTime, long agentId,
+                            CharSequence fromUser, CharSequence eventKey, CharSequence event) {
+    long h = seed;
+    h = hash(h, prime, createTime);
+    h = hash(h, prime, agentId);
+    h = hash(h, prime, fromUser);
+    h = hash(h, prime, eventKey);
+    h = hash(h, prime, event);
+    return fmix(h);
+  }
+
+  private static long hash(long h, long prime, long value) {
+    for (int i = 0; i < 64; i += 16) {
+      h = (h ^ ((value >>> i) & 0xFFFF)) * prime;
+    }
+    return h;
+  }
+
+  private static long hash(long h, long prime, CharSequence s) {
+    int length = s == null ? 0 : s.length();
+    for (int i = 0; i < length; i++) {
+      h = (h ^ s.charAt(i)) * prime;
+    }
+    // 混入长度作为字段分隔，避免 ("ab", "c") 和 ("a", "bc") 冲突
+    return (h ^ (length | 0x10000)) * prime;
+  }
+
+  /**
+   * murmur3的64位终结混合函数
+   */
+  private static long fmix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+}
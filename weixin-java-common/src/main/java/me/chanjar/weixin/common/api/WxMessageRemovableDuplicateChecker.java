@@ -0,0 +1,18 @@
+package me.chanjar.weixin.common.api;
+
+/**
+ * <pre>
+ * 支持撤销记录的消息重复检查器
+ * 消息处理失败时撤销它的消息id，之后重新收到的同一消息不会再被判定为重复，可以重新处理
+ * </pre>
+ */
+public interface WxMessageRemovableDuplicateChecker extends WxMessageDuplicateChecker {
+
+  /**
+   * 撤销消息id的记录，消息id不存在时不做任何事
+   *
+   * @param messageId 与 {@link #isDuplicate(String)} 使用的消息id相同
+   */
+  void remove(String messageId);
+
+}
@@ -0,0 +1,57 @@
+package me.chanjar.weixin.common.api;
+
+import me.chanjar.weixin.common.exception.WxErrorException;
+
+/**
+ * <pre>
+ * 消息路由器的监控埋点接口，公众号、企业号、小程序的路由器共用
+ * 实现类可以将数据导出到Prometheus、JMX等监控系统
+ * 所有方法都在消息处理线程中同步调用，实现时应尽量轻量，不要阻塞
+ * 默认实现为 {@link WxMessageInMemoryRouterMetrics}
+ * </pre>
+ */
+public interface WxMessageRouterMetrics {
+
+  /**
+   * 消息被{@link WxMessageDuplicateChecker}判定为重复消息而丢弃
+   */
+  void onDuplicateDropped();
+
+  /**
+   * 消息匹配上了某个规则
+   *
+   * @param ruleName 规则名称
+   */
+  void onRuleMatched(String ruleName);
+
+  /**
+   * 消息被某个规则的拦截器拦截
+   *
+   * @param ruleName 规则名称
+   */
+  void onInterceptorRejected(String ruleName);
+
+  /**
+   * 某个规则的所有handler执行完毕（包括抛出异常的情况）
+   *
+   * @param ruleName     规则名称
+   * @param elapsedNanos handler执行耗时，单位纳秒
+   */
+  void onHandlerCompleted(String ruleName, long elapsedNanos);
+
+  /**
+   * 异步规则从提交到线程池到开始执行所等待的时间
+   *
+   * @param waitNanos 排队耗时，单位纳秒
+   */
+  void onAsyncQueueWait(long waitNanos);
+
+  /**
+   * 某个规则处理时产生的异常被交给了{@link WxErrorExceptionHandler}
+   *
+   * @param ruleName 规则名称
+   * @param e        异常
+   */
+  void onException(String ruleName, WxErrorException e);
+
+}
@@ -0,0 +1,23 @@
+package me.chanjar.weixin.common.api;
+
+/**
+ * <pre>
+ * 消息路由规则的公共信息，公众号、企业号、小程序的路由规则都实现了该接口，
+ * 供 {@link WxMessageRouterRules} 建立索引和命名使用
+ * </pre>
+ */
+public interface WxMessageRouterRuleInfo {
+
+  /**
+   * 规则名称，用于统计指标，没有指定时由 {@link WxMessageRouterRules} 分配
+   */
+  String getName();
+
+  void setName(String name);
+
+  /**
+   * 规则要求的msgType，没有要求时返回null
+   */
+  String getMsgType();
+
+}
@@ -0,0 +1,100 @@
+package me.chanjar.weixin.common.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <pre>
+ * 消息路由规则的不可变快照，公众号、企业号、小程序的路由器共用
+ *
+ * 规则集在构造时就按照msgType建好索引，路由时只需按消息的msgType取出候选规则，
+ * 候选规则保持原有的先后顺序，未指定msgType的规则会出现在每个候选列表中。
+ * 索引只是用来缩小范围，消息是否真正匹配仍然由规则自身判断。
+ *
+ * 规则集一旦创建就不会再改变，路由器通过 {@link WxMessageRouterRules} 替换整个规则集来更新规则，
+ * 所以读取规则时不需要加锁，也不会读到修改了一半的规则列表。
+ * </pre>
+ *
+ * @param <R> 规则类型
+ */
+public final class WxMessageRouterRuleSet<R extends WxMessageRouterRuleInfo> {
+
+  private final List<R> rules;
+
+  private final List<R> wildcardRules;
+
+  private final Map<String, List<R>> rulesByMsgType;
+
+  public WxMessageRouterRuleSet() {
+    this(new ArrayList<R>());
+  }
+
+  public WxMessageRouterRuleSet(List<R> rules) {
+    this.rules = Collections.unmodifiableList(new ArrayList<>(rules));
+
+    List<R> wildcards = new ArrayList<>();
+    List<String> msgTypes = new ArrayList<>();
+    for (R rule : this.rules) {
+      String msgType = normalize(rule.getMsgType());
+      if (msgType == null) {
+        wildcards.add(rule);
+      } else if (!msgTypes.contains(msgType)) {
+        msgTypes.add(msgType);
+      }
+    }
+    this.wildcardRules = Collections.unmodifiableList(wildcards);
+
+    Map<String, List<R>> index = new HashMap<>();
+    for (String msgType : msgTypes) {
+      List<R> candidates = new ArrayList<>();
+      for (R rule : this.rules) {
+        String ruleMsgType = normalize(rule.getMsgType());
+        if (ruleMsgType == null || ruleMsgType.equals(msgType)) {
+          candidates.add(rule);
+        }
+      }
+      index.put(msgType, Collections.unmodifiableList(candidates));
+    }
+    this.rulesByMsgType = index;
+  }
+
+  private static String normalize(String msgType) {
+    return msgType == null ? null : msgType.toLowerCase();
+  }
+
+  /**
+   * 返回在末尾追加了一个规则的新规则集，当前规则集不变
+   */
+  public WxMessageRouterRuleSet<R> append(R rule) {
+    List<R> newRules = new ArrayList<>(this.rules.size() + 1);
+    newRules.addAll(this.rules);
+    newRules.add(rule);
+    return new WxMessageRouterRuleSet<>(newRules);
+  }
+
+  /**
+   * 按消息的msgType取得候选规则，顺序和规则的添加顺序一致
+   */
+  public List<R> candidates(String msgType) {
+    if (msgType == null) {
+      return this.wildcardRules;
+    }
+    List<R> candidates = this.rulesByMsgType.get(normalize(msgType));
+    return candidates == null ? this.wildcardRules : candidates;
+  }
+
+  /**
+   * 全部规则（只读）
+   */
+  public List<R> getRules() {
+    return this.rules;
+  }
+
+  public int size() {
+    return this.rules.size();
+  }
+
+}
@@ -0,0 +1,66 @@
+package me.chanjar.weixin.common.api;
+
+import java.util.List;
+
+/**
+ * <pre>
+ * 路由器持有的规则，公众号、企业号、小程序的路由器共用
+ * 内部保存一个不可变的 {@link WxMessageRouterRuleSet}，追加或替换规则时写时复制，
+ * 路由时通过 {@link #getRuleSet()} 取得当前快照，不需要加锁。
+ *
+ * 没有指定名称的规则会被分配默认名称"rule-序号"（序号为规则在规则集中的位置），
+ * 即会调用规则的setName，传入的规则对象不要再用于其他用途。
+ * </pre>
+ *
+ * @param <R> 规则类型
+ */
+public final class WxMessageRouterRules<R extends WxMessageRouterRuleInfo> {
+
+  /**
+   * 当前生效的规则快照，只会被整体替换
+   */
+  private volatile WxMessageRouterRuleSet<R> ruleSet = new WxMessageRouterRuleSet<>();
+
+  /**
+   * 当前生效的规则快照
+   */
+  public WxMessageRouterRuleSet<R> getRuleSet() {
+    return this.ruleSet;
+  }
+
+  /**
+   * 当前生效的规则（只读）
+   */
+  public List<R> getRules() {
+    return this.ruleSet.getRules();
+  }
+
+  /**
+   * 在末尾追加一个规则，正在进行的路由不受影响
+   */
+  public synchronized void add(R rule) {
+    WxMessageRouterRuleSet<R> current = this.ruleSet;
+    assignName(rule, current.size());
+    this.ruleSet = current.append(rule);
+  }
+
+  /**
+   * 整体替换规则，新规则集在调用线程中构建好索引后再一次性替换，正在处理的消息仍使用旧规则
+   */
+  public void set(List<R> rules) {
+    for (int i = 0; i < rules.size(); i++) {
+      assignName(rules.get(i), i);
+    }
+    WxMessageRouterRuleSet<R> newRuleSet = new WxMessageRouterRuleSet<>(rules);
+    synchronized (this) {
+      this.ruleSet = newRuleSet;
+    }
+  }
+
+  private static void assignName(WxMessageRouterRuleInfo rule, int index) {
+    if (rule.getName() == null) {
+      rule.setName("rule-" + index);
+    }
+  }
+
+}
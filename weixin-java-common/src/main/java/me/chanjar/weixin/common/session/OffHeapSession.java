@@ -0,0 +1,191 @@
+package me.chanjar.weixin.common.session;
+
+import java.util.Enumeration;
+
+/**
+ * <pre>
+ * {@link OffHeapSessionManager} 中一个session的视图，本身不保存任何状态，所有操作都转到manager的堆外存储上
+ * 同一个id的session被删除后再创建时generation不同，旧的视图会变成无效
+ * {@link OffHeapSessionManager#createEmptySession()} 返回的视图还没有id，
+ * 在调用 {@link #setId(String)} 时才保存到堆外记录中，之前设置的创建时间和过期间隔会一起写入
+ * </pre>
+ */
+public class OffHeapSession implements WxSession, InternalSession {
+
+  final OffHeapSessionManager manager;
+
+  private String id;
+
+  long keyHigh;
+
+  long keyLow;
+
+  /**
+   * 0表示还没有保存到堆外记录中
+   */
+  long generation;
+
+  /**
+   * 还没有id时设置的创建时间，0表示没有设置
+   */
+  long pendingCreationTime;
+
+  /**
+   * 还没有id时设置的过期间隔，null表示没有设置
+   */
+  Integer pendingMaxInactiveInterval;
+
+  OffHeapSession(OffHeapSessionManager manager) {
+    this.manager = manager;
+  }
+
+  OffHeapSession(OffHeapSessionManager manager, String id, long keyHigh, long keyLow, long generation) {
+    this.manager = manager;
+    bind(id, keyHigh, keyLow, generation);
+  }
+
+  void bind(String id, long keyHigh, long keyLow, long generation) {
+    this.id = id;
+    this.keyHigh = keyHigh;
+    this.keyLow = keyLow;
+    this.generation = generation;
+  }
+
+  @Override
+  public Object getAttribute(String name) {
+    return this.manager.getAttribute(this, name);
+  }
+
+  @Override
+  public Enumeration<String> getAttributeNames() {
+    return this.manager.getAttributeNames(this);
+  }
+
+  @Override
+  public void setAttribute(String name, Object value) {
+    this.manager.setAttribute(this, name, value);
+  }
+
+  @Override
+  public void removeAttribute(String name) {
+    if (name == null) {
+      return;
+    }
+    this.manager.setAttribute(this, name, null);
+  }
+
+  @Override
+  public void invalidate() {
+    if (!this.manager.removeSession(this)) {
+      throw new IllegalStateException(StandardSession.sm.getString("sessionImpl.invalidate.ise"));
+    }
+  }
+
+  @Override
+  public WxSession getSession() {
+    return this;
+  }
+
+  @Override
+  public boolean isValid() {
+    return this.manager.isValid(this);
+  }
+
+  /**
+   * 堆外session只能由manager创建和删除
+   */
+  @Override
+  public void setValid(boolean isValid) {
+    if (!isValid) {
+      this.manager.removeSession(this);
+    }
+  }
+
+  @Override
+  public String getIdInternal() {
+    return this.id;
+  }
+
+  @Override
+  public void expire() {
+    this.manager.removeSession(this);
+  }
+
+  @Override
+  public void access() {
+    this.manager.access(this);
+  }
+
+  @Override
+  public void endAccess() {
+    this.manager.endAccess(this);
+  }
+
+  @Override
+  public void setCreationTime(long time) {
+    if (this.generation == 0) {
+      this.pendingCreationTime = time;
+      return;
+    }
+    this.manager.setCreationTime(this, time);
+  }
+
+  @Override
+  public void setMaxInactiveInterval(int interval) {
+    if (this.generation == 0) {
+      this.pendingMaxInactiveInterval = interval;
+      return;
+    }
+    this.manager.setMaxInactiveInterval(this, interval);
+  }
+
+  /**
+   * 最大空闲时间：秒
+   */
+  public int getMaxInactiveInterval() {
+    if (this.generation == 0) {
+      return this.pendingMaxInactiveInterval == null ? 0 : this.pendingMaxInactiveInterval;
+    }
+    long[] times = this.manager.readTimes(this);
+    return times == null ? 0 : (int) times[2];
+  }
+
+  /**
+   * 最后访问时间，不检查session是否有效
+   */
+  public long getThisAccessedTimeInternal() {
+    long[] times = this.manager.readTimes(this);
+    return times == null ? 0L : times[1];
+  }
+
+  /**
+   * 为还没有id的session设置id并保存到堆外记录中，已经有id的session不能修改id
+   */
+  @Override
+  public void setId(String id) {
+    if (this.generation != 0) {
+      throw new UnsupportedOperationException();
+    }
+    this.manager.store(this, id);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof OffHeapSession)) {
+      return false;
+    }
+
+    OffHeapSession session = (OffHeapSession) o;
+    return this.generation != 0 && this.generation == session.generation && this.manager == session.manager
+      && this.id.equals(session.id);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * (this.id == null ? 0 : this.id.hashCode()) + (int) (this.generation ^ (this.generation >>> 32));
+  }
+
+}
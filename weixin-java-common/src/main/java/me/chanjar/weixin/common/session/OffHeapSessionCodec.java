@@ -0,0 +1,218 @@
+package me.chanjar.weixin.common.session;
+
+import org.apache.commons.lang3.SerializationUtils;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <pre>
+ * session属性的紧凑二进制编码，用于 {@link OffHeapSessionManager}
+ *
+ * 全部属性编码为若干条记录：属性名长度(2字节) 属性名(UTF-8) 值长度(4字节) 值
+ * 值的第一个字节是类型：String、Integer、Long、Boolean、Double、byte[]直接编码，其他类型使用Java序列化
+ * 读取单个属性时只解析属性名，跳过其他属性的值
+ * </pre>
+ */
+final class OffHeapSessionCodec {
+
+  static final byte[] EMPTY = new byte[0];
+
+  private static final byte STRING = 1;
+  private static final byte INTEGER = 2;
+  private static final byte LONG = 3;
+  private static final byte BOOLEAN = 4;
+  private static final byte DOUBLE = 5;
+  private static final byte BYTES = 6;
+  private static final byte SERIALIZED = 7;
+
+  private OffHeapSessionCodec() {
+  }
+
+  /**
+   * 编码一个属性值
+   *
+   * @throws IllegalArgumentException 值不能被序列化
+   */
+  static byte[] encodeValue(Object value) {
+    if (value instanceof String) {
+      byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+      byte[] result = new byte[bytes.length + 1];
+      result[0] = STRING;
+      System.arraycopy(bytes, 0, result, 1, bytes.length);
+      return result;
+    }
+    if (value instanceof Integer) {
+      byte[] result = new byte[5];
+      result[0] = INTEGER;
+      putLong(result, 1, (Integer) value, 4);
+      return result;
+    }
+    if (value instanceof Long) {
+      byte[] result = new byte[9];
+      result[0] = LONG;
+      putLong(result, 1, (Long) value, 8);
+      return result;
+    }
+    if (value instanceof Boolean) {
+      return new byte[]{BOOLEAN, (byte) ((Boolean) value ? 1 : 0)};
+    }
+    if (value instanceof Double) {
+      byte[] result = new byte[9];
+      result[0] = DOUBLE;
+      putLong(result, 1, Double.doubleToRawLongBits((Double) value), 8);
+      return result;
+    }
+    if (value instanceof byte[]) {
+      byte[] bytes = (byte[]) value;
+      byte[] result = new byte[bytes.length + 1];
+      result[0] = BYTES;
+      System.arraycopy(bytes, 0, result, 1, bytes.length);
+      return result;
+    }
+    if (!(value instanceof Serializable)) {
+      throw new IllegalArgumentException("Session attribute must be serializable: " + value.getClass().getName());
+    }
+    byte[] bytes = SerializationUtils.serialize((Serializable) value);
+    byte[] result = new byte[bytes.length + 1];
+    result[0] = SERIALIZED;
+    System.arraycopy(bytes, 0, result, 1, bytes.length);
+    return result;
+  }
+
+  private static Object decodeValue(byte[] data, int offset, int length) {
+    byte type = data[offset];
+    switch (type) {
+      case STRING:
+        return new String(data, offset + 1, length - 1, StandardCharsets.UTF_8);
+      case INTEGER:
+        return (int) getLong(data, offset + 1, 4);
+      case LONG:
+        return getLong(data, offset + 1, 8);
+      case BOOLEAN:
+        return data[offset + 1] != 0;
+      case DOUBLE:
+        return Double.longBitsToDouble(getLong(data, offset + 1, 8));
+      case BYTES: {
+        byte[] bytes = new byte[length - 1];
+        System.arraycopy(data, offset + 1, bytes, 0, bytes.length);
+        return bytes;
+      }
+      case SERIALIZED: {
+        byte[] bytes = new byte[length - 1];
+        System.arraycopy(data, offset + 1, bytes, 0, bytes.length);
+        return SerializationUtils.deserialize(bytes);
+      }
+      default:
+        throw new IllegalStateException("Unknown session attribute type: " + type);
+    }
+  }
+
+  /**
+   * 查找一个属性，不存在返回null
+   */
+  static Object get(byte[] data, String name) {
+    byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+    int offset = find(data, nameBytes);
+    if (offset < 0) {
+      return null;
+    }
+    int valueOffset = offset + 2 + nameBytes.length;
+    return decodeValue(data, valueOffset + 4, (int) getLong(data, valueOffset, 4));
+  }
+
+  /**
+   * 全部属性名，不解码属性值
+   */
+  static List<String> names(byte[] data) {
+    List<String> names = new ArrayList<>();
+    int offset = 0;
+    while (offset < data.length) {
+      int nameLength = (int) getLong(data, offset, 2);
+      names.add(new String(data, offset + 2, nameLength, StandardCharsets.UTF_8));
+      int valueOffset = offset + 2 + nameLength;
+      offset = valueOffset + 4 + (int) getLong(data, valueOffset, 4);
+    }
+    return names;
+  }
+
+  /**
+   * 替换或删除一个属性，返回新的编码结果
+   *
+   * @param value {@link #encodeValue(Object)} 的结果，null表示删除
+   */
+  static byte[] put(byte[] data, String name, byte[] value) {
+    byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+    if (nameBytes.length > 0xFFFF) {
+      throw new IllegalArgumentException("Session attribute name is too long: " + name);
+    }
+    int offset = find(data, nameBytes);
+    int removedLength = 0;
+    if (offset >= 0) {
+      int valueOffset = offset + 2 + nameBytes.length;
+      removedLength = valueOffset + 4 + (int) getLong(data, valueOffset, 4) - offset;
+    } else if (value == null) {
+      return data;
+    }
+
+    int addedLength = value == null ? 0 : 2 + nameBytes.length + 4 + value.length;
+    byte[] result = new byte[data.length - removedLength + addedLength];
+    int kept = offset >= 0 ? offset : data.length;
+    System.arraycopy(data, 0, result, 0, kept);
+    if (offset >= 0) {
+      System.arraycopy(data, offset + removedLength, result, kept, data.length - offset - removedLength);
+    }
+    if (value != null) {
+      int position = data.length - removedLength;
+      putLong(result, position, nameBytes.length, 2);
+      System.arraycopy(nameBytes, 0, result, position + 2, nameBytes.length);
+      putLong(result, position + 2 + nameBytes.length, value.length, 4);
+      System.arraycopy(value, 0, result, position + 6 + nameBytes.length, value.length);
+    }
+    return result;
+  }
+
+  /**
+   * @return 属性记录的起始位置，不存在返回-1
+   */
+  private static int find(byte[] data, byte[] nameBytes) {
+    int offset = 0;
+    while (offset < data.length) {
+      int nameLength = (int) getLong(data, offset, 2);
+      int valueOffset = offset + 2 + nameLength;
+      if (nameLength == nameBytes.length && regionEquals(data, offset + 2, nameBytes)) {
+        return offset;
+      }
+      offset = valueOffset + 4 + (int) getLong(data, valueOffset, 4);
+    }
+    return -1;
+  }
+
+  private static boolean regionEquals(byte[] data, int offset, byte[] bytes) {
+    for (int i = 0; i < bytes.length; i++) {
+      if (data[offset + i] != bytes[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void putLong(byte[] data, int offset, long value, int length) {
+    for (int i = length - 1; i >= 0; i--) {
+      data[offset + i] = (byte) value;
+      value >>>= 8;
+    }
+  }
+
+  private static long getLong(byte[] data, int offset, int length) {
+    long value = 0;
+    for (int i = 0; i < length; i++) {
+      value = (value << 8) | (data[offset + i] & 0xFF);
+    }
+    // 4字节的值按有符号int还原
+    return length == 4 ? (int) value : value;
+  }
+
+}
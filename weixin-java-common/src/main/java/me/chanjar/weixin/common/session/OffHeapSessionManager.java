@@ -0,0 +1,418 @@
+package me.chanjar.weixin.common.session;
+
+import me.chanjar.weixin.common.api.WxMessageKeys;
+import me.chanjar.weixin.common.util.SharedScheduler;
+import me.chanjar.weixin.common.util.metrics.StripedCounter;
+import me.chanjar.weixin.common.util.res.StringManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <pre>
+ * session保存在堆外内存中的session manager，适用于粉丝数非常多的公众号
+ *
+ * {@link StandardSessionManager} 为每个session保存一个对象和一个ConcurrentHashMap，
+ * 几百万个session会在老年代里占用大量内存并拖长GC停顿。
+ * 这个manager把session的时间信息和紧凑编码后的属性保存在固定长度的堆外记录中，
+ * 用openid的128位哈希在一个只包含long数组的开放寻址索引里定位记录，记录中保存了openid，查找时会核对，
+ * 堆内只有索引数组和少量内存块引用，不随session个数产生对象。
+ * 过期时间也保存在索引里，清理过期session时顺序扫描索引数组。
+ *
+ * getSession返回的 {@link OffHeapSession} 只是一个视图，每次读取属性都会从堆外记录解码，
+ * 适合属性少而小（例如会话步骤、几个字符串）的场景；
+ * 属性超过一条记录的容量时，这个session的属性改为保存在堆内。
+ * 属性值必须是可序列化的。
+ * </pre>
+ */
+public class OffHeapSessionManager implements WxSessionManager, InternalSessionManager {
+
+  protected static final StringManager sm =
+    StringManager.getManager(Constants.Package);
+
+  private static final SharedScheduler.WeakTask<OffHeapSessionManager> BACKGROUND_TASK =
+    new SharedScheduler.WeakTask<OffHeapSessionManager>() {
+      @Override
+      public void run(OffHeapSessionManager manager) {
+        manager.backgroundProcess();
+      }
+    };
+
+  protected final Logger log = LoggerFactory.getLogger(OffHeapSessionManager.class);
+
+  private final OffHeapSessionTable table;
+
+  /**
+   * 每个新建的session的generation，用来区分同一个id先后创建的session
+   */
+  private final AtomicLong generations = new AtomicLong();
+
+  /**
+   * 后台清理任务是否已经开启
+   */
+  private final AtomicBoolean backgroundProcessStarted = new AtomicBoolean(false);
+
+  /**
+   * Number of session creations that failed due to maxActiveSessions.
+   */
+  protected final StripedCounter rejectedSessions = new StripedCounter();
+
+  // Number of sessions created by this manager
+  protected final StripedCounter sessionCounter = new StripedCounter();
+
+  /**
+   * The maximum number of active Sessions allowed, or -1 for no limit.
+   */
+  protected int maxActiveSessions = -1;
+
+  /**
+   * The default maximum inactive interval for Sessions created by
+   * this Manager.
+   */
+  protected int maxInactiveInterval = 30 * 60;
+
+  /**
+   * Processing time during session expiration.
+   */
+  protected long processingTime = 0;
+
+  /**
+   * Frequency of the session expiration, and related manager operations.
+   */
+  protected int processExpiresFrequency = 6;
+
+  /**
+   * background processor delay in seconds
+   */
+  protected int backgroundProcessorDelay = 10;
+
+  /**
+   * Iteration count for background processing.
+   */
+  private int count = 0;
+
+  /**
+   * 每条记录256字节，每次分配4096条记录（1MB）的堆外内存
+   */
+  public OffHeapSessionManager() {
+    this(256, 4096);
+  }
+
+  /**
+   * @param recordSize      每个session记录的字节数，包括40字节的头、id（每个字符2字节）和编码后的属性
+   * @param recordsPerChunk 每次分配的堆外内存块能容纳的记录个数
+   */
+  public OffHeapSessionManager(int recordSize, int recordsPerChunk) {
+    this.table = new OffHeapSessionTable(recordSize, recordsPerChunk);
+  }
+
+  private OffHeapSession view(String id, long keyHigh, long keyLow, long generation) {
+    return new OffHeapSession(this, id, keyHigh, keyLow, generation);
+  }
+
+  @Override
+  public WxSession getSession(String sessionId) {
+    return getSession(sessionId, true);
+  }
+
+  @Override
+  public WxSession getSession(String sessionId, boolean create) {
+    if (sessionId == null) {
+      throw new IllegalStateException
+        (sm.getString("sessionManagerImpl.getSession.ise"));
+    }
+
+    long keyHigh = WxMessageKeys.high(sessionId);
+    long keyLow = WxMessageKeys.low(sessionId);
+    long generation = this.table.access(keyHigh, keyLow, sessionId, System.currentTimeMillis());
+    if (generation != 0) {
+      return view(sessionId, keyHigh, keyLow, generation);
+    }
+
+    if (!create) {
+      return null;
+    }
+
+    OffHeapSession session = (OffHeapSession) createSession(sessionId);
+    session.access();
+    return session;
+  }
+
+  @Override
+  public InternalSession findSession(String id) {
+    if (id == null) {
+      return null;
+    }
+
+    long keyHigh = WxMessageKeys.high(id);
+    long keyLow = WxMessageKeys.low(id);
+    long generation = this.table.find(keyHigh, keyLow, id);
+    return generation == 0 ? null : view(id, keyHigh, keyLow, generation);
+  }
+
+  @Override
+  public InternalSession createSession(String sessionId) {
+    if (sessionId == null) {
+      throw new IllegalStateException
+        (sm.getString("sessionManagerImpl.createSession.ise"));
+    }
+
+    if ((this.maxActiveSessions >= 0) &&
+      (getActiveSessions() >= this.maxActiveSessions)) {
+      this.rejectedSessions.increment();
+      throw new TooManyActiveSessionsException(
+        sm.getString("sessionManagerImpl.createSession.tmase"),
+        this.maxActiveSessions);
+    }
+
+    OffHeapSession session = new OffHeapSession(this);
+    store(session, sessionId);
+    this.sessionCounter.increment();
+    return session;
+  }
+
+  /**
+   * 为session分配一条新的堆外记录，同id的session会被替换
+   */
+  void store(OffHeapSession session, String id) {
+    if (id == null) {
+      throw new IllegalStateException
+        (sm.getString("sessionManagerImpl.createSession.ise"));
+    }
+
+    // 当第一次有session创建的时候，开启session清理任务
+    if (!this.backgroundProcessStarted.getAndSet(true)) {
+      SharedScheduler.scheduleWeakly(SharedScheduler.get(), this, BACKGROUND_TASK,
+        this.backgroundProcessorDelay, TimeUnit.SECONDS);
+    }
+
+    long keyHigh = WxMessageKeys.high(id);
+    long keyLow = WxMessageKeys.low(id);
+    long generation = this.generations.incrementAndGet();
+    int interval = session.pendingMaxInactiveInterval == null ? this.maxInactiveInterval
+      : session.pendingMaxInactiveInterval;
+    this.table.create(keyHigh, keyLow, id, generation, System.currentTimeMillis(), interval);
+    if (session.pendingCreationTime != 0) {
+      this.table.setCreationTime(keyHigh, keyLow, generation, session.pendingCreationTime);
+    }
+    session.bind(id, keyHigh, keyLow, generation);
+  }
+
+  @Override
+  public void remove(InternalSession session) {
+    remove(session, false);
+  }
+
+  @Override
+  public void remove(InternalSession session, boolean update) {
+    if (session instanceof OffHeapSession) {
+      removeSession((OffHeapSession) session);
+    }
+  }
+
+  /**
+   * <pre>
+   * 本manager的session在设置id时就已经保存，不需要再加入；
+   * 其他实现的session会被复制到一条新的堆外记录中，复制id、属性和过期间隔，最后访问时间为当前时间，
+   * 之后对原session的修改不会反映到堆外记录，需要通过id重新获取session
+   * </pre>
+   */
+  @Override
+  public void add(InternalSession session) {
+    if (session instanceof OffHeapSession && ((OffHeapSession) session).manager == this) {
+      return;
+    }
+
+    OffHeapSession copy = new OffHeapSession(this);
+    if (session instanceof StandardSession) {
+      copy.pendingMaxInactiveInterval = ((StandardSession) session).getMaxInactiveInterval();
+    } else if (session instanceof OffHeapSession) {
+      copy.pendingMaxInactiveInterval = ((OffHeapSession) session).getMaxInactiveInterval();
+    }
+    store(copy, session.getIdInternal());
+
+    WxSession source = session.getSession();
+    Enumeration<String> names = source.getAttributeNames();
+    while (names.hasMoreElements()) {
+      String name = names.nextElement();
+      copy.setAttribute(name, source.getAttribute(name));
+    }
+  }
+
+  @Override
+  public int getActiveSessions() {
+    return this.table.size();
+  }
+
+  /**
+   * 被创建的session总数
+   */
+  public long getSessionCounter() {
+    return this.sessionCounter.sum();
+  }
+
+  /**
+   * 因为超过maxActiveSessions而创建失败的session总数
+   */
+  public long getRejectedSessions() {
+    return this.rejectedSessions.sum();
+  }
+
+  /**
+   * 清理过期session累计花费的时间：毫秒
+   */
+  public long getProcessingTime() {
+    return this.processingTime;
+  }
+
+  /**
+   * 已经分配的堆外内存：字节
+   */
+  public long getOffHeapBytes() {
+    return this.table.offHeapBytes();
+  }
+
+  /**
+   * 返回一个还没有id的session，调用 {@link InternalSession#setId(String)} 时才保存到堆外记录中
+   */
+  @Override
+  public InternalSession createEmptySession() {
+    return new OffHeapSession(this);
+  }
+
+  /**
+   * 为每个session创建一个视图，session很多时开销较大，只适合用于管理和调试
+   */
+  @Override
+  public InternalSession[] findSessions() {
+    final List<InternalSession> sessions = new ArrayList<>(getActiveSessions());
+    this.table.forEach(new OffHeapSessionTable.Visitor() {
+      @Override
+      public void visit(String id, long keyHigh, long keyLow, long generation) {
+        sessions.add(view(id, keyHigh, keyLow, generation));
+      }
+    });
+    return sessions.toArray(new InternalSession[0]);
+  }
+
+  @Override
+  public void backgroundProcess() {
+    this.count = (this.count + 1) % this.processExpiresFrequency;
+    if (this.count == 0)
+      processExpires();
+  }
+
+  /**
+   * Invalidate all sessions that have expired.
+   */
+  public void processExpires() {
+    long timeNow = System.currentTimeMillis();
+    int expired = this.table.expire(timeNow);
+    long timeEnd = System.currentTimeMillis();
+    if (this.log.isDebugEnabled())
+      this.log.debug("End expire sessions processingTime {} expired sessions: {} active sessions: {}",
+        timeEnd - timeNow, expired, getActiveSessions());
+    this.processingTime += (timeEnd - timeNow);
+  }
+
+  // -------------------------------------- OffHeapSession
+
+  boolean removeSession(OffHeapSession session) {
+    return this.table.remove(session.keyHigh, session.keyLow, session.generation);
+  }
+
+  boolean isValid(OffHeapSession session) {
+    return this.table.isValid(session.keyHigh, session.keyLow, session.generation, System.currentTimeMillis());
+  }
+
+  void access(OffHeapSession session) {
+    if (session.generation == 0) {
+      return;
+    }
+    this.table.access(session.keyHigh, session.keyLow, session.getIdInternal(), System.currentTimeMillis());
+  }
+
+  void endAccess(OffHeapSession session) {
+    this.table.endAccess(session.keyHigh, session.keyLow, session.generation, System.currentTimeMillis());
+  }
+
+  Object getAttribute(OffHeapSession session, String name) {
+    byte[] data = this.table.readData(session.keyHigh, session.keyLow, session.generation);
+    if (data == null) {
+      throw new IllegalStateException
+        (sm.getString("sessionImpl.getAttribute.ise"));
+    }
+    return name == null ? null : OffHeapSessionCodec.get(data, name);
+  }
+
+  Enumeration<String> getAttributeNames(OffHeapSession session) {
+    byte[] data = this.table.readData(session.keyHigh, session.keyLow, session.generation);
+    if (data == null) {
+      throw new IllegalStateException(sm.getString("sessionImpl.getAttributeNames.ise"));
+    }
+    return Collections.enumeration(OffHeapSessionCodec.names(data));
+  }
+
+  void setAttribute(OffHeapSession session, String name, Object value) {
+    // Name cannot be null
+    if (name == null) {
+      throw new IllegalArgumentException(sm.getString("sessionImpl.setAttribute.namenull"));
+    }
+
+    // Null value is the same as removeAttribute()
+    if (value == null) {
+      this.table.putAttribute(session.keyHigh, session.keyLow, session.generation, name, null);
+      return;
+    }
+
+    byte[] encoded = OffHeapSessionCodec.encodeValue(value);
+    if (!this.table.putAttribute(session.keyHigh, session.keyLow, session.generation, name, encoded)) {
+      throw new IllegalStateException(sm.getString("sessionImpl.setAttribute.ise", session.getIdInternal()));
+    }
+  }
+
+  void setCreationTime(OffHeapSession session, long time) {
+    this.table.setCreationTime(session.keyHigh, session.keyLow, session.generation, time);
+  }
+
+  void setMaxInactiveInterval(OffHeapSession session, int interval) {
+    this.table.setMaxInactiveInterval(session.keyHigh, session.keyLow, session.generation, interval);
+  }
+
+  long[] readTimes(OffHeapSession session) {
+    return this.table.readTimes(session.keyHigh, session.keyLow, session.generation);
+  }
+
+  // -------------------------------------- settings
+
+  @Override
+  public void setMaxInactiveInterval(int interval) {
+    this.maxInactiveInterval = interval;
+  }
+
+  @Override
+  public void setProcessExpiresFrequency(int processExpiresFrequency) {
+    if (processExpiresFrequency <= 0) {
+      return;
+    }
+    this.processExpiresFrequency = processExpiresFrequency;
+  }
+
+  @Override
+  public void setBackgroundProcessorDelay(int backgroundProcessorDelay) {
+    this.backgroundProcessorDelay = backgroundProcessorDelay;
+  }
+
+  @Override
+  public void setMaxActiveSessions(int max) {
+    this.maxActiveSessions = max;
+  }
+
+}
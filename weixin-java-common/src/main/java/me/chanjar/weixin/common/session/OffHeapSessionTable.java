@@ -0,0 +1,621 @@
+package me.chanjar.weixin.common.session;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <pre>
+ * {@link OffHeapSessionManager} 的存储：128位session key -> 堆外session记录
+ *
+ * 索引是开放寻址哈希表，所有数据保存在long数组中，每个槽位占4个long：key高64位、key低64位、过期时间、记录号+1（0表示空槽位）；
+ * 过期时间放在索引里，清理过期session时只需要顺序扫描索引数组。
+ * 记录中保存了session的id，按id查找时除了比较128位key，还会逐个字符比较id，
+ * key冲突时不会返回其他id的session，新建的session会替换掉冲突的旧session。
+ * session记录是固定长度的，保存在堆外的direct buffer中，释放的记录号放入空闲列表重复使用；
+ * 属性太多放不下时，这个session的id和属性保存在堆内的溢出表中。
+ * 表被分成若干段，每段独立加锁。
+ * </pre>
+ */
+class OffHeapSessionTable {
+
+  private static final int SEGMENT_BITS = 5;
+
+  private static final int SEGMENT_COUNT = 1 << SEGMENT_BITS;
+
+  // ---------------------------- 记录格式
+  private static final int GENERATION = 0;
+  private static final int CREATION_TIME = 8;
+  private static final int ACCESSED_TIME = 16;
+  private static final int MAX_INACTIVE_INTERVAL = 24;
+  private static final int ACCESS_COUNT = 28;
+  /**
+   * id的字符个数，-1表示id和属性都在溢出表中
+   */
+  private static final int ID_LENGTH = 32;
+  private static final int DATA_LENGTH = 36;
+  private static final int HEADER_SIZE = 40;
+
+  private final Segment[] segments = new Segment[SEGMENT_COUNT];
+
+  /**
+   * @param recordSize      每个session记录的字节数
+   * @param recordsPerChunk 每次分配的堆外内存块能容纳的记录个数
+   */
+  OffHeapSessionTable(int recordSize, int recordsPerChunk) {
+    if (recordSize < HEADER_SIZE) {
+      throw new IllegalArgumentException("recordSize must be at least " + HEADER_SIZE);
+    }
+    for (int i = 0; i < SEGMENT_COUNT; i++) {
+      this.segments[i] = new Segment(recordSize, recordsPerChunk);
+    }
+  }
+
+  private static long spread(long keyHigh, long keyLow) {
+    long h = keyHigh * 0x9E3779B97F4A7C15L ^ keyLow;
+    h ^= h >>> 32;
+    h *= 0xff51afd7ed558ccdL;
+    return h ^ (h >>> 29);
+  }
+
+  private Segment segmentFor(long keyHigh, long keyLow) {
+    return this.segments[(int) (spread(keyHigh, keyLow) >>> (64 - SEGMENT_BITS))];
+  }
+
+  private static long deadline(long accessedTime, int maxInactiveInterval) {
+    return maxInactiveInterval > 0 ? accessedTime + maxInactiveInterval * 1000L : Long.MAX_VALUE;
+  }
+
+  /**
+   * 新建一个session，已有的同key session会被替换
+   */
+  void create(long keyHigh, long keyLow, String id, long generation, long now, int maxInactiveInterval) {
+    segmentFor(keyHigh, keyLow).create(keyHigh, keyLow, id, generation, now, maxInactiveInterval);
+  }
+
+  /**
+   * 开始访问一个session
+   *
+   * @return session的generation，不存在或已经过期返回0
+   */
+  long access(long keyHigh, long keyLow, String id, long now) {
+    return segmentFor(keyHigh, keyLow).access(keyHigh, keyLow, id, now);
+  }
+
+  /**
+   * @return session的generation，不存在返回0
+   */
+  long find(long keyHigh, long keyLow, String id) {
+    return segmentFor(keyHigh, keyLow).find(keyHigh, keyLow, id);
+  }
+
+  /**
+   * session存在并且没有过期，已经过期的session会被删除
+   */
+  boolean isValid(long keyHigh, long keyLow, long generation, long now) {
+    return segmentFor(keyHigh, keyLow).isValid(keyHigh, keyLow, generation, now);
+  }
+
+  void endAccess(long keyHigh, long keyLow, long generation, long now) {
+    segmentFor(keyHigh, keyLow).endAccess(keyHigh, keyLow, generation, now);
+  }
+
+  boolean remove(long keyHigh, long keyLow, long generation) {
+    return segmentFor(keyHigh, keyLow).remove(keyHigh, keyLow, generation);
+  }
+
+  /**
+   * @return 编码后的属性，session不存在返回null
+   */
+  byte[] readData(long keyHigh, long keyLow, long generation) {
+    return segmentFor(keyHigh, keyLow).readData(keyHigh, keyLow, generation);
+  }
+
+  /**
+   * 替换或删除一个属性
+   *
+   * @param value {@link OffHeapSessionCodec#encodeValue(Object)} 的结果，null表示删除
+   * @return session是否存在
+   */
+  boolean putAttribute(long keyHigh, long keyLow, long generation, String name, byte[] value) {
+    return segmentFor(keyHigh, keyLow).putAttribute(keyHigh, keyLow, generation, name, value);
+  }
+
+  /**
+   * @return {creationTime, thisAccessedTime, maxInactiveInterval}，session不存在返回null
+   */
+  long[] readTimes(long keyHigh, long keyLow, long generation) {
+    return segmentFor(keyHigh, keyLow).readTimes(keyHigh, keyLow, generation);
+  }
+
+  void setCreationTime(long keyHigh, long keyLow, long generation, long time) {
+    segmentFor(keyHigh, keyLow).setCreationTime(keyHigh, keyLow, generation, time);
+  }
+
+  void setMaxInactiveInterval(long keyHigh, long keyLow, long generation, int interval) {
+    segmentFor(keyHigh, keyLow).setMaxInactiveInterval(keyHigh, keyLow, generation, interval);
+  }
+
+  /**
+   * 删除所有已经过期并且没有正在被访问的session
+   *
+   * @return 删除的个数
+   */
+  int expire(long now) {
+    int expired = 0;
+    for (Segment segment : this.segments) {
+      expired += segment.expire(now);
+    }
+    return expired;
+  }
+
+  void forEach(Visitor visitor) {
+    for (Segment segment : this.segments) {
+      segment.forEach(visitor);
+    }
+  }
+
+  int size() {
+    int size = 0;
+    for (Segment segment : this.segments) {
+      size += segment.size();
+    }
+    return size;
+  }
+
+  /**
+   * 已经分配的堆外内存：字节
+   */
+  long offHeapBytes() {
+    long bytes = 0;
+    for (Segment segment : this.segments) {
+      bytes += segment.offHeapBytes();
+    }
+    return bytes;
+  }
+
+  interface Visitor {
+    void visit(String id, long keyHigh, long keyLow, long generation);
+  }
+
+  /**
+   * 放不下的session的id和属性
+   */
+  private static class Overflow {
+    private final String id;
+    private byte[] data = OffHeapSessionCodec.EMPTY;
+
+    Overflow(String id) {
+      this.id = id;
+    }
+  }
+
+  private static class Segment {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int recordSize;
+
+    private final int recordsPerChunk;
+
+    private long[] table = new long[INITIAL_CAPACITY * 4];
+
+    private int mask = INITIAL_CAPACITY - 1;
+
+    private volatile int size;
+
+    private ByteBuffer[] chunks = new ByteBuffer[0];
+
+    /**
+     * 已经分配过的最大记录号+1
+     */
+    private int allocated;
+
+    private int[] freeRecords = new int[16];
+
+    private int freeCount;
+
+    private final Map<Integer, Overflow> overflows = new HashMap<>();
+
+    Segment(int recordSize, int recordsPerChunk) {
+      this.recordSize = recordSize;
+      this.recordsPerChunk = recordsPerChunk;
+    }
+
+    // ---------------------------- 索引
+
+    /**
+     * @return 槽位在table中的起始下标，不存在返回-1
+     */
+    private int slot(long keyHigh, long keyLow) {
+      long[] tab = this.table;
+      int i = (int) spread(keyHigh, keyLow) & this.mask;
+      while (true) {
+        int base = i * 4;
+        if (tab[base + 3] == 0) {
+          return -1;
+        }
+        if (tab[base] == keyHigh && tab[base + 1] == keyLow) {
+          return base;
+        }
+        i = (i + 1) & this.mask;
+      }
+    }
+
+    /**
+     * 槽位存在并且generation一致
+     */
+    private int slot(long keyHigh, long keyLow, long generation) {
+      int base = slot(keyHigh, keyLow);
+      if (base < 0 || buffer(record(base)).getLong(offset(record(base)) + GENERATION) != generation) {
+        return -1;
+      }
+      return base;
+    }
+
+    private int record(int base) {
+      return (int) this.table[base + 3] - 1;
+    }
+
+    private void insert(long keyHigh, long keyLow, long deadline, int record) {
+      long[] tab = this.table;
+      int i = (int) spread(keyHigh, keyLow) & this.mask;
+      while (tab[i * 4 + 3] != 0) {
+        i = (i + 1) & this.mask;
+      }
+      int base = i * 4;
+      tab[base] = keyHigh;
+      tab[base + 1] = keyLow;
+      tab[base + 2] = deadline;
+      tab[base + 3] = record + 1;
+      // 负载因子0.5
+      if (++this.size > (this.mask + 1) >>> 1) {
+        resize();
+      }
+    }
+
+    /**
+     * 删除槽位，后面同一探测链上的元素向前移动，不留下删除标记
+     */
+    private void removeSlot(int base) {
+      releaseRecord(record(base));
+      long[] tab = this.table;
+      int hole = base / 4;
+      int i = hole;
+      while (true) {
+        i = (i + 1) & this.mask;
+        int b = i * 4;
+        if (tab[b + 3] == 0) {
+          break;
+        }
+        int home = (int) spread(tab[b], tab[b + 1]) & this.mask;
+        // home不在(hole, i]之间时，元素可以移动到hole
+        if (hole <= i ? (home <= hole || home > i) : (home <= hole && home > i)) {
+          System.arraycopy(tab, b, tab, hole * 4, 4);
+          hole = i;
+        }
+      }
+      Arrays.fill(tab, hole * 4, hole * 4 + 4, 0L);
+      this.size--;
+    }
+
+    private void resize() {
+      long[] oldTable = this.table;
+      int newCapacity = (this.mask + 1) << 1;
+      long[] newTable = new long[newCapacity * 4];
+      int newMask = newCapacity - 1;
+      for (int base = 0; base < oldTable.length; base += 4) {
+        if (oldTable[base + 3] == 0) {
+          continue;
+        }
+        int i = (int) spread(oldTable[base], oldTable[base + 1]) & newMask;
+        while (newTable[i * 4 + 3] != 0) {
+          i = (i + 1) & newMask;
+        }
+        System.arraycopy(oldTable, base, newTable, i * 4, 4);
+      }
+      this.table = newTable;
+      this.mask = newMask;
+    }
+
+    // ---------------------------- 记录
+
+    private ByteBuffer buffer(int record) {
+      return this.chunks[record / this.recordsPerChunk];
+    }
+
+    private int offset(int record) {
+      return (record % this.recordsPerChunk) * this.recordSize;
+    }
+
+    private int allocateRecord() {
+      if (this.freeCount > 0) {
+        return this.freeRecords[--this.freeCount];
+      }
+      int record = this.allocated++;
+      int chunk = record / this.recordsPerChunk;
+      if (chunk == this.chunks.length) {
+        this.chunks = Arrays.copyOf(this.chunks, chunk + 1);
+        this.chunks[chunk] = ByteBuffer.allocateDirect(this.recordsPerChunk * this.recordSize);
+      }
+      return record;
+    }
+
+    private void releaseRecord(int record) {
+      this.overflows.remove(record);
+      if (this.freeCount == this.freeRecords.length) {
+        this.freeRecords = Arrays.copyOf(this.freeRecords, this.freeCount << 1);
+      }
+      this.freeRecords[this.freeCount++] = record;
+    }
+
+    private String readId(int record) {
+      ByteBuffer buffer = buffer(record);
+      int offset = offset(record);
+      int length = buffer.getInt(offset + ID_LENGTH);
+      if (length < 0) {
+        return this.overflows.get(record).id;
+      }
+      char[] chars = new char[length];
+      for (int i = 0; i < length; i++) {
+        chars[i] = buffer.getChar(offset + HEADER_SIZE + i * 2);
+      }
+      return new String(chars);
+    }
+
+    /**
+     * 记录中的id是否与给定的id相同，不创建临时对象
+     */
+    private boolean idEquals(int record, String id) {
+      ByteBuffer buffer = buffer(record);
+      int offset = offset(record);
+      int length = buffer.getInt(offset + ID_LENGTH);
+      if (length < 0) {
+        return this.overflows.get(record).id.equals(id);
+      }
+      if (length != id.length()) {
+        return false;
+      }
+      for (int i = 0; i < length; i++) {
+        if (buffer.getChar(offset + HEADER_SIZE + i * 2) != id.charAt(i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private byte[] readData(int record) {
+      ByteBuffer buffer = buffer(record);
+      int offset = offset(record);
+      int idLength = buffer.getInt(offset + ID_LENGTH);
+      if (idLength < 0) {
+        return this.overflows.get(record).data;
+      }
+      int length = buffer.getInt(offset + DATA_LENGTH);
+      byte[] data = new byte[length];
+      int dataOffset = offset + HEADER_SIZE + idLength * 2;
+      for (int i = 0; i < length; i++) {
+        data[i] = buffer.get(dataOffset + i);
+      }
+      return data;
+    }
+
+    /**
+     * 写入属性，记录放不下时把id和属性移到溢出表，溢出的记录不再移回
+     */
+    private void writeData(int record, byte[] data) {
+      ByteBuffer buffer = buffer(record);
+      int offset = offset(record);
+      int idLength = buffer.getInt(offset + ID_LENGTH);
+      if (idLength < 0) {
+        this.overflows.get(record).data = data;
+        return;
+      }
+      if (HEADER_SIZE + idLength * 2 + data.length > this.recordSize) {
+        Overflow overflow = new Overflow(readId(record));
+        overflow.data = data;
+        this.overflows.put(record, overflow);
+        buffer.putInt(offset + ID_LENGTH, -1);
+        return;
+      }
+      buffer.putInt(offset + DATA_LENGTH, data.length);
+      int dataOffset = offset + HEADER_SIZE + idLength * 2;
+      for (int i = 0; i < data.length; i++) {
+        buffer.put(dataOffset + i, data[i]);
+      }
+    }
+
+    // ---------------------------- 操作
+
+    synchronized void create(long keyHigh, long keyLow, String id, long generation, long now, int maxInactiveInterval) {
+      int existing = slot(keyHigh, keyLow);
+      if (existing >= 0) {
+        removeSlot(existing);
+      }
+
+      int record = allocateRecord();
+      ByteBuffer buffer = buffer(record);
+      int offset = offset(record);
+      buffer.putLong(offset + GENERATION, generation);
+      buffer.putLong(offset + CREATION_TIME, now);
+      buffer.putLong(offset + ACCESSED_TIME, now);
+      buffer.putInt(offset + MAX_INACTIVE_INTERVAL, maxInactiveInterval);
+      buffer.putInt(offset + ACCESS_COUNT, 0);
+      buffer.putInt(offset + DATA_LENGTH, 0);
+      if (HEADER_SIZE + id.length() * 2 > this.recordSize) {
+        buffer.putInt(offset + ID_LENGTH, -1);
+        this.overflows.put(record, new Overflow(id));
+      } else {
+        buffer.putInt(offset + ID_LENGTH, id.length());
+        for (int i = 0; i < id.length(); i++) {
+          buffer.putChar(offset + HEADER_SIZE + i * 2, id.charAt(i));
+        }
+      }
+      insert(keyHigh, keyLow, deadline(now, maxInactiveInterval), record);
+    }
+
+    synchronized long access(long keyHigh, long keyLow, String id, long now) {
+      int base = slot(keyHigh, keyLow);
+      if (base < 0) {
+        return 0;
+      }
+      int record = record(base);
+      if (!idEquals(record, id)) {
+        return 0;
+      }
+      ByteBuffer buffer = buffer(record);
+      int offset = offset(record);
+      int accessCount = buffer.getInt(offset + ACCESS_COUNT);
+      if (accessCount <= 0 && this.table[base + 2] <= now) {
+        removeSlot(base);
+        return 0;
+      }
+      buffer.putLong(offset + ACCESSED_TIME, now);
+      buffer.putInt(offset + ACCESS_COUNT, accessCount + 1);
+      this.table[base + 2] = deadline(now, buffer.getInt(offset + MAX_INACTIVE_INTERVAL));
+      return buffer.getLong(offset + GENERATION);
+    }
+
+    synchronized long find(long keyHigh, long keyLow, String id) {
+      int base = slot(keyHigh, keyLow);
+      if (base < 0) {
+        return 0;
+      }
+      int record = record(base);
+      if (!idEquals(record, id)) {
+        return 0;
+      }
+      return buffer(record).getLong(offset(record) + GENERATION);
+    }
+
+    synchronized boolean isValid(long keyHigh, long keyLow, long generation, long now) {
+      int base = slot(keyHigh, keyLow, generation);
+      if (base < 0) {
+        return false;
+      }
+      int record = record(base);
+      if (buffer(record).getInt(offset(record) + ACCESS_COUNT) <= 0 && this.table[base + 2] <= now) {
+        removeSlot(base);
+        return false;
+      }
+      return true;
+    }
+
+    synchronized void endAccess(long keyHigh, long keyLow, long generation, long now) {
+      int base = slot(keyHigh, keyLow, generation);
+      if (base < 0) {
+        return;
+      }
+      int record = record(base);
+      ByteBuffer buffer = buffer(record);
+      int offset = offset(record);
+      buffer.putLong(offset + ACCESSED_TIME, now);
+      buffer.putInt(offset + ACCESS_COUNT, buffer.getInt(offset + ACCESS_COUNT) - 1);
+      this.table[base + 2] = deadline(now, buffer.getInt(offset + MAX_INACTIVE_INTERVAL));
+    }
+
+    synchronized boolean remove(long keyHigh, long keyLow, long generation) {
+      int base = slot(keyHigh, keyLow, generation);
+      if (base < 0) {
+        return false;
+      }
+      removeSlot(base);
+      return true;
+    }
+
+    synchronized byte[] readData(long keyHigh, long keyLow, long generation) {
+      int base = slot(keyHigh, keyLow, generation);
+      return base < 0 ? null : readData(record(base));
+    }
+
+    synchronized boolean putAttribute(long keyHigh, long keyLow, long generation, String name, byte[] value) {
+      int base = slot(keyHigh, keyLow, generation);
+      if (base < 0) {
+        return false;
+      }
+      int record = record(base);
+      byte[] data = readData(record);
+      byte[] updated = OffHeapSessionCodec.put(data, name, value);
+      if (updated != data) {
+        writeData(record, updated);
+      }
+      return true;
+    }
+
+    synchronized long[] readTimes(long keyHigh, long keyLow, long generation) {
+      int base = slot(keyHigh, keyLow, generation);
+      if (base < 0) {
+        return null;
+      }
+      int record = record(base);
+      ByteBuffer buffer = buffer(record);
+      int offset = offset(record);
+      return new long[]{buffer.getLong(offset + CREATION_TIME), buffer.getLong(offset + ACCESSED_TIME),
+        buffer.getInt(offset + MAX_INACTIVE_INTERVAL)};
+    }
+
+    synchronized void setCreationTime(long keyHigh, long keyLow, long generation, long time) {
+      int base = slot(keyHigh, keyLow, generation);
+      if (base < 0) {
+        return;
+      }
+      int record = record(base);
+      ByteBuffer buffer = buffer(record);
+      int offset = offset(record);
+      buffer.putLong(offset + CREATION_TIME, time);
+      buffer.putLong(offset + ACCESSED_TIME, time);
+      this.table[base + 2] = deadline(time, buffer.getInt(offset + MAX_INACTIVE_INTERVAL));
+    }
+
+    synchronized void setMaxInactiveInterval(long keyHigh, long keyLow, long generation, int interval) {
+      int base = slot(keyHigh, keyLow, generation);
+      if (base < 0) {
+        return;
+      }
+      int record = record(base);
+      ByteBuffer buffer = buffer(record);
+      int offset = offset(record);
+      buffer.putInt(offset + MAX_INACTIVE_INTERVAL, interval);
+      this.table[base + 2] = deadline(buffer.getLong(offset + ACCESSED_TIME), interval);
+    }
+
+    synchronized int expire(long now) {
+      int expired = 0;
+      long[] tab = this.table;
+      int base = 0;
+      while (base < tab.length) {
+        if (tab[base + 3] != 0 && tab[base + 2] <= now) {
+          int record = record(base);
+          if (buffer(record).getInt(offset(record) + ACCESS_COUNT) <= 0) {
+            removeSlot(base);
+            expired++;
+            // 后面的元素可能移动到了这个槽位，需要重新检查
+            continue;
+          }
+        }
+        base += 4;
+      }
+      return expired;
+    }
+
+    synchronized void forEach(Visitor visitor) {
+      long[] tab = this.table;
+      for (int base = 0; base < tab.length; base += 4) {
+        if (tab[base + 3] == 0) {
+          continue;
+        }
+        int record = record(base);
+        visitor.visit(readId(record), tab[base], tab[base + 1], buffer(record).getLong(offset(record) + GENERATION));
+      }
+    }
+
+    int size() {
+      return this.size;
+    }
+
+    synchronized long offHeapBytes() {
+      return (long) this.chunks.length * this.recordsPerChunk * this.recordSize;
+    }
+  }
+
+}
@@ -0,0 +1,188 @@
+package me.chanjar.weixin.common.session;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <pre>
+ * 保存在Redis中的session在本节点上的副本，由 {@link RedisSessionManager} 管理
+ * 属性在第一次被读取时才从Redis加载，修改属性和访问时间先记录在本地，由manager批量写回Redis
+ * 属性值必须实现 {@link Serializable}
+ * </pre>
+ */
+public class RedisSession extends StandardSession {
+
+  /**
+   * 待写回的属性里表示属性已被删除的标记
+   */
+  static final Object REMOVED = new Object();
+
+  /**
+   * 待写回Redis的属性，值为 {@link #REMOVED} 表示需要删除
+   */
+  final ConcurrentMap<String, Object> pendingAttributes = new ConcurrentHashMap<>();
+
+  /**
+   * 已确认在Redis中不存在的属性，避免重复查询
+   */
+  private final Set<String> missingAttributes = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  /**
+   * 是否已经在manager的待写回队列中
+   */
+  final AtomicBoolean queued = new AtomicBoolean(false);
+
+  /**
+   * 是否已经从Redis加载了全部属性
+   */
+  private volatile boolean allAttributesLoaded = false;
+
+  /**
+   * 本节点最后一次写回或加载时Redis中的版本号，0表示还没有写回过
+   */
+  volatile long version = 0L;
+
+  public RedisSession(RedisSessionManager manager) {
+    super(manager);
+  }
+
+  private RedisSessionManager redisManager() {
+    return (RedisSessionManager) this.manager;
+  }
+
+  @Override
+  public Object getAttribute(String name) {
+    Object value = super.getAttribute(name);
+    if (value != null || name == null || this.allAttributesLoaded
+      || this.missingAttributes.contains(name) || this.pendingAttributes.get(name) == REMOVED) {
+      return value;
+    }
+
+    value = redisManager().loadAttribute(this.id, name);
+    if (value == null) {
+      this.missingAttributes.add(name);
+      return null;
+    }
+
+    // 加载期间本地可能已经设置或删除了该属性，以本地为准
+    if (this.pendingAttributes.containsKey(name)) {
+      return this.attributes.get(name);
+    }
+    Object existing = ((ConcurrentHashMap<String, Object>) this.attributes).putIfAbsent(name, value);
+    return existing != null ? existing : value;
+  }
+
+  @Override
+  public Enumeration<String> getAttributeNames() {
+    if (isValidInternal() && !this.allAttributesLoaded) {
+      Map<String, Object> remote = redisManager().loadAttributes(this.id);
+      if (remote != null) {
+        for (Map.Entry<String, Object> entry : remote.entrySet()) {
+          if (!this.pendingAttributes.containsKey(entry.getKey())) {
+            ((ConcurrentHashMap<String, Object>) this.attributes).putIfAbsent(entry.getKey(), entry.getValue());
+          }
+        }
+        this.allAttributesLoaded = true;
+      }
+    }
+    return super.getAttributeNames();
+  }
+
+  @Override
+  public void setAttribute(String name, Object value) {
+    if (name != null && value == null) {
+      removeAttribute(name);
+      return;
+    }
+    if (value != null && !(value instanceof Serializable)) {
+      throw new IllegalArgumentException("Session attribute must be serializable: " + name);
+    }
+
+    super.setAttribute(name, value);
+    this.missingAttributes.remove(name);
+    this.pendingAttributes.put(name, value);
+    redisManager().markDirty(this);
+  }
+
+  @Override
+  public void removeAttribute(String name) {
+    if (name == null) {
+      return;
+    }
+
+    removeAttributeInternal(name);
+    this.missingAttributes.add(name);
+    this.pendingAttributes.put(name, REMOVED);
+    redisManager().markDirty(this);
+  }
+
+  @Override
+  public void invalidate() {
+    if (!isValidInternal()) {
+      throw new IllegalStateException(sm.getString("sessionImpl.invalidate.ise"));
+    }
+
+    this.pendingAttributes.clear();
+    redisManager().removeRemote(this.id);
+    super.invalidate();
+  }
+
+  @Override
+  public void access() {
+    super.access();
+    redisManager().markDirty(this);
+  }
+
+  @Override
+  public void endAccess() {
+    super.endAccess();
+    redisManager().markDirty(this);
+  }
+
+  @Override
+  public void setMaxInactiveInterval(int interval) {
+    super.setMaxInactiveInterval(interval);
+    if (this.id != null) {
+      redisManager().markDirty(this);
+    }
+  }
+
+  /**
+   * 用Redis中保存的元数据初始化从其他节点加载的session
+   */
+  void restore(long creationTime, long lastAccessedTime, int maxInactiveInterval, long version) {
+    this.isValid = true;
+    this.version = version;
+    this.creationTime = creationTime;
+    this.thisAccessedTime = lastAccessedTime;
+    this.maxInactiveInterval = maxInactiveInterval;
+  }
+
+  /**
+   * 其他节点修改了这个session，丢弃本地缓存的属性，尚未写回的修改保留，之后按需重新从Redis加载
+   */
+  void refresh() {
+    for (String key : keys()) {
+      if (!this.pendingAttributes.containsKey(key)) {
+        this.attributes.remove(key);
+      }
+    }
+    this.missingAttributes.clear();
+    this.allAttributesLoaded = false;
+  }
+
+  /**
+   * 其他节点删除了这个session或者它在Redis中过期了，只在本地失效，不再写回
+   */
+  void expireLocally() {
+    this.pendingAttributes.clear();
+    expire();
+  }
+
+}
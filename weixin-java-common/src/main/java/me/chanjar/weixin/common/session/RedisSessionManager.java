@@ -0,0 +1,525 @@
+package me.chanjar.weixin.common.session;
+
+import org.apache.commons.lang3.SerializationUtils;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <pre>
+ * 基于Redis的session manager，适用于多个节点共同处理回调消息的场景，
+ * 负载均衡把同一个用户的消息分到不同节点时，session中的状态仍然保持一致
+ *
+ * 每个session在Redis中是一个hash，保存创建时间、最后访问时间、过期间隔以及序列化后的属性，
+ * key的过期时间就是session的过期间隔，每次写回访问时间时顺延。
+ * 本节点访问过的session缓存在本地（near cache），属性在第一次读取时才从Redis加载；
+ * setAttribute和access()只修改本地副本，由后台线程每隔flushInterval毫秒用一个pipeline批量写回。
+ *
+ * 其他节点修改或删除session时，通过Redis的keyspace notification让本地缓存失效，
+ * Redis需要开启 notify-keyspace-events Kghx（或KA）。
+ * 每次写回都会递增hash中的版本号，本节点记录自己写回或加载时得到的版本号，
+ * 收到通知时读取Redis中的版本号，不比本地记录的新就是本节点自己写回产生的通知，不会让自己的缓存失效；
+ * 写回时如果发现版本号跳过了（期间有其他节点写过），也会丢弃本地缓存的属性。
+ * 与Redis的订阅连接断开期间可能错过通知，重新订阅成功后会清空本地缓存。
+ * 不再使用时需要调用 {@link #shutdown()} 停止后台线程。
+ * </pre>
+ */
+public class RedisSessionManager extends StandardSessionManager {
+
+  private static final String DEFAULT_KEY_PREFIX = "wechat_session_";
+
+  private static final byte[] CREATION_TIME = bytes("#creationTime");
+
+  private static final byte[] LAST_ACCESSED_TIME = bytes("#lastAccessedTime");
+
+  private static final byte[] MAX_INACTIVE_INTERVAL = bytes("#maxInactiveInterval");
+
+  private static final byte[] VERSION = bytes("#version");
+
+  /**
+   * 属性在hash中的field前缀，与元数据的field区分开
+   */
+  private static final String ATTRIBUTE_PREFIX = "@";
+
+  /**
+   * 被删除的属性在Redis中保存为空值，写回时不需要单独的HDEL
+   */
+  private static final byte[] TOMBSTONE = new byte[0];
+
+  private static final AtomicInteger THREAD_NUMBER = new AtomicInteger(1);
+
+  private final JedisPool jedisPool;
+
+  private final String keyPrefix;
+
+  /**
+   * 等待写回Redis的session
+   */
+  private final Queue<RedisSession> dirtySessions = new ConcurrentLinkedQueue<>();
+
+  private final AtomicBoolean started = new AtomicBoolean(false);
+
+  private volatile boolean running = true;
+
+  private volatile ScheduledExecutorService executor;
+
+  private volatile JedisPubSub subscriber;
+
+  /**
+   * 写回间隔：毫秒
+   */
+  private long flushInterval = 100L;
+
+  /**
+   * 一个pipeline最多写回的session个数
+   */
+  private int flushBatchSize = 500;
+
+  /**
+   * 订阅连接断开后重连的等待时间：毫秒
+   */
+  private long reconnectDelay = 1000L;
+
+  public RedisSessionManager(JedisPool jedisPool) {
+    this(jedisPool, DEFAULT_KEY_PREFIX);
+  }
+
+  /**
+   * @param jedisPool Redis连接池
+   * @param keyPrefix session在Redis中的key前缀，不同的公众号/应用应当使用不同的前缀
+   */
+  public RedisSessionManager(JedisPool jedisPool, String keyPrefix) {
+    this.jedisPool = jedisPool;
+    this.keyPrefix = keyPrefix;
+  }
+
+  private static byte[] bytes(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private byte[] key(String sessionId) {
+    return bytes(this.keyPrefix.concat(sessionId));
+  }
+
+  private static byte[] attributeField(String name) {
+    return bytes(ATTRIBUTE_PREFIX.concat(name));
+  }
+
+  @Override
+  protected InternalSession getNewSession() {
+    return new RedisSession(this);
+  }
+
+  /**
+   * 先查本地缓存，本地没有或者已经在本地过期时从Redis加载，session可能在其他节点上被访问过
+   */
+  @Override
+  public InternalSession findSession(String id) {
+    InternalSession session = super.findSession(id);
+    if (session != null && session.isValid()) {
+      return session;
+    }
+    return id == null ? null : loadSession(id);
+  }
+
+  @Override
+  public InternalSession createSession(String sessionId) {
+    InternalSession session = super.createSession(sessionId);
+    markDirty((RedisSession) session);
+    return session;
+  }
+
+  @Override
+  public void add(InternalSession session) {
+    if (!this.started.getAndSet(true)) {
+      start();
+    }
+    super.add(session);
+  }
+
+  /**
+   * 从Redis加载session的元数据，属性在读取时才加载，Redis中不存在或已经过期返回null
+   */
+  protected RedisSession loadSession(String id) {
+    List<byte[]> meta;
+    try (Jedis jedis = this.jedisPool.getResource()) {
+      meta = jedis.hmget(key(id), CREATION_TIME, LAST_ACCESSED_TIME, MAX_INACTIVE_INTERVAL, VERSION);
+    } catch (RuntimeException e) {
+      this.log.error("Error happened when loading session from redis, id={}", id, e);
+      return null;
+    }
+    if (meta == null || meta.size() < 4 || meta.get(0) == null || meta.get(1) == null || meta.get(2) == null) {
+      return null;
+    }
+
+    long creationTime = Long.parseLong(new String(meta.get(0), StandardCharsets.UTF_8));
+    long lastAccessedTime = Long.parseLong(new String(meta.get(1), StandardCharsets.UTF_8));
+    int maxInactiveInterval = Integer.parseInt(new String(meta.get(2), StandardCharsets.UTF_8));
+    long version = meta.get(3) == null ? 0L : Long.parseLong(new String(meta.get(3), StandardCharsets.UTF_8));
+    if (maxInactiveInterval > 0 && lastAccessedTime + maxInactiveInterval * 1000L <= System.currentTimeMillis()) {
+      return null;
+    }
+
+    RedisSession session = new RedisSession(this);
+    session.restore(creationTime, lastAccessedTime, maxInactiveInterval, version);
+    session.setId(id);
+    return session;
+  }
+
+  /**
+   * 从Redis加载一个属性，不存在返回null
+   */
+  Object loadAttribute(String id, String name) {
+    byte[] value;
+    try (Jedis jedis = this.jedisPool.getResource()) {
+      value = jedis.hget(key(id), attributeField(name));
+    } catch (RuntimeException e) {
+      this.log.error("Error happened when loading session attribute from redis, id={}, name={}", id, name, e);
+      return null;
+    }
+    return deserialize(id, name, value);
+  }
+
+  /**
+   * 从Redis加载全部属性，出错返回null
+   */
+  Map<String, Object> loadAttributes(String id) {
+    Map<byte[], byte[]> hash;
+    try (Jedis jedis = this.jedisPool.getResource()) {
+      hash = jedis.hgetAll(key(id));
+    } catch (RuntimeException e) {
+      this.log.error("Error happened when loading session attributes from redis, id={}", id, e);
+      return null;
+    }
+
+    Map<String, Object> attributes = new HashMap<>();
+    for (Map.Entry<byte[], byte[]> entry : hash.entrySet()) {
+      String field = new String(entry.getKey(), StandardCharsets.UTF_8);
+      if (!field.startsWith(ATTRIBUTE_PREFIX)) {
+        continue;
+      }
+      String name = field.substring(ATTRIBUTE_PREFIX.length());
+      Object value = deserialize(id, name, entry.getValue());
+      if (value != null) {
+        attributes.put(name, value);
+      }
+    }
+    return attributes;
+  }
+
+  private Object deserialize(String id, String name, byte[] value) {
+    if (value == null || value.length == 0) {
+      return null;
+    }
+    try {
+      return SerializationUtils.deserialize(value);
+    } catch (RuntimeException e) {
+      this.log.error("Error happened when deserializing session attribute, id={}, name={}", id, name, e);
+      return null;
+    }
+  }
+
+  /**
+   * 从Redis中删除session
+   */
+  void removeRemote(String id) {
+    try (Jedis jedis = this.jedisPool.getResource()) {
+      jedis.del(key(id));
+    } catch (RuntimeException e) {
+      this.log.error("Error happened when removing session from redis, id={}", id, e);
+    }
+  }
+
+  /**
+   * session有修改，加入待写回队列
+   */
+  void markDirty(RedisSession session) {
+    if (session.queued.compareAndSet(false, true)) {
+      this.dirtySessions.offer(session);
+    }
+  }
+
+  /**
+   * 把待写回的session批量写回Redis，每个session的修改在一个MULTI/EXEC中写入、递增版本号并顺延过期时间
+   */
+  public void flush() {
+    List<SessionWrite> batch = new ArrayList<>();
+    RedisSession session;
+    while ((session = this.dirtySessions.poll()) != null) {
+      // 先清除标记再收集修改，收集期间的新修改会让session重新入队
+      session.queued.set(false);
+      if (!session.isValidInternal() || session.getIdInternal() == null) {
+        continue;
+      }
+      batch.add(collect(session));
+      if (batch.size() >= this.flushBatchSize) {
+        write(batch);
+        batch.clear();
+      }
+    }
+    if (!batch.isEmpty()) {
+      write(batch);
+    }
+  }
+
+  private SessionWrite collect(RedisSession session) {
+    SessionWrite write = new SessionWrite(session);
+    for (Map.Entry<String, Object> entry : session.pendingAttributes.entrySet()) {
+      String name = entry.getKey();
+      Object value = entry.getValue();
+      write.drained.put(name, value);
+      if (value == RedisSession.REMOVED) {
+        write.hash.put(attributeField(name), TOMBSTONE);
+        continue;
+      }
+      try {
+        write.hash.put(attributeField(name), SerializationUtils.serialize((Serializable) value));
+      } catch (RuntimeException e) {
+        this.log.error("Error happened when serializing session attribute, id={}, name={}",
+          session.getIdInternal(), name, e);
+      }
+    }
+    for (Map.Entry<String, Object> entry : write.drained.entrySet()) {
+      session.pendingAttributes.remove(entry.getKey(), entry.getValue());
+    }
+
+    write.maxInactiveInterval = session.getMaxInactiveInterval();
+    write.hash.put(CREATION_TIME, bytes(String.valueOf(session.creationTime)));
+    write.hash.put(LAST_ACCESSED_TIME, bytes(String.valueOf(session.getThisAccessedTimeInternal())));
+    write.hash.put(MAX_INACTIVE_INTERVAL, bytes(String.valueOf(write.maxInactiveInterval)));
+    return write;
+  }
+
+  private void write(List<SessionWrite> batch) {
+    try (Jedis jedis = this.jedisPool.getResource()) {
+      Pipeline pipeline = jedis.pipelined();
+      List<Response<Long>> versions = new ArrayList<>(batch.size());
+      for (SessionWrite write : batch) {
+        byte[] key = key(write.session.getIdInternal());
+        pipeline.multi();
+        pipeline.hmset(key, write.hash);
+        versions.add(pipeline.hincrBy(key, VERSION, 1L));
+        if (write.maxInactiveInterval > 0) {
+          pipeline.pexpire(key, write.maxInactiveInterval * 1000L);
+        }
+        pipeline.exec();
+      }
+      pipeline.sync();
+      for (int i = 0; i < batch.size(); i++) {
+        updateVersion(batch.get(i).session, versions.get(i).get());
+      }
+    } catch (RuntimeException e) {
+      this.log.error("Error happened when writing {} sessions to redis", batch.size(), e);
+      // 放回未写成功的修改，本地更新的值优先，下次再试
+      for (SessionWrite write : batch) {
+        for (Map.Entry<String, Object> entry : write.drained.entrySet()) {
+          write.session.pendingAttributes.putIfAbsent(entry.getKey(), entry.getValue());
+        }
+        markDirty(write.session);
+      }
+    }
+  }
+
+  /**
+   * 记录本节点写回后的版本号，版本号不是紧接着上一次的说明期间有其他节点写过，本地缓存的属性不再可信
+   */
+  private void updateVersion(RedisSession session, long version) {
+    long previous = session.version;
+    session.version = version;
+    if (version != previous + 1) {
+      session.refresh();
+    }
+  }
+
+  /**
+   * 处理keyspace通知，channel为 __keyspace@db__:key
+   * 只处理本地缓存了的session：Redis中的key已经不存在时让本地session失效，
+   * 版本号比本地记录的新时说明是其他节点写的，让本地缓存失效，否则是本节点自己写回产生的通知
+   */
+  void onKeyspaceEvent(String channel) {
+    int index = channel.indexOf("__:");
+    if (index < 0) {
+      return;
+    }
+    String key = channel.substring(index + 3);
+    if (!key.startsWith(this.keyPrefix)) {
+      return;
+    }
+    String id = key.substring(this.keyPrefix.length());
+    InternalSession local = super.findSession(id);
+    if (!(local instanceof RedisSession)) {
+      return;
+    }
+    RedisSession session = (RedisSession) local;
+
+    byte[] value;
+    try (Jedis jedis = this.jedisPool.getResource()) {
+      value = jedis.hget(key(id), VERSION);
+    } catch (RuntimeException e) {
+      this.log.error("Error happened when reading session version from redis, id={}", id, e);
+      evict(session);
+      return;
+    }
+
+    if (value == null) {
+      // 还没有写回过的session在Redis中本来就不存在
+      if (session.version > 0) {
+        session.expireLocally();
+      }
+    } else if (Long.parseLong(new String(value, StandardCharsets.UTF_8)) > session.version) {
+      evict(session);
+    }
+  }
+
+  /**
+   * 让本地缓存的session失效，有尚未写回的修改时只丢弃从Redis加载的属性
+   */
+  private void evict(RedisSession session) {
+    if (!session.queued.get() && session.pendingAttributes.isEmpty()) {
+      remove(session);
+    } else {
+      session.refresh();
+    }
+  }
+
+  private void evictAll() {
+    for (InternalSession session : findSessions()) {
+      if (session instanceof RedisSession) {
+        evict((RedisSession) session);
+      }
+    }
+  }
+
+  private void start() {
+    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(2, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "weixin-java-tools-redis-session-" + THREAD_NUMBER.getAndIncrement());
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    this.executor = executor;
+
+    executor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          flush();
+        } catch (RuntimeException e) {
+          RedisSessionManager.this.log.error("Error happened when flushing sessions", e);
+        }
+      }
+    }, this.flushInterval, this.flushInterval, TimeUnit.MILLISECONDS);
+
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        subscribe();
+      }
+    });
+  }
+
+  /**
+   * 订阅session key的keyspace通知，连接断开后自动重连
+   */
+  private void subscribe() {
+    String pattern = "__keyspace@*__:" + this.keyPrefix + "*";
+    while (this.running) {
+      JedisPubSub pubSub = new JedisPubSub() {
+        @Override
+        public void onPMessage(String subscribedPattern, String channel, String message) {
+          onKeyspaceEvent(channel);
+        }
+
+        @Override
+        public void onPSubscribe(String subscribedPattern, int subscribedChannels) {
+          // 断开期间的通知已经丢失，本地缓存不再可信
+          evictAll();
+        }
+      };
+      this.subscriber = pubSub;
+      try (Jedis jedis = this.jedisPool.getResource()) {
+        jedis.psubscribe(pubSub, pattern);
+      } catch (RuntimeException e) {
+        if (this.running) {
+          this.log.warn("Keyspace subscription for sessions lost, reconnecting", e);
+        }
+      }
+
+      if (this.running) {
+        try {
+          Thread.sleep(this.reconnectDelay);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * 写回所有待写回的session，停止后台线程
+   */
+  public void shutdown() {
+    this.running = false;
+    JedisPubSub pubSub = this.subscriber;
+    if (pubSub != null && pubSub.isSubscribed()) {
+      pubSub.punsubscribe();
+    }
+    ScheduledExecutorService executor = this.executor;
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+    flush();
+  }
+
+  /**
+   * 设置写回间隔，需要在第一个session创建之前设置
+   *
+   * @param flushInterval 毫秒
+   */
+  public void setFlushInterval(long flushInterval) {
+    this.flushInterval = flushInterval;
+  }
+
+  public void setFlushBatchSize(int flushBatchSize) {
+    this.flushBatchSize = flushBatchSize;
+  }
+
+  public void setReconnectDelay(long reconnectDelay) {
+    this.reconnectDelay = reconnectDelay;
+  }
+
+  /**
+   * 一个session一次写回的内容
+   */
+  private static class SessionWrite {
+    private final RedisSession session;
+    private final Map<byte[], byte[]> hash = new HashMap<>();
+    private final Map<String, Object> drained = new HashMap<>();
+    private int maxInactiveInterval;
+
+    SessionWrite(RedisSession session) {
+      this.session = session;
+    }
+  }
+
+}
@@ -274,6 +274,26 @@ public class StandardSession implements WxSession, InternalSession {
   @Override
   public void setMaxInactiveInterval(int interval) {
     this.maxInactiveInterval = interval;
+
+    // 过期时间可能提前了，需要让manager重新安排过期检查
+    if (this.id != null && this.manager instanceof StandardSessionManager) {
+      ((StandardSessionManager) this.manager).scheduleExpiry(this);
+    }
+  }
+
+  /**
+   * Return the maximum inactive interval (in seconds) of this session.
+   */
+  public int getMaxInactiveInterval() {
+    return this.maxInactiveInterval;
+  }
+
+  /**
+   * Return the last time this session was accessed or ended an access,
+   * without any validity check.
+   */
+  public long getThisAccessedTimeInternal() {
+    return this.thisAccessedTime;
   }
 
 
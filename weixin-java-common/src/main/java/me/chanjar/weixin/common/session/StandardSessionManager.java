@@ -1,15 +1,33 @@
 package me.chanjar.weixin.common.session;
 
+import me.chanjar.weixin.common.util.SharedScheduler;
+import me.chanjar.weixin.common.util.metrics.StripedCounter;
 import me.chanjar.weixin.common.util.res.StringManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * <pre>
  * 基于内存的session manager
+ *
+ * session按照过期时间（精确到秒）挂在一个有序的时间桶里，清理时只处理已经到期的桶，
+ * 不需要遍历全部session，所以清理的开销只和到期的session个数有关。
+ * session被访问时不会移动它所在的桶，到期检查时如果发现session期间被访问过，再把它挂到新的过期时间上。
+ * 每个session最多挂在一个桶里，session被移除时同时从桶里摘掉。
+ * 只有 {@link StandardSession} 能取得过期时间，其他类型的session在每次清理时逐个检查。
+ * 后台清理任务运行在 {@link SharedScheduler} 共享的后台线程上，不会为每个manager单独启动线程。
+ * </pre>
  */
 public class StandardSessionManager implements WxSessionManager, InternalSessionManager {
 
@@ -19,13 +37,64 @@ public class StandardSessionManager implements WxSessionManager, InternalSession
    * The descriptive name of this Manager implementation (for logging).
    */
   private static final String name = "SessionManagerImpl";
+
+  /**
+   * 过期时间桶的精度：1秒
+   */
+  private static final long TICK_MILLIS = 1000L;
+
+  private static final SharedScheduler.WeakTask<StandardSessionManager> BACKGROUND_TASK =
+    new SharedScheduler.WeakTask<StandardSessionManager>() {
+      @Override
+      public void run(StandardSessionManager manager) {
+        manager.backgroundProcess();
+      }
+    };
+
   protected final Logger log = LoggerFactory.getLogger(StandardSessionManager.class);
   private final Object maxActiveUpdateLock = new Object();
   /**
-   * 后台清理线程是否已经开启
+   * 后台清理任务是否已经开启
    */
   private final AtomicBoolean backgroundProcessStarted = new AtomicBoolean(false);
 
+  /**
+   * 过期时间（单位为秒的tick）->在这一秒到期的session，由expiryLock保护
+   */
+  private final TreeMap<Long, Set<InternalSession>> expiryBuckets = new TreeMap<>();
+
+  /**
+   * session->它所在的桶，保证同一个session只挂在一个桶里，由expiryLock保护
+   */
+  private final Map<InternalSession, Long> scheduledTicks = new IdentityHashMap<>();
+
+  /**
+   * 无法取得过期时间的session，每次清理时逐个检查，由expiryLock保护
+   */
+  private final Set<InternalSession> unscheduledSessions = newIdentitySet();
+
+  private final Object expiryLock = new Object();
+
+  /**
+   * 当前的session个数，避免每次创建session都调用Map.size()
+   */
+  private final AtomicInteger activeSessions = new AtomicInteger();
+
+  /**
+   * 因为超过maxActiveSessions而创建失败的session总数
+   */
+  private final StripedCounter rejectedSessionCount = new StripedCounter();
+
+  /**
+   * 被创建的session总数
+   */
+  private final StripedCounter createdSessionCount = new StripedCounter();
+
+  /**
+   * 清理过期session累计花费的时间：毫秒
+   */
+  private final AtomicLong expireProcessingTime = new AtomicLong();
+
 
   // -------------------------------------- InternalSessionManager
   /**
@@ -40,7 +109,10 @@ public class StandardSessionManager implements WxSessionManager, InternalSession
 
   /**
    * Number of session creations that failed due to maxActiveSessions.
+   *
+   * @deprecated 不再更新，并发创建session时会丢失计数，使用 {@link #getRejectedSessions()}
    */
+  @Deprecated
   protected int rejectedSessions = 0;
 
   /**
@@ -49,13 +121,21 @@ public class StandardSessionManager implements WxSessionManager, InternalSession
    */
   protected int maxInactiveInterval = 30 * 60;
 
-  // Number of sessions created by this manager
+  /**
+   * Number of sessions created by this manager
+   *
+   * @deprecated 不再更新，并发创建session时会丢失计数，使用 {@link #getSessionCounter()}
+   */
+  @Deprecated
   protected long sessionCounter = 0;
 
   protected volatile int maxActive = 0;
   /**
    * Processing time during session expiration.
+   *
+   * @deprecated 不再更新，使用 {@link #getProcessingTime()}
    */
+  @Deprecated
   protected long processingTime = 0;
   /**
    * Frequency of the session expiration, and related manager operations.
@@ -116,9 +196,12 @@ public class StandardSessionManager implements WxSessionManager, InternalSession
 
   @Override
   public void remove(InternalSession session, boolean update) {
-    if (session.getIdInternal() != null) {
-      this.sessions.remove(session.getIdInternal());
+    // 只移除session自己，避免同一个id被重新创建后误删新的session
+    String id = session.getIdInternal();
+    if (id != null && this.sessions.get(id) == session && this.sessions.remove(id) != null) {
+      this.activeSessions.decrementAndGet();
     }
+    unscheduleExpiry(session);
   }
 
 
@@ -140,7 +223,7 @@ public class StandardSessionManager implements WxSessionManager, InternalSession
 
     if ((this.maxActiveSessions >= 0) &&
       (getActiveSessions() >= this.maxActiveSessions)) {
-      this.rejectedSessions++;
+      this.rejectedSessionCount.increment();
       throw new TooManyActiveSessionsException(
         sm.getString("sessionManagerImpl.createSession.tmase"),
         this.maxActiveSessions);
@@ -155,7 +238,7 @@ public class StandardSessionManager implements WxSessionManager, InternalSession
     session.setMaxInactiveInterval(this.maxInactiveInterval);
     String id = sessionId;
     session.setId(id);
-    this.sessionCounter++;
+    this.createdSessionCount.increment();
 
     return (session);
 
@@ -164,7 +247,28 @@ public class StandardSessionManager implements WxSessionManager, InternalSession
 
   @Override
   public int getActiveSessions() {
-    return this.sessions.size();
+    return this.activeSessions.get();
+  }
+
+  /**
+   * 被创建的session总数
+   */
+  public long getSessionCounter() {
+    return this.createdSessionCount.sum();
+  }
+
+  /**
+   * 因为超过maxActiveSessions而创建失败的session总数
+   */
+  public long getRejectedSessions() {
+    return this.rejectedSessionCount.sum();
+  }
+
+  /**
+   * 清理过期session累计花费的时间：毫秒
+   */
+  public long getProcessingTime() {
+    return this.expireProcessingTime.get();
   }
 
 
@@ -184,28 +288,18 @@ public class StandardSessionManager implements WxSessionManager, InternalSession
   @Override
   public void add(InternalSession session) {
 
-    // 当第一次有session创建的时候，开启session清理线程
+    // 当第一次有session创建的时候，开启session清理任务
     if (!this.backgroundProcessStarted.getAndSet(true)) {
-      Thread t = new Thread(new Runnable() {
-        @Override
-        public void run() {
-          while (true) {
-            try {
-              // 每秒清理一次
-              Thread.sleep(StandardSessionManager.this.backgroundProcessorDelay * 1000l);
-              backgroundProcess();
-            } catch (InterruptedException e) {
-              StandardSessionManager.this.log.error("SessionManagerImpl.backgroundProcess error", e);
-            }
-          }
-        }
-      });
-      t.setDaemon(true);
-      t.start();
+      SharedScheduler.scheduleWeakly(SharedScheduler.get(), this, BACKGROUND_TASK,
+        this.backgroundProcessorDelay, TimeUnit.SECONDS);
     }
 
-    this.sessions.put(session.getIdInternal(), session);
-    int size = getActiveSessions();
+    InternalSession old = this.sessions.put(session.getIdInternal(), session);
+    int size = old == null ? this.activeSessions.incrementAndGet() : getActiveSessions();
+    if (old != null && old != session) {
+      unscheduleExpiry(old);
+    }
+    scheduleExpiry(session);
     if (size > this.maxActive) {
       synchronized (this.maxActiveUpdateLock) {
         if (size > this.maxActive) {
@@ -234,26 +328,157 @@ public class StandardSessionManager implements WxSessionManager, InternalSession
       processExpires();
   }
 
+  /**
+   * 按照session当前的最后访问时间和过期间隔，把它挂到对应的过期时间桶里，已经挂载的session会移到新的桶
+   * 过期间隔小于等于0的session永不过期，不需要挂载
+   * 过期时间向下取整到秒，所以桶到期时session可能还差不到1秒才过期，这时会被推迟到下一秒再检查
+   */
+  protected void scheduleExpiry(InternalSession session) {
+    String id = session.getIdInternal();
+    if (id == null || this.sessions.get(id) != session) {
+      return;
+    }
+    if (!(session instanceof StandardSession)) {
+      synchronized (this.expiryLock) {
+        this.unscheduledSessions.add(session);
+      }
+      return;
+    }
+
+    Long tick = expiryTick((StandardSession) session, 0L);
+    if (tick == null) {
+      unscheduleExpiry(session);
+    } else {
+      scheduleExpiry(session, tick);
+    }
+  }
+
+  /**
+   * session所在的桶，永不过期时返回null
+   */
+  private static Long expiryTick(StandardSession session, long minTick) {
+    int interval = session.getMaxInactiveInterval();
+    if (interval <= 0) {
+      return null;
+    }
+    long deadline = session.getThisAccessedTimeInternal() + interval * 1000L;
+    return Math.max(deadline / TICK_MILLIS, minTick);
+  }
+
+  private void scheduleExpiry(InternalSession session, long tick) {
+    synchronized (this.expiryLock) {
+      Long old = this.scheduledTicks.put(session, tick);
+      if (old != null) {
+        if (old == tick) {
+          return;
+        }
+        removeFromBucket(session, old);
+      }
+
+      Set<InternalSession> bucket = this.expiryBuckets.get(tick);
+      if (bucket == null) {
+        bucket = newIdentitySet();
+        this.expiryBuckets.put(tick, bucket);
+      }
+      bucket.add(session);
+    }
+  }
+
+  /**
+   * 把session从它所在的桶里摘掉
+   */
+  private void unscheduleExpiry(InternalSession session) {
+    synchronized (this.expiryLock) {
+      Long old = this.scheduledTicks.remove(session);
+      if (old != null) {
+        removeFromBucket(session, old);
+      }
+      this.unscheduledSessions.remove(session);
+    }
+  }
+
+  private void removeFromBucket(InternalSession session, Long tick) {
+    Set<InternalSession> bucket = this.expiryBuckets.get(tick);
+    if (bucket != null && bucket.remove(session) && bucket.isEmpty()) {
+      this.expiryBuckets.remove(tick);
+    }
+  }
+
+  /**
+   * 取出一个已经到期的时间桶，没有则返回null
+   */
+  private InternalSession[] pollDueBucket(long nowTick) {
+    synchronized (this.expiryLock) {
+      if (this.expiryBuckets.isEmpty() || this.expiryBuckets.firstKey() > nowTick) {
+        return null;
+      }
+      Set<InternalSession> bucket = this.expiryBuckets.pollFirstEntry().getValue();
+      for (InternalSession session : bucket) {
+        this.scheduledTicks.remove(session);
+      }
+      return bucket.toArray(new InternalSession[bucket.size()]);
+    }
+  }
+
+  /**
+   * 等待过期检查的session个数
+   */
+  int getScheduledSessionCount() {
+    synchronized (this.expiryLock) {
+      return this.scheduledTicks.size() + this.unscheduledSessions.size();
+    }
+  }
+
+  private static Set<InternalSession> newIdentitySet() {
+    return Collections.newSetFromMap(new IdentityHashMap<InternalSession, Boolean>());
+  }
+
   /**
    * Invalidate all sessions that have expired.
    */
   public void processExpires() {
 
     long timeNow = System.currentTimeMillis();
-    InternalSession sessions[] = findSessions();
+    long nowTick = timeNow / TICK_MILLIS;
     int expireHere = 0;
+    int checked = 0;
 
     if (this.log.isDebugEnabled())
-      this.log.debug("Start expire sessions {} at {} sessioncount {}", getName(), timeNow, sessions.length);
-    for (int i = 0; i < sessions.length; i++) {
-      if (sessions[i] != null && !sessions[i].isValid()) {
+      this.log.debug("Start expire sessions {} at {} sessioncount {}", getName(), timeNow, getActiveSessions());
+
+    InternalSession[] bucket;
+    while ((bucket = pollDueBucket(nowTick)) != null) {
+      for (InternalSession session : bucket) {
+        checked++;
+        if (!session.isValid()) {
+          expireHere++;
+          continue;
+        }
+
+        // 期间被访问过或者正在被使用，按照新的过期时间重新挂载，至少推迟到下一个tick
+        Long tick = expiryTick((StandardSession) session, nowTick + 1);
+        if (tick != null && this.sessions.get(session.getIdInternal()) == session) {
+          scheduleExpiry(session, tick);
+        }
+      }
+    }
+
+    InternalSession[] unscheduled;
+    synchronized (this.expiryLock) {
+      unscheduled = this.unscheduledSessions.toArray(new InternalSession[this.unscheduledSessions.size()]);
+    }
+    for (InternalSession session : unscheduled) {
+      checked++;
+      if (!session.isValid()) {
         expireHere++;
       }
     }
+
     long timeEnd = System.currentTimeMillis();
     if (this.log.isDebugEnabled())
-      this.log.debug("End expire sessions {} processingTime {} expired sessions: {}", getName(), timeEnd - timeNow, expireHere);
-    this.processingTime += (timeEnd - timeNow);
+      this.log.debug("End expire sessions {} processingTime {} checked sessions: {} expired sessions: {}",
+        getName(), timeEnd - timeNow, checked, expireHere);
+    this.expireProcessingTime.addAndGet(timeEnd - timeNow);
 
   }
 
@@ -1,18 +1,10 @@
 package me.chanjar.weixin.common.util;
 
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
-import com.thoughtworks.xstream.annotations.XStreamAlias;
-import me.chanjar.weixin.common.annotation.Required;
 import me.chanjar.weixin.common.bean.result.WxError;
 import me.chanjar.weixin.common.exception.WxErrorException;
-import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.lang.reflect.Field;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -33,26 +25,7 @@ public class BeanUtils {
    * @throws WxErrorException
    */
   public static void checkRequiredFields(Object bean) throws WxErrorException {
-    List<String> requiredFields = Lists.newArrayList();
-
-    List<Field> fields = new ArrayList<>(Arrays.asList(bean.getClass().getDeclaredFields()));
-    fields.addAll(Arrays.asList(bean.getClass().getSuperclass().getDeclaredFields()));
-    for (Field field : fields) {
-      try {
-        boolean isAccessible = field.isAccessible();
-        field.setAccessible(true);
-        if (field.isAnnotationPresent(Required.class)) {
-          if (field.get(bean) == null || (field.get(bean) instanceof String && StringUtils.isBlank(field.get(bean).toString()))) {
-            //两种情况，一种是值为null，另外一种情况是类型为字符串，但是字符串内容为空的，都认为是没有提供值
-            requiredFields.add(field.getName());
-          }
-        }
-        field.setAccessible(isAccessible);
-      } catch (SecurityException | IllegalArgumentException
-        | IllegalAccessException e) {
-        e.printStackTrace();
-      }
-    }
+    List<String> requiredFields = XmlBeanAccessor.of(bean.getClass()).getMissingRequiredFields(bean);
 
     if (!requiredFields.isEmpty()) {
       String msg = "必填字段 " + requiredFields + " 必须提供值";
@@ -68,29 +41,6 @@ public class BeanUtils {
    * @return map对象
    */
   public static Map<String, String> xmlBean2Map(Object bean) {
-    Map<String, String> result = Maps.newHashMap();
-    List<Field> fields = new ArrayList<>(Arrays.asList(bean.getClass().getDeclaredFields()));
-    fields.addAll(Arrays.asList(bean.getClass().getSuperclass().getDeclaredFields()));
-    for (Field field : fields) {
-      try {
-        boolean isAccessible = field.isAccessible();
-        field.setAccessible(true);
-        if (field.get(bean) == null) {
-          field.setAccessible(isAccessible);
-          continue;
-        }
-
-        if (field.isAnnotationPresent(XStreamAlias.class)) {
-          result.put(field.getAnnotation(XStreamAlias.class).value(), field.get(bean).toString());
-        }
-
-        field.setAccessible(isAccessible);
-      } catch (SecurityException | IllegalArgumentException | IllegalAccessException e) {
-        e.printStackTrace();
-      }
-
-    }
-
-    return result;
+    return XmlBeanAccessor.of(bean.getClass()).toMap(bean);
   }
 }
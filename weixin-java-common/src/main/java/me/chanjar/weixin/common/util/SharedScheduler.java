@@ -0,0 +1,107 @@
+package me.chanjar.weixin.common.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <pre>
+ * 全局共享的后台定时任务线程池，用于消息排重、session过期等周期性清理任务
+ * 所有任务共用少量守护线程，不再每个实例各自启动一个线程
+ * 任务应当很快执行完毕，不要在其中做阻塞操作
+ * </pre>
+ */
+public class SharedScheduler {
+
+  private static final Logger log = LoggerFactory.getLogger(SharedScheduler.class);
+
+  private static final AtomicInteger THREAD_NUMBER = new AtomicInteger(1);
+
+  private static volatile ScheduledExecutorService instance;
+
+  /**
+   * 返回共享的定时任务线程池，第一次调用时创建，线程都是守护线程
+   */
+  public static ScheduledExecutorService get() {
+    if (instance == null) {
+      synchronized (SharedScheduler.class) {
+        if (instance == null) {
+          ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+              Thread t = new Thread(r, "weixin-java-tools-scheduler-" + THREAD_NUMBER.getAndIncrement());
+              t.setDaemon(true);
+              return t;
+            }
+          });
+          executor.setRemoveOnCancelPolicy(true);
+          instance = executor;
+        }
+      }
+    }
+    return instance;
+  }
+
+  /**
+   * <pre>
+   * 以固定周期执行某个对象上的任务，调度器只持有该对象的弱引用，
+   * 对象被垃圾回收后任务自动取消，不会因为定时任务而导致对象无法释放
+   * </pre>
+   *
+   * @param executor 定时任务线程池
+   * @param target   任务所属的对象
+   * @param task     任务
+   * @param period   周期
+   * @param unit     周期单位
+   */
+  public static <T> ScheduledFuture<?> scheduleWeakly(ScheduledExecutorService executor, T target,
+                                                      WeakTask<T> task, long period, TimeUnit unit) {
+    WeakRunnable<T> runnable = new WeakRunnable<>(target, task);
+    ScheduledFuture<?> future = executor.scheduleAtFixedRate(runnable, period, period, unit);
+    runnable.future = future;
+    return future;
+  }
+
+  /**
+   * 在弱引用对象上执行的任务，实现类不能持有目标对象的引用（不要使用非静态的内部类）
+   */
+  public interface WeakTask<T> {
+    void run(T target);
+  }
+
+  private static class WeakRunnable<T> implements Runnable {
+    private final WeakReference<T> ref;
+    private final WeakTask<T> task;
+    private volatile ScheduledFuture<?> future;
+
+    WeakRunnable(T target, WeakTask<T> task) {
+      this.ref = new WeakReference<>(target);
+      this.task = task;
+    }
+
+    @Override
+    public void run() {
+      T target = this.ref.get();
+      if (target == null) {
+        if (this.future != null) {
+          this.future.cancel(false);
+        }
+        return;
+      }
+      try {
+        this.task.run(target);
+      } catch (RuntimeException e) {
+        // 异常不能抛给线程池，否则后续周期不会再执行
+        log.error("Error happened when running scheduled task", e);
+      }
+    }
+  }
+
+}
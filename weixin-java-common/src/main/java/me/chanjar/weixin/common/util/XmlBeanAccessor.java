@@ -0,0 +1,248 @@
+package me.chanjar.weixin.common.util;
+
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+import com.thoughtworks.xstream.annotations.XStreamOmitField;
+import me.chanjar.weixin.common.annotation.Required;
+import org.apache.commons.lang3.StringUtils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <pre>
+ * xml bean的属性访问器，每个类只在第一次使用时通过反射分析一次，之后通过MethodHandle读写属性
+ * 包括本类及所有父类中非static、非transient的属性，元素名取自@XStreamAlias，没有时为属性名
+ * 带@XStreamAlias的属性按元素名排好序，与微信支付签名时参数的顺序一致
+ * </pre>
+ */
+public final class XmlBeanAccessor {
+
+  private static final ClassValue<XmlBeanAccessor> ACCESSORS = new ClassValue<XmlBeanAccessor>() {
+    @Override
+    protected XmlBeanAccessor computeValue(Class<?> type) {
+      return new XmlBeanAccessor(type);
+    }
+  };
+
+  private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+  private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+  private final Class<?> type;
+
+  /**
+   * 无参构造方法，没有时为null
+   */
+  private final MethodHandle constructor;
+
+  private final Map<String, Property> properties = new HashMap<>();
+
+  private final List<Property> sortedProperties;
+
+  private final List<Property> requiredProperties;
+
+  private XmlBeanAccessor(Class<?> type) {
+    this.type = type;
+    this.constructor = findConstructor(type);
+
+    List<Property> aliased = new ArrayList<>();
+    List<Property> required = new ArrayList<>();
+    for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+      for (Field field : c.getDeclaredFields()) {
+        int modifiers = field.getModifiers();
+        if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()
+          || field.isAnnotationPresent(XStreamOmitField.class)) {
+          continue;
+        }
+
+        Property property = new Property(field);
+        if (property.required) {
+          required.add(property);
+        }
+        // 子类中同名的元素优先
+        if (this.properties.containsKey(property.name)) {
+          continue;
+        }
+        this.properties.put(property.name, property);
+        if (property.aliased) {
+          aliased.add(property);
+        }
+      }
+    }
+
+    Collections.sort(aliased, new Comparator<Property>() {
+      @Override
+      public int compare(Property o1, Property o2) {
+        return o1.name.compareTo(o2.name);
+      }
+    });
+    this.sortedProperties = Collections.unmodifiableList(aliased);
+    this.requiredProperties = Collections.unmodifiableList(required);
+  }
+
+  public static XmlBeanAccessor of(Class<?> type) {
+    return ACCESSORS.get(type);
+  }
+
+  private static MethodHandle findConstructor(Class<?> type) {
+    if (type.isInterface() || Modifier.isAbstract(type.getModifiers())) {
+      return null;
+    }
+
+    try {
+      Constructor<?> constructor = type.getDeclaredConstructor();
+      constructor.setAccessible(true);
+      return MethodHandles.lookup().unreflectConstructor(constructor)
+        .asType(MethodType.methodType(Object.class));
+    } catch (NoSuchMethodException e) {
+      return null;
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * 调用无参构造方法创建对象
+   *
+   * @throws IllegalArgumentException 没有无参构造方法
+   */
+  public Object newInstance() {
+    if (this.constructor == null) {
+      throw new IllegalArgumentException("缺少无参构造方法：" + this.type.getName());
+    }
+
+    try {
+      return (Object) this.constructor.invokeExact();
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * 按元素名查找属性，不存在返回null
+   */
+  public Property getProperty(String name) {
+    return this.properties.get(name);
+  }
+
+  /**
+   * 带@XStreamAlias的属性，已按元素名排序
+   */
+  public List<Property> getSortedProperties() {
+    return this.sortedProperties;
+  }
+
+  /**
+   * 将带@XStreamAlias的非空属性转换成以元素名为key的map
+   */
+  public Map<String, String> toMap(Object bean) {
+    Map<String, String> result = new HashMap<>();
+    for (Property property : this.sortedProperties) {
+      Object value = property.get(bean);
+      if (value != null) {
+        result.put(property.name, value.toString());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * 标记为@Required但为null或空白字符串的属性名
+   */
+  public List<String> getMissingRequiredFields(Object bean) {
+    List<String> missing = null;
+    for (Property property : this.requiredProperties) {
+      Object value = property.get(bean);
+      if (value == null || (value instanceof String && StringUtils.isBlank((String) value))) {
+        if (missing == null) {
+          missing = new ArrayList<>();
+        }
+        missing.add(property.fieldName);
+      }
+    }
+    return missing == null ? Collections.<String>emptyList() : missing;
+  }
+
+  public static final class Property {
+    private final String name;
+    private final String fieldName;
+    private final Class<?> type;
+    private final boolean aliased;
+    private final boolean required;
+    private final MethodHandle getter;
+    private final MethodHandle setter;
+
+    private Property(Field field) {
+      XStreamAlias alias = field.getAnnotation(XStreamAlias.class);
+      this.aliased = alias != null;
+      this.name = this.aliased ? alias.value() : field.getName();
+      this.fieldName = field.getName();
+      this.type = field.getType();
+      this.required = field.isAnnotationPresent(Required.class);
+
+      field.setAccessible(true);
+      try {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        this.getter = lookup.unreflectGetter(field).asType(GETTER_TYPE);
+        this.setter = Modifier.isFinal(field.getModifiers()) ? null : lookup.unreflectSetter(field).asType(SETTER_TYPE);
+      } catch (IllegalAccessException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    /**
+     * 元素名
+     */
+    public String getName() {
+      return this.name;
+    }
+
+    public String getFieldName() {
+      return this.fieldName;
+    }
+
+    public Class<?> getType() {
+      return this.type;
+    }
+
+    public Object get(Object bean) {
+      try {
+        return (Object) this.getter.invokeExact(bean);
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    /**
+     * @throws UnsupportedOperationException 属性是final的
+     */
+    public void set(Object bean, Object value) {
+      if (this.setter == null) {
+        throw new UnsupportedOperationException("属性不能修改：" + this.fieldName);
+      }
+
+      try {
+        this.setter.invokeExact(bean, value);
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+
+}
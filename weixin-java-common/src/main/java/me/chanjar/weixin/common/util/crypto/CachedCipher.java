@@ -0,0 +1,98 @@
+package me.chanjar.weixin.common.util.crypto;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <pre>
+ * 每个线程缓存的Cipher
+ * Cipher.getInstance需要查找provider，开销很大，而Cipher本身不是线程安全的，所以每个线程每种算法、每种模式缓存一个
+ * 上一次已经用相同的密钥和iv初始化过时不再重新初始化；doFinal完成后Cipher会回到初始化后的状态，可以直接复用
+ * 加解密抛出异常后Cipher的状态不确定，需要调用 {@link #invalidate()}，下次使用时重新初始化
+ * </pre>
+ */
+public final class CachedCipher {
+
+  private static final ThreadLocal<Map<String, CachedCipher[]>> CIPHERS = new ThreadLocal<Map<String, CachedCipher[]>>() {
+    @Override
+    protected Map<String, CachedCipher[]> initialValue() {
+      return new HashMap<>();
+    }
+  };
+
+  private final Cipher cipher;
+  private final int mode;
+  private final String algorithm;
+  private byte[] key;
+  private byte[] iv;
+
+  private CachedCipher(String transformation, int mode) throws GeneralSecurityException {
+    this.cipher = Cipher.getInstance(transformation);
+    this.mode = mode;
+    int slash = transformation.indexOf('/');
+    this.algorithm = slash < 0 ? transformation : transformation.substring(0, slash);
+  }
+
+  /**
+   * 当前线程的Cipher
+   *
+   * @param transformation 例如AES/CBC/NoPadding
+   * @param mode           {@link Cipher#ENCRYPT_MODE} 或 {@link Cipher#DECRYPT_MODE}
+   */
+  public static CachedCipher get(String transformation, int mode) throws GeneralSecurityException {
+    Map<String, CachedCipher[]> ciphers = CIPHERS.get();
+    CachedCipher[] modes = ciphers.get(transformation);
+    if (modes == null) {
+      modes = new CachedCipher[Cipher.UNWRAP_MODE + 1];
+      ciphers.put(transformation, modes);
+    }
+    CachedCipher cipher = modes[mode];
+    if (cipher == null) {
+      cipher = new CachedCipher(transformation, mode);
+      modes[mode] = cipher;
+    }
+    return cipher;
+  }
+
+  /**
+   * 用密钥和iv初始化，与上次相同时直接返回
+   *
+   * @param iv 从ivOffset开始的ivLength个字节作为iv
+   */
+  public Cipher init(byte[] key, byte[] iv, int ivOffset, int ivLength) throws GeneralSecurityException {
+    if (this.key != null && Arrays.equals(this.key, key) && ivEquals(iv, ivOffset, ivLength)) {
+      return this.cipher;
+    }
+
+    this.key = null;
+    this.cipher.init(this.mode, new SecretKeySpec(key, this.algorithm), new IvParameterSpec(iv, ivOffset, ivLength));
+    this.key = key.clone();
+    this.iv = Arrays.copyOfRange(iv, ivOffset, ivOffset + ivLength);
+    return this.cipher;
+  }
+
+  /**
+   * 下次使用时重新初始化
+   */
+  public void invalidate() {
+    this.key = null;
+  }
+
+  private boolean ivEquals(byte[] iv, int offset, int length) {
+    if (this.iv.length != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (this.iv[i] != iv[offset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
@@ -8,7 +8,6 @@
 
 package me.chanjar.weixin.common.util.crypto;
 
-import java.nio.charset.Charset;
 import java.util.Arrays;
 
 /**
@@ -16,7 +15,6 @@ import java.util.Arrays;
  */
 public class PKCS7Encoder {
 
-  private static final Charset CHARSET = Charset.forName("utf-8");
   private static final int BLOCK_SIZE = 32;
 
   /**
@@ -26,18 +24,24 @@ public class PKCS7Encoder {
    * @return 补齐用的字节数组
    */
   public static byte[] encode(int count) {
+    int amountToPad = padLength(count);
+    byte[] pad = new byte[amountToPad];
+    Arrays.fill(pad, (byte) amountToPad);
+    return pad;
+  }
+
+  /**
+   * 需要补位的字节数，为1到32
+   *
+   * @param count 需要进行填充补位操作的明文字节个数
+   */
+  public static int padLength(int count) {
     // 计算需要填充的位数
     int amountToPad = BLOCK_SIZE - (count % BLOCK_SIZE);
     if (amountToPad == 0) {
       amountToPad = BLOCK_SIZE;
     }
-    // 获得补位所用的字符
-    char padChr = chr(amountToPad);
-    String tmp = new String();
-    for (int index = 0; index < amountToPad; index++) {
-      tmp += padChr;
-    }
-    return tmp.getBytes(CHARSET);
+    return amountToPad;
   }
 
   /**
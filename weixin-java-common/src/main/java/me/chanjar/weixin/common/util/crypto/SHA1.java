@@ -1,48 +1,127 @@
 package me.chanjar.weixin.common.util.crypto;
 
-import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.StringUtils;
 
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 
 /**
+ * <pre>
+ * 回调消息和JSAPI使用的sha1签名
+ * 每个线程复用一个MessageDigest，参数排序后逐个写入digest，不再拼接成一个字符串；十六进制结果写入复用的char数组
+ * </pre>
  * Created by Daniel Qian on 14/10/19.
  */
 public class SHA1 {
 
+  private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+
+  private static final int HEX_LENGTH = 40;
+
+  private static final ThreadLocal<Context> contextLocal = new ThreadLocal<Context>() {
+    @Override
+    protected Context initialValue() {
+      return new Context();
+    }
+  };
+
   /**
    * 串接arr参数，生成sha1 digest
    */
   public static String gen(String... arr) {
-    if (StringUtils.isAnyEmpty(arr)) {
+    Context context = digest(arr, false);
+    if (context == null) {
       throw new IllegalArgumentException("非法请求参数，有部分参数为空 : " + Arrays.toString(arr));
     }
-
-    Arrays.sort(arr);
-    StringBuilder sb = new StringBuilder();
-    for (String a : arr) {
-      sb.append(a);
-    }
-    return DigestUtils.sha1Hex(sb.toString());
+    return new String(context.hex, 0, HEX_LENGTH);
   }
 
   /**
    * 用&串接arr参数，生成sha1 digest
    */
   public static String genWithAmple(String... arr) {
-    if (StringUtils.isAnyEmpty(arr)) {
+    Context context = digest(arr, true);
+    if (context == null) {
       throw new IllegalArgumentException("非法请求参数，有部分参数为空 : " + Arrays.toString(arr));
     }
+    return new String(context.hex, 0, HEX_LENGTH);
+  }
+
+  /**
+   * <pre>
+   * 校验signature是否等于 {@link #gen(String...)} 的结果
+   * 比较时间与signature的内容无关，避免通过响应时间逐字节猜测签名
+   * </pre>
+   *
+   * @return signature为null或者arr中有空参数时返回false
+   */
+  public static boolean check(String signature, String... arr) {
+    if (signature == null || signature.length() != HEX_LENGTH) {
+      return false;
+    }
+
+    Context context = digest(arr, false);
+    if (context == null) {
+      return false;
+    }
+    int diff = 0;
+    for (int i = 0; i < HEX_LENGTH; i++) {
+      diff |= signature.charAt(i) ^ context.hex[i];
+    }
+    return diff == 0;
+  }
+
+  /**
+   * 计算签名，结果为小写十六进制，保存在当前线程的 {@link Context#hex} 中
+   *
+   * @return arr中有空参数时返回null
+   */
+  private static Context digest(String[] arr, boolean withAmple) {
+    if (StringUtils.isAnyEmpty(arr)) {
+      return null;
+    }
 
     Arrays.sort(arr);
-    StringBuilder sb = new StringBuilder();
+    Context context = contextLocal.get();
+    MessageDigest digest = context.digest;
     for (int i = 0; i < arr.length; i++) {
-      String a = arr[i];
-      sb.append(a);
-      if (i != arr.length - 1) {
-        sb.append('&');
+      if (withAmple && i != 0) {
+        digest.update((byte) '&');
+      }
+      // String.getBytes是JVM的内置优化，比逐个char编码到缓冲区更快
+      digest.update(arr[i].getBytes(StandardCharsets.UTF_8));
+    }
+    context.finish();
+    return context;
+  }
+
+  private static final class Context {
+    private final MessageDigest digest;
+    private final byte[] hash = new byte[20];
+    private final char[] hex = new char[HEX_LENGTH];
+
+    Context() {
+      try {
+        this.digest = MessageDigest.getInstance("SHA-1");
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    void finish() {
+      try {
+        this.digest.digest(this.hash, 0, this.hash.length);
+      } catch (DigestException e) {
+        throw new IllegalStateException(e);
+      }
+      for (int i = 0; i < this.hash.length; i++) {
+        this.hex[i * 2] = HEX_CHARS[(this.hash[i] >> 4) & 0x0f];
+        this.hex[i * 2 + 1] = HEX_CHARS[this.hash[i] & 0x0f];
       }
     }
-    return DigestUtils.sha1Hex(sb.toString());
   }
+
 }
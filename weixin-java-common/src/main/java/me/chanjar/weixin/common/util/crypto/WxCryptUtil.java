@@ -1,20 +1,18 @@
 package me.chanjar.weixin.common.util.crypto;
 
+import me.chanjar.weixin.common.util.xml.StaxUtils;
 import org.apache.commons.codec.binary.Base64;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.xml.sax.InputSource;
 
 import javax.crypto.Cipher;
-import javax.crypto.spec.IvParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import java.io.StringReader;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * 对公众平台发送给公众账号的消息加解密示例代码.
@@ -26,20 +24,56 @@ import java.util.Random;
  */
 public class WxCryptUtil {
 
-  private static final Base64 base64 = new Base64();
   private static final Charset CHARSET = Charset.forName("utf-8");
 
-  private static final ThreadLocal<DocumentBuilder> builderLocal = new ThreadLocal<DocumentBuilder>() {
+  /**
+   * 每个线程复用的解密缓冲区，超过这个大小的密文不缓存缓冲区
+   */
+  private static final int MAX_CACHED_BUFFER_SIZE = 64 * 1024;
+
+  private static final ThreadLocal<byte[]> bufferLocal = new ThreadLocal<byte[]>() {
     @Override
-    protected DocumentBuilder initialValue() {
-      try {
-        return DocumentBuilderFactory.newInstance().newDocumentBuilder();
-      } catch (ParserConfigurationException exc) {
-        throw new IllegalArgumentException(exc);
-      }
+    protected byte[] initialValue() {
+      return new byte[4096];
     }
   };
 
+  /**
+   * 加密使用的缓冲区，与解密的分开，加密回复消息时不会覆盖还没读完的解密结果
+   */
+  private static final ThreadLocal<byte[]> encryptBufferLocal = new ThreadLocal<byte[]>() {
+    @Override
+    protected byte[] initialValue() {
+      return new byte[4096];
+    }
+  };
+
+  private static final ThreadLocal<char[]> charBufferLocal = new ThreadLocal<char[]>() {
+    @Override
+    protected char[] initialValue() {
+      return new char[4096];
+    }
+  };
+
+  private static final String AES_TRANSFORMATION = "AES/CBC/NoPadding";
+
+  private static final char[] BASE64_CHARS =
+    "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+  private static final String RANDOM_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+
+  /**
+   * base64字符到6位值的映射，-1表示非base64字符
+   */
+  private static final byte[] BASE64_VALUES = new byte[128];
+
+  static {
+    Arrays.fill(BASE64_VALUES, (byte) -1);
+    for (int i = 0; i < BASE64_CHARS.length; i++) {
+      BASE64_VALUES[BASE64_CHARS[i]] = (byte) i;
+    }
+  }
+
   protected byte[] aesKey;
   protected String token;
   protected String appidOrCorpid;
@@ -62,42 +96,192 @@ public class WxCryptUtil {
     this.aesKey = Base64.decodeBase64(encodingAesKey + "=");
   }
 
+  private static final StaxUtils.ReadHandler<String> ENCRYPT_PART_HANDLER = new StaxUtils.ReadHandler<String>() {
+    @Override
+    public String read(XMLStreamReader reader) throws XMLStreamException {
+      return extractEncryptPart(reader);
+    }
+  };
+
   static String extractEncryptPart(String xml) {
-    try {
-      DocumentBuilder db = builderLocal.get();
-      Document document = db.parse(new InputSource(new StringReader(xml)));
+    return StaxUtils.read(xml, ENCRYPT_PART_HANDLER);
+  }
 
-      Element root = document.getDocumentElement();
-      return root.getElementsByTagName("Encrypt").item(0).getTextContent();
-    } catch (Exception e) {
-      throw new RuntimeException(e);
+  static String extractEncryptPart(InputStream is) {
+    return StaxUtils.read(is, ENCRYPT_PART_HANDLER);
+  }
+
+  /**
+   * 读到根元素内（任意层级）的第一个Encrypt元素为止，不解析后面的内容，与原来DOM的getElementsByTagName一致
+   */
+  private static String extractEncryptPart(XMLStreamReader reader) throws XMLStreamException {
+    if (StaxUtils.nextElement(reader) == XMLStreamConstants.START_ELEMENT) {
+      int event;
+      while ((event = StaxUtils.nextElement(reader)) != XMLStreamConstants.END_DOCUMENT) {
+        if (event == XMLStreamConstants.START_ELEMENT && "Encrypt".equals(reader.getLocalName())) {
+          return StaxUtils.readText(reader);
+        }
+      }
     }
+    throw new RuntimeException("加密消息中没有Encrypt元素");
   }
 
   /**
-   * 将一个数字转换成生成4个字节的网络字节序bytes数组
-   *
-   * @param number
+   * <pre>
+   * 把base64字符串直接解码到buffer中，返回解码后的字节数
+   * 与commons-codec一致，忽略非base64字符（例如换行）
+   * buffer的长度至少为 text.length() / 4 * 3 + 3
+   * </pre>
    */
-  private static byte[] number2BytesInNetworkOrder(int number) {
-    byte[] orderBytes = new byte[4];
-    orderBytes[3] = (byte) (number & 0xFF);
-    orderBytes[2] = (byte) (number >> 8 & 0xFF);
-    orderBytes[1] = (byte) (number >> 16 & 0xFF);
-    orderBytes[0] = (byte) (number >> 24 & 0xFF);
-    return orderBytes;
+  public static int decodeBase64(CharSequence text, byte[] buffer) {
+    return decodeBase64(text, buffer, 0);
+  }
+
+  /**
+   * 解码到buffer中从offset开始的位置，返回解码后的字节数
+   */
+  public static int decodeBase64(CharSequence text, byte[] buffer, int offset) {
+    int bits = 0;
+    int bitCount = 0;
+    int length = offset;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == '=') {
+        break;
+      }
+      int value = c < 128 ? BASE64_VALUES[c] : -1;
+      if (value < 0) {
+        continue;
+      }
+      bits = (bits << 6) | value;
+      bitCount += 6;
+      if (bitCount >= 8) {
+        bitCount -= 8;
+        buffer[length++] = (byte) (bits >> bitCount);
+      }
+    }
+    return length - offset;
+  }
+
+  /**
+   * <pre>
+   * 把data的前length个字节直接编码为base64字符串，不换行
+   * 编码使用当前线程的字符缓冲区，只在最后创建字符串时复制一次
+   * </pre>
+   */
+  static String encodeBase64(byte[] data, int length) {
+    int size = (length + 2) / 3 * 4;
+    char[] chars = charBufferLocal.get();
+    if (chars.length < size) {
+      chars = new char[Math.max(size, chars.length * 2)];
+      if (chars.length <= MAX_CACHED_BUFFER_SIZE) {
+        charBufferLocal.set(chars);
+      }
+    }
+
+    int position = 0;
+    int i = 0;
+    for (; i + 2 < length; i += 3) {
+      int bits = (data[i] & 0xff) << 16 | (data[i + 1] & 0xff) << 8 | (data[i + 2] & 0xff);
+      chars[position++] = BASE64_CHARS[bits >>> 18];
+      chars[position++] = BASE64_CHARS[(bits >>> 12) & 0x3f];
+      chars[position++] = BASE64_CHARS[(bits >>> 6) & 0x3f];
+      chars[position++] = BASE64_CHARS[bits & 0x3f];
+    }
+    if (i < length) {
+      int bits = (data[i] & 0xff) << 16 | (i + 1 < length ? (data[i + 1] & 0xff) << 8 : 0);
+      chars[position++] = BASE64_CHARS[bits >>> 18];
+      chars[position++] = BASE64_CHARS[(bits >>> 12) & 0x3f];
+      chars[position++] = i + 1 < length ? BASE64_CHARS[(bits >>> 6) & 0x3f] : '=';
+      chars[position++] = '=';
+    }
+    return new String(chars, 0, position);
+  }
+
+  /**
+   * 当前线程的解密缓冲区，过大时不缓存
+   */
+  private static byte[] buffer(int size) {
+    return buffer(bufferLocal, size);
+  }
+
+  private static byte[] buffer(ThreadLocal<byte[]> local, int size) {
+    byte[] buffer = local.get();
+    if (buffer.length >= size) {
+      return buffer;
+    }
+    if (size > MAX_CACHED_BUFFER_SIZE) {
+      return new byte[size];
+    }
+    buffer = new byte[Math.max(size, buffer.length * 2)];
+    local.set(buffer);
+    return buffer;
+  }
+
+  /**
+   * 字符串按UTF-8编码后的字节数，与String.getBytes一致，不成对的代理字符编码为'?'
+   */
+  static int utf8Length(String text) {
+    int length = text.length();
+    int bytes = length;
+    for (int i = 0; i < length; i++) {
+      char c = text.charAt(i);
+      if (c < 0x80) {
+        continue;
+      }
+      if (c < 0x800) {
+        bytes += 1;
+      } else if (!Character.isSurrogate(c)) {
+        bytes += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+        // 两个char编码为4个字节
+        bytes += 2;
+        i++;
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * 把字符串按UTF-8编码写入buffer，返回写入后的位置
+   */
+  static int encodeUtf8(String text, byte[] buffer, int position) {
+    int length = text.length();
+    for (int i = 0; i < length; i++) {
+      char c = text.charAt(i);
+      if (c < 0x80) {
+        buffer[position++] = (byte) c;
+      } else if (c < 0x800) {
+        buffer[position++] = (byte) (0xc0 | (c >> 6));
+        buffer[position++] = (byte) (0x80 | (c & 0x3f));
+      } else if (!Character.isSurrogate(c)) {
+        buffer[position++] = (byte) (0xe0 | (c >> 12));
+        buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        buffer[position++] = (byte) (0x80 | (c & 0x3f));
+      } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, text.charAt(++i));
+        buffer[position++] = (byte) (0xf0 | (codePoint >> 18));
+        buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+        buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+        buffer[position++] = (byte) (0x80 | (codePoint & 0x3f));
+      } else {
+        buffer[position++] = '?';
+      }
+    }
+    return position;
   }
 
   /**
    * 4个字节的网络字节序bytes数组还原成一个数字
    *
    * @param bytesInNetworkOrder
+   * @param offset              数字在数组中的起始位置
    */
-  private static int bytesNetworkOrder2Number(byte[] bytesInNetworkOrder) {
+  private static int bytesNetworkOrder2Number(byte[] bytesInNetworkOrder, int offset) {
     int sourceNumber = 0;
     for (int i = 0; i < 4; i++) {
       sourceNumber <<= 8;
-      sourceNumber |= bytesInNetworkOrder[i] & 0xff;
+      sourceNumber |= bytesInNetworkOrder[offset + i] & 0xff;
     }
     return sourceNumber;
   }
@@ -106,14 +290,12 @@ public class WxCryptUtil {
    * 随机生成16位字符串
    */
   private static String genRandomStr() {
-    String base = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
-    Random random = new Random();
-    StringBuffer sb = new StringBuffer();
-    for (int i = 0; i < 16; i++) {
-      int number = random.nextInt(base.length());
-      sb.append(base.charAt(number));
+    Random random = ThreadLocalRandom.current();
+    char[] chars = new char[16];
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = RANDOM_CHARS.charAt(random.nextInt(RANDOM_CHARS.length()));
     }
-    return sb.toString();
+    return new String(chars);
   }
 
   /**
@@ -127,11 +309,14 @@ public class WxCryptUtil {
    */
   private static String generateXml(String encrypt, String signature,
                                     String timestamp, String nonce) {
-    String format = "<xml>\n" + "<Encrypt><![CDATA[%1$s]]></Encrypt>\n"
-      + "<MsgSignature><![CDATA[%2$s]]></MsgSignature>\n"
-      + "<TimeStamp>%3$s</TimeStamp>\n" + "<Nonce><![CDATA[%4$s]]></Nonce>\n"
-      + "</xml>";
-    return String.format(format, encrypt, signature, timestamp, nonce);
+    // 密文通常有几百上千个字符，直接拼接，避免String.format解析格式串
+    return new StringBuilder(encrypt.length() + 160)
+      .append("<xml>\n<Encrypt><![CDATA[").append(encrypt).append("]]></Encrypt>\n")
+      .append("<MsgSignature><![CDATA[").append(signature).append("]]></MsgSignature>\n")
+      .append("<TimeStamp>").append(timestamp).append("</TimeStamp>\n")
+      .append("<Nonce><![CDATA[").append(nonce).append("]]></Nonce>\n")
+      .append("</xml>")
+      .toString();
   }
 
   /**
@@ -165,41 +350,39 @@ public class WxCryptUtil {
    * @return 加密后base64编码的字符串
    */
   protected String encrypt(String randomStr, String plainText) {
-    ByteGroup byteCollector = new ByteGroup();
-    byte[] randomStringBytes = randomStr.getBytes(CHARSET);
-    byte[] plainTextBytes = plainText.getBytes(CHARSET);
-    byte[] bytesOfSizeInNetworkOrder = number2BytesInNetworkOrder(
-      plainTextBytes.length);
-    byte[] appIdBytes = this.appidOrCorpid.getBytes(CHARSET);
-
-    // randomStr + networkBytesOrder + text + appid
-    byteCollector.addBytes(randomStringBytes);
-    byteCollector.addBytes(bytesOfSizeInNetworkOrder);
-    byteCollector.addBytes(plainTextBytes);
-    byteCollector.addBytes(appIdBytes);
+    // randomStr + networkBytesOrder + text + appid + pad，一次算好长度，直接写入同一个缓冲区
+    int randomLength = utf8Length(randomStr);
+    int textLength = utf8Length(plainText);
+    int appidLength = utf8Length(this.appidOrCorpid);
+    int length = randomLength + 4 + textLength + appidLength;
+    int padLength = PKCS7Encoder.padLength(length);
+    byte[] buffer = buffer(encryptBufferLocal, length + padLength);
+
+    int position = encodeUtf8(randomStr, buffer, 0);
+    buffer[position++] = (byte) (textLength >> 24);
+    buffer[position++] = (byte) (textLength >> 16);
+    buffer[position++] = (byte) (textLength >> 8);
+    buffer[position++] = (byte) textLength;
+    position = encodeUtf8(plainText, buffer, position);
+    position = encodeUtf8(this.appidOrCorpid, buffer, position);
 
     // ... + pad: 使用自定义的填充方式对明文进行补位填充
-    byte[] padBytes = PKCS7Encoder.encode(byteCollector.size());
-    byteCollector.addBytes(padBytes);
-
-    // 获得最终的字节流, 未加密
-    byte[] unencrypted = byteCollector.toBytes();
+    Arrays.fill(buffer, position, position + padLength, (byte) padLength);
+    position += padLength;
 
+    CachedCipher cachedCipher = null;
     try {
-      // 设置加密模式为AES的CBC模式
-      Cipher cipher = Cipher.getInstance("AES/CBC/NoPadding");
-      SecretKeySpec keySpec = new SecretKeySpec(this.aesKey, "AES");
-      IvParameterSpec iv = new IvParameterSpec(this.aesKey, 0, 16);
-      cipher.init(Cipher.ENCRYPT_MODE, keySpec, iv);
-
-      // 加密
-      byte[] encrypted = cipher.doFinal(unencrypted);
+      // 设置加密模式为AES的CBC模式，原地加密
+      cachedCipher = CachedCipher.get(AES_TRANSFORMATION, Cipher.ENCRYPT_MODE);
+      int encryptedLength = cachedCipher.init(this.aesKey, this.aesKey, 0, 16)
+        .doFinal(buffer, 0, position, buffer, 0);
 
       // 使用BASE64对加密后的字符串进行编码
-      String base64Encrypted = base64.encodeToString(encrypted);
-
-      return base64Encrypted;
+      return encodeBase64(buffer, encryptedLength);
     } catch (Exception e) {
+      if (cachedCipher != null) {
+        cachedCipher.invalidate();
+      }
       throw new RuntimeException(e);
     }
   }
@@ -224,8 +407,7 @@ public class WxCryptUtil {
     String cipherText = extractEncryptPart(encryptedXml);
 
     // 验证安全签名
-    String signature = SHA1.gen(this.token, timeStamp, nonce, cipherText);
-    if (!signature.equals(msgSignature)) {
+    if (!SHA1.check(msgSignature, this.token, timeStamp, nonce, cipherText)) {
       throw new RuntimeException("加密消息签名校验失败");
     }
 
@@ -234,6 +416,43 @@ public class WxCryptUtil {
     return result;
   }
 
+  /**
+   * <pre>
+   * 与 {@link #decrypt(String, String, String, String)} 相同，但直接从请求流中读取密文，
+   * 解密后的明文不转换为字符串，而是以流的形式返回，可以直接交给消息解析器
+   * </pre>
+   *
+   * @param msgSignature 签名串，对应URL参数的msg_signature
+   * @param timeStamp    时间戳，对应URL参数的timestamp
+   * @param nonce        随机串，对应URL参数的nonce
+   * @param encryptedXml 密文，对应POST请求的数据
+   * @return 解密后的原文（UTF-8）
+   */
+  public InputStream decryptToStream(String msgSignature, String timeStamp, String nonce, InputStream encryptedXml) {
+    // 提取密文
+    String cipherText = extractEncryptPart(encryptedXml);
+
+    // 验证安全签名
+    if (!SHA1.check(msgSignature, this.token, timeStamp, nonce, cipherText)) {
+      throw new RuntimeException("加密消息签名校验失败");
+    }
+
+    return decryptToStream(cipherText);
+  }
+
+  /**
+   * 对密文进行解密，明文以流的形式返回
+   * 明文从当前线程的缓冲区中复制出来，返回的流不受之后的解密影响
+   *
+   * @param cipherText 需要解密的密文
+   * @return 解密得到的明文（UTF-8）
+   */
+  public InputStream decryptToStream(String cipherText) {
+    byte[] buffer = buffer(cipherText.length() / 4 * 3 + 3);
+    int xmlLength = decryptInPlace(cipherText, buffer);
+    return new ByteArrayInputStream(Arrays.copyOfRange(buffer, 20, 20 + xmlLength));
+  }
+
   /**
    * 对密文进行解密.
    *
@@ -241,49 +460,77 @@ public class WxCryptUtil {
    * @return 解密得到的明文
    */
   public String decrypt(String cipherText) {
-    byte[] original;
+    byte[] buffer = buffer(cipherText.length() / 4 * 3 + 3);
+    int xmlLength = decryptInPlace(cipherText, buffer);
+    return new String(buffer, 20, xmlLength, CHARSET);
+  }
+
+  /**
+   * <pre>
+   * base64解码到buffer后原地解密，校验appid
+   * 解密后buffer的内容为：16位随机字符串、4字节网络字节序的明文长度、明文、appid
+   * </pre>
+   *
+   * @return 明文的字节数，明文从buffer的第20个字节开始
+   */
+  private int decryptInPlace(String cipherText, byte[] buffer) {
+    int length;
+    CachedCipher cachedCipher = null;
     try {
       // 设置解密模式为AES的CBC模式
-      Cipher cipher = Cipher.getInstance("AES/CBC/NoPadding");
-      SecretKeySpec key_spec = new SecretKeySpec(this.aesKey, "AES");
-      IvParameterSpec iv = new IvParameterSpec(
-        Arrays.copyOfRange(this.aesKey, 0, 16));
-      cipher.init(Cipher.DECRYPT_MODE, key_spec, iv);
+      cachedCipher = CachedCipher.get(AES_TRANSFORMATION, Cipher.DECRYPT_MODE);
+      Cipher cipher = cachedCipher.init(this.aesKey, this.aesKey, 0, 16);
 
       // 使用BASE64对密文进行解码
-      byte[] encrypted = Base64.decodeBase64(cipherText);
+      int encryptedLength = decodeBase64(cipherText, buffer);
 
-      // 解密
-      original = cipher.doFinal(encrypted);
+      // 解密，输入输出使用同一个数组
+      length = cipher.doFinal(buffer, 0, encryptedLength, buffer, 0);
     } catch (Exception e) {
+      if (cachedCipher != null) {
+        cachedCipher.invalidate();
+      }
       throw new RuntimeException(e);
     }
 
-    String xmlContent, from_appid;
+    int xmlLength;
+    int appidLength;
     try {
       // 去除补位字符
-      byte[] bytes = PKCS7Encoder.decode(original);
+      int pad = buffer[length - 1];
+      if (pad < 1 || pad > 32) {
+        pad = 0;
+      }
+      length -= pad;
 
       // 分离16位随机字符串,网络字节序和AppId
-      byte[] networkOrder = Arrays.copyOfRange(bytes, 16, 20);
-
-      int xmlLength = bytesNetworkOrder2Number(networkOrder);
-
-      xmlContent = new String(Arrays.copyOfRange(bytes, 20, 20 + xmlLength),
-        CHARSET);
-      from_appid = new String(
-        Arrays.copyOfRange(bytes, 20 + xmlLength, bytes.length), CHARSET);
+      xmlLength = bytesNetworkOrder2Number(buffer, 16);
+      appidLength = length - 20 - xmlLength;
+      if (xmlLength < 0 || appidLength < 0) {
+        throw new IllegalArgumentException("Invalid xml length: " + xmlLength);
+      }
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
 
     // appid不相同的情况
-    if (!from_appid.equals(this.appidOrCorpid)) {
+    byte[] appidBytes = this.appidOrCorpid.getBytes(CHARSET);
+    if (appidBytes.length != appidLength
+      || !regionEquals(buffer, 20 + xmlLength, appidBytes)) {
       throw new RuntimeException("AppID不正确");
     }
 
-    return xmlContent;
+    return xmlLength;
+  }
 
+  private static boolean regionEquals(byte[] data, int offset, byte[] bytes) {
+    for (int i = 0; i < bytes.length; i++) {
+      if (data[offset + i] != bytes[i]) {
+        return false;
+      }
+    }
+    return true;
   }
 
+
 }
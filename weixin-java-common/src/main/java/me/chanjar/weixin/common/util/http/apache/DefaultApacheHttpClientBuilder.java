@@ -308,6 +308,13 @@ public class DefaultApacheHttpClientBuilder implements ApacheHttpClientBuilder {
       }
     }
 
+    /**
+     * 被监控的连接池，连接池由build()创建的httpclient共享，关闭httpclient不会关闭它
+     */
+    public HttpClientConnectionManager getConnectionManager() {
+      return this.connMgr;
+    }
+
     public void trigger() {
       synchronized (this) {
         notifyAll();
@@ -0,0 +1,128 @@
+package me.chanjar.weixin.common.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <pre>
+ * 耗时直方图，分桶方式参考HdrHistogram
+ * 以2的幂划分主桶，每个主桶再线性划分为8个子桶，所以任意记录值的相对误差不超过12.5%
+ * 桶的个数是固定的，记录时不会产生任何对象分配
+ * 记录的单位由调用方决定，路由器中统一使用纳秒
+ * </pre>
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 3;
+
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+  private static final int SUB_BUCKET_MASK = SUB_BUCKET_COUNT - 1;
+
+  /**
+   * 最大的long值最高位是第62位，对应的桶下标是 (62 - 2) * 8 + 7
+   */
+  private static final int BUCKET_COUNT = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+  private final StripedCounter count = new StripedCounter();
+
+  private final StripedCounter total = new StripedCounter();
+
+  private final AtomicLong max = new AtomicLong();
+
+  static int bucketIndex(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    int exp = 63 - Long.numberOfLeadingZeros(value);
+    int sub = (int) (value >>> (exp - SUB_BUCKET_BITS)) & SUB_BUCKET_MASK;
+    return (exp - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + sub;
+  }
+
+  static long bucketLowerBound(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int exp = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+    long sub = index & SUB_BUCKET_MASK;
+    return (SUB_BUCKET_COUNT + sub) << (exp - SUB_BUCKET_BITS);
+  }
+
+  /**
+   * 记录一个值，负数按0处理
+   */
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    this.buckets.incrementAndGet(bucketIndex(value));
+    this.count.increment();
+    this.total.add(value);
+
+    long currentMax = this.max.get();
+    while (value > currentMax && !this.max.compareAndSet(currentMax, value)) {
+      currentMax = this.max.get();
+    }
+  }
+
+  public long getCount() {
+    return this.count.sum();
+  }
+
+  public long getTotal() {
+    return this.total.sum();
+  }
+
+  public long getMax() {
+    return this.max.get();
+  }
+
+  public double getMean() {
+    long n = getCount();
+    return n == 0 ? 0 : (double) getTotal() / n;
+  }
+
+  /**
+   * 返回指定百分位上的值（所在桶的上界，且不超过最大值）
+   *
+   * @param percentile 百分位，取值范围[0, 100]
+   */
+  public long getValueAtPercentile(double percentile) {
+    long n = 0;
+    long[] snapshot = new long[BUCKET_COUNT];
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      snapshot[i] = this.buckets.get(i);
+      n += snapshot[i];
+    }
+    if (n == 0) {
+      return 0;
+    }
+
+    double p = Math.min(Math.max(percentile, 0), 100);
+    long target = Math.max(1, (long) Math.ceil(p / 100 * n));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += snapshot[i];
+      if (seen >= target) {
+        long upper = i + 1 < BUCKET_COUNT ? bucketLowerBound(i + 1) - 1 : Long.MAX_VALUE;
+        return Math.min(upper, getMax());
+      }
+    }
+    return getMax();
+  }
+
+  /**
+   * 清空所有记录
+   */
+  public void reset() {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      this.buckets.set(i, 0L);
+    }
+    this.count.reset();
+    this.total.reset();
+    this.max.set(0L);
+  }
+
+}
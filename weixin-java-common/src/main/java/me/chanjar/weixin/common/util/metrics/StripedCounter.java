@@ -0,0 +1,78 @@
+package me.chanjar.weixin.common.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <pre>
+ * 分段计数器，作用类似于jdk8的LongAdder
+ * 不同线程按线程id散列到不同的槽位上累加，读取时再求和，避免高并发下对同一个AtomicLong的争用
+ * 每个槽位之间填充了若干个long，尽量避免伪共享
+ * </pre>
+ */
+public class StripedCounter {
+
+  /**
+   * 每个槽位占用的long个数，8个long即64字节，正好是一个缓存行
+   */
+  private static final int PADDING = 8;
+
+  private final int mask;
+
+  private final AtomicLongArray cells;
+
+  public StripedCounter() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param stripes 槽位个数，会被向上取整为2的幂
+   */
+  public StripedCounter(int stripes) {
+    int size = 1;
+    while (size < stripes) {
+      size <<= 1;
+    }
+    this.mask = size - 1;
+    this.cells = new AtomicLongArray(size * PADDING);
+  }
+
+  public void increment() {
+    add(1L);
+  }
+
+  public void add(long x) {
+    this.cells.addAndGet(index(), x);
+  }
+
+  /**
+   * 返回当前的累加值，并发更新时返回的不是一个精确的快照
+   */
+  public long sum() {
+    long sum = 0L;
+    for (int i = 0; i <= this.mask; i++) {
+      sum += this.cells.get(i * PADDING);
+    }
+    return sum;
+  }
+
+  /**
+   * 清零
+   */
+  public void reset() {
+    for (int i = 0; i <= this.mask; i++) {
+      this.cells.set(i * PADDING, 0L);
+    }
+  }
+
+  private int index() {
+    long id = Thread.currentThread().getId();
+    int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+    return ((h ^ (h >>> 16)) & this.mask) * PADDING;
+  }
+
+  @Override
+  public String toString() {
+    return Long.toString(sum());
+  }
+
+}
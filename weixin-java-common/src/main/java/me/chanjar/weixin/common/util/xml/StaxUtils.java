@@ -0,0 +1,194 @@
+package me.chanjar.weixin.common.util.xml;
+
+import com.thoughtworks.xstream.io.StreamException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.io.StringReader;
+
+/**
+ * <pre>
+ * 基于StAX的xml读取工具，用于手写的消息解析器，避免XStream反射带来的开销
+ * XMLInputFactory是线程安全的，全局共用一个；禁用了DTD和外部实体
+ * 一般通过 {@link #read(String, ReadHandler)} 使用，读完后自动关闭reader，
+ * xml格式不正确时抛出 {@link StreamException}，与原来用XStream解析消息时抛出的异常类型一致
+ * </pre>
+ */
+public class StaxUtils {
+
+  private static final XMLInputFactory FACTORY = createFactory();
+
+  private static XMLInputFactory createFactory() {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+    return factory;
+  }
+
+  /**
+   * 创建reader，由调用方负责关闭
+   */
+  public static XMLStreamReader createReader(String xml) throws XMLStreamException {
+    return FACTORY.createXMLStreamReader(new StringReader(xml));
+  }
+
+  /**
+   * 创建reader，由调用方负责关闭，关闭reader不会关闭输入流
+   */
+  public static XMLStreamReader createReader(InputStream is) throws XMLStreamException {
+    return FACTORY.createXMLStreamReader(is);
+  }
+
+  /**
+   * 从xml读取对象
+   */
+  public interface ReadHandler<T> {
+    T read(XMLStreamReader reader) throws XMLStreamException;
+  }
+
+  /**
+   * 创建reader交给handler读取，完成后关闭reader
+   *
+   * @throws StreamException xml格式不正确
+   */
+  public static <T> T read(String xml, ReadHandler<T> handler) {
+    XMLStreamReader reader = null;
+    try {
+      reader = createReader(xml);
+      return handler.read(reader);
+    } catch (XMLStreamException e) {
+      throw new StreamException("非法的xml文本内容：" + e.getMessage(), e);
+    } finally {
+      close(reader);
+    }
+  }
+
+  /**
+   * 创建reader交给handler读取，完成后关闭reader，输入流由调用方关闭
+   *
+   * @throws StreamException xml格式不正确
+   */
+  public static <T> T read(InputStream is, ReadHandler<T> handler) {
+    XMLStreamReader reader = null;
+    try {
+      reader = createReader(is);
+      return handler.read(reader);
+    } catch (XMLStreamException e) {
+      throw new StreamException("非法的xml文本内容：" + e.getMessage(), e);
+    } finally {
+      close(reader);
+    }
+  }
+
+  private static void close(XMLStreamReader reader) {
+    if (reader == null) {
+      return;
+    }
+    try {
+      reader.close();
+    } catch (XMLStreamException e) {
+      // 只释放reader内部的资源，关闭失败不影响已经读取的结果
+    }
+  }
+
+  /**
+   * 移动到下一个开始或结束标签，跳过文本、注释等
+   *
+   * @return {@link XMLStreamConstants#START_ELEMENT} 或 {@link XMLStreamConstants#END_ELEMENT}，文档结束时返回 {@link XMLStreamConstants#END_DOCUMENT}
+   */
+  public static int nextElement(XMLStreamReader reader) throws XMLStreamException {
+    while (reader.hasNext()) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT || event == XMLStreamConstants.END_ELEMENT) {
+        return event;
+      }
+    }
+    return XMLStreamConstants.END_DOCUMENT;
+  }
+
+  /**
+   * <pre>
+   * 读取当前元素的文本（包括CDATA），读完后停在该元素的结束标签上
+   * 子元素会被跳过，与XStream读取字符串字段的结果一致
+   * </pre>
+   */
+  public static String readText(XMLStreamReader reader) throws XMLStreamException {
+    String first = null;
+    StringBuilder text = null;
+    int depth = 1;
+    while (depth > 0) {
+      int event = reader.next();
+      switch (event) {
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.CDATA:
+        case XMLStreamConstants.SPACE:
+          if (depth != 1) {
+            break;
+          }
+          // 大多数元素只有一段文本，不需要拼接
+          if (first == null) {
+            first = reader.getText();
+          } else {
+            if (text == null) {
+              text = new StringBuilder(first);
+            }
+            text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+          }
+          break;
+        case XMLStreamConstants.START_ELEMENT:
+          depth++;
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          depth--;
+          break;
+        default:
+          break;
+      }
+    }
+    if (text != null) {
+      return text.toString();
+    }
+    return first == null ? "" : first;
+  }
+
+  /**
+   * 跳过当前元素及其所有子元素，完成后停在该元素的结束标签上
+   */
+  public static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+    int depth = 1;
+    while (depth > 0) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      }
+    }
+  }
+
+  /**
+   * 空字符串返回null
+   */
+  public static Long toLong(String text) {
+    return text.isEmpty() ? null : Long.valueOf(text);
+  }
+
+  /**
+   * 空字符串返回null
+   */
+  public static Integer toInteger(String text) {
+    return text.isEmpty() ? null : Integer.valueOf(text);
+  }
+
+  /**
+   * 空字符串返回null
+   */
+  public static Double toDouble(String text) {
+    return text.isEmpty() ? null : Double.valueOf(text);
+  }
+
+}
@@ -0,0 +1,289 @@
+package me.chanjar.weixin.common.util.xml;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <pre>
+ * 只扫描一遍xml，找出根元素下每个子元素在原始字符串中的位置，不解码任何文本
+ * 用于按需解析的消息：大部分元素不会被读取，只有被读取的元素才调用 {@link #decodeText(String, int, int)}
+ *
+ * 只支持微信推送的这类简单xml：没有DTD，没有命名空间，元素名中不含空白
+ * </pre>
+ */
+public class XmlElementIndex {
+
+  /**
+   * xml声明中的encoding，声明只能出现在文档开头
+   */
+  private static final Pattern ENCODING = Pattern.compile(
+    "\\s*<\\?xml\\s[^>]*?encoding\\s*=\\s*[\"']([A-Za-z][A-Za-z0-9._\\-]*)[\"']");
+
+  /**
+   * 扫描到的一个子元素
+   */
+  public interface Visitor {
+
+    /**
+     * @param name         元素名
+     * @param elementStart 开始标签的'&lt;'的位置
+     * @param contentStart 开始标签之后的位置
+     * @param contentEnd   结束标签的'&lt;'的位置，空元素与contentStart相同
+     * @param elementEnd   结束标签之后的位置
+     */
+    void element(String name, int elementStart, int contentStart, int contentEnd, int elementEnd);
+
+  }
+
+  /**
+   * 扫描根元素下的所有子元素
+   *
+   * @throws IllegalArgumentException xml格式不正确
+   */
+  public static void scan(String xml, Visitor visitor) {
+    int pos = skipMarkup(xml, 0);
+    if (pos < 0) {
+      throw new IllegalArgumentException("No root element");
+    }
+    // 根元素的开始标签
+    int rootEnd = tagEnd(xml, pos);
+    if (xml.charAt(rootEnd - 2) == '/') {
+      return;
+    }
+
+    pos = rootEnd;
+    while (true) {
+      pos = skipMarkup(xml, pos);
+      if (pos < 0 || xml.startsWith("</", pos)) {
+        return;
+      }
+
+      int nameEnd = nameEnd(xml, pos + 1);
+      String name = xml.substring(pos + 1, nameEnd);
+      int contentStart = tagEnd(xml, pos);
+      if (xml.charAt(contentStart - 2) == '/') {
+        visitor.element(name, pos, contentStart, contentStart, contentStart);
+        pos = contentStart;
+        continue;
+      }
+
+      int contentEnd = contentEnd(xml, contentStart);
+      int elementEnd = tagEnd(xml, contentEnd);
+      visitor.element(name, pos, contentStart, contentEnd, elementEnd);
+      pos = elementEnd;
+    }
+  }
+
+  /**
+   * <pre>
+   * 把xml文档的字节转换为字符串，与xml解析器一样先看BOM，再看xml声明中的encoding，都没有时按UTF-8
+   * </pre>
+   *
+   * @throws IllegalArgumentException 不支持声明中的encoding
+   */
+  public static String decodeDocument(byte[] bytes) {
+    int length = bytes.length;
+    if (length >= 3 && (bytes[0] & 0xFF) == 0xEF && (bytes[1] & 0xFF) == 0xBB && (bytes[2] & 0xFF) == 0xBF) {
+      return new String(bytes, 3, length - 3, StandardCharsets.UTF_8);
+    }
+    if (length >= 2 && (bytes[0] & 0xFF) == 0xFE && (bytes[1] & 0xFF) == 0xFF) {
+      return new String(bytes, 2, length - 2, StandardCharsets.UTF_16BE);
+    }
+    if (length >= 2 && (bytes[0] & 0xFF) == 0xFF && (bytes[1] & 0xFF) == 0xFE) {
+      return new String(bytes, 2, length - 2, StandardCharsets.UTF_16LE);
+    }
+
+    // 声明只包含ASCII字符，按ISO-8859-1读出开头一段即可
+    String head = new String(bytes, 0, Math.min(length, 256), StandardCharsets.ISO_8859_1);
+    Matcher matcher = ENCODING.matcher(head);
+    Charset charset = StandardCharsets.UTF_8;
+    if (matcher.lookingAt()) {
+      charset = Charset.forName(matcher.group(1));
+    }
+    return new String(bytes, charset);
+  }
+
+  /**
+   * <pre>
+   * 解码元素的文本：去掉CDATA标记，还原实体引用，忽略注释和子元素
+   * 结果与 {@link StaxUtils#readText(javax.xml.stream.XMLStreamReader)} 一致
+   * </pre>
+   */
+  public static String decodeText(String xml, int start, int end) {
+    int markup = indexOfMarkup(xml, start, end);
+    if (markup < 0) {
+      return xml.substring(start, end);
+    }
+
+    StringBuilder text = new StringBuilder(end - start);
+    text.append(xml, start, markup);
+    int pos = markup;
+    int depth = 0;
+    while (pos < end) {
+      char c = xml.charAt(pos);
+      if (c == '<') {
+        if (xml.startsWith("<![CDATA[", pos)) {
+          int cdataEnd = indexOf(xml, "]]>", pos + 9);
+          if (depth == 0) {
+            text.append(xml, pos + 9, cdataEnd);
+          }
+          pos = cdataEnd + 3;
+        } else if (xml.startsWith("<!--", pos)) {
+          pos = indexOf(xml, "-->", pos + 4) + 3;
+        } else if (xml.startsWith("<?", pos)) {
+          pos = indexOf(xml, "?>", pos + 2) + 2;
+        } else {
+          int tagEnd = tagEnd(xml, pos);
+          if (xml.charAt(pos + 1) == '/') {
+            depth--;
+          } else if (xml.charAt(tagEnd - 2) != '/') {
+            depth++;
+          }
+          pos = tagEnd;
+        }
+      } else if (c == '&') {
+        int semicolon = indexOf(xml, ";", pos);
+        if (depth == 0) {
+          appendEntity(text, xml, pos + 1, semicolon);
+        }
+        pos = semicolon + 1;
+      } else {
+        if (depth == 0) {
+          text.append(c);
+        }
+        pos++;
+      }
+    }
+    return text.toString();
+  }
+
+  private static void appendEntity(StringBuilder text, String xml, int start, int end) {
+    String entity = xml.substring(start, end);
+    switch (entity) {
+      case "lt":
+        text.append('<');
+        break;
+      case "gt":
+        text.append('>');
+        break;
+      case "amp":
+        text.append('&');
+        break;
+      case "quot":
+        text.append('"');
+        break;
+      case "apos":
+        text.append('\'');
+        break;
+      default:
+        if (entity.startsWith("#x")) {
+          text.appendCodePoint(Integer.parseInt(entity.substring(2), 16));
+        } else if (entity.startsWith("#")) {
+          text.appendCodePoint(Integer.parseInt(entity.substring(1)));
+        } else {
+          throw new IllegalArgumentException("Unknown entity: &" + entity + ";");
+        }
+    }
+  }
+
+  private static int indexOfMarkup(String xml, int start, int end) {
+    for (int i = start; i < end; i++) {
+      char c = xml.charAt(i);
+      if (c == '<' || c == '&') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * 跳过xml声明、注释、DOCTYPE和空白，返回下一个元素标签的位置，没有返回-1
+   */
+  private static int skipMarkup(String xml, int pos) {
+    while (true) {
+      pos = xml.indexOf('<', pos);
+      if (pos < 0) {
+        return -1;
+      }
+      if (xml.startsWith("<?", pos)) {
+        pos = indexOf(xml, "?>", pos + 2) + 2;
+      } else if (xml.startsWith("<!--", pos)) {
+        pos = indexOf(xml, "-->", pos + 4) + 3;
+      } else if (xml.startsWith("<!", pos)) {
+        pos = tagEnd(xml, pos);
+      } else {
+        return pos;
+      }
+    }
+  }
+
+  /**
+   * 从开始标签之后找到对应结束标签的位置，跳过CDATA、注释和嵌套的元素
+   */
+  private static int contentEnd(String xml, int pos) {
+    int depth = 0;
+    while (true) {
+      pos = indexOf(xml, "<", pos);
+      if (xml.startsWith("<![CDATA[", pos)) {
+        pos = indexOf(xml, "]]>", pos + 9) + 3;
+      } else if (xml.startsWith("<!--", pos)) {
+        pos = indexOf(xml, "-->", pos + 4) + 3;
+      } else if (xml.startsWith("<?", pos)) {
+        pos = indexOf(xml, "?>", pos + 2) + 2;
+      } else if (xml.startsWith("</", pos)) {
+        if (depth == 0) {
+          return pos;
+        }
+        depth--;
+        pos = tagEnd(xml, pos);
+      } else {
+        int tagEnd = tagEnd(xml, pos);
+        if (xml.charAt(tagEnd - 2) != '/') {
+          depth++;
+        }
+        pos = tagEnd;
+      }
+    }
+  }
+
+  /**
+   * 标签结束的'&gt;'之后的位置，跳过属性值中的'&gt;'
+   */
+  private static int tagEnd(String xml, int pos) {
+    char quote = 0;
+    for (int i = pos + 1; i < xml.length(); i++) {
+      char c = xml.charAt(i);
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        }
+      } else if (c == '"' || c == '\'') {
+        quote = c;
+      } else if (c == '>') {
+        return i + 1;
+      }
+    }
+    throw new IllegalArgumentException("Unclosed tag at " + pos);
+  }
+
+  private static int nameEnd(String xml, int pos) {
+    for (int i = pos; i < xml.length(); i++) {
+      char c = xml.charAt(i);
+      if (c == '>' || c == '/' || Character.isWhitespace(c)) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException("Unclosed tag at " + pos);
+  }
+
+  private static int indexOf(String xml, String str, int from) {
+    int index = xml.indexOf(str, from);
+    if (index < 0) {
+      throw new IllegalArgumentException("Missing " + str + " after " + from);
+    }
+    return index;
+  }
+
+}
@@ -0,0 +1,100 @@
+package me.chanjar.weixin.common.util.xml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <pre>
+ * 手写的回复消息writer使用的xml拼接工具，直接写入StringBuilder，不经过XStream的反射和PrettyPrintWriter
+ * 与XStream一样，值为null的元素不输出
+ * </pre>
+ */
+public class XmlWriterUtils {
+
+  /**
+   * 每个线程复用的StringBuilder，超过这个容量后不再复用
+   */
+  private static final int MAX_CACHED_CAPACITY = 16 * 1024;
+
+  private static final ThreadLocal<StringBuilder> builderLocal = new ThreadLocal<StringBuilder>() {
+    @Override
+    protected StringBuilder initialValue() {
+      return new StringBuilder(1024);
+    }
+  };
+
+  /**
+   * 当前线程复用的StringBuilder，已清空，只能在下一次调用之前使用
+   */
+  public static StringBuilder builder() {
+    StringBuilder builder = builderLocal.get();
+    if (builder.capacity() > MAX_CACHED_CAPACITY) {
+      builder = new StringBuilder(1024);
+      builderLocal.set(builder);
+    }
+    builder.setLength(0);
+    return builder;
+  }
+
+  /**
+   * 写入 &lt;name&gt;&lt;![CDATA[value]]&gt;&lt;/name&gt;，value中的"]]&gt;"会被拆到两个CDATA中
+   */
+  public static void appendCData(StringBuilder out, String name, String value) {
+    if (value == null) {
+      return;
+    }
+    out.append('<').append(name).append('>');
+    appendCData(out, value);
+    out.append("</").append(name).append('>');
+  }
+
+  /**
+   * 写入 &lt;name&gt;&lt;MediaId&gt;&lt;![CDATA[mediaId]]&gt;&lt;/MediaId&gt;&lt;/name&gt;
+   */
+  public static void appendMediaId(StringBuilder out, String name, String mediaId) {
+    if (mediaId == null) {
+      return;
+    }
+    out.append('<').append(name).append("><MediaId>");
+    appendCData(out, mediaId);
+    out.append("</MediaId></").append(name).append('>');
+  }
+
+  /**
+   * 写入数字元素
+   */
+  public static void appendElement(StringBuilder out, String name, Long value) {
+    if (value == null) {
+      return;
+    }
+    out.append('<').append(name).append('>').append(value.longValue()).append("</").append(name).append('>');
+  }
+
+  public static void appendElement(StringBuilder out, String name, int value) {
+    out.append('<').append(name).append('>').append(value).append("</").append(name).append('>');
+  }
+
+  private static void appendCData(StringBuilder out, String value) {
+    out.append("<![CDATA[");
+    int start = 0;
+    int end;
+    while ((end = value.indexOf("]]>", start)) >= 0) {
+      out.append(value, start, end + 2).append("]]><![CDATA[");
+      start = end + 2;
+    }
+    out.append(value, start, value.length()).append("]]>");
+  }
+
+  /**
+   * 以UTF-8编码写入输出流（例如servlet的OutputStream），不生成中间的字符串
+   */
+  public static void writeTo(CharSequence xml, OutputStream os) throws IOException {
+    Writer writer = new OutputStreamWriter(os, StandardCharsets.UTF_8);
+    writer.append(xml);
+    writer.flush();
+  }
+
+}
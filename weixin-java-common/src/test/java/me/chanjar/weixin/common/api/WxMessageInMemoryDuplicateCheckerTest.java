@@ -35,4 +35,56 @@ public class WxMessageInMemoryDuplicateCheckerTest {
 
   }
 
+  public void testMaxSize() {
+    WxMessageInMemoryDuplicateChecker checker = new WxMessageInMemoryDuplicateChecker(15000L, 5000L, 100);
+    for (int i = 0; i < 1000; i++) {
+      checker.isDuplicate(String.valueOf(i));
+    }
+    assertTrue(checker.size() <= 100);
+    assertTrue(checker.isDuplicate("1"));
+  }
+
+  public void testSizeAfterRotate() {
+    WxMessageInMemoryDuplicateChecker checker = new WxMessageInMemoryDuplicateChecker(2000L, 1000L);
+    for (int i = 0; i < 10; i++) {
+      checker.isDuplicate(String.valueOf(i));
+    }
+    checker.rotate();
+    Assert.assertEquals(checker.size(), 10);
+    checker.isDuplicate("new");
+    checker.rotate();
+    checker.rotate();
+    Assert.assertEquals(checker.size(), 1);
+    checker.rotate();
+    Assert.assertEquals(checker.size(), 0);
+  }
+
+  public void testRemove() {
+    WxMessageInMemoryDuplicateChecker checker = new WxMessageInMemoryDuplicateChecker(15000L, 5000L);
+    assertFalse(checker.isDuplicate("1"));
+    checker.rotate();
+    assertTrue(checker.isDuplicate("1"));
+
+    // 撤销后重新记录，已在更早一代中的记录也被撤销
+    checker.remove("1");
+    assertFalse(checker.isDuplicate("1"));
+    assertTrue(checker.isDuplicate("1"));
+    checker.remove("2");
+    assertFalse(checker.isDuplicate("2"));
+  }
+
+  public void testMessageKey() {
+    WxMessageInMemoryDuplicateChecker checker = new WxMessageInMemoryDuplicateChecker();
+    long high = WxMessageKeys.eventHigh(1500000000L, 0, "fromUser", "key", "CLICK");
+    long low = WxMessageKeys.eventLow(1500000000L, 0, "fromUser", "key", "CLICK");
+    assertFalse(checker.isDuplicate(high, low));
+    assertTrue(checker.isDuplicate(high, low));
+
+    // 字段边界不同的消息key也不同
+    assertFalse(checker.isDuplicate(WxMessageKeys.eventHigh(1500000000L, 0, "fromUse", "rkey", "CLICK"),
+      WxMessageKeys.eventLow(1500000000L, 0, "fromUse", "rkey", "CLICK")));
+    assertFalse(checker.isDuplicate(WxMessageKeys.MSG_ID_HIGH, 1234567890L));
+    assertTrue(checker.isDuplicate(WxMessageKeys.MSG_ID_HIGH, 1234567890L));
+  }
+
 }
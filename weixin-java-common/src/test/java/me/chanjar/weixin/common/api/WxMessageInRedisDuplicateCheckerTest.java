@@ -0,0 +1,77 @@
+package me.chanjar.weixin.common.api;
+
+import org.testng.annotations.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import java.util.Arrays;
+
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+@Test
+public class WxMessageInRedisDuplicateCheckerTest {
+
+  public void test() {
+    Jedis jedis = mock(Jedis.class);
+    JedisPool jedisPool = mock(JedisPool.class);
+    when(jedisPool.getResource()).thenReturn(jedis);
+    String key1 = redisKey("1");
+    String key2 = redisKey("2");
+    when(jedis.set(eq(key1), anyString(), anyString(), anyString(), anyLong())).thenReturn("OK");
+    // 消息2已经被其他节点处理过
+    when(jedis.set(eq(key2), anyString(), anyString(), anyString(), anyLong())).thenReturn(null);
+
+    WxMessageInRedisDuplicateChecker checker = new WxMessageInRedisDuplicateChecker(jedisPool);
+    assertFalse(checker.isDuplicate("1"));
+    assertTrue(checker.isDuplicate("2"));
+
+    // 同一节点上的重试不再访问Redis
+    assertTrue(checker.isDuplicate("1"));
+    verify(jedis, times(1)).set(eq(key1), anyString(), anyString(), anyString(), anyLong());
+  }
+
+  public void testSameKeyOnEveryPath() {
+    Jedis jedis = mock(Jedis.class);
+    JedisPool jedisPool = mock(JedisPool.class);
+    when(jedisPool.getResource()).thenReturn(jedis);
+    String key = redisKey("3");
+    when(jedis.set(eq(key), anyString(), anyString(), anyString(), anyLong())).thenReturn("OK");
+
+    WxMessageInRedisDuplicateChecker checker = new WxMessageInRedisDuplicateChecker(jedisPool);
+    assertFalse(checker.isDuplicate(WxMessageKeys.high("3"), WxMessageKeys.low("3")));
+    // 以字符串消息id重试时命中同一个本机缓存项
+    assertTrue(checker.isDuplicate("3"));
+    assertTrue(checker.isDuplicate(Arrays.asList("3"))[0]);
+    verify(jedis, times(1)).set(eq(key), anyString(), anyString(), anyString(), anyLong());
+  }
+
+  public void testRemove() {
+    Jedis jedis = mock(Jedis.class);
+    JedisPool jedisPool = mock(JedisPool.class);
+    when(jedisPool.getResource()).thenReturn(jedis);
+    String key = redisKey("4");
+    when(jedis.set(eq(key), anyString(), anyString(), anyString(), anyLong())).thenReturn("OK");
+
+    WxMessageInRedisDuplicateChecker checker = new WxMessageInRedisDuplicateChecker(jedisPool);
+    assertFalse(checker.isDuplicate("4"));
+    checker.remove("4");
+    verify(jedis).del(key);
+    // 本机缓存也被撤销，重新到达时再次写入Redis
+    assertFalse(checker.isDuplicate("4"));
+    verify(jedis, times(2)).set(eq(key), anyString(), anyString(), anyString(), anyLong());
+  }
+
+  private static String redisKey(String messageId) {
+    return "wechat_msg_dup_" + Long.toHexString(WxMessageKeys.high(messageId)) + '-'
+      + Long.toHexString(WxMessageKeys.low(messageId));
+  }
+
+}
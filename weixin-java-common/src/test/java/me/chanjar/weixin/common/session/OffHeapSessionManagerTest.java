@@ -0,0 +1,125 @@
+package me.chanjar.weixin.common.session;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@Test
+public class OffHeapSessionManagerTest {
+
+  public void testAttributes() {
+    OffHeapSessionManager sessionManager = new OffHeapSessionManager();
+    WxSession session = sessionManager.getSession("abc");
+
+    session.setAttribute("step", 2);
+    session.setAttribute("name", "微信");
+    session.setAttribute("amount", 100L);
+    session.setAttribute("list", Arrays.asList("a", "b"));
+    Assert.assertEquals(session.getAttribute("step"), 2);
+    Assert.assertEquals(session.getAttribute("name"), "微信");
+    Assert.assertEquals(session.getAttribute("amount"), 100L);
+    Assert.assertEquals(session.getAttribute("list"), Arrays.asList("a", "b"));
+
+    session.setAttribute("step", 3);
+    session.removeAttribute("name");
+    Assert.assertEquals(sessionManager.getSession("abc").getAttribute("step"), 3);
+    Assert.assertNull(session.getAttribute("name"));
+    List<String> names = Collections.list(session.getAttributeNames());
+    Collections.sort(names);
+    Assert.assertEquals(names, Arrays.asList("amount", "list", "step"));
+  }
+
+  public void testOverflow() {
+    OffHeapSessionManager sessionManager = new OffHeapSessionManager(64, 16);
+    WxSession session = sessionManager.getSession("abc");
+    char[] chars = new char[1000];
+    Arrays.fill(chars, 'x');
+    String large = new String(chars);
+
+    session.setAttribute("large", large);
+    session.setAttribute("small", 1);
+    Assert.assertEquals(session.getAttribute("large"), large);
+    Assert.assertEquals(session.getAttribute("small"), 1);
+  }
+
+  public void testInvalidateAndRecreate() {
+    OffHeapSessionManager sessionManager = new OffHeapSessionManager();
+    WxSession session1 = sessionManager.getSession("abc");
+    session1.setAttribute("step", 1);
+    session1.invalidate();
+
+    WxSession session2 = sessionManager.getSession("abc");
+    Assert.assertNotEquals(session1, session2);
+    Assert.assertNull(session2.getAttribute("step"));
+    Assert.assertFalse(((InternalSession) session1).isValid());
+    Assert.assertEquals(sessionManager.getActiveSessions(), 1);
+  }
+
+  public void testCreateEmptySession() {
+    OffHeapSessionManager sessionManager = new OffHeapSessionManager();
+    InternalSession session = sessionManager.createEmptySession();
+    session.setValid(true);
+    session.setMaxInactiveInterval(60);
+    session.setId("abc");
+    ((WxSession) session).setAttribute("step", 1);
+
+    Assert.assertTrue(session.isValid());
+    Assert.assertEquals(((OffHeapSession) session).getMaxInactiveInterval(), 60);
+    Assert.assertEquals(sessionManager.getSession("abc").getAttribute("step"), 1);
+  }
+
+  public void testAddOtherSession() {
+    StandardSession source = new StandardSession(new StandardSessionManager());
+    source.setValid(true);
+    source.setMaxInactiveInterval(60);
+    source.setAttribute("step", 2);
+    source.setId("abc");
+
+    OffHeapSessionManager sessionManager = new OffHeapSessionManager();
+    sessionManager.add(source);
+    OffHeapSession copy = (OffHeapSession) sessionManager.findSession("abc");
+    Assert.assertEquals(copy.getAttribute("step"), 2);
+    Assert.assertEquals(copy.getMaxInactiveInterval(), 60);
+    Assert.assertEquals(sessionManager.getActiveSessions(), 1);
+  }
+
+  public void testKeyCollision() {
+    OffHeapSessionTable table = new OffHeapSessionTable(256, 16);
+    long now = System.currentTimeMillis();
+    table.create(1L, 2L, "abc", 1L, now, 60);
+
+    // 128位key相同而id不同时不会返回其他id的session
+    Assert.assertEquals(table.find(1L, 2L, "abc"), 1L);
+    Assert.assertEquals(table.find(1L, 2L, "abd"), 0L);
+    Assert.assertEquals(table.access(1L, 2L, "abd", now), 0L);
+  }
+
+  public void testManySessions() throws InterruptedException {
+    OffHeapSessionManager sessionManager = new OffHeapSessionManager(128, 1024);
+    sessionManager.setMaxInactiveInterval(1);
+    for (int i = 0; i < 10000; i++) {
+      InternalSession session = sessionManager.createSession("openid" + i);
+      ((WxSession) session).setAttribute("i", i);
+    }
+    Assert.assertEquals(sessionManager.getActiveSessions(), 10000);
+    for (int i = 0; i < 10000; i += 7) {
+      Assert.assertEquals(((WxSession) sessionManager.findSession("openid" + i)).getAttribute("i"), i);
+    }
+
+    // 正在被访问的session不会过期
+    InternalSession inUse = (InternalSession) sessionManager.getSession("openid1");
+    Thread.sleep(1500L);
+    sessionManager.processExpires();
+    Assert.assertEquals(sessionManager.getActiveSessions(), 1);
+    Assert.assertNotNull(sessionManager.findSession("openid1"));
+
+    inUse.endAccess();
+    Thread.sleep(1500L);
+    sessionManager.processExpires();
+    Assert.assertEquals(sessionManager.getActiveSessions(), 0);
+  }
+
+}
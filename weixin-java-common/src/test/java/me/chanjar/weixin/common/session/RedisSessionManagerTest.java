@@ -0,0 +1,90 @@
+package me.chanjar.weixin.common.session;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.testng.annotations.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+@Test
+public class RedisSessionManagerTest {
+
+  private static byte[] bytes(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  public void testLoadFromRedis() {
+    Jedis jedis = mock(Jedis.class);
+    JedisPool jedisPool = mock(JedisPool.class);
+    when(jedisPool.getResource()).thenReturn(jedis);
+    long now = System.currentTimeMillis();
+    // 只有abc在其他节点上创建过
+    when(jedis.hmget(any(byte[].class), any(byte[].class), any(byte[].class), any(byte[].class), any(byte[].class)))
+      .thenReturn(Arrays.asList(null, null, null, (byte[]) null));
+    when(jedis.hmget(bytes("wechat_session_abc"), bytes("#creationTime"), bytes("#lastAccessedTime"),
+      bytes("#maxInactiveInterval"), bytes("#version")))
+      .thenReturn(Arrays.asList(bytes(String.valueOf(now)), bytes(String.valueOf(now)), bytes("1800"), bytes("3")));
+    when(jedis.hget(bytes("wechat_session_abc"), bytes("@step"))).thenReturn(SerializationUtils.serialize(2));
+
+    RedisSessionManager sessionManager = new RedisSessionManager(jedisPool);
+    sessionManager.setReconnectDelay(60 * 1000L);
+    try {
+      assertNull(sessionManager.getSession("def", false));
+
+      WxSession session = sessionManager.getSession("abc", false);
+      assertNotNull(session);
+      assertEquals(session.getAttribute("step"), 2);
+
+      // 已经加载过的session和属性直接从本地读取
+      assertEquals(sessionManager.getSession("abc", false).getAttribute("step"), 2);
+      verify(jedis, times(1)).hget(bytes("wechat_session_abc"), bytes("@step"));
+    } finally {
+      sessionManager.shutdown();
+    }
+  }
+
+  public void testKeyspaceEvent() {
+    Jedis jedis = mock(Jedis.class);
+    JedisPool jedisPool = mock(JedisPool.class);
+    when(jedisPool.getResource()).thenReturn(jedis);
+    long now = System.currentTimeMillis();
+    when(jedis.hmget(bytes("wechat_session_abc"), bytes("#creationTime"), bytes("#lastAccessedTime"),
+      bytes("#maxInactiveInterval"), bytes("#version")))
+      .thenReturn(Arrays.asList(bytes(String.valueOf(now)), bytes(String.valueOf(now)), bytes("1800"), bytes("3")));
+    when(jedis.hget(bytes("wechat_session_abc"), bytes("@step"))).thenReturn(SerializationUtils.serialize(2));
+
+    RedisSessionManager sessionManager = new RedisSessionManager(jedisPool);
+    sessionManager.setReconnectDelay(60 * 1000L);
+    try {
+      InternalSession session = sessionManager.findSession("abc");
+      sessionManager.add(session);
+      assertEquals(session.getSession().getAttribute("step"), 2);
+
+      // 版本号没有变化，是本节点自己写回产生的通知
+      when(jedis.hget(bytes("wechat_session_abc"), bytes("#version"))).thenReturn(bytes("3"));
+      sessionManager.onKeyspaceEvent("__keyspace@0__:wechat_session_abc");
+      assertEquals(session.getSession().getAttribute("step"), 2);
+      verify(jedis, times(1)).hget(bytes("wechat_session_abc"), bytes("@step"));
+
+      // 其他节点写过，重新从Redis加载属性
+      when(jedis.hget(bytes("wechat_session_abc"), bytes("#version"))).thenReturn(bytes("4"));
+      sessionManager.onKeyspaceEvent("__keyspace@0__:wechat_session_abc");
+      assertEquals(sessionManager.findSession("abc").getSession().getAttribute("step"), 2);
+      verify(jedis, times(2)).hget(bytes("wechat_session_abc"), bytes("@step"));
+    } finally {
+      sessionManager.shutdown();
+    }
+  }
+
+}
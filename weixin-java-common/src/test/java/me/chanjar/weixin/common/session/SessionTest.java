@@ -104,6 +104,53 @@ public class SessionTest {
 
   }
 
+  @Test(dataProvider = "getSessionManager")
+  public void testProcessExpiresAfterAccess(WxSessionManager sessionManager) throws InterruptedException {
+
+    StandardSessionManager ism = (StandardSessionManager) sessionManager;
+    ism.setMaxInactiveInterval(2);
+
+    InternalSession abc = ism.createSession("abc");
+    abc.endAccess();
+    InternalSession def = ism.createSession("def");
+    def.endAccess();
+
+    Thread.sleep(1000l);
+    def.access();
+    def.endAccess();
+
+    // abc已经过期，def期间被访问过，被推迟到新的过期时间
+    Thread.sleep(1500l);
+    ism.processExpires();
+    Assert.assertEquals(ism.getActiveSessions(), 1);
+    Assert.assertNull(ism.findSession("abc"));
+    Assert.assertNotNull(ism.findSession("def"));
+
+    Thread.sleep(1000l);
+    ism.processExpires();
+    Assert.assertEquals(ism.getActiveSessions(), 0);
+    Assert.assertEquals(ism.getSessionCounter(), 2);
+
+  }
+
+  @Test(dataProvider = "getSessionManager")
+  public void testScheduledOnce(WxSessionManager sessionManager) {
+
+    StandardSessionManager ism = (StandardSessionManager) sessionManager;
+    InternalSession abc = ism.createSession("abc");
+    InternalSession def = ism.createSession("def");
+    for (int i = 1; i <= 5; i++) {
+      abc.setMaxInactiveInterval(i * 60);
+    }
+    Assert.assertEquals(ism.getScheduledSessionCount(), 2);
+
+    // 失效和被移除的session立即从时间桶里摘掉
+    abc.getSession().invalidate();
+    ism.remove(def);
+    Assert.assertEquals(ism.getScheduledSessionCount(), 0);
+
+  }
+
   @Test(dataProvider = "getSessionManager")
   public void testMaxActive(WxSessionManager sessionManager) {
 
@@ -128,4 +175,51 @@ public class SessionTest {
     ism.createSession("xyz");
 
   }
+
+  @Test(dataProvider = "getSessionManager")
+  public void testConcurrentCounters(WxSessionManager sessionManager) throws InterruptedException {
+
+    final StandardSessionManager ism = (StandardSessionManager) sessionManager;
+    ism.setMaxActiveSessions(0);
+    Thread[] threads = new Thread[8];
+    for (int t = 0; t < threads.length; t++) {
+      final int thread = t;
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 10000; i++) {
+            try {
+              ism.createSession(thread + "-" + i);
+            } catch (TooManyActiveSessionsException e) {
+              // 计入rejectedSessions
+            }
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    Assert.assertEquals(ism.getRejectedSessions(), 80000);
+
+    ism.setMaxActiveSessions(-1);
+    for (int t = 0; t < threads.length; t++) {
+      final int thread = t;
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 10000; i++) {
+            ism.createSession(thread + "-" + i);
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    Assert.assertEquals(ism.getSessionCounter(), 80000);
+
+  }
 }
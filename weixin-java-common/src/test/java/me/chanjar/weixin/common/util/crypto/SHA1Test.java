@@ -1,9 +1,14 @@
 package me.chanjar.weixin.common.util.crypto;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.testng.annotations.Test;
 
+import java.util.Arrays;
+
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
 
 /**
  * <pre>
@@ -33,4 +38,24 @@ public class SHA1Test {
     assertEquals(result,"20b896ccbd5a72dde5dbe0878ff985e4069771c6");
   }
 
+  @Test
+  public void testGen_sameAsDigestUtils() {
+    char[] chars = new char[1000];
+    Arrays.fill(chars, '签');
+    String longText = new String(chars);
+    assertEquals(SHA1.gen("中文", "abc", longText), DigestUtils.sha1Hex("abc中文" + longText));
+    assertEquals(SHA1.genWithAmple("b=2", "a=1", "c=\uD83D\uDE00"),
+      DigestUtils.sha1Hex("a=1&b=2&c=\uD83D\uDE00"));
+  }
+
+  @Test
+  public void testCheck() {
+    assertTrue(SHA1.check("9f537aeb751ec72605f57f94a2f6dc3e3958e1dd", "345", "123"));
+    assertFalse(SHA1.check("9f537aeb751ec72605f57f94a2f6dc3e3958e1de", "123", "345"));
+    assertFalse(SHA1.check("9F537AEB751EC72605F57F94A2F6DC3E3958E1DD", "123", "345"));
+    assertFalse(SHA1.check("9f537aeb", "123", "345"));
+    assertFalse(SHA1.check(null, "123", "345"));
+    assertFalse(SHA1.check("9f537aeb751ec72605f57f94a2f6dc3e3958e1dd", "", "345"));
+  }
+
 }
@@ -1,5 +1,7 @@
 package me.chanjar.weixin.common.util.crypto;
 
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.IOUtils;
 import org.testng.annotations.*;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -10,8 +12,12 @@ import org.xml.sax.SAXException;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 import static org.testng.Assert.*;
 
@@ -99,4 +105,73 @@ public class WxCryptUtilTest {
     fail("错误流程不抛出异常？？？");
   }
 
+  public void testDecryptToStream() throws IOException {
+    WxCryptUtil pc = new WxCryptUtil(this.token, this.encodingAesKey, this.appId);
+    String encryptedXml = pc.encrypt(this.replyMsg2);
+    String cipherText = WxCryptUtil.extractEncryptPart(encryptedXml);
+    String msgSignature = SHA1.gen(this.token, this.timestamp, this.nonce, cipherText);
+    String fromXML = String.format(this.xmlFormat, cipherText);
+
+    InputStream plainText = pc.decryptToStream(msgSignature, this.timestamp, this.nonce,
+      new ByteArrayInputStream(fromXML.getBytes(StandardCharsets.UTF_8)));
+    // 同一线程的下一次解密不影响已经返回的流
+    assertEquals(pc.decrypt(pc.encrypt(this.randomStr, this.replyMsg)), this.replyMsg);
+    assertEquals(IOUtils.toString(plainText, StandardCharsets.UTF_8), this.replyMsg2);
+    assertEquals(pc.decrypt(msgSignature, this.timestamp, this.nonce, fromXML), this.replyMsg2);
+  }
+
+  public void testExtractNestedEncryptPart() {
+    assertEquals(WxCryptUtil.extractEncryptPart("<xml><ToUserName>a</ToUserName><Body><Encrypt>abc</Encrypt></Body></xml>"),
+      "abc");
+  }
+
+  public void testDecodeBase64() {
+    byte[] buffer = new byte[256];
+    for (String text : new String[]{"", "YQ==", "YWI=", "YWJj", this.afterAesEncrypt, "jn1L23DB+6EL\r\nqJ+6bruv21Y6MD7K"}) {
+      byte[] expected = Base64.decodeBase64(text);
+      int length = WxCryptUtil.decodeBase64(text, buffer);
+      assertEquals(Arrays.copyOf(buffer, length), expected, text);
+    }
+  }
+
+  public void testWrongAppId() {
+    WxCryptUtil pc = new WxCryptUtil(this.token, this.encodingAesKey, this.appId);
+    WxCryptUtil other = new WxCryptUtil(this.token, this.encodingAesKey, "wxb11529c136998cb7");
+    try {
+      other.decrypt(pc.encrypt(this.randomStr, this.replyMsg));
+    } catch (RuntimeException e) {
+      assertEquals(e.getMessage(), "AppID不正确");
+      return;
+    }
+    fail("错误流程不抛出异常？？？");
+  }
+
+  public void testEncodeBase64() {
+    byte[] data = this.replyMsg2.getBytes(StandardCharsets.UTF_8);
+    for (int length = 0; length < 8; length++) {
+      assertEquals(WxCryptUtil.encodeBase64(data, length), Base64.encodeBase64String(Arrays.copyOf(data, length)));
+    }
+    assertEquals(WxCryptUtil.encodeBase64(data, data.length), Base64.encodeBase64String(data));
+  }
+
+  public void testEncodeUtf8() {
+    for (String text : new String[]{"", this.replyMsg, this.replyMsg2, "表情\uD83D\uDE00", "孤立\uD83D代理", "\uDE00"}) {
+      byte[] expected = text.getBytes(StandardCharsets.UTF_8);
+      byte[] buffer = new byte[expected.length + 1];
+      assertEquals(WxCryptUtil.utf8Length(text), expected.length, text);
+      assertEquals(WxCryptUtil.encodeUtf8(text, buffer, 1), expected.length + 1, text);
+      assertEquals(Arrays.copyOfRange(buffer, 1, buffer.length), expected, text);
+    }
+  }
+
+  public void testAlternateKeys() {
+    WxCryptUtil pc = new WxCryptUtil(this.token, this.encodingAesKey, this.appId);
+    WxCryptUtil other = new WxCryptUtil(this.token, "0123456789ABCDEFGabcdefghijklmnopqrstuvwxyz", this.appId);
+    for (int i = 0; i < 3; i++) {
+      assertEquals(pc.encrypt(this.randomStr, this.replyMsg), this.afterAesEncrypt);
+      assertEquals(pc.decrypt(this.afterAesEncrypt), this.replyMsg);
+      assertEquals(other.decrypt(other.encrypt(this.randomStr, this.replyMsg2)), this.replyMsg2);
+    }
+  }
+
 }
@@ -64,8 +64,7 @@ public abstract class AbstractWxCpServiceImpl<H, P> implements WxCpService, Requ
   @Override
   public boolean checkSignature(String msgSignature, String timestamp, String nonce, String data) {
     try {
-      return SHA1.gen(this.configStorage.getToken(), timestamp, nonce, data)
-        .equals(msgSignature);
+      return SHA1.check(msgSignature, this.configStorage.getToken(), timestamp, nonce, data);
     } catch (Exception e) {
       this.log.error("Checking signature failed, and the reason is :" + e.getMessage());
       return false;
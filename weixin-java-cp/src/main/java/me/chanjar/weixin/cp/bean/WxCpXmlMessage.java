@@ -5,10 +5,8 @@ import com.thoughtworks.xstream.annotations.XStreamConverter;
 import me.chanjar.weixin.common.util.xml.XStreamCDataConverter;
 import me.chanjar.weixin.cp.config.WxCpConfigStorage;
 import me.chanjar.weixin.cp.util.crypto.WxCpCryptUtil;
-import me.chanjar.weixin.cp.util.xml.XStreamTransformer;
-import org.apache.commons.io.IOUtils;
+import me.chanjar.weixin.cp.util.xml.WxCpXmlMessageParser;
 
-import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
@@ -164,11 +162,11 @@ public class WxCpXmlMessage implements Serializable {
   private SendLocationInfo sendLocationInfo = new SendLocationInfo();
 
   protected static WxCpXmlMessage fromXml(String xml) {
-    return XStreamTransformer.fromXml(WxCpXmlMessage.class, xml);
+    return WxCpXmlMessageParser.fromXml(xml);
   }
 
   protected static WxCpXmlMessage fromXml(InputStream is) {
-    return XStreamTransformer.fromXml(WxCpXmlMessage.class, is);
+    return WxCpXmlMessageParser.fromXml(is);
   }
 
   /**
@@ -193,11 +191,8 @@ public class WxCpXmlMessage implements Serializable {
     InputStream is,
     WxCpConfigStorage wxCpConfigStorage,
     String timestamp, String nonce, String msgSignature) {
-    try {
-      return fromEncryptedXml(IOUtils.toString(is, "UTF-8"), wxCpConfigStorage, timestamp, nonce, msgSignature);
-    } catch (IOException e) {
-      throw new RuntimeException(e);
-    }
+    WxCpCryptUtil cryptUtil = new WxCpCryptUtil(wxCpConfigStorage);
+    return fromXml(cryptUtil.decryptToStream(msgSignature, timestamp, nonce, is));
   }
 
   public Integer getAgentId() {
@@ -6,8 +6,10 @@ import me.chanjar.weixin.common.util.xml.XStreamCDataConverter;
 import me.chanjar.weixin.cp.config.WxCpConfigStorage;
 import me.chanjar.weixin.cp.bean.outxmlbuilder.*;
 import me.chanjar.weixin.cp.util.crypto.WxCpCryptUtil;
-import me.chanjar.weixin.cp.util.xml.XStreamTransformer;
+import me.chanjar.weixin.cp.util.xml.WxCpXmlOutMessageWriter;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
 
 @XStreamAlias("xml")
@@ -98,7 +100,14 @@ public abstract class WxCpXmlOutMessage implements Serializable {
   }
 
   protected String toXml() {
-    return XStreamTransformer.toXml((Class) this.getClass(), this);
+    return WxCpXmlOutMessageWriter.toXml(this);
+  }
+
+  /**
+   * 以UTF-8直接写入输出流，例如servlet的OutputStream
+   */
+  public void writeTo(OutputStream os) throws IOException {
+    WxCpXmlOutMessageWriter.write(this, os);
   }
 
   /**
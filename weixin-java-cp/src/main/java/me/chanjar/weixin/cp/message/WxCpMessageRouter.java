@@ -3,6 +3,11 @@ package me.chanjar.weixin.cp.message;
 import me.chanjar.weixin.common.api.WxErrorExceptionHandler;
 import me.chanjar.weixin.common.api.WxMessageDuplicateChecker;
 import me.chanjar.weixin.common.api.WxMessageInMemoryDuplicateChecker;
+import me.chanjar.weixin.common.api.WxMessageInMemoryRouterMetrics;
+import me.chanjar.weixin.common.api.WxMessageKeyDuplicateChecker;
+import me.chanjar.weixin.common.api.WxMessageKeys;
+import me.chanjar.weixin.common.api.WxMessageRouterMetrics;
+import me.chanjar.weixin.common.api.WxMessageRouterRules;
 import me.chanjar.weixin.common.session.InternalSession;
 import me.chanjar.weixin.common.session.InternalSessionManager;
 import me.chanjar.weixin.common.session.StandardSessionManager;
@@ -55,7 +60,7 @@ public class WxCpMessageRouter {
 
   private static final int DEFAULT_THREAD_POOL_SIZE = 100;
   protected final Logger log = LoggerFactory.getLogger(WxCpMessageRouter.class);
-  private final List<WxCpMessageRouterRule> rules = new ArrayList<>();
+  private final WxMessageRouterRules<WxCpMessageRouterRule> rules = new WxMessageRouterRules<>();
 
   private final WxCpService wxCpService;
 
@@ -67,12 +72,15 @@ public class WxCpMessageRouter {
 
   private WxErrorExceptionHandler exceptionHandler;
 
+  private WxMessageRouterMetrics metrics;
+
   public WxCpMessageRouter(WxCpService wxCpService) {
     this.wxCpService = wxCpService;
     this.executorService = Executors.newFixedThreadPool(DEFAULT_THREAD_POOL_SIZE);
     this.messageDuplicateChecker = new WxMessageInMemoryDuplicateChecker();
     this.sessionManager = new StandardSessionManager();
     this.exceptionHandler = new LogExceptionHandler();
+    this.metrics = new WxMessageInMemoryRouterMetrics();
   }
 
   /**
@@ -123,8 +131,45 @@ public class WxCpMessageRouter {
     this.exceptionHandler = exceptionHandler;
   }
 
-  List<WxCpMessageRouterRule> getRules() {
-    return this.rules;
+  /**
+   * <pre>
+   * 设置自定义的{@link me.chanjar.weixin.common.api.WxMessageRouterMetrics}
+   * 如果不调用该方法，默认使用 {@link me.chanjar.weixin.common.api.WxMessageInMemoryRouterMetrics}
+   * </pre>
+   */
+  public void setMetrics(WxMessageRouterMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  public WxMessageRouterMetrics getMetrics() {
+    return this.metrics;
+  }
+
+  /**
+   * 当前生效的规则（只读快照）
+   */
+  public List<WxCpMessageRouterRule> getRules() {
+    return this.rules.getRules();
+  }
+
+  /**
+   * 追加一个规则，采用写时复制，正在进行的路由不受影响
+   */
+  void addRule(WxCpMessageRouterRule rule) {
+    this.rules.add(rule);
+  }
+
+  /**
+   * <pre>
+   * 整体替换路由规则，可以在运行期间随时调用，比如从外部配置中心重新加载规则后
+   * 新规则集会在调用线程中构建好索引后再一次性替换，正在处理的消息仍使用旧规则，之后的消息使用新规则
+   * 传入的规则通过 router.rule() 创建，配置好后不要调用end()或next()，
+   * 需要继续匹配后续规则的用setReEnter(true)代替next()
+   * 没有指定名称的规则会被设置默认名称"rule-序号"
+   * </pre>
+   */
+  public void setRules(List<WxCpMessageRouterRule> rules) {
+    this.rules.set(rules);
   }
 
   /**
@@ -143,13 +188,15 @@ public class WxCpMessageRouter {
   public WxCpXmlOutMessage route(final WxCpXmlMessage wxMessage, final Map<String, Object> context) {
     if (isDuplicateMessage(wxMessage)) {
       // 如果是重复消息，那么就不做处理
+      this.metrics.onDuplicateDropped();
       return null;
     }
 
     final List<WxCpMessageRouterRule> matchRules = new ArrayList<>();
     // 收集匹配的规则
-    for (final WxCpMessageRouterRule rule : this.rules) {
+    for (final WxCpMessageRouterRule rule : this.rules.getRuleSet().candidates(wxMessage.getMsgType())) {
       if (rule.test(wxMessage)) {
+        this.metrics.onRuleMatched(rule.getName());
         matchRules.add(rule);
         if (!rule.isReEnter()) {
           break;
@@ -166,10 +213,12 @@ public class WxCpMessageRouter {
     for (final WxCpMessageRouterRule rule : matchRules) {
       // 返回最后一个非异步的rule的执行结果
       if (rule.isAsync()) {
+        final long submitTime = System.nanoTime();
         futures.add(
           this.executorService.submit(new Runnable() {
             @Override
             public void run() {
+              WxCpMessageRouter.this.metrics.onAsyncQueueWait(System.nanoTime() - submitTime);
               rule.service(wxMessage, context, WxCpMessageRouter.this.wxCpService, WxCpMessageRouter.this.sessionManager, WxCpMessageRouter.this.exceptionHandler);
             }
           })
@@ -216,6 +265,19 @@ public class WxCpMessageRouter {
 
   protected boolean isDuplicateMessage(WxCpXmlMessage wxMessage) {
 
+    if (this.messageDuplicateChecker instanceof WxMessageKeyDuplicateChecker) {
+      // 直接根据消息字段计算消息key，不拼接字符串
+      WxMessageKeyDuplicateChecker checker = (WxMessageKeyDuplicateChecker) this.messageDuplicateChecker;
+      if (wxMessage.getMsgId() != null) {
+        return checker.isDuplicate(WxMessageKeys.MSG_ID_HIGH, wxMessage.getMsgId());
+      }
+      long createTime = wxMessage.getCreateTime() == null ? 0 : wxMessage.getCreateTime();
+      long agentId = wxMessage.getAgentId() == null ? -1 : wxMessage.getAgentId();
+      return checker.isDuplicate(
+        WxMessageKeys.eventHigh(createTime, agentId, wxMessage.getFromUserName(), wxMessage.getEventKey(), wxMessage.getEvent()),
+        WxMessageKeys.eventLow(createTime, agentId, wxMessage.getFromUserName(), wxMessage.getEventKey(), wxMessage.getEvent()));
+    }
+
     String messageId = "";
     if (wxMessage.getMsgId() == null) {
       messageId = String.valueOf(wxMessage.getCreateTime())
@@ -1,6 +1,8 @@
 package me.chanjar.weixin.cp.message;
 
 import me.chanjar.weixin.common.api.WxErrorExceptionHandler;
+import me.chanjar.weixin.common.api.WxMessageRouterMetrics;
+import me.chanjar.weixin.common.api.WxMessageRouterRuleInfo;
 import me.chanjar.weixin.common.exception.WxErrorException;
 import me.chanjar.weixin.common.session.WxSessionManager;
 import me.chanjar.weixin.cp.api.WxCpService;
@@ -13,12 +15,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
 
-public class WxCpMessageRouterRule {
+public class WxCpMessageRouterRule implements WxMessageRouterRuleInfo {
 
   private final WxCpMessageRouter routerBuilder;
 
   private boolean async = true;
 
+  private String name;
+
   private String fromUser;
 
   private String msgType;
@@ -45,6 +49,14 @@ public class WxCpMessageRouterRule {
     this.routerBuilder = routerBuilder;
   }
 
+  /**
+   * 设置规则名称，用于监控统计，不设置的话默认为 rule-规则序号
+   */
+  public WxCpMessageRouterRule name(String name) {
+    this.name = name;
+    return this;
+  }
+
   /**
    * 设置是否异步执行，默认是true
    *
@@ -189,7 +201,7 @@ public class WxCpMessageRouterRule {
    * 规则结束，代表如果一个消息匹配该规则，那么它将不再会进入其他规则
    */
   public WxCpMessageRouter end() {
-    this.routerBuilder.getRules().add(this);
+    this.routerBuilder.addRule(this);
     return this.routerBuilder;
   }
 
@@ -239,23 +251,31 @@ public class WxCpMessageRouterRule {
       context = new HashMap<>();
     }
 
+    WxMessageRouterMetrics metrics = this.routerBuilder.getMetrics();
     try {
       // 如果拦截器不通过
       for (WxCpMessageInterceptor interceptor : this.interceptors) {
         if (!interceptor.intercept(wxMessage, context, wxCpService, sessionManager)) {
+          metrics.onInterceptorRejected(this.name);
           return null;
         }
       }
 
       // 交给handler处理
-      WxCpXmlOutMessage res = null;
-      for (WxCpMessageHandler handler : this.handlers) {
-        // 返回最后handler的结果
-        res = handler.handle(wxMessage, context, wxCpService, sessionManager);
+      long start = System.nanoTime();
+      try {
+        WxCpXmlOutMessage res = null;
+        for (WxCpMessageHandler handler : this.handlers) {
+          // 返回最后handler的结果
+          res = handler.handle(wxMessage, context, wxCpService, sessionManager);
+        }
+        return res;
+      } finally {
+        metrics.onHandlerCompleted(this.name, System.nanoTime() - start);
       }
-      return res;
 
     } catch (WxErrorException e) {
+      metrics.onException(this.name, e);
       exceptionHandler.handle(e);
     }
 
@@ -263,10 +283,25 @@ public class WxCpMessageRouterRule {
 
   }
 
+  @Override
+  public String getName() {
+    return this.name;
+  }
+
+  @Override
+  public void setName(String name) {
+    this.name = name;
+  }
+
   public void setFromUser(String fromUser) {
     this.fromUser = fromUser;
   }
 
+  @Override
+  public String getMsgType() {
+    return this.msgType;
+  }
+
   public void setMsgType(String msgType) {
     this.msgType = msgType;
   }
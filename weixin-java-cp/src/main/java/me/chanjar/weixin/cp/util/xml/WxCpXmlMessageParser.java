@@ -0,0 +1,244 @@
+package me.chanjar.weixin.cp.util.xml;
+
+import me.chanjar.weixin.common.util.xml.StaxUtils;
+import me.chanjar.weixin.cp.bean.WxCpXmlMessage;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+
+/**
+ * <pre>
+ * 基于StAX的 {@link WxCpXmlMessage} 解析器，按元素名直接调用对应的setter，不经过XStream的反射
+ *
+ * 解析结果与 {@link XStreamTransformer} 一致，以下几点除外：
+ * 1. 消息中没有ScanCodeInfo等子结构时，对应属性是bean默认创建的空对象，而不是null；
+ * 2. 数值字段为空时是null，而不是抛出异常；数值不支持XStream的16进制和8进制写法。
+ * 未知的元素会被忽略。
+ * </pre>
+ */
+public class WxCpXmlMessageParser {
+
+  private static final StaxUtils.ReadHandler<WxCpXmlMessage> HANDLER = new StaxUtils.ReadHandler<WxCpXmlMessage>() {
+    @Override
+    public WxCpXmlMessage read(XMLStreamReader reader) throws XMLStreamException {
+      return WxCpXmlMessageParser.read(reader);
+    }
+  };
+
+  /**
+   * @throws com.thoughtworks.xstream.io.StreamException xml格式不正确
+   */
+  public static WxCpXmlMessage fromXml(String xml) {
+    return StaxUtils.read(xml, HANDLER);
+  }
+
+  /**
+   * @throws com.thoughtworks.xstream.io.StreamException xml格式不正确
+   */
+  public static WxCpXmlMessage fromXml(InputStream is) {
+    return StaxUtils.read(is, HANDLER);
+  }
+
+  /**
+   * 从根元素之前开始读取一个消息，读完后停在根元素的结束标签上
+   */
+  public static WxCpXmlMessage read(XMLStreamReader reader) throws XMLStreamException {
+    WxCpXmlMessage message = new WxCpXmlMessage();
+    if (StaxUtils.nextElement(reader) != XMLStreamConstants.START_ELEMENT) {
+      return message;
+    }
+
+    while (StaxUtils.nextElement(reader) == XMLStreamConstants.START_ELEMENT) {
+      switch (reader.getLocalName()) {
+        case "AgentID":
+          message.setAgentId(StaxUtils.toInteger(StaxUtils.readText(reader)));
+          break;
+        case "ToUserName":
+          message.setToUserName(StaxUtils.readText(reader));
+          break;
+        case "FromUserName":
+          message.setFromUserName(StaxUtils.readText(reader));
+          break;
+        case "CreateTime":
+          message.setCreateTime(StaxUtils.toLong(StaxUtils.readText(reader)));
+          break;
+        case "MsgType":
+          message.setMsgType(StaxUtils.readText(reader));
+          break;
+        case "Content":
+          message.setContent(StaxUtils.readText(reader));
+          break;
+        case "MsgId":
+          message.setMsgId(StaxUtils.toLong(StaxUtils.readText(reader)));
+          break;
+        case "PicUrl":
+          message.setPicUrl(StaxUtils.readText(reader));
+          break;
+        case "MediaId":
+          message.setMediaId(StaxUtils.readText(reader));
+          break;
+        case "Format":
+          message.setFormat(StaxUtils.readText(reader));
+          break;
+        case "ThumbMediaId":
+          message.setThumbMediaId(StaxUtils.readText(reader));
+          break;
+        case "Location_X":
+          message.setLocationX(StaxUtils.toDouble(StaxUtils.readText(reader)));
+          break;
+        case "Location_Y":
+          message.setLocationY(StaxUtils.toDouble(StaxUtils.readText(reader)));
+          break;
+        case "Scale":
+          message.setScale(StaxUtils.toDouble(StaxUtils.readText(reader)));
+          break;
+        case "Label":
+          message.setLabel(StaxUtils.readText(reader));
+          break;
+        case "Title":
+          message.setTitle(StaxUtils.readText(reader));
+          break;
+        case "Description":
+          message.setDescription(StaxUtils.readText(reader));
+          break;
+        case "Url":
+          message.setUrl(StaxUtils.readText(reader));
+          break;
+        case "Event":
+          message.setEvent(StaxUtils.readText(reader));
+          break;
+        case "EventKey":
+          message.setEventKey(StaxUtils.readText(reader));
+          break;
+        case "Ticket":
+          message.setTicket(StaxUtils.readText(reader));
+          break;
+        case "Latitude":
+          message.setLatitude(StaxUtils.toDouble(StaxUtils.readText(reader)));
+          break;
+        case "Longitude":
+          message.setLongitude(StaxUtils.toDouble(StaxUtils.readText(reader)));
+          break;
+        case "Precision":
+          message.setPrecision(StaxUtils.toDouble(StaxUtils.readText(reader)));
+          break;
+        case "Recognition":
+          message.setRecognition(StaxUtils.readText(reader));
+          break;
+        case "Status":
+          message.setStatus(StaxUtils.readText(reader));
+          break;
+        case "TotalCount":
+          message.setTotalCount(StaxUtils.toInteger(StaxUtils.readText(reader)));
+          break;
+        case "FilterCount":
+          message.setFilterCount(StaxUtils.toInteger(StaxUtils.readText(reader)));
+          break;
+        case "SentCount":
+          message.setSentCount(StaxUtils.toInteger(StaxUtils.readText(reader)));
+          break;
+        case "ErrorCount":
+          message.setErrorCount(StaxUtils.toInteger(StaxUtils.readText(reader)));
+          break;
+        case "ScanCodeInfo":
+          message.setScanCodeInfo(readScanCodeInfo(reader));
+          break;
+        case "SendPicsInfo":
+          message.setSendPicsInfo(readSendPicsInfo(reader));
+          break;
+        case "SendLocationInfo":
+          message.setSendLocationInfo(readSendLocationInfo(reader));
+          break;
+
+        default:
+          StaxUtils.skipElement(reader);
+          break;
+      }
+    }
+    return message;
+  }
+
+  private static WxCpXmlMessage.ScanCodeInfo readScanCodeInfo(XMLStreamReader reader) throws XMLStreamException {
+    WxCpXmlMessage.ScanCodeInfo scanCodeInfo = new WxCpXmlMessage.ScanCodeInfo();
+    while (StaxUtils.nextElement(reader) == XMLStreamConstants.START_ELEMENT) {
+      switch (reader.getLocalName()) {
+        case "ScanType":
+          scanCodeInfo.setScanType(StaxUtils.readText(reader));
+          break;
+        case "ScanResult":
+          scanCodeInfo.setScanResult(StaxUtils.readText(reader));
+          break;
+        default:
+          StaxUtils.skipElement(reader);
+          break;
+      }
+    }
+    return scanCodeInfo;
+  }
+
+  private static WxCpXmlMessage.SendPicsInfo readSendPicsInfo(XMLStreamReader reader) throws XMLStreamException {
+    WxCpXmlMessage.SendPicsInfo sendPicsInfo = new WxCpXmlMessage.SendPicsInfo();
+    while (StaxUtils.nextElement(reader) == XMLStreamConstants.START_ELEMENT) {
+      switch (reader.getLocalName()) {
+        case "Count":
+          sendPicsInfo.setCount(StaxUtils.toLong(StaxUtils.readText(reader)));
+          break;
+        case "PicList":
+          while (StaxUtils.nextElement(reader) == XMLStreamConstants.START_ELEMENT) {
+            if ("item".equals(reader.getLocalName())) {
+              sendPicsInfo.getPicList().add(readPicItem(reader));
+            } else {
+              StaxUtils.skipElement(reader);
+            }
+          }
+          break;
+        default:
+          StaxUtils.skipElement(reader);
+          break;
+      }
+    }
+    return sendPicsInfo;
+  }
+
+  private static WxCpXmlMessage.SendPicsInfo.Item readPicItem(XMLStreamReader reader) throws XMLStreamException {
+    WxCpXmlMessage.SendPicsInfo.Item item = new WxCpXmlMessage.SendPicsInfo.Item();
+    while (StaxUtils.nextElement(reader) == XMLStreamConstants.START_ELEMENT) {
+      if ("PicMd5Sum".equals(reader.getLocalName())) {
+        item.setPicMd5Sum(StaxUtils.readText(reader));
+      } else {
+        StaxUtils.skipElement(reader);
+      }
+    }
+    return item;
+  }
+
+  private static WxCpXmlMessage.SendLocationInfo readSendLocationInfo(XMLStreamReader reader) throws XMLStreamException {
+    WxCpXmlMessage.SendLocationInfo sendLocationInfo = new WxCpXmlMessage.SendLocationInfo();
+    while (StaxUtils.nextElement(reader) == XMLStreamConstants.START_ELEMENT) {
+      switch (reader.getLocalName()) {
+        case "Location_X":
+          sendLocationInfo.setLocationX(StaxUtils.readText(reader));
+          break;
+        case "Location_Y":
+          sendLocationInfo.setLocationY(StaxUtils.readText(reader));
+          break;
+        case "Scale":
+          sendLocationInfo.setScale(StaxUtils.readText(reader));
+          break;
+        case "Label":
+          sendLocationInfo.setLabel(StaxUtils.readText(reader));
+          break;
+        case "Poiname":
+          sendLocationInfo.setPoiname(StaxUtils.readText(reader));
+          break;
+        default:
+          StaxUtils.skipElement(reader);
+          break;
+      }
+    }
+    return sendLocationInfo;
+  }
+
+}
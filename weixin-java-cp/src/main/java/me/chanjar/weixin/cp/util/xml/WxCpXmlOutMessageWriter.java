@@ -0,0 +1,125 @@
+package me.chanjar.weixin.cp.util.xml;
+
+import me.chanjar.weixin.common.util.xml.XmlWriterUtils;
+import me.chanjar.weixin.cp.bean.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <pre>
+ * 被动回复消息的writer，每种消息类型一个，直接拼接xml，不经过XStream
+ * 没有注册writer的消息类型仍然使用 {@link XStreamTransformer}
+ * 输出的xml没有缩进，其他与XStream的结果一致
+ * </pre>
+ *
+ * @param <T> 消息类型
+ */
+public abstract class WxCpXmlOutMessageWriter<T extends WxCpXmlOutMessage> {
+
+  private static final Map<Class<?>, WxCpXmlOutMessageWriter<?>> WRITERS = new HashMap<>();
+
+  static {
+    register(WxCpXmlOutTextMessage.class, new WxCpXmlOutMessageWriter<WxCpXmlOutTextMessage>() {
+      @Override
+      protected void writeContent(WxCpXmlOutTextMessage message, StringBuilder out) {
+        XmlWriterUtils.appendCData(out, "Content", message.getContent());
+      }
+    });
+    register(WxCpXmlOutImageMessage.class, new WxCpXmlOutMessageWriter<WxCpXmlOutImageMessage>() {
+      @Override
+      protected void writeContent(WxCpXmlOutImageMessage message, StringBuilder out) {
+        XmlWriterUtils.appendMediaId(out, "Image", message.getMediaId());
+      }
+    });
+    register(WxCpXmlOutVoiceMessage.class, new WxCpXmlOutMessageWriter<WxCpXmlOutVoiceMessage>() {
+      @Override
+      protected void writeContent(WxCpXmlOutVoiceMessage message, StringBuilder out) {
+        XmlWriterUtils.appendMediaId(out, "Voice", message.getMediaId());
+      }
+    });
+    register(WxCpXmlOutVideoMessage.class, new WxCpXmlOutMessageWriter<WxCpXmlOutVideoMessage>() {
+      @Override
+      protected void writeContent(WxCpXmlOutVideoMessage message, StringBuilder out) {
+        out.append("<Video>");
+        XmlWriterUtils.appendCData(out, "MediaId", message.getMediaId());
+        XmlWriterUtils.appendCData(out, "Title", message.getTitle());
+        XmlWriterUtils.appendCData(out, "Description", message.getDescription());
+        out.append("</Video>");
+      }
+    });
+    register(WxCpXmlOutNewsMessage.class, new WxCpXmlOutMessageWriter<WxCpXmlOutNewsMessage>() {
+      @Override
+      protected void writeContent(WxCpXmlOutNewsMessage message, StringBuilder out) {
+        out.append("<Articles>");
+        for (WxCpXmlOutNewsMessage.Item item : message.getArticles()) {
+          out.append("<item>");
+          XmlWriterUtils.appendCData(out, "Title", item.getTitle());
+          XmlWriterUtils.appendCData(out, "Description", item.getDescription());
+          XmlWriterUtils.appendCData(out, "PicUrl", item.getPicUrl());
+          XmlWriterUtils.appendCData(out, "Url", item.getUrl());
+          out.append("</item>");
+        }
+        out.append("</Articles>");
+        XmlWriterUtils.appendElement(out, "ArticleCount", message.getArticleCount());
+      }
+    });
+  }
+
+  private static <T extends WxCpXmlOutMessage> void register(Class<T> clazz, WxCpXmlOutMessageWriter<T> writer) {
+    WRITERS.put(clazz, writer);
+  }
+
+  /**
+   * 消息类型特有的元素
+   */
+  protected abstract void writeContent(T message, StringBuilder out);
+
+  public static String toXml(WxCpXmlOutMessage message) {
+    StringBuilder out = XmlWriterUtils.builder();
+    if (!write(message, out)) {
+      return xstreamXml(message);
+    }
+    return out.toString();
+  }
+
+  /**
+   * 直接以UTF-8写入输出流，例如servlet的OutputStream
+   */
+  public static void write(WxCpXmlOutMessage message, OutputStream os) throws IOException {
+    StringBuilder out = XmlWriterUtils.builder();
+    if (!write(message, out)) {
+      out.append(xstreamXml(message));
+    }
+    XmlWriterUtils.writeTo(out, os);
+  }
+
+  /**
+   * @return 是否有这个消息类型的writer
+   */
+  @SuppressWarnings("unchecked")
+  private static boolean write(WxCpXmlOutMessage message, StringBuilder out) {
+    WxCpXmlOutMessageWriter<WxCpXmlOutMessage> writer =
+      (WxCpXmlOutMessageWriter<WxCpXmlOutMessage>) WRITERS.get(message.getClass());
+    if (writer == null) {
+      return false;
+    }
+
+    out.append("<xml>");
+    XmlWriterUtils.appendCData(out, "ToUserName", message.getToUserName());
+    XmlWriterUtils.appendCData(out, "FromUserName", message.getFromUserName());
+    XmlWriterUtils.appendElement(out, "CreateTime", message.getCreateTime());
+    XmlWriterUtils.appendCData(out, "MsgType", message.getMsgType());
+    writer.writeContent(message, out);
+    out.append("</xml>");
+    return true;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static String xstreamXml(WxCpXmlOutMessage message) {
+    return XStreamTransformer.toXml((Class<WxCpXmlOutMessage>) message.getClass(), message);
+  }
+
+}
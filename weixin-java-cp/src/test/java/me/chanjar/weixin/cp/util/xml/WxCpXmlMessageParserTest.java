@@ -0,0 +1,122 @@
+package me.chanjar.weixin.cp.util.xml;
+
+import me.chanjar.weixin.cp.bean.WxCpXmlMessage;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+
+/**
+ * 同一段xml分别用XStream和 {@link WxCpXmlMessageParser} 解析，比较所有getter的结果
+ */
+@Test
+public class WxCpXmlMessageParserTest {
+
+  @DataProvider
+  public Object[][] messages() {
+    return new Object[][]{
+      {"<xml>"
+        + "<ToUserName><![CDATA[toUser]]></ToUserName>"
+        + "<FromUserName><![CDATA[fromUser]]></FromUserName> "
+        + "<CreateTime>1348831860</CreateTime>"
+        + "<MsgType><![CDATA[text]]></MsgType>"
+        + "<Content><![CDATA[this is a test]]></Content>"
+        + "<MsgId>1234567890123456</MsgId>"
+        + "<AgentID>1</AgentID>"
+        + "<Location_X>23.134521</Location_X>"
+        + "<Location_Y>113.358803</Location_Y>"
+        + "<Scale>20</Scale>"
+        + "<Label><![CDATA[位置信息]]></Label>"
+        + "<ScanCodeInfo>"
+        + " <ScanType><![CDATA[qrcode]]></ScanType>"
+        + " <ScanResult><![CDATA[1]]></ScanResult>"
+        + "</ScanCodeInfo>"
+        + "<SendPicsInfo>"
+        + " <Count>1</Count>\n"
+        + " <PicList>"
+        + "  <item>"
+        + "   <PicMd5Sum><![CDATA[1b5f7c23b5bf75682a53e7b6d163e185]]></PicMd5Sum>"
+        + "  </item>"
+        + " </PicList>"
+        + "</SendPicsInfo>"
+        + "<SendLocationInfo>"
+        + "  <Location_X><![CDATA[23]]></Location_X>\n"
+        + "  <Location_Y><![CDATA[113]]></Location_Y>\n"
+        + "  <Scale><![CDATA[15]]></Scale>\n"
+        + "  <Label><![CDATA[ 广州市海珠区客村艺苑路 106号]]></Label>\n"
+        + "  <Poiname><![CDATA[wo de poi]]></Poiname>\n"
+        + "</SendLocationInfo>"
+        + "</xml>"},
+      {"<xml>"
+        + "<ToUserName><![CDATA[toUser]]></ToUserName>"
+        + "<FromUserName><![CDATA[fromUser]]></FromUserName>"
+        + "<CreateTime>1408091189</CreateTime>"
+        + "<MsgType><![CDATA[event]]></MsgType>"
+        + "<Event><![CDATA[enter_agent]]></Event>"
+        + "<EventKey><![CDATA[]]></EventKey>"
+        + "<AgentID>1</AgentID>"
+        + "<Unknown><Nested>ignored</Nested></Unknown>"
+        + "</xml>"},
+    };
+  }
+
+  @Test(dataProvider = "messages")
+  public void testSameAsXStream(String xml) throws Exception {
+    WxCpXmlMessage expected = XStreamTransformer.fromXml(WxCpXmlMessage.class, xml);
+    WxCpXmlMessage actual = WxCpXmlMessageParser.fromXml(xml);
+    assertSameProperties(actual, expected, "");
+  }
+
+  public void testEmptyNumber() {
+    WxCpXmlMessage message = WxCpXmlMessageParser.fromXml("<xml><CreateTime></CreateTime><MsgId/></xml>");
+    Assert.assertNull(message.getCreateTime());
+    Assert.assertNull(message.getMsgId());
+  }
+
+  /**
+   * XStream不调用构造函数，没有出现的嵌套对象是null，解析器则是空对象，两者视为相同
+   */
+  private static void assertSameProperties(Object actual, Object expected, String path) throws Exception {
+    if (actual == null) {
+      if (expected != null) {
+        assertSameProperties(expected, null, path);
+      }
+      return;
+    }
+
+    for (Method method : actual.getClass().getMethods()) {
+      if (Modifier.isStatic(method.getModifiers()) || method.getParameterTypes().length != 0
+        || method.getDeclaringClass() == Object.class
+        || !(method.getName().startsWith("get") || method.getName().startsWith("is"))) {
+        continue;
+      }
+
+      String name = path + method.getName();
+      Object actualValue = method.invoke(actual);
+      Object expectedValue = expected == null ? null : method.invoke(expected);
+      if (isNestedBean(method.getReturnType())) {
+        assertSameProperties(actualValue, expectedValue, name + ".");
+      } else if (actualValue instanceof Collection) {
+        Collection<?> actualList = (Collection<?>) actualValue;
+        Collection<?> expectedList = expectedValue == null ? Collections.emptyList() : (Collection<?>) expectedValue;
+        Assert.assertEquals(actualList.size(), expectedList.size(), name);
+        Iterator<?> expectedItems = expectedList.iterator();
+        for (Object actualItem : actualList) {
+          assertSameProperties(actualItem, expectedItems.next(), name + ".");
+        }
+      } else {
+        Assert.assertEquals(actualValue, expectedValue, name);
+      }
+    }
+  }
+
+  private static boolean isNestedBean(Class<?> type) {
+    return type.getPackage() != null && type.getPackage().getName().startsWith("me.chanjar.weixin");
+  }
+
+}
@@ -126,7 +126,7 @@ public class WxMaServiceImpl implements WxMaService, RequestHttp<CloseableHttpCl
   @Override
   public boolean checkSignature(String timestamp, String nonce, String signature) {
     try {
-      return SHA1.gen(this.getWxMaConfig().getToken(), timestamp, nonce).equals(signature);
+      return SHA1.check(signature, this.getWxMaConfig().getToken(), timestamp, nonce);
     } catch (Exception e) {
       this.log.error("Checking signature failed, and the reason is :" + e.getMessage());
       return false;
@@ -3,7 +3,7 @@ package cn.binarywang.wx.miniapp.bean;
 import cn.binarywang.wx.miniapp.config.WxMaConfig;
 import cn.binarywang.wx.miniapp.util.crypt.WxMaCryptUtils;
 import cn.binarywang.wx.miniapp.util.json.WxMaGsonBuilder;
-import cn.binarywang.wx.miniapp.util.xml.XStreamTransformer;
+import cn.binarywang.wx.miniapp.util.xml.WxMaMessageParser;
 import com.google.gson.annotations.SerializedName;
 import com.thoughtworks.xstream.annotations.XStreamAlias;
 import com.thoughtworks.xstream.annotations.XStreamConverter;
@@ -82,11 +82,11 @@ public class WxMaMessage implements Serializable {
   private String sessionFrom;
 
   public static WxMaMessage fromXml(String xml) {
-    return XStreamTransformer.fromXml(WxMaMessage.class, xml);
+    return WxMaMessageParser.fromXml(xml);
   }
 
   public static WxMaMessage fromXml(InputStream is) {
-    return XStreamTransformer.fromXml(WxMaMessage.class, is);
+    return WxMaMessageParser.fromXml(is);
   }
 
   /**
@@ -107,12 +107,7 @@ public class WxMaMessage implements Serializable {
 
   public static WxMaMessage fromEncryptedXml(InputStream is, WxMaConfig wxMaConfig, String timestamp,
                                              String nonce, String msgSignature) {
-    try {
-      return fromEncryptedXml(IOUtils.toString(is, StandardCharsets.UTF_8), wxMaConfig,
-        timestamp, nonce, msgSignature);
-    } catch (IOException e) {
-      throw new RuntimeException(e);
-    }
+    return fromXml(new WxMaCryptUtils(wxMaConfig).decryptToStream(msgSignature, timestamp, nonce, is));
   }
 
   public static WxMaMessage fromJson(String json) {
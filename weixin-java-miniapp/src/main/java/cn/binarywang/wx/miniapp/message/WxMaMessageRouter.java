@@ -5,6 +5,9 @@ import cn.binarywang.wx.miniapp.bean.WxMaMessage;
 import me.chanjar.weixin.common.api.WxErrorExceptionHandler;
 import me.chanjar.weixin.common.api.WxMessageDuplicateChecker;
 import me.chanjar.weixin.common.api.WxMessageInMemoryDuplicateChecker;
+import me.chanjar.weixin.common.api.WxMessageInMemoryRouterMetrics;
+import me.chanjar.weixin.common.api.WxMessageRouterMetrics;
+import me.chanjar.weixin.common.api.WxMessageRouterRules;
 import me.chanjar.weixin.common.session.InternalSession;
 import me.chanjar.weixin.common.session.InternalSessionManager;
 import me.chanjar.weixin.common.session.StandardSessionManager;
@@ -28,7 +31,7 @@ import java.util.concurrent.Future;
 public class WxMaMessageRouter {
   private static final int DEFAULT_THREAD_POOL_SIZE = 100;
   private final Logger log = LoggerFactory.getLogger(WxMaMessageRouter.class);
-  private final List<WxMaMessageRouterRule> rules = new ArrayList<>();
+  private final WxMessageRouterRules<WxMaMessageRouterRule> rules = new WxMessageRouterRules<>();
 
   private final WxMaService wxMaService;
 
@@ -40,12 +43,15 @@ public class WxMaMessageRouter {
 
   private WxErrorExceptionHandler exceptionHandler;
 
+  private WxMessageRouterMetrics metrics;
+
   public WxMaMessageRouter(WxMaService wxMaService) {
     this.wxMaService = wxMaService;
     this.executorService = Executors.newFixedThreadPool(DEFAULT_THREAD_POOL_SIZE);
     this.messageDuplicateChecker = new WxMessageInMemoryDuplicateChecker();
     this.sessionManager = new StandardSessionManager();
     this.exceptionHandler = new LogExceptionHandler();
+    this.metrics = new WxMessageInMemoryRouterMetrics();
   }
 
   /**
@@ -88,8 +94,45 @@ public class WxMaMessageRouter {
     this.exceptionHandler = exceptionHandler;
   }
 
-  List<WxMaMessageRouterRule> getRules() {
-    return this.rules;
+  /**
+   * <pre>
+   * 设置自定义的{@link me.chanjar.weixin.common.api.WxMessageRouterMetrics}
+   * 如果不调用该方法，默认使用 {@link me.chanjar.weixin.common.api.WxMessageInMemoryRouterMetrics}
+   * </pre>
+   */
+  public void setMetrics(WxMessageRouterMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  public WxMessageRouterMetrics getMetrics() {
+    return this.metrics;
+  }
+
+  /**
+   * 当前生效的规则（只读快照）
+   */
+  public List<WxMaMessageRouterRule> getRules() {
+    return this.rules.getRules();
+  }
+
+  /**
+   * 追加一个规则，采用写时复制，正在进行的路由不受影响
+   */
+  void addRule(WxMaMessageRouterRule rule) {
+    this.rules.add(rule);
+  }
+
+  /**
+   * <pre>
+   * 整体替换路由规则，可以在运行期间随时调用，比如从外部配置中心重新加载规则后
+   * 新规则集会在调用线程中构建好索引后再一次性替换，正在处理的消息仍使用旧规则，之后的消息使用新规则
+   * 传入的规则通过 router.rule() 创建，配置好后不要调用end()或next()，
+   * 需要继续匹配后续规则的用setReEnter(true)代替next()
+   * 没有指定名称的规则会被设置默认名称"rule-序号"
+   * </pre>
+   */
+  public void setRules(List<WxMaMessageRouterRule> rules) {
+    this.rules.set(rules);
   }
 
   /**
@@ -105,8 +148,9 @@ public class WxMaMessageRouter {
   public void route(final WxMaMessage wxMessage, final Map<String, Object> context) {
     final List<WxMaMessageRouterRule> matchRules = new ArrayList<>();
     // 收集匹配的规则
-    for (final WxMaMessageRouterRule rule : this.rules) {
+    for (final WxMaMessageRouterRule rule : this.rules.getRuleSet().candidates(wxMessage.getMsgType())) {
       if (rule.test(wxMessage)) {
+        this.metrics.onRuleMatched(rule.getName());
         matchRules.add(rule);
         if (!rule.isReEnter()) {
           break;
@@ -122,10 +166,12 @@ public class WxMaMessageRouter {
     for (final WxMaMessageRouterRule rule : matchRules) {
       // 返回最后一个非异步的rule的执行结果
       if (rule.isAsync()) {
+        final long submitTime = System.nanoTime();
         futures.add(
           this.executorService.submit(new Runnable() {
             @Override
             public void run() {
+              WxMaMessageRouter.this.metrics.onAsyncQueueWait(System.nanoTime() - submitTime);
               rule.service(wxMessage, context, WxMaMessageRouter.this.wxMaService, WxMaMessageRouter.this.sessionManager, WxMaMessageRouter.this.exceptionHandler);
             }
           })
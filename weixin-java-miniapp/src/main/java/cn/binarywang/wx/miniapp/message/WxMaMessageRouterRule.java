@@ -3,6 +3,8 @@ package cn.binarywang.wx.miniapp.message;
 import cn.binarywang.wx.miniapp.api.WxMaService;
 import cn.binarywang.wx.miniapp.bean.WxMaMessage;
 import me.chanjar.weixin.common.api.WxErrorExceptionHandler;
+import me.chanjar.weixin.common.api.WxMessageRouterMetrics;
+import me.chanjar.weixin.common.api.WxMessageRouterRuleInfo;
 import me.chanjar.weixin.common.exception.WxErrorException;
 import me.chanjar.weixin.common.session.WxSessionManager;
 
@@ -15,12 +17,14 @@ import java.util.regex.Pattern;
 /**
  * @author <a href="https://github.com/binarywang">Binary Wang</a>
  */
-public class WxMaMessageRouterRule {
+public class WxMaMessageRouterRule implements WxMessageRouterRuleInfo {
 
   private final WxMaMessageRouter routerBuilder;
 
   private boolean async = true;
 
+  private String name;
+
   private String fromUser;
 
   private String msgType;
@@ -45,6 +49,14 @@ public class WxMaMessageRouterRule {
     this.routerBuilder = routerBuilder;
   }
 
+  /**
+   * 设置规则名称，用于监控统计，不设置的话默认为 rule-规则序号
+   */
+  public WxMaMessageRouterRule name(String name) {
+    this.name = name;
+    return this;
+  }
+
   /**
    * 设置是否异步执行，默认是true
    */
@@ -153,7 +165,7 @@ public class WxMaMessageRouterRule {
    * 规则结束，代表如果一个消息匹配该规则，那么它将不再会进入其他规则
    */
   public WxMaMessageRouter end() {
-    this.routerBuilder.getRules().add(this);
+    this.routerBuilder.addRule(this);
     return this.routerBuilder;
   }
 
@@ -201,23 +213,31 @@ public class WxMaMessageRouterRule {
       context = new HashMap<>();
     }
 
+    WxMessageRouterMetrics metrics = this.routerBuilder.getMetrics();
     try {
       // 如果拦截器不通过
       for (WxMaMessageInterceptor interceptor : this.interceptors) {
         if (!interceptor.intercept(wxMessage, context, wxMaService, sessionManager)) {
+          metrics.onInterceptorRejected(this.name);
           return;
         }
       }
 
       // 交给handler处理
-      for (WxMaMessageHandler handler : this.handlers) {
-        // 返回最后handler的结果
-        if (handler == null) {
-          continue;
+      long start = System.nanoTime();
+      try {
+        for (WxMaMessageHandler handler : this.handlers) {
+          // 返回最后handler的结果
+          if (handler == null) {
+            continue;
+          }
+          handler.handle(wxMessage, context, wxMaService, sessionManager);
         }
-        handler.handle(wxMessage, context, wxMaService, sessionManager);
+      } finally {
+        metrics.onHandlerCompleted(this.name, System.nanoTime() - start);
       }
     } catch (WxErrorException e) {
+      metrics.onException(this.name, e);
       exceptionHandler.handle(e);
     }
   }
@@ -234,6 +254,16 @@ public class WxMaMessageRouterRule {
     this.async = async;
   }
 
+  @Override
+  public String getName() {
+    return this.name;
+  }
+
+  @Override
+  public void setName(String name) {
+    this.name = name;
+  }
+
   public String getFromUser() {
     return this.fromUser;
   }
@@ -242,6 +272,7 @@ public class WxMaMessageRouterRule {
     this.fromUser = fromUser;
   }
 
+  @Override
   public String getMsgType() {
     return this.msgType;
   }
@@ -1,19 +1,19 @@
 package cn.binarywang.wx.miniapp.util.crypt;
 
 import cn.binarywang.wx.miniapp.config.WxMaConfig;
-import me.chanjar.weixin.common.util.crypto.PKCS7Encoder;
 import org.apache.commons.codec.binary.Base64;
 
-import javax.crypto.Cipher;
-import javax.crypto.spec.IvParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
-import java.nio.charset.StandardCharsets;
-import java.security.AlgorithmParameters;
-
 /**
  * @author <a href="https://github.com/binarywang">Binary Wang</a>
  */
 public class WxMaCryptUtils extends me.chanjar.weixin.common.util.crypto.WxCryptUtil {
+  private static final ThreadLocal<WxMaDecryptor> decryptorLocal = new ThreadLocal<WxMaDecryptor>() {
+    @Override
+    protected WxMaDecryptor initialValue() {
+      return new WxMaDecryptor();
+    }
+  };
+
   public WxMaCryptUtils(WxMaConfig config) {
     this.appidOrCorpid = config.getAppid();
     this.token = config.getToken();
@@ -23,20 +23,19 @@ public class WxMaCryptUtils extends me.chanjar.weixin.common.util.crypto.WxCrypt
   /**
    * AES解密
    *
+   * @param sessionKey    会话密钥
    * @param encryptedData 消息密文
    * @param ivStr         iv字符串
    */
   public static String decrypt(String sessionKey, String encryptedData, String ivStr) {
+    // 复用当前线程的解密器，需要一次解密多条数据时直接使用WxMaDecryptor
+    WxMaDecryptor decryptor = decryptorLocal.get();
     try {
-      AlgorithmParameters params = AlgorithmParameters.getInstance("AES");
-      params.init(new IvParameterSpec(Base64.decodeBase64(ivStr)));
-
-      Cipher cipher = Cipher.getInstance("AES/CBC/NoPadding");
-      cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(Base64.decodeBase64(sessionKey), "AES"), params);
-
-      return new String(PKCS7Encoder.decode(cipher.doFinal(Base64.decodeBase64(encryptedData))), StandardCharsets.UTF_8);
-    } catch (Exception e) {
-      throw new RuntimeException("AES解密失败", e);
+      decryptor.add(sessionKey, encryptedData, ivStr);
+      decryptor.decrypt();
+      return decryptor.getString(0);
+    } finally {
+      decryptor.clear();
     }
   }
 
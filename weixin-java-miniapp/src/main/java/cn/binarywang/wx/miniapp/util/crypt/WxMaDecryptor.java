@@ -0,0 +1,217 @@
+package cn.binarywang.wx.miniapp.util.crypt;
+
+import me.chanjar.weixin.common.util.crypto.CachedCipher;
+import me.chanjar.weixin.common.util.crypto.WxCryptUtil;
+
+import javax.crypto.Cipher;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * <pre>
+ * 小程序encryptedData（用户信息、手机号等）的批量解密器
+ * 先用 {@link #add(String, String, String)} 加入多条密文，再调用 {@link #decrypt()} 一次解密，
+ * 所有明文都写入同一个缓冲区，通过 {@link #getBytes()}、{@link #getOffset(int)}、{@link #getLength(int)} 直接读取，
+ * 或者用 {@link #getString(int)} 转换成字符串；{@link #clear()} 之后可以继续使用，不超过64KB的缓冲区不会重新分配
+ *
+ * 使用当前线程缓存的Cipher（见 {@link CachedCipher}），相邻两条密文的sessionKey和iv相同时不会重新初始化，
+ * base64直接解码到缓冲区，不创建中间数组
+ *
+ * 不是线程安全的，每个线程使用各自的实例
+ * </pre>
+ */
+public class WxMaDecryptor {
+
+  private static final String AES_TRANSFORMATION = "AES/CBC/NoPadding";
+
+  /**
+   * 缓冲区的默认大小
+   */
+  private static final int DEFAULT_BUFFER_SIZE = 4096;
+
+  /**
+   * 超过这个大小的缓冲区只用于一次解密，与 {@link WxCryptUtil} 一致
+   */
+  private static final int MAX_CACHED_BUFFER_SIZE = 64 * 1024;
+
+  private String[] sessionKeys = new String[16];
+  private String[] encryptedData = new String[16];
+  private String[] ivs = new String[16];
+  private int[] offsets = new int[16];
+  private int[] lengths = new int[16];
+  private RuntimeException[] errors = new RuntimeException[16];
+  private int size;
+
+  private byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+  private final byte[] keyBuffer = new byte[48];
+  private final byte[] ivBuffer = new byte[48];
+  private byte[] key = new byte[16];
+
+  /**
+   * 加入一条待解密的数据
+   *
+   * @param sessionKey    会话密钥
+   * @param encryptedData 消息密文
+   * @param ivStr         iv字符串
+   * @return 这条数据的下标
+   */
+  public int add(String sessionKey, String encryptedData, String ivStr) {
+    if (this.size == this.encryptedData.length) {
+      int capacity = this.size * 2;
+      this.sessionKeys = Arrays.copyOf(this.sessionKeys, capacity);
+      this.encryptedData = Arrays.copyOf(this.encryptedData, capacity);
+      this.ivs = Arrays.copyOf(this.ivs, capacity);
+      this.offsets = Arrays.copyOf(this.offsets, capacity);
+      this.lengths = Arrays.copyOf(this.lengths, capacity);
+      this.errors = Arrays.copyOf(this.errors, capacity);
+    }
+
+    this.sessionKeys[this.size] = sessionKey;
+    this.encryptedData[this.size] = encryptedData;
+    this.ivs[this.size] = ivStr;
+    this.errors[this.size] = null;
+    this.lengths[this.size] = -1;
+    return this.size++;
+  }
+
+  /**
+   * 解密已加入的全部数据，单条数据解密失败不影响其他数据
+   *
+   * @return 解密成功的条数
+   */
+  public int decrypt() {
+    int capacity = 0;
+    for (int i = 0; i < this.size; i++) {
+      capacity += this.encryptedData[i].length() / 4 * 3 + 3;
+    }
+    if (this.buffer.length < capacity) {
+      this.buffer = new byte[Math.max(capacity, Math.min(this.buffer.length * 2, MAX_CACHED_BUFFER_SIZE))];
+    } else if (this.buffer.length > MAX_CACHED_BUFFER_SIZE && capacity <= MAX_CACHED_BUFFER_SIZE) {
+      // 上一批数据很大，不再保留那么大的缓冲区
+      this.buffer = new byte[MAX_CACHED_BUFFER_SIZE];
+    }
+
+    int succeeded = 0;
+    int position = 0;
+    for (int i = 0; i < this.size; i++) {
+      this.offsets[i] = position;
+      try {
+        this.lengths[i] = this.decrypt(i, position);
+        this.errors[i] = null;
+        succeeded++;
+      } catch (RuntimeException e) {
+        this.lengths[i] = -1;
+        this.errors[i] = e;
+      }
+      position += this.encryptedData[i].length() / 4 * 3 + 3;
+    }
+    return succeeded;
+  }
+
+  private int decrypt(int index, int offset) {
+    CachedCipher cachedCipher = null;
+    try {
+      int keyLength = WxCryptUtil.decodeBase64(this.sessionKeys[index], this.keyBuffer);
+      if (keyLength != this.key.length) {
+        this.key = new byte[keyLength];
+      }
+      System.arraycopy(this.keyBuffer, 0, this.key, 0, keyLength);
+      int ivLength = WxCryptUtil.decodeBase64(this.ivs[index], this.ivBuffer);
+
+      cachedCipher = CachedCipher.get(AES_TRANSFORMATION, Cipher.DECRYPT_MODE);
+      Cipher cipher = cachedCipher.init(this.key, this.ivBuffer, 0, ivLength);
+
+      // 解密，输入输出使用同一段缓冲区
+      int encryptedLength = WxCryptUtil.decodeBase64(this.encryptedData[index], this.buffer, offset);
+      int length = cipher.doFinal(this.buffer, offset, encryptedLength, this.buffer, offset);
+
+      // 去除补位字符，长度为0时缓冲区中是上一条数据的内容，不能读取
+      if (length == 0) {
+        throw new IllegalArgumentException("密文为空");
+      }
+      int pad = this.buffer[offset + length - 1] & 0xFF;
+      if (pad < 1 || pad > 32 || pad > length) {
+        throw new IllegalArgumentException("非法的补位：" + pad);
+      }
+      return length - pad;
+    } catch (Exception e) {
+      if (cachedCipher != null) {
+        cachedCipher.invalidate();
+      }
+      throw new RuntimeException("AES解密失败", e);
+    }
+  }
+
+  /**
+   * 已加入的数据条数
+   */
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   * 清空已加入的数据，保留不超过64KB的缓冲区
+   */
+  public void clear() {
+    Arrays.fill(this.sessionKeys, 0, this.size, null);
+    Arrays.fill(this.encryptedData, 0, this.size, null);
+    Arrays.fill(this.ivs, 0, this.size, null);
+    Arrays.fill(this.errors, 0, this.size, null);
+    this.size = 0;
+    if (this.buffer.length > MAX_CACHED_BUFFER_SIZE) {
+      this.buffer = new byte[DEFAULT_BUFFER_SIZE];
+    }
+  }
+
+  /**
+   * 保存所有明文的缓冲区，调用 {@link #decrypt()} 后有效，下次解密时会被覆盖
+   */
+  public byte[] getBytes() {
+    return this.buffer;
+  }
+
+  /**
+   * 第index条明文在缓冲区中的起始位置
+   */
+  public int getOffset(int index) {
+    return this.offsets[this.checkIndex(index)];
+  }
+
+  /**
+   * 第index条明文的字节数，解密失败或尚未解密时为-1
+   */
+  public int getLength(int index) {
+    return this.lengths[this.checkIndex(index)];
+  }
+
+  /**
+   * 第index条数据解密失败的原因，成功时为null
+   */
+  public RuntimeException getError(int index) {
+    return this.errors[this.checkIndex(index)];
+  }
+
+  /**
+   * 第index条明文（UTF-8）
+   *
+   * @throws RuntimeException 这条数据解密失败
+   */
+  public String getString(int index) {
+    RuntimeException error = this.getError(index);
+    if (error != null) {
+      throw error;
+    }
+    if (this.lengths[index] < 0) {
+      throw new IllegalStateException("第" + index + "条数据尚未解密");
+    }
+    return new String(this.buffer, this.offsets[index], this.lengths[index], StandardCharsets.UTF_8);
+  }
+
+  private int checkIndex(int index) {
+    if (index < 0 || index >= this.size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size);
+    }
+    return index;
+  }
+
+}
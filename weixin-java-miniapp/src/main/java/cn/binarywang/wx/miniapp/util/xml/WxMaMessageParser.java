@@ -0,0 +1,94 @@
+package cn.binarywang.wx.miniapp.util.xml;
+
+import cn.binarywang.wx.miniapp.bean.WxMaMessage;
+import me.chanjar.weixin.common.util.xml.StaxUtils;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+
+/**
+ * <pre>
+ * 基于StAX的 {@link WxMaMessage} 解析器，按元素名直接调用对应的setter，不经过XStream的反射
+ * 数值字段为空时是null；未知的元素会被忽略
+ * </pre>
+ */
+public class WxMaMessageParser {
+
+  private static final StaxUtils.ReadHandler<WxMaMessage> HANDLER = new StaxUtils.ReadHandler<WxMaMessage>() {
+    @Override
+    public WxMaMessage read(XMLStreamReader reader) throws XMLStreamException {
+      return WxMaMessageParser.read(reader);
+    }
+  };
+
+  /**
+   * @throws com.thoughtworks.xstream.io.StreamException xml格式不正确
+   */
+  public static WxMaMessage fromXml(String xml) {
+    return StaxUtils.read(xml, HANDLER);
+  }
+
+  /**
+   * @throws com.thoughtworks.xstream.io.StreamException xml格式不正确
+   */
+  public static WxMaMessage fromXml(InputStream is) {
+    return StaxUtils.read(is, HANDLER);
+  }
+
+  /**
+   * 从根元素之前开始读取一个消息，读完后停在根元素的结束标签上
+   */
+  public static WxMaMessage read(XMLStreamReader reader) throws XMLStreamException {
+    WxMaMessage message = new WxMaMessage();
+    if (StaxUtils.nextElement(reader) != XMLStreamConstants.START_ELEMENT) {
+      return message;
+    }
+
+    while (StaxUtils.nextElement(reader) == XMLStreamConstants.START_ELEMENT) {
+      switch (reader.getLocalName()) {
+        case "Encrypt":
+          message.setEncrypt(StaxUtils.readText(reader));
+          break;
+        case "ToUserName":
+          message.setToUser(StaxUtils.readText(reader));
+          break;
+        case "FromUserName":
+          message.setFromUser(StaxUtils.readText(reader));
+          break;
+        case "CreateTime":
+          message.setCreateTime(StaxUtils.toInteger(StaxUtils.readText(reader)));
+          break;
+        case "MsgDataFormat":
+          message.setMsgType(StaxUtils.readText(reader));
+          break;
+        case "Content":
+          message.setContent(StaxUtils.readText(reader));
+          break;
+        // 操蛋的微信，模板消息推送成功的消息是MsgID，其他消息推送过来是MsgId
+        case "MsgId":
+        case "MsgID":
+          message.setMsgId(StaxUtils.toLong(StaxUtils.readText(reader)));
+          break;
+        case "PicUrl":
+          message.setPicUrl(StaxUtils.readText(reader));
+          break;
+        case "MediaId":
+          message.setMediaId(StaxUtils.readText(reader));
+          break;
+        case "Event":
+          message.setEvent(StaxUtils.readText(reader));
+          break;
+        case "SessionFrom":
+          message.setSessionFrom(StaxUtils.readText(reader));
+          break;
+        default:
+          StaxUtils.skipElement(reader);
+          break;
+      }
+    }
+    return message;
+  }
+
+}
@@ -0,0 +1,126 @@
+package cn.binarywang.wx.miniapp.util.crypt;
+
+import org.apache.commons.codec.binary.Base64;
+import org.testng.annotations.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+@Test
+public class WxMaDecryptorTest {
+
+  /**
+   * 官方文档中的示例数据
+   */
+  private static final String SESSION_KEY = "tiihtNczf5v6AKRyjwEUhQ==";
+  private static final String IV = "r7BXXKkLb8qrSNn05n0qiA==";
+  private static final String ENCRYPTED_DATA = "CiyLU1Aw2KjvrjMdj8YKliAjtP4gsMZM"
+    + "QmRzooG2xrDcvSnxIMXFufNstNGTyaGS"
+    + "9uT5geRa0W4oTOb1WT7fJlAC+oNPdbB+"
+    + "3hVbJSRgv+4lGOETKUQz6OYStslQ142d"
+    + "NCuabNPGBzlooOmB231qMM85d2/fV6Ch"
+    + "evvXvQP8Hkue1poOFtnEtpyxVLW1zAo6"
+    + "/1Xx1COxFvrc2d7UL/lmHInNlxuacJXw"
+    + "u0fjpXfz/YqYzBIBzD6WUfTIF9GRHpOn"
+    + "/Hz7saL8xz+W//FRAUid1OksQaQx4CMs"
+    + "8LOddcQhULW4ucetDf96JcR3g0gfRK4P"
+    + "C7E/r7Z6xNrXd2UIeorGj5Ef7b1pJAYB"
+    + "6Y5anaHqZ9J6nKEBvB4DnNLIVWSgARns"
+    + "/8wR2SiRS7MNACwTyrGvt9ts8p12PKFd"
+    + "lqYTopNHR1Vf7XjfhQlVsAJdNiKdYmYV"
+    + "oKlaRv85IfVunYzO0IKXsyl7JCUjCpoG"
+    + "20f0a04COwfneQAGGwd5oa+T8yO5hzuy"
+    + "Db/XcxxmK01EpqOyuxINew==";
+
+  public void testDecrypt() {
+    String json = WxMaCryptUtils.decrypt(SESSION_KEY, ENCRYPTED_DATA, IV);
+    assertTrue(json.contains("\"openId\":\"oGZUI0egBJY1zhBYw2KhdUfwVJJE\""), json);
+    assertTrue(json.endsWith("}"), json);
+  }
+
+  public void testBatchDecrypt() throws Exception {
+    String anotherKey = Base64.encodeBase64String("0123456789abcdef".getBytes(StandardCharsets.UTF_8));
+    String anotherIv = Base64.encodeBase64String("fedcba9876543210".getBytes(StandardCharsets.UTF_8));
+    String phoneNumber = "{\"phoneNumber\":\"13580006666\",\"purePhoneNumber\":\"13580006666\",\"countryCode\":\"86\"}";
+
+    WxMaDecryptor decryptor = new WxMaDecryptor();
+    for (int round = 0; round < 2; round++) {
+      for (int i = 0; i < 20; i++) {
+        decryptor.add(SESSION_KEY, ENCRYPTED_DATA, IV);
+        decryptor.add(anotherKey, encrypt(anotherKey, anotherIv, phoneNumber + i), anotherIv);
+      }
+      decryptor.add(anotherKey, "not encrypted", anotherIv);
+
+      assertEquals(decryptor.decrypt(), 40);
+      for (int i = 0; i < 20; i++) {
+        assertEquals(decryptor.getString(i * 2), WxMaCryptUtils.decrypt(SESSION_KEY, ENCRYPTED_DATA, IV));
+        assertEquals(decryptor.getString(i * 2 + 1), phoneNumber + i);
+        assertNull(decryptor.getError(i * 2 + 1));
+      }
+      assertEquals(decryptor.getLength(40), -1);
+      assertNotNull(decryptor.getError(40));
+      decryptor.clear();
+    }
+  }
+
+  public void testInvalidPadding() throws Exception {
+    String key = Base64.encodeBase64String("0123456789abcdef".getBytes(StandardCharsets.UTF_8));
+    String iv = Base64.encodeBase64String("fedcba9876543210".getBytes(StandardCharsets.UTF_8));
+    byte[] zeroPad = new byte[16];
+    byte[] largePad = new byte[16];
+    largePad[15] = 40;
+
+    WxMaDecryptor decryptor = new WxMaDecryptor();
+    decryptor.add(key, encrypt(key, iv, "{\"a\":1}"), iv);
+    decryptor.add(key, "", iv);
+    decryptor.add(key, encryptNoPadding(key, iv, zeroPad), iv);
+    decryptor.add(key, encryptNoPadding(key, iv, largePad), iv);
+
+    assertEquals(decryptor.decrypt(), 1);
+    assertEquals(decryptor.getString(0), "{\"a\":1}");
+    for (int i = 1; i < 4; i++) {
+      assertEquals(decryptor.getLength(i), -1);
+      assertNotNull(decryptor.getError(i));
+    }
+  }
+
+  public void testLargeBufferNotKept() throws Exception {
+    String key = Base64.encodeBase64String("0123456789abcdef".getBytes(StandardCharsets.UTF_8));
+    String iv = Base64.encodeBase64String("fedcba9876543210".getBytes(StandardCharsets.UTF_8));
+    StringBuilder large = new StringBuilder();
+    while (large.length() < 100 * 1024) {
+      large.append("0123456789");
+    }
+
+    WxMaDecryptor decryptor = new WxMaDecryptor();
+    decryptor.add(key, encrypt(key, iv, large.toString()), iv);
+    assertEquals(decryptor.decrypt(), 1);
+    assertEquals(decryptor.getString(0), large.toString());
+    assertTrue(decryptor.getBytes().length > 64 * 1024);
+
+    decryptor.clear();
+    assertTrue(decryptor.getBytes().length <= 64 * 1024);
+  }
+
+  private static String encryptNoPadding(String sessionKey, String iv, byte[] plain) throws Exception {
+    Cipher cipher = Cipher.getInstance("AES/CBC/NoPadding");
+    cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(Base64.decodeBase64(sessionKey), "AES"),
+      new IvParameterSpec(Base64.decodeBase64(iv)));
+    return Base64.encodeBase64String(cipher.doFinal(plain));
+  }
+
+  private static String encrypt(String sessionKey, String iv, String plainText) throws Exception {
+    Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+    cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(Base64.decodeBase64(sessionKey), "AES"),
+      new IvParameterSpec(Base64.decodeBase64(iv)));
+    return Base64.encodeBase64String(cipher.doFinal(plainText.getBytes(StandardCharsets.UTF_8)));
+  }
+
+}
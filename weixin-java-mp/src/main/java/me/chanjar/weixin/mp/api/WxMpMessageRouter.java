@@ -3,6 +3,11 @@ package me.chanjar.weixin.mp.api;
 import me.chanjar.weixin.common.api.WxErrorExceptionHandler;
 import me.chanjar.weixin.common.api.WxMessageDuplicateChecker;
 import me.chanjar.weixin.common.api.WxMessageInMemoryDuplicateChecker;
+import me.chanjar.weixin.common.api.WxMessageInMemoryRouterMetrics;
+import me.chanjar.weixin.common.api.WxMessageKeyDuplicateChecker;
+import me.chanjar.weixin.common.api.WxMessageKeys;
+import me.chanjar.weixin.common.api.WxMessageRouterMetrics;
+import me.chanjar.weixin.common.api.WxMessageRouterRules;
 import me.chanjar.weixin.common.session.InternalSession;
 import me.chanjar.weixin.common.session.InternalSessionManager;
 import me.chanjar.weixin.common.session.StandardSessionManager;
@@ -54,7 +59,7 @@ public class WxMpMessageRouter {
 
   private static final int DEFAULT_THREAD_POOL_SIZE = 100;
   protected final Logger log = LoggerFactory.getLogger(WxMpMessageRouter.class);
-  private final List<WxMpMessageRouterRule> rules = new ArrayList<>();
+  private final WxMessageRouterRules<WxMpMessageRouterRule> rules = new WxMessageRouterRules<>();
 
   private final WxMpService wxMpService;
 
@@ -66,12 +71,15 @@ public class WxMpMessageRouter {
 
   private WxErrorExceptionHandler exceptionHandler;
 
+  private WxMessageRouterMetrics metrics;
+
   public WxMpMessageRouter(WxMpService wxMpService) {
     this.wxMpService = wxMpService;
     this.executorService = Executors.newFixedThreadPool(DEFAULT_THREAD_POOL_SIZE);
     this.messageDuplicateChecker = new WxMessageInMemoryDuplicateChecker();
     this.sessionManager = new StandardSessionManager();
     this.exceptionHandler = new LogExceptionHandler();
+    this.metrics = new WxMessageInMemoryRouterMetrics();
   }
 
   /**
@@ -114,8 +122,45 @@ public class WxMpMessageRouter {
     this.exceptionHandler = exceptionHandler;
   }
 
-  List<WxMpMessageRouterRule> getRules() {
-    return this.rules;
+  /**
+   * <pre>
+   * 设置自定义的{@link me.chanjar.weixin.common.api.WxMessageRouterMetrics}
+   * 如果不调用该方法，默认使用 {@link me.chanjar.weixin.common.api.WxMessageInMemoryRouterMetrics}
+   * </pre>
+   */
+  public void setMetrics(WxMessageRouterMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  public WxMessageRouterMetrics getMetrics() {
+    return this.metrics;
+  }
+
+  /**
+   * 当前生效的规则（只读快照）
+   */
+  public List<WxMpMessageRouterRule> getRules() {
+    return this.rules.getRules();
+  }
+
+  /**
+   * 追加一个规则，采用写时复制，正在进行的路由不受影响
+   */
+  void addRule(WxMpMessageRouterRule rule) {
+    this.rules.add(rule);
+  }
+
+  /**
+   * <pre>
+   * 整体替换路由规则，可以在运行期间随时调用，比如从外部配置中心重新加载规则后
+   * 新规则集会在调用线程中构建好索引后再一次性替换，正在处理的消息仍使用旧规则，之后的消息使用新规则
+   * 传入的规则通过 router.rule() 创建，配置好后不要调用end()或next()，
+   * 需要继续匹配后续规则的用setReEnter(true)代替next()
+   * 没有指定名称的规则会被设置默认名称"rule-序号"
+   * </pre>
+   */
+  public void setRules(List<WxMpMessageRouterRule> rules) {
+    this.rules.set(rules);
   }
 
   /**
@@ -131,13 +176,15 @@ public class WxMpMessageRouter {
   public WxMpXmlOutMessage route(final WxMpXmlMessage wxMessage, final Map<String, Object> context) {
     if (isMsgDuplicated(wxMessage)) {
       // 如果是重复消息，那么就不做处理
+      this.metrics.onDuplicateDropped();
       return null;
     }
 
     final List<WxMpMessageRouterRule> matchRules = new ArrayList<>();
     // 收集匹配的规则
-    for (final WxMpMessageRouterRule rule : this.rules) {
+    for (final WxMpMessageRouterRule rule : this.rules.getRuleSet().candidates(wxMessage.getMsgType())) {
       if (rule.test(wxMessage)) {
+        this.metrics.onRuleMatched(rule.getName());
         matchRules.add(rule);
         if (!rule.isReEnter()) {
           break;
@@ -154,10 +201,12 @@ public class WxMpMessageRouter {
     for (final WxMpMessageRouterRule rule : matchRules) {
       // 返回最后一个非异步的rule的执行结果
       if (rule.isAsync()) {
+        final long submitTime = System.nanoTime();
         futures.add(
           this.executorService.submit(new Runnable() {
             @Override
             public void run() {
+              WxMpMessageRouter.this.metrics.onAsyncQueueWait(System.nanoTime() - submitTime);
               rule.service(wxMessage, context, WxMpMessageRouter.this.wxMpService, WxMpMessageRouter.this.sessionManager, WxMpMessageRouter.this.exceptionHandler);
             }
           })
@@ -196,6 +245,18 @@ public class WxMpMessageRouter {
 
   protected boolean isMsgDuplicated(WxMpXmlMessage wxMessage) {
 
+    if (this.messageDuplicateChecker instanceof WxMessageKeyDuplicateChecker) {
+      // 直接根据消息字段计算消息key，不拼接字符串
+      WxMessageKeyDuplicateChecker checker = (WxMessageKeyDuplicateChecker) this.messageDuplicateChecker;
+      if (wxMessage.getMsgId() != null) {
+        return checker.isDuplicate(WxMessageKeys.MSG_ID_HIGH, wxMessage.getMsgId());
+      }
+      long createTime = wxMessage.getCreateTime() == null ? 0 : wxMessage.getCreateTime();
+      return checker.isDuplicate(
+        WxMessageKeys.eventHigh(createTime, 0, wxMessage.getFromUser(), wxMessage.getEventKey(), wxMessage.getEvent()),
+        WxMessageKeys.eventLow(createTime, 0, wxMessage.getFromUser(), wxMessage.getEventKey(), wxMessage.getEvent()));
+    }
+
     StringBuilder messageId = new StringBuilder();
     if (wxMessage.getMsgId() == null) {
       messageId.append(wxMessage.getCreateTime())
@@ -1,6 +1,8 @@
 package me.chanjar.weixin.mp.api;
 
 import me.chanjar.weixin.common.api.WxErrorExceptionHandler;
+import me.chanjar.weixin.common.api.WxMessageRouterMetrics;
+import me.chanjar.weixin.common.api.WxMessageRouterRuleInfo;
 import me.chanjar.weixin.common.exception.WxErrorException;
 import me.chanjar.weixin.common.session.WxSessionManager;
 import me.chanjar.weixin.mp.bean.message.WxMpXmlMessage;
@@ -12,12 +14,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
 
-public class WxMpMessageRouterRule {
+public class WxMpMessageRouterRule implements WxMessageRouterRuleInfo {
 
   private final WxMpMessageRouter routerBuilder;
 
   private boolean async = true;
 
+  private String name;
+
   private String fromUser;
 
   private String msgType;
@@ -42,6 +46,14 @@ public class WxMpMessageRouterRule {
     this.routerBuilder = routerBuilder;
   }
 
+  /**
+   * 设置规则名称，用于监控统计，不设置的话默认为 rule-规则序号
+   */
+  public WxMpMessageRouterRule name(String name) {
+    this.name = name;
+    return this;
+  }
+
   /**
    * 设置是否异步执行，默认是true
    */
@@ -150,7 +162,7 @@ public class WxMpMessageRouterRule {
    * 规则结束，代表如果一个消息匹配该规则，那么它将不再会进入其他规则
    */
   public WxMpMessageRouter end() {
-    this.routerBuilder.getRules().add(this);
+    this.routerBuilder.addRule(this);
     return this.routerBuilder;
   }
 
@@ -202,25 +214,33 @@ public class WxMpMessageRouterRule {
       context = new HashMap<>();
     }
 
+    WxMessageRouterMetrics metrics = this.routerBuilder.getMetrics();
     try {
       // 如果拦截器不通过
       for (WxMpMessageInterceptor interceptor : this.interceptors) {
         if (!interceptor.intercept(wxMessage, context, wxMpService, sessionManager)) {
+          metrics.onInterceptorRejected(this.name);
           return null;
         }
       }
 
       // 交给handler处理
-      WxMpXmlOutMessage res = null;
-      for (WxMpMessageHandler handler : this.handlers) {
-        // 返回最后handler的结果
-        if (handler == null) {
-          continue;
+      long start = System.nanoTime();
+      try {
+        WxMpXmlOutMessage res = null;
+        for (WxMpMessageHandler handler : this.handlers) {
+          // 返回最后handler的结果
+          if (handler == null) {
+            continue;
+          }
+          res = handler.handle(wxMessage, context, wxMpService, sessionManager);
         }
-        res = handler.handle(wxMessage, context, wxMpService, sessionManager);
+        return res;
+      } finally {
+        metrics.onHandlerCompleted(this.name, System.nanoTime() - start);
       }
-      return res;
     } catch (WxErrorException e) {
+      metrics.onException(this.name, e);
       exceptionHandler.handle(e);
     }
     return null;
@@ -239,6 +259,16 @@ public class WxMpMessageRouterRule {
     this.async = async;
   }
 
+  @Override
+  public String getName() {
+    return this.name;
+  }
+
+  @Override
+  public void setName(String name) {
+    this.name = name;
+  }
+
   public String getFromUser() {
     return this.fromUser;
   }
@@ -247,6 +277,7 @@ public class WxMpMessageRouterRule {
     this.fromUser = fromUser;
   }
 
+  @Override
   public String getMsgType() {
     return this.msgType;
   }
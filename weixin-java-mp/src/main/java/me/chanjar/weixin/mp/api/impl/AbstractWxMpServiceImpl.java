@@ -50,8 +50,7 @@ public abstract class AbstractWxMpServiceImpl<H, P> implements WxMpService, Requ
   @Override
   public boolean checkSignature(String timestamp, String nonce, String signature) {
     try {
-      return SHA1.gen(this.getWxMpConfigStorage().getToken(), timestamp, nonce)
-        .equals(signature);
+      return SHA1.check(signature, this.getWxMpConfigStorage().getToken(), timestamp, nonce);
     } catch (Exception e) {
       this.log.error("Checking signature failed, and the reason is :" + e.getMessage());
       return false;
@@ -0,0 +1,709 @@
+package me.chanjar.weixin.mp.bean.message;
+
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+import me.chanjar.weixin.common.util.xml.StaxUtils;
+import me.chanjar.weixin.common.util.xml.XmlElementIndex;
+import me.chanjar.weixin.mp.api.WxMpConfigStorage;
+import me.chanjar.weixin.mp.util.crypto.WxMpCryptUtil;
+import me.chanjar.weixin.mp.util.xml.WxMpXmlMessageParser;
+import org.apache.commons.io.IOUtils;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <pre>
+ * 按需解析的 {@link WxMpXmlMessage}
+ *
+ * 创建时只扫描一遍xml，记录每个元素在原始字符串中的位置；
+ * 某个属性的getter第一次被调用时才解码对应的元素，之后直接返回已解码的值。
+ * 大部分handler只读取MsgType、Event、EventKey、FromUserName、Content等少数几个属性，
+ * 其余的卡券、设备、门店、扫码等属性不会被解码。
+ *
+ * 这是 {@link WxMpXmlMessage} 的子类，可以直接交给 {@link me.chanjar.weixin.mp.api.WxMpMessageRouter} 和各个handler使用。
+ * 属性和元素名的对应关系在类加载时从 {@link WxMpXmlMessage} 属性上的 {@link XStreamAlias} 读取，
+ * 这里只覆盖getter，父类新增属性时只需要再覆盖它的getter。
+ * 解码时属性已有值（调用过setter）就不再从xml解码，所以setX(null)之后再调用getX()会重新读取xml中的值。
+ * 解析结果与 {@link WxMpXmlMessageParser} 一致，区别只在于格式错误的元素要到被读取时才会抛出异常。
+ * </pre>
+ */
+public class WxMpLazyXmlMessage extends WxMpXmlMessage {
+
+  private static final long serialVersionUID = 4032419830617244875L;
+
+  /**
+   * 带 {@link XStreamAlias} 的属性，下标即属性在 {@link #offsets} 和已解码标记中的位置
+   */
+  private static final Field[] FIELDS;
+
+  /**
+   * 每个属性对应的元素名
+   */
+  private static final String[] ELEMENTS;
+
+  /**
+   * 有子元素的结构，交给 {@link WxMpXmlMessageParser#readElement} 解析
+   */
+  private static final boolean[] NESTED;
+
+  /**
+   * 元素名到属性下标的映射
+   */
+  private static final Map<String, Integer> BY_ELEMENT = new HashMap<>();
+
+  /**
+   * 属性名到属性下标的映射
+   */
+  private static final Map<String, Integer> BY_FIELD = new HashMap<>();
+
+  static {
+    List<Field> fields = new ArrayList<>();
+    for (Field field : WxMpXmlMessage.class.getDeclaredFields()) {
+      if (!Modifier.isStatic(field.getModifiers()) && field.isAnnotationPresent(XStreamAlias.class)) {
+        field.setAccessible(true);
+        fields.add(field);
+      }
+    }
+    // 已解码标记只有两个long
+    if (fields.size() > 128) {
+      throw new IllegalStateException("WxMpXmlMessage的属性超过128个");
+    }
+
+    FIELDS = fields.toArray(new Field[fields.size()]);
+    ELEMENTS = new String[FIELDS.length];
+    NESTED = new boolean[FIELDS.length];
+    for (int i = 0; i < FIELDS.length; i++) {
+      ELEMENTS[i] = FIELDS[i].getAnnotation(XStreamAlias.class).value();
+      NESTED[i] = !FIELDS[i].getType().getName().startsWith("java.");
+      BY_ELEMENT.put(ELEMENTS[i], i);
+      BY_FIELD.put(FIELDS[i].getName(), i);
+    }
+    // 操蛋的微信，模板消息推送成功的消息是MsgID，其他消息推送过来是MsgId
+    BY_ELEMENT.put("MsgID", BY_FIELD.get("msgId"));
+  }
+
+  /**
+   * 原始xml和元素位置都不序列化，序列化之前会解码所有属性
+   */
+  private final transient String xml;
+
+  /**
+   * 每个属性对应元素的位置：开始标签、内容开始、内容结束、结束标签之后，-1表示没有这个元素
+   */
+  private final transient int[] offsets = new int[FIELDS.length * 4];
+
+  /**
+   * 已经解码的属性，有子元素的结构调用setter后也会被标记
+   */
+  private transient volatile long loadedLow;
+
+  private transient volatile long loadedHigh;
+
+  protected WxMpLazyXmlMessage(String xml) {
+    this.xml = xml;
+    Arrays.fill(this.offsets, -1);
+    XmlElementIndex.scan(xml, new XmlElementIndex.Visitor() {
+      @Override
+      public void element(String name, int elementStart, int contentStart, int contentEnd, int elementEnd) {
+        Integer field = BY_ELEMENT.get(name);
+        if (field == null) {
+          return;
+        }
+        // 重复的元素以最后一个为准，与逐个解析时一致
+        int offset = field * 4;
+        WxMpLazyXmlMessage.this.offsets[offset] = elementStart;
+        WxMpLazyXmlMessage.this.offsets[offset + 1] = contentStart;
+        WxMpLazyXmlMessage.this.offsets[offset + 2] = contentEnd;
+        WxMpLazyXmlMessage.this.offsets[offset + 3] = elementEnd;
+      }
+    });
+  }
+
+  public static WxMpLazyXmlMessage fromXml(String xml) {
+    return new WxMpLazyXmlMessage(xml);
+  }
+
+  /**
+   * 按照BOM或者xml声明中的encoding解码，都没有时按UTF-8
+   */
+  public static WxMpLazyXmlMessage fromXml(InputStream is) {
+    try {
+      return new WxMpLazyXmlMessage(XmlElementIndex.decodeDocument(IOUtils.toByteArray(is)));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * 从加密字符串转换
+   *
+   * @param encryptedXml      密文
+   * @param wxMpConfigStorage 配置存储器对象
+   * @param timestamp         时间戳
+   * @param nonce             随机串
+   * @param msgSignature      签名串
+   */
+  public static WxMpLazyXmlMessage fromEncryptedXml(String encryptedXml,
+                                                    WxMpConfigStorage wxMpConfigStorage, String timestamp, String nonce,
+                                                    String msgSignature) {
+    WxMpCryptUtil cryptUtil = new WxMpCryptUtil(wxMpConfigStorage);
+    return new WxMpLazyXmlMessage(cryptUtil.decrypt(msgSignature, timestamp, nonce, encryptedXml));
+  }
+
+  public static WxMpLazyXmlMessage fromEncryptedXml(InputStream is,
+                                                    WxMpConfigStorage wxMpConfigStorage, String timestamp, String nonce,
+                                                    String msgSignature) {
+    WxMpCryptUtil cryptUtil = new WxMpCryptUtil(wxMpConfigStorage);
+    return fromXml(cryptUtil.decryptToStream(msgSignature, timestamp, nonce, is));
+  }
+
+  private boolean isLoaded(int field) {
+    return field < 64 ? (this.loadedLow & (1L << field)) != 0 : (this.loadedHigh & (1L << (field - 64))) != 0;
+  }
+
+  private void markLoaded(String fieldName) {
+    markLoaded(BY_FIELD.get(fieldName));
+  }
+
+  private synchronized void markLoaded(int field) {
+    if (field < 64) {
+      this.loadedLow |= 1L << field;
+    } else {
+      this.loadedHigh |= 1L << (field - 64);
+    }
+  }
+
+  private void load(String fieldName) {
+    load(BY_FIELD.get(fieldName));
+  }
+
+  private void load(int field) {
+    if (!isLoaded(field)) {
+      decode(field);
+    }
+  }
+
+  /**
+   * 先设置属性值再标记为已解码，其他线程看到标记时一定能看到属性值
+   */
+  private synchronized void decode(int field) {
+    if (isLoaded(field)) {
+      return;
+    }
+
+    int offset = field * 4;
+    // 反序列化得到的对象没有原始xml，所有属性都已经在父类中
+    if (this.offsets != null && this.offsets[offset] >= 0) {
+      if (NESTED[field]) {
+        decodeElement(this.offsets[offset], this.offsets[offset + 3]);
+      } else if (currentValue(field) == null) {
+        WxMpXmlMessageParser.setField(this, ELEMENTS[field],
+          XmlElementIndex.decodeText(this.xml, this.offsets[offset + 1], this.offsets[offset + 2]));
+      }
+    }
+    markLoaded(field);
+  }
+
+  private Object currentValue(int field) {
+    try {
+      return FIELDS[field].get(this);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * 有子元素的结构交给 {@link WxMpXmlMessageParser} 解析
+   */
+  private void decodeElement(int start, int end) {
+    StaxUtils.read(this.xml.substring(start, end), new StaxUtils.ReadHandler<Void>() {
+      @Override
+      public Void read(XMLStreamReader reader) throws XMLStreamException {
+        StaxUtils.nextElement(reader);
+        WxMpXmlMessageParser.readElement(WxMpLazyXmlMessage.this, reader);
+        return null;
+      }
+    });
+  }
+
+  /**
+   * 解码所有属性
+   */
+  public void loadAll() {
+    for (int i = 0; i < FIELDS.length; i++) {
+      load(i);
+    }
+  }
+
+  @Override
+  public String getToUser() {
+    load("toUser");
+    return super.getToUser();
+  }
+
+  @Override
+  public String getFromUser() {
+    load("fromUser");
+    return super.getFromUser();
+  }
+
+  @Override
+  public Long getCreateTime() {
+    load("createTime");
+    return super.getCreateTime();
+  }
+
+  @Override
+  public String getMsgType() {
+    load("msgType");
+    return super.getMsgType();
+  }
+
+  @Override
+  public String getContent() {
+    load("content");
+    return super.getContent();
+  }
+
+  @Override
+  public Long getMenuId() {
+    load("menuId");
+    return super.getMenuId();
+  }
+
+  @Override
+  public Long getMsgId() {
+    load("msgId");
+    return super.getMsgId();
+  }
+
+  @Override
+  public String getPicUrl() {
+    load("picUrl");
+    return super.getPicUrl();
+  }
+
+  @Override
+  public String getMediaId() {
+    load("mediaId");
+    return super.getMediaId();
+  }
+
+  @Override
+  public String getFormat() {
+    load("format");
+    return super.getFormat();
+  }
+
+  @Override
+  public String getThumbMediaId() {
+    load("thumbMediaId");
+    return super.getThumbMediaId();
+  }
+
+  @Override
+  public Double getLocationX() {
+    load("locationX");
+    return super.getLocationX();
+  }
+
+  @Override
+  public Double getLocationY() {
+    load("locationY");
+    return super.getLocationY();
+  }
+
+  @Override
+  public Double getScale() {
+    load("scale");
+    return super.getScale();
+  }
+
+  @Override
+  public String getLabel() {
+    load("label");
+    return super.getLabel();
+  }
+
+  @Override
+  public String getTitle() {
+    load("title");
+    return super.getTitle();
+  }
+
+  @Override
+  public String getDescription() {
+    load("description");
+    return super.getDescription();
+  }
+
+  @Override
+  public String getUrl() {
+    load("url");
+    return super.getUrl();
+  }
+
+  @Override
+  public String getEvent() {
+    load("event");
+    return super.getEvent();
+  }
+
+  @Override
+  public String getEventKey() {
+    load("eventKey");
+    return super.getEventKey();
+  }
+
+  @Override
+  public String getTicket() {
+    load("ticket");
+    return super.getTicket();
+  }
+
+  @Override
+  public Double getLatitude() {
+    load("latitude");
+    return super.getLatitude();
+  }
+
+  @Override
+  public Double getLongitude() {
+    load("longitude");
+    return super.getLongitude();
+  }
+
+  @Override
+  public Double getPrecision() {
+    load("precision");
+    return super.getPrecision();
+  }
+
+  @Override
+  public String getRecognition() {
+    load("recognition");
+    return super.getRecognition();
+  }
+
+  @Override
+  public String getStatus() {
+    load("status");
+    return super.getStatus();
+  }
+
+  @Override
+  public Integer getTotalCount() {
+    load("totalCount");
+    return super.getTotalCount();
+  }
+
+  @Override
+  public Integer getFilterCount() {
+    load("filterCount");
+    return super.getFilterCount();
+  }
+
+  @Override
+  public Integer getSentCount() {
+    load("sentCount");
+    return super.getSentCount();
+  }
+
+  @Override
+  public Integer getErrorCount() {
+    load("errorCount");
+    return super.getErrorCount();
+  }
+
+  @Override
+  public String getKfAccount() {
+    load("kfAccount");
+    return super.getKfAccount();
+  }
+
+  @Override
+  public String getToKfAccount() {
+    load("toKfAccount");
+    return super.getToKfAccount();
+  }
+
+  @Override
+  public String getFromKfAccount() {
+    load("fromKfAccount");
+    return super.getFromKfAccount();
+  }
+
+  @Override
+  public String getCardId() {
+    load("cardId");
+    return super.getCardId();
+  }
+
+  @Override
+  public String getFriendUserName() {
+    load("friendUserName");
+    return super.getFriendUserName();
+  }
+
+  @Override
+  public Integer getIsGiveByFriend() {
+    load("isGiveByFriend");
+    return super.getIsGiveByFriend();
+  }
+
+  @Override
+  public String getUserCardCode() {
+    load("userCardCode");
+    return super.getUserCardCode();
+  }
+
+  @Override
+  public String getOldUserCardCode() {
+    load("oldUserCardCode");
+    return super.getOldUserCardCode();
+  }
+
+  @Override
+  public Integer getOuterId() {
+    load("outerId");
+    return super.getOuterId();
+  }
+
+  @Override
+  public String getIsRestoreMemberCard() {
+    load("isRestoreMemberCard");
+    return super.getIsRestoreMemberCard();
+  }
+
+  @Override
+  public String getOuterStr() {
+    load("outerStr");
+    return super.getOuterStr();
+  }
+
+  @Override
+  public String getIsReturnBack() {
+    load("isReturnBack");
+    return super.getIsReturnBack();
+  }
+
+  @Override
+  public String getIsChatRoom() {
+    load("isChatRoom");
+    return super.getIsChatRoom();
+  }
+
+  @Override
+  public String getConsumeSource() {
+    load("consumeSource");
+    return super.getConsumeSource();
+  }
+
+  @Override
+  public String getLocationName() {
+    load("locationName");
+    return super.getLocationName();
+  }
+
+  @Override
+  public String getStaffOpenId() {
+    load("staffOpenId");
+    return super.getStaffOpenId();
+  }
+
+  @Override
+  public String getVerifyCode() {
+    load("verifyCode");
+    return super.getVerifyCode();
+  }
+
+  @Override
+  public String getRemarkAmount() {
+    load("remarkAmount");
+    return super.getRemarkAmount();
+  }
+
+  @Override
+  public String getDetail() {
+    load("detail");
+    return super.getDetail();
+  }
+
+  @Override
+  public String getModifyBonus() {
+    load("modifyBonus");
+    return super.getModifyBonus();
+  }
+
+  @Override
+  public String getModifyBalance() {
+    load("modifyBalance");
+    return super.getModifyBalance();
+  }
+
+  @Override
+  public String getTransId() {
+    load("transId");
+    return super.getTransId();
+  }
+
+  @Override
+  public String getLocationId() {
+    load("locationId");
+    return super.getLocationId();
+  }
+
+  @Override
+  public String getFee() {
+    load("fee");
+    return super.getFee();
+  }
+
+  @Override
+  public String getOriginalFee() {
+    load("originalFee");
+    return super.getOriginalFee();
+  }
+
+  @Override
+  public ScanCodeInfo getScanCodeInfo() {
+    load("scanCodeInfo");
+    return super.getScanCodeInfo();
+  }
+
+  @Override
+  public void setScanCodeInfo(ScanCodeInfo scanCodeInfo) {
+    super.setScanCodeInfo(scanCodeInfo);
+    markLoaded("scanCodeInfo");
+  }
+
+  @Override
+  public SendPicsInfo getSendPicsInfo() {
+    load("sendPicsInfo");
+    return super.getSendPicsInfo();
+  }
+
+  @Override
+  public void setSendPicsInfo(SendPicsInfo sendPicsInfo) {
+    super.setSendPicsInfo(sendPicsInfo);
+    markLoaded("sendPicsInfo");
+  }
+
+  @Override
+  public SendLocationInfo getSendLocationInfo() {
+    load("sendLocationInfo");
+    return super.getSendLocationInfo();
+  }
+
+  @Override
+  public void setSendLocationInfo(SendLocationInfo sendLocationInfo) {
+    super.setSendLocationInfo(sendLocationInfo);
+    markLoaded("sendLocationInfo");
+  }
+
+  @Override
+  public String getStoreUniqId() {
+    load("storeUniqId");
+    return super.getStoreUniqId();
+  }
+
+  @Override
+  public String getPoiId() {
+    load("poiId");
+    return super.getPoiId();
+  }
+
+  @Override
+  public String getResult() {
+    load("result");
+    return super.getResult();
+  }
+
+  @Override
+  public String getMsg() {
+    load("msg");
+    return super.getMsg();
+  }
+
+  @Override
+  public Long getExpiredTime() {
+    load("expiredTime");
+    return super.getExpiredTime();
+  }
+
+  @Override
+  public Long getFailTime() {
+    load("failTime");
+    return super.getFailTime();
+  }
+
+  @Override
+  public String getFailReason() {
+    load("failReason");
+    return super.getFailReason();
+  }
+
+  @Override
+  public String getDeviceType() {
+    load("deviceType");
+    return super.getDeviceType();
+  }
+
+  @Override
+  public String getDeviceId() {
+    load("deviceId");
+    return super.getDeviceId();
+  }
+
+  @Override
+  public String getOpenId() {
+    load("openId");
+    return super.getOpenId();
+  }
+
+  @Override
+  public HardWare getHardWare() {
+    load("hardWare");
+    return super.getHardWare();
+  }
+
+  @Override
+  public void setHardWare(HardWare hardWare) {
+    super.setHardWare(hardWare);
+    markLoaded("hardWare");
+  }
+
+  @Override
+  public Integer getOpType() {
+    load("opType");
+    return super.getOpType();
+  }
+
+  @Override
+  public Integer getDeviceStatus() {
+    load("deviceStatus");
+    return super.getDeviceStatus();
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    loadAll();
+    out.defaultWriteObject();
+  }
+
+  @Override
+  public String toString() {
+    loadAll();
+    return super.toString();
+  }
+
+}
@@ -6,10 +6,8 @@ import me.chanjar.weixin.common.util.ToStringUtils;
 import me.chanjar.weixin.common.util.xml.XStreamCDataConverter;
 import me.chanjar.weixin.mp.api.WxMpConfigStorage;
 import me.chanjar.weixin.mp.util.crypto.WxMpCryptUtil;
-import me.chanjar.weixin.mp.util.xml.XStreamTransformer;
-import org.apache.commons.io.IOUtils;
+import me.chanjar.weixin.mp.util.xml.WxMpXmlMessageParser;
 
-import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
 
@@ -425,11 +423,11 @@ public class WxMpXmlMessage implements Serializable {
   private Integer deviceStatus;
 
   public static WxMpXmlMessage fromXml(String xml) {
-    return XStreamTransformer.fromXml(WxMpXmlMessage.class, xml);
+    return WxMpXmlMessageParser.fromXml(xml);
   }
 
   public static WxMpXmlMessage fromXml(InputStream is) {
-    return XStreamTransformer.fromXml(WxMpXmlMessage.class, is);
+    return WxMpXmlMessageParser.fromXml(is);
   }
 
   /**
@@ -453,12 +451,8 @@ public class WxMpXmlMessage implements Serializable {
   public static WxMpXmlMessage fromEncryptedXml(InputStream is,
                                                 WxMpConfigStorage wxMpConfigStorage, String timestamp, String nonce,
                                                 String msgSignature) {
-    try {
-      return fromEncryptedXml(IOUtils.toString(is, "UTF-8"), wxMpConfigStorage,
-        timestamp, nonce, msgSignature);
-    } catch (IOException e) {
-      throw new RuntimeException(e);
-    }
+    WxMpCryptUtil cryptUtil = new WxMpCryptUtil(wxMpConfigStorage);
+    return fromXml(cryptUtil.decryptToStream(msgSignature, timestamp, nonce, is));
   }
 
   public Integer getOpType() {
@@ -6,8 +6,10 @@ import me.chanjar.weixin.common.util.xml.XStreamCDataConverter;
 import me.chanjar.weixin.mp.api.WxMpConfigStorage;
 import me.chanjar.weixin.mp.builder.outxml.*;
 import me.chanjar.weixin.mp.util.crypto.WxMpCryptUtil;
-import me.chanjar.weixin.mp.util.xml.XStreamTransformer;
+import me.chanjar.weixin.mp.util.xml.WxMpXmlOutMessageWriter;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
 
 @XStreamAlias("xml")
@@ -111,9 +113,15 @@ public abstract class WxMpXmlOutMessage implements Serializable {
     this.msgType = msgType;
   }
 
-  @SuppressWarnings("unchecked")
   public String toXml() {
-    return XStreamTransformer.toXml((Class<WxMpXmlOutMessage>) this.getClass(), this);
+    return WxMpXmlOutMessageWriter.toXml(this);
+  }
+
+  /**
+   * 以UTF-8直接写入输出流，例如servlet的OutputStream
+   */
+  public void writeTo(OutputStream os) throws IOException {
+    WxMpXmlOutMessageWriter.write(this, os);
   }
 
   /**
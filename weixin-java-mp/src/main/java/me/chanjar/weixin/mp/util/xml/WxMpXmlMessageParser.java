@@ -0,0 +1,405 @@
+package me.chanjar.weixin.mp.util.xml;
+
+import me.chanjar.weixin.common.util.xml.StaxUtils;
+import me.chanjar.weixin.mp.bean.message.HardWare;
+import me.chanjar.weixin.mp.bean.message.ScanCodeInfo;
+import me.chanjar.weixin.mp.bean.message.SendLocationInfo;
+import me.chanjar.weixin.mp.bean.message.SendPicsInfo;
+import me.chanjar.weixin.mp.bean.message.WxMpXmlMessage;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+
+/**
+ * <pre>
+ * 基于StAX的 {@link WxMpXmlMessage} 解析器，按元素名直接调用对应的setter，不经过XStream的反射
+ *
+ * 解析结果与 {@link XStreamTransformer} 一致，以下几点除外：
+ * 1. 消息中没有ScanCodeInfo等子结构时，对应属性是bean默认创建的空对象，而不是null；
+ * 2. 数值字段为空时是null，而不是抛出异常；数值不支持XStream的16进制和8进制写法。
+ * 未知的元素会被忽略。
+ * </pre>
+ */
+public class WxMpXmlMessageParser {
+
+  private static final StaxUtils.ReadHandler<WxMpXmlMessage> HANDLER = new StaxUtils.ReadHandler<WxMpXmlMessage>() {
+    @Override
+    public WxMpXmlMessage read(XMLStreamReader reader) throws XMLStreamException {
+      return WxMpXmlMessageParser.read(reader);
+    }
+  };
+
+  /**
+   * @throws com.thoughtworks.xstream.io.StreamException xml格式不正确
+   */
+  public static WxMpXmlMessage fromXml(String xml) {
+    return StaxUtils.read(xml, HANDLER);
+  }
+
+  /**
+   * @throws com.thoughtworks.xstream.io.StreamException xml格式不正确
+   */
+  public static WxMpXmlMessage fromXml(InputStream is) {
+    return StaxUtils.read(is, HANDLER);
+  }
+
+  /**
+   * 从根元素之前开始读取一个消息，读完后停在根元素的结束标签上
+   */
+  public static WxMpXmlMessage read(XMLStreamReader reader) throws XMLStreamException {
+    WxMpXmlMessage message = new WxMpXmlMessage();
+    if (StaxUtils.nextElement(reader) != XMLStreamConstants.START_ELEMENT) {
+      return message;
+    }
+
+    while (StaxUtils.nextElement(reader) == XMLStreamConstants.START_ELEMENT) {
+      readElement(message, reader);
+    }
+    return message;
+  }
+
+  /**
+   * 读取根元素下的一个元素，从开始标签开始，读完后停在这个元素的结束标签上
+   */
+  public static void readElement(WxMpXmlMessage message, XMLStreamReader reader) throws XMLStreamException {
+    switch (reader.getLocalName()) {
+      case "ScanCodeInfo":
+        message.setScanCodeInfo(readScanCodeInfo(reader));
+        break;
+      case "SendPicsInfo":
+        message.setSendPicsInfo(readSendPicsInfo(reader));
+        break;
+      case "SendLocationInfo":
+        message.setSendLocationInfo(readSendLocationInfo(reader));
+        break;
+      case "HardWare":
+        message.setHardWare(readHardWare(reader));
+        break;
+      default:
+        setField(message, reader.getLocalName(), StaxUtils.readText(reader));
+        break;
+    }
+  }
+
+  /**
+   * <pre>
+   * 设置一个只包含文本的元素对应的属性
+   * ScanCodeInfo等有子元素的结构请使用 {@link #readElement(WxMpXmlMessage, XMLStreamReader)}
+   * </pre>
+   *
+   * @param name 元素名
+   * @param text 元素的文本（已去掉CDATA和转义）
+   * @return 是否是已知的元素
+   */
+  public static boolean setField(WxMpXmlMessage message, String name, String text) {
+    switch (name) {
+      case "ToUserName":
+        message.setToUser(text);
+        return true;
+      case "FromUserName":
+        message.setFromUser(text);
+        return true;
+      case "CreateTime":
+        message.setCreateTime(StaxUtils.toLong(text));
+        return true;
+      case "MsgType":
+        message.setMsgType(text);
+        return true;
+      case "Content":
+        message.setContent(text);
+        return true;
+      case "MenuId":
+        message.setMenuId(StaxUtils.toLong(text));
+        return true;
+      // 操蛋的微信，模板消息推送成功的消息是MsgID，其他消息推送过来是MsgId
+      case "MsgId":
+      case "MsgID":
+        message.setMsgId(StaxUtils.toLong(text));
+        return true;
+      case "PicUrl":
+        message.setPicUrl(text);
+        return true;
+      case "MediaId":
+        message.setMediaId(text);
+        return true;
+      case "Format":
+        message.setFormat(text);
+        return true;
+      case "ThumbMediaId":
+        message.setThumbMediaId(text);
+        return true;
+      case "Location_X":
+        message.setLocationX(StaxUtils.toDouble(text));
+        return true;
+      case "Location_Y":
+        message.setLocationY(StaxUtils.toDouble(text));
+        return true;
+      case "Scale":
+        message.setScale(StaxUtils.toDouble(text));
+        return true;
+      case "Label":
+        message.setLabel(text);
+        return true;
+      case "Title":
+        message.setTitle(text);
+        return true;
+      case "Description":
+        message.setDescription(text);
+        return true;
+      case "Url":
+        message.setUrl(text);
+        return true;
+      case "Event":
+        message.setEvent(text);
+        return true;
+      case "EventKey":
+        message.setEventKey(text);
+        return true;
+      case "Ticket":
+        message.setTicket(text);
+        return true;
+      case "Latitude":
+        message.setLatitude(StaxUtils.toDouble(text));
+        return true;
+      case "Longitude":
+        message.setLongitude(StaxUtils.toDouble(text));
+        return true;
+      case "Precision":
+        message.setPrecision(StaxUtils.toDouble(text));
+        return true;
+      case "Recognition":
+        message.setRecognition(text);
+        return true;
+      case "Status":
+        message.setStatus(text);
+        return true;
+      case "TotalCount":
+        message.setTotalCount(StaxUtils.toInteger(text));
+        return true;
+      case "FilterCount":
+        message.setFilterCount(StaxUtils.toInteger(text));
+        return true;
+      case "SentCount":
+        message.setSentCount(StaxUtils.toInteger(text));
+        return true;
+      case "ErrorCount":
+        message.setErrorCount(StaxUtils.toInteger(text));
+        return true;
+      case "KfAccount":
+        message.setKfAccount(text);
+        return true;
+      case "ToKfAccount":
+        message.setToKfAccount(text);
+        return true;
+      case "FromKfAccount":
+        message.setFromKfAccount(text);
+        return true;
+      case "CardId":
+        message.setCardId(text);
+        return true;
+      case "FriendUserName":
+        message.setFriendUserName(text);
+        return true;
+      case "IsGiveByFriend":
+        message.setIsGiveByFriend(StaxUtils.toInteger(text));
+        return true;
+      case "UserCardCode":
+        message.setUserCardCode(text);
+        return true;
+      case "OldUserCardCode":
+        message.setOldUserCardCode(text);
+        return true;
+      case "OuterId":
+        message.setOuterId(StaxUtils.toInteger(text));
+        return true;
+      case "IsRestoreMemberCard":
+        message.setIsRestoreMemberCard(text);
+        return true;
+      case "OuterStr":
+        message.setOuterStr(text);
+        return true;
+      case "IsReturnBack":
+        message.setIsReturnBack(text);
+        return true;
+      case "IsChatRoom":
+        message.setIsChatRoom(text);
+        return true;
+      case "ConsumeSource":
+        message.setConsumeSource(text);
+        return true;
+      case "LocationName":
+        message.setLocationName(text);
+        return true;
+      case "StaffOpenId":
+        message.setStaffOpenId(text);
+        return true;
+      case "VerifyCode":
+        message.setVerifyCode(text);
+        return true;
+      case "RemarkAmount":
+        message.setRemarkAmount(text);
+        return true;
+      case "Detail":
+        message.setDetail(text);
+        return true;
+      case "ModifyBonus":
+        message.setModifyBonus(text);
+        return true;
+      case "ModifyBalance":
+        message.setModifyBalance(text);
+        return true;
+      case "TransId":
+        message.setTransId(text);
+        return true;
+      case "LocationId":
+        message.setLocationId(text);
+        return true;
+      case "Fee":
+        message.setFee(text);
+        return true;
+      case "OriginalFee":
+        message.setOriginalFee(text);
+        return true;
+      case "UniqId":
+        message.setStoreUniqId(text);
+        return true;
+      case "PoiId":
+        message.setPoiId(text);
+        return true;
+      case "Result":
+        message.setResult(text);
+        return true;
+      case "msg":
+        message.setMsg(text);
+        return true;
+      case "ExpiredTime":
+        message.setExpiredTime(StaxUtils.toLong(text));
+        return true;
+      case "FailTime":
+        message.setFailTime(StaxUtils.toLong(text));
+        return true;
+      case "FailReason":
+        message.setFailReason(text);
+        return true;
+      case "DeviceType":
+        message.setDeviceType(text);
+        return true;
+      case "DeviceID":
+        message.setDeviceId(text);
+        return true;
+      case "OpenID":
+        message.setOpenId(text);
+        return true;
+      case "OpType":
+        message.setOpType(StaxUtils.toInteger(text));
+        return true;
+      case "DeviceStatus":
+        message.setDeviceStatus(StaxUtils.toInteger(text));
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static ScanCodeInfo readScanCodeInfo(XMLStreamReader reader) throws XMLStreamException {
+    ScanCodeInfo scanCodeInfo = new ScanCodeInfo();
+    while (StaxUtils.nextElement(reader) == XMLStreamConstants.START_ELEMENT) {
+      switch (reader.getLocalName()) {
+        case "ScanType":
+          scanCodeInfo.setScanType(StaxUtils.readText(reader));
+          break;
+        case "ScanResult":
+          scanCodeInfo.setScanResult(StaxUtils.readText(reader));
+          break;
+        default:
+          StaxUtils.skipElement(reader);
+          break;
+      }
+    }
+    return scanCodeInfo;
+  }
+
+  private static SendPicsInfo readSendPicsInfo(XMLStreamReader reader) throws XMLStreamException {
+    SendPicsInfo sendPicsInfo = new SendPicsInfo();
+    while (StaxUtils.nextElement(reader) == XMLStreamConstants.START_ELEMENT) {
+      switch (reader.getLocalName()) {
+        case "Count":
+          sendPicsInfo.setCount(StaxUtils.toLong(StaxUtils.readText(reader)));
+          break;
+        case "PicList":
+          while (StaxUtils.nextElement(reader) == XMLStreamConstants.START_ELEMENT) {
+            if ("item".equals(reader.getLocalName())) {
+              sendPicsInfo.getPicList().add(readPicItem(reader));
+            } else {
+              StaxUtils.skipElement(reader);
+            }
+          }
+          break;
+        default:
+          StaxUtils.skipElement(reader);
+          break;
+      }
+    }
+    return sendPicsInfo;
+  }
+
+  private static SendPicsInfo.Item readPicItem(XMLStreamReader reader) throws XMLStreamException {
+    SendPicsInfo.Item item = new SendPicsInfo.Item();
+    while (StaxUtils.nextElement(reader) == XMLStreamConstants.START_ELEMENT) {
+      if ("PicMd5Sum".equals(reader.getLocalName())) {
+        item.setPicMd5Sum(StaxUtils.readText(reader));
+      } else {
+        StaxUtils.skipElement(reader);
+      }
+    }
+    return item;
+  }
+
+  private static SendLocationInfo readSendLocationInfo(XMLStreamReader reader) throws XMLStreamException {
+    SendLocationInfo sendLocationInfo = new SendLocationInfo();
+    while (StaxUtils.nextElement(reader) == XMLStreamConstants.START_ELEMENT) {
+      switch (reader.getLocalName()) {
+        case "Location_X":
+          sendLocationInfo.setLocationX(StaxUtils.readText(reader));
+          break;
+        case "Location_Y":
+          sendLocationInfo.setLocationY(StaxUtils.readText(reader));
+          break;
+        case "Scale":
+          sendLocationInfo.setScale(StaxUtils.readText(reader));
+          break;
+        case "Label":
+          sendLocationInfo.setLabel(StaxUtils.readText(reader));
+          break;
+        case "Poiname":
+          sendLocationInfo.setPoiname(StaxUtils.readText(reader));
+          break;
+        default:
+          StaxUtils.skipElement(reader);
+          break;
+      }
+    }
+    return sendLocationInfo;
+  }
+
+  private static HardWare readHardWare(XMLStreamReader reader) throws XMLStreamException {
+    HardWare hardWare = new HardWare();
+    while (StaxUtils.nextElement(reader) == XMLStreamConstants.START_ELEMENT) {
+      switch (reader.getLocalName()) {
+        case "MessageView":
+          hardWare.setMessageView(StaxUtils.readText(reader));
+          break;
+        case "MessageAction":
+          hardWare.setMessageAction(StaxUtils.readText(reader));
+          break;
+        default:
+          StaxUtils.skipElement(reader);
+          break;
+      }
+    }
+    return hardWare;
+  }
+
+}
@@ -0,0 +1,147 @@
+package me.chanjar.weixin.mp.util.xml;
+
+import me.chanjar.weixin.common.util.xml.XmlWriterUtils;
+import me.chanjar.weixin.mp.bean.message.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <pre>
+ * 被动回复消息的writer，每种消息类型一个，直接拼接xml，不经过XStream
+ * 没有注册writer的消息类型仍然使用 {@link XStreamTransformer}
+ * 输出的xml没有缩进，其他与XStream的结果一致
+ * </pre>
+ *
+ * @param <T> 消息类型
+ */
+public abstract class WxMpXmlOutMessageWriter<T extends WxMpXmlOutMessage> {
+
+  private static final Map<Class<?>, WxMpXmlOutMessageWriter<?>> WRITERS = new HashMap<>();
+
+  static {
+    register(WxMpXmlOutTextMessage.class, new WxMpXmlOutMessageWriter<WxMpXmlOutTextMessage>() {
+      @Override
+      protected void writeContent(WxMpXmlOutTextMessage message, StringBuilder out) {
+        XmlWriterUtils.appendCData(out, "Content", message.getContent());
+      }
+    });
+    register(WxMpXmlOutImageMessage.class, new WxMpXmlOutMessageWriter<WxMpXmlOutImageMessage>() {
+      @Override
+      protected void writeContent(WxMpXmlOutImageMessage message, StringBuilder out) {
+        XmlWriterUtils.appendMediaId(out, "Image", message.getMediaId());
+      }
+    });
+    register(WxMpXmlOutVoiceMessage.class, new WxMpXmlOutMessageWriter<WxMpXmlOutVoiceMessage>() {
+      @Override
+      protected void writeContent(WxMpXmlOutVoiceMessage message, StringBuilder out) {
+        XmlWriterUtils.appendMediaId(out, "Voice", message.getMediaId());
+      }
+    });
+    register(WxMpXmlOutVideoMessage.class, new WxMpXmlOutMessageWriter<WxMpXmlOutVideoMessage>() {
+      @Override
+      protected void writeContent(WxMpXmlOutVideoMessage message, StringBuilder out) {
+        out.append("<Video>");
+        XmlWriterUtils.appendCData(out, "MediaId", message.getMediaId());
+        XmlWriterUtils.appendCData(out, "Title", message.getTitle());
+        XmlWriterUtils.appendCData(out, "Description", message.getDescription());
+        out.append("</Video>");
+      }
+    });
+    register(WxMpXmlOutMusicMessage.class, new WxMpXmlOutMessageWriter<WxMpXmlOutMusicMessage>() {
+      @Override
+      protected void writeContent(WxMpXmlOutMusicMessage message, StringBuilder out) {
+        out.append("<Music>");
+        XmlWriterUtils.appendCData(out, "Title", message.getTitle());
+        XmlWriterUtils.appendCData(out, "Description", message.getDescription());
+        XmlWriterUtils.appendCData(out, "ThumbMediaId", message.getThumbMediaId());
+        XmlWriterUtils.appendCData(out, "MusicUrl", message.getMusicUrl());
+        XmlWriterUtils.appendCData(out, "HQMusicUrl", message.getHqMusicUrl());
+        out.append("</Music>");
+      }
+    });
+    register(WxMpXmlOutNewsMessage.class, new WxMpXmlOutMessageWriter<WxMpXmlOutNewsMessage>() {
+      @Override
+      protected void writeContent(WxMpXmlOutNewsMessage message, StringBuilder out) {
+        XmlWriterUtils.appendElement(out, "ArticleCount", message.getArticleCount());
+        out.append("<Articles>");
+        for (WxMpXmlOutNewsMessage.Item item : message.getArticles()) {
+          out.append("<item>");
+          XmlWriterUtils.appendCData(out, "Title", item.getTitle());
+          XmlWriterUtils.appendCData(out, "Description", item.getDescription());
+          XmlWriterUtils.appendCData(out, "PicUrl", item.getPicUrl());
+          XmlWriterUtils.appendCData(out, "Url", item.getUrl());
+          out.append("</item>");
+        }
+        out.append("</Articles>");
+      }
+    });
+    register(WxMpXmlOutTransferKefuMessage.class, new WxMpXmlOutMessageWriter<WxMpXmlOutTransferKefuMessage>() {
+      @Override
+      protected void writeContent(WxMpXmlOutTransferKefuMessage message, StringBuilder out) {
+        if (message.getTransInfo() != null) {
+          out.append("<TransInfo>");
+          XmlWriterUtils.appendCData(out, "KfAccount", message.getTransInfo().getKfAccount());
+          out.append("</TransInfo>");
+        }
+      }
+    });
+  }
+
+  private static <T extends WxMpXmlOutMessage> void register(Class<T> clazz, WxMpXmlOutMessageWriter<T> writer) {
+    WRITERS.put(clazz, writer);
+  }
+
+  /**
+   * 消息类型特有的元素
+   */
+  protected abstract void writeContent(T message, StringBuilder out);
+
+  public static String toXml(WxMpXmlOutMessage message) {
+    StringBuilder out = XmlWriterUtils.builder();
+    if (!write(message, out)) {
+      return xstreamXml(message);
+    }
+    return out.toString();
+  }
+
+  /**
+   * 直接以UTF-8写入输出流，例如servlet的OutputStream
+   */
+  public static void write(WxMpXmlOutMessage message, OutputStream os) throws IOException {
+    StringBuilder out = XmlWriterUtils.builder();
+    if (!write(message, out)) {
+      out.append(xstreamXml(message));
+    }
+    XmlWriterUtils.writeTo(out, os);
+  }
+
+  /**
+   * @return 是否有这个消息类型的writer
+   */
+  @SuppressWarnings("unchecked")
+  private static boolean write(WxMpXmlOutMessage message, StringBuilder out) {
+    WxMpXmlOutMessageWriter<WxMpXmlOutMessage> writer =
+      (WxMpXmlOutMessageWriter<WxMpXmlOutMessage>) WRITERS.get(message.getClass());
+    if (writer == null) {
+      return false;
+    }
+
+    out.append("<xml>");
+    XmlWriterUtils.appendCData(out, "ToUserName", message.getToUserName());
+    XmlWriterUtils.appendCData(out, "FromUserName", message.getFromUserName());
+    XmlWriterUtils.appendElement(out, "CreateTime", message.getCreateTime());
+    XmlWriterUtils.appendCData(out, "MsgType", message.getMsgType());
+    writer.writeContent(message, out);
+    out.append("</xml>");
+    return true;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static String xstreamXml(WxMpXmlOutMessage message) {
+    return XStreamTransformer.toXml((Class<WxMpXmlOutMessage>) message.getClass(), message);
+  }
+
+}
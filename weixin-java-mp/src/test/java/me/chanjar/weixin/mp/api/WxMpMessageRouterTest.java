@@ -1,6 +1,7 @@
 package me.chanjar.weixin.mp.api;
 
 import me.chanjar.weixin.common.api.WxConsts;
+import me.chanjar.weixin.common.api.WxMessageInMemoryRouterMetrics;
 import me.chanjar.weixin.common.session.StandardSessionManager;
 import me.chanjar.weixin.common.session.WxSessionManager;
 import me.chanjar.weixin.mp.bean.message.WxMpXmlMessage;
@@ -8,6 +9,8 @@ import me.chanjar.weixin.mp.bean.message.WxMpXmlOutMessage;
 import org.testng.*;
 import org.testng.annotations.*;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -97,6 +100,75 @@ public class WxMpMessageRouterTest {
     Thread.sleep(1000l * 2);
   }
 
+  public void testMetrics() {
+    StringBuffer sb = new StringBuffer();
+    WxMpMessageRouter router = new WxMpMessageRouter(null);
+    router
+      .rule().async(false).name("text").msgType(WxConsts.XML_MSG_TEXT)
+      .interceptor(new WxMpMessageInterceptor() {
+        @Override
+        public boolean intercept(WxMpXmlMessage wxMessage, Map<String, Object> context, WxMpService wxMpService,
+                                 WxSessionManager sessionManager) {
+          return !"reject".equals(wxMessage.getContent());
+        }
+      })
+      .handler(new WxEchoMpMessageHandler(sb, WxConsts.XML_MSG_TEXT)).end()
+      .rule().async(false).handler(new WxEchoMpMessageHandler(sb, "ALL")).end();
+
+    WxMpXmlMessage text = new WxMpXmlMessage();
+    text.setMsgType(WxConsts.XML_MSG_TEXT);
+    text.setMsgId(1L);
+    router.route(text);
+    // 重复消息
+    router.route(text);
+
+    WxMpXmlMessage rejected = new WxMpXmlMessage();
+    rejected.setMsgType(WxConsts.XML_MSG_TEXT);
+    rejected.setContent("reject");
+    rejected.setMsgId(2L);
+    router.route(rejected);
+
+    WxMpXmlMessage other = new WxMpXmlMessage();
+    other.setMsgId(3L);
+    router.route(other);
+
+    WxMessageInMemoryRouterMetrics metrics = (WxMessageInMemoryRouterMetrics) router.getMetrics();
+    Assert.assertEquals(sb.toString(), WxConsts.XML_MSG_TEXT + ",ALL,");
+    Assert.assertEquals(metrics.getDuplicateDropped(), 1);
+    Assert.assertEquals(metrics.getRuleStats("text").getMatched(), 2);
+    Assert.assertEquals(metrics.getRuleStats("text").getRejected(), 1);
+    Assert.assertEquals(metrics.getRuleStats("text").getHandlerLatency().getCount(), 1);
+    Assert.assertEquals(metrics.getRuleStats("rule-1").getMatched(), 1);
+  }
+
+  public void testSetRules() {
+    StringBuffer sb = new StringBuffer();
+    WxMpMessageRouter router = new WxMpMessageRouter(null);
+    router.rule().async(false).msgType(WxConsts.XML_MSG_TEXT).handler(new WxEchoMpMessageHandler(sb, "OLD")).end();
+
+    WxMpXmlMessage message = new WxMpXmlMessage();
+    message.setMsgType(WxConsts.XML_MSG_TEXT);
+    message.setMsgId(1L);
+    router.route(message);
+    Assert.assertEquals(sb.toString(), "OLD,");
+
+    List<WxMpMessageRouterRule> rules = new ArrayList<>();
+    WxMpMessageRouterRule textRule = router.rule().async(false).msgType(WxConsts.XML_MSG_TEXT)
+      .handler(new WxEchoMpMessageHandler(sb, "NEW"));
+    textRule.setReEnter(true);
+    rules.add(textRule);
+    rules.add(router.rule().async(false).msgType(WxConsts.XML_MSG_IMAGE).handler(new WxEchoMpMessageHandler(sb, "IMAGE")));
+    rules.add(router.rule().async(false).handler(new WxEchoMpMessageHandler(sb, "ALL")));
+    router.setRules(rules);
+
+    Assert.assertEquals(router.getRules().size(), 3);
+    Assert.assertEquals(router.getRules().get(2).getName(), "rule-2");
+
+    message.setMsgId(2L);
+    router.route(message);
+    Assert.assertEquals(sb.toString(), "OLD,NEW,ALL,");
+  }
+
   @DataProvider(name = "messages-1")
   public Object[][] messages2() {
     WxMpXmlMessage message1 = new WxMpXmlMessage();
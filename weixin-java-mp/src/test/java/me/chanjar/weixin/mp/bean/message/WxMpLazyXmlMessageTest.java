@@ -0,0 +1,104 @@
+package me.chanjar.weixin.mp.bean.message;
+
+import me.chanjar.weixin.mp.util.xml.WxMpXmlMessageParser;
+import me.chanjar.weixin.mp.util.xml.WxMpXmlMessageParserTest;
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+@Test
+public class WxMpLazyXmlMessageTest {
+
+  @DataProvider
+  public Object[][] messages() {
+    return new WxMpXmlMessageParserTest().messages();
+  }
+
+  @Test(dataProvider = "messages")
+  public void testSameAsParser(String xml) throws Exception {
+    WxMpXmlMessage expected = WxMpXmlMessageParser.fromXml(xml);
+    WxMpLazyXmlMessage actual = WxMpLazyXmlMessage.fromXml(xml);
+    assertSameMessage(actual, expected);
+  }
+
+  public void testEscapedText() {
+    WxMpLazyXmlMessage message = WxMpLazyXmlMessage.fromXml("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+      + "<xml>\n"
+      + "<!-- comment <Content>ignored</Content> -->"
+      + "<Content>a &lt;b&gt; &amp;&#20013;<![CDATA[</Content>]]><!--x-->c</Content>\n"
+      + "<EventKey/>"
+      + "<Event><![CDATA[CLICK]]></Event>"
+      + "<Event><![CDATA[VIEW]]></Event>"
+      + "</xml>");
+    Assert.assertEquals(message.getContent(), "a <b> &中</Content>c");
+    Assert.assertEquals(message.getEventKey(), "");
+    Assert.assertEquals(message.getEvent(), "VIEW");
+    Assert.assertNull(message.getMsgType());
+  }
+
+  public void testSetterWins() {
+    WxMpLazyXmlMessage message = WxMpLazyXmlMessage.fromXml("<xml><Content><![CDATA[a]]></Content></xml>");
+    message.setContent("b");
+    Assert.assertEquals(message.getContent(), "b");
+  }
+
+  public void testSetterNullRereads() {
+    WxMpLazyXmlMessage message = WxMpLazyXmlMessage.fromXml("<xml><Content><![CDATA[a]]></Content></xml>");
+    message.setContent(null);
+    Assert.assertEquals(message.getContent(), "a");
+  }
+
+  public void testEncoding() throws Exception {
+    String xml = "<?xml version=\"1.0\" encoding=\"GBK\"?><xml><Content><![CDATA[中文]]></Content></xml>";
+    WxMpLazyXmlMessage message = WxMpLazyXmlMessage.fromXml(new ByteArrayInputStream(xml.getBytes("GBK")));
+    Assert.assertEquals(message.getContent(), "中文");
+
+    xml = "<xml><Content><![CDATA[中文]]></Content></xml>";
+    message = WxMpLazyXmlMessage.fromXml(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+    Assert.assertEquals(message.getContent(), "中文");
+  }
+
+  /**
+   * 父类新增属性时必须覆盖它的getter，否则按需解析的消息永远读不到这个属性
+   */
+  public void testEveryGetterOverridden() throws Exception {
+    for (Field field : WxMpXmlMessage.class.getDeclaredFields()) {
+      if (field.isAnnotationPresent(XStreamAlias.class)) {
+        String getter = "get" + Character.toUpperCase(field.getName().charAt(0)) + field.getName().substring(1);
+        Method method = WxMpLazyXmlMessage.class.getMethod(getter);
+        Assert.assertEquals(method.getDeclaringClass(), WxMpLazyXmlMessage.class, getter);
+      }
+    }
+  }
+
+  private static void assertSameMessage(WxMpXmlMessage actual, WxMpXmlMessage expected) throws Exception {
+    for (Method method : WxMpXmlMessage.class.getDeclaredMethods()) {
+      if (method.getName().startsWith("get") && method.getParameterTypes().length == 0
+        && method.getReturnType().getPackage() == String.class.getPackage()) {
+        Assert.assertEquals(method.invoke(actual), method.invoke(expected), method.getName());
+      }
+    }
+
+    Assert.assertEquals(actual.getScanCodeInfo().getScanType(), expected.getScanCodeInfo().getScanType());
+    Assert.assertEquals(actual.getScanCodeInfo().getScanResult(), expected.getScanCodeInfo().getScanResult());
+    Assert.assertEquals(actual.getSendPicsInfo().getCount(), expected.getSendPicsInfo().getCount());
+    Assert.assertEquals(actual.getSendPicsInfo().getPicList().size(), expected.getSendPicsInfo().getPicList().size());
+    for (int i = 0; i < actual.getSendPicsInfo().getPicList().size(); i++) {
+      Assert.assertEquals(actual.getSendPicsInfo().getPicList().get(i).getPicMd5Sum(),
+        expected.getSendPicsInfo().getPicList().get(i).getPicMd5Sum());
+    }
+    Assert.assertEquals(actual.getSendLocationInfo().getLocationX(), expected.getSendLocationInfo().getLocationX());
+    Assert.assertEquals(actual.getSendLocationInfo().getLocationY(), expected.getSendLocationInfo().getLocationY());
+    Assert.assertEquals(actual.getSendLocationInfo().getScale(), expected.getSendLocationInfo().getScale());
+    Assert.assertEquals(actual.getSendLocationInfo().getLabel(), expected.getSendLocationInfo().getLabel());
+    Assert.assertEquals(actual.getSendLocationInfo().getPoiname(), expected.getSendLocationInfo().getPoiname());
+    Assert.assertEquals(actual.getHardWare().getMessageView(), expected.getHardWare().getMessageView());
+    Assert.assertEquals(actual.getHardWare().getMessageAction(), expected.getHardWare().getMessageAction());
+  }
+
+}
@@ -0,0 +1,174 @@
+package me.chanjar.weixin.mp.util.xml;
+
+import com.thoughtworks.xstream.io.StreamException;
+import me.chanjar.weixin.mp.bean.message.WxMpXmlMessage;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+
+/**
+ * 同一段xml分别用XStream和 {@link WxMpXmlMessageParser} 解析，比较所有getter的结果
+ */
+@Test
+public class WxMpXmlMessageParserTest {
+
+  @DataProvider
+  public Object[][] messages() {
+    return new Object[][]{
+      {"<xml>"
+        + "<ToUserName><![CDATA[toUser]]></ToUserName>"
+        + "<FromUserName><![CDATA[fromUser]]></FromUserName> "
+        + "<CreateTime>1348831860</CreateTime>"
+        + "<MsgType><![CDATA[text]]></MsgType>"
+        + "<Content><![CDATA[this is a test]]></Content>"
+        + "<MsgId>1234567890123456</MsgId>"
+        + "<PicUrl><![CDATA[this is a url]]></PicUrl>"
+        + "<MediaId><![CDATA[media_id]]></MediaId>"
+        + "<Format><![CDATA[Format]]></Format>"
+        + "<ThumbMediaId><![CDATA[thumb_media_id]]></ThumbMediaId>"
+        + "<Location_X>23.134521</Location_X>"
+        + "<Location_Y>113.358803</Location_Y>"
+        + "<Scale>20</Scale>"
+        + "<Label><![CDATA[位置信息]]></Label>"
+        + "<Description><![CDATA[公众平台官网链接]]></Description>"
+        + "<Url><![CDATA[url]]></Url>"
+        + "<Title><![CDATA[公众平台官网链接]]></Title>"
+        + "<Event><![CDATA[subscribe]]></Event>"
+        + "<EventKey><![CDATA[qrscene_123123]]></EventKey>"
+        + "<Ticket><![CDATA[TICKET]]></Ticket>"
+        + "<Latitude>23.137466</Latitude>"
+        + "<Longitude>113.352425</Longitude>"
+        + "<Precision>119.385040</Precision>"
+        + "<ScanCodeInfo>"
+        + " <ScanType><![CDATA[qrcode]]></ScanType>"
+        + " <ScanResult><![CDATA[1]]></ScanResult>"
+        + "</ScanCodeInfo>"
+        + "<SendPicsInfo>"
+        + " <Count>2</Count>\n"
+        + " <PicList>"
+        + "  <item>"
+        + "   <PicMd5Sum><![CDATA[1b5f7c23b5bf75682a53e7b6d163e185]]></PicMd5Sum>"
+        + "  </item>"
+        + "  <item>"
+        + "   <PicMd5Sum><![CDATA[2b5f7c23b5bf75682a53e7b6d163e185]]></PicMd5Sum>"
+        + "  </item>"
+        + " </PicList>"
+        + "</SendPicsInfo>"
+        + "<SendLocationInfo>"
+        + "  <Location_X><![CDATA[23]]></Location_X>\n"
+        + "  <Location_Y><![CDATA[113]]></Location_Y>\n"
+        + "  <Scale><![CDATA[15]]></Scale>\n"
+        + "  <Label><![CDATA[ 广州市海珠区客村艺苑路 106号]]></Label>\n"
+        + "  <Poiname><![CDATA[wo de poi]]></Poiname>\n"
+        + "</SendLocationInfo>"
+        + "</xml>"},
+      {"<xml>"
+        + "<ToUserName><![CDATA[toUser]]></ToUserName>"
+        + "<FromUserName><![CDATA[fromUser]]></FromUserName>"
+        + "<CreateTime>1394524295</CreateTime>"
+        + "<MsgType><![CDATA[event]]></MsgType>"
+        + "<Event><![CDATA[TEMPLATESENDJOBFINISH]]></Event>"
+        + "<MsgID>200163840</MsgID>"
+        + "<Status><![CDATA[failed:user block]]></Status>"
+        + "</xml>"},
+      {"<xml>"
+        + "<ToUserName><![CDATA[gh_fc0a06a20993]]></ToUserName>"
+        + "<FromUserName><![CDATA[oZI8Fj040-be6rlDohc6gkoPOQTQ]]></FromUserName>"
+        + "<CreateTime>1472551036</CreateTime>"
+        + "<MsgType><![CDATA[event]]></MsgType>"
+        + "<Event><![CDATA[user_consume_card]]></Event>"
+        + "<CardId><![CDATA[pZI8Fjwsy5fVPRBeD78J4RmqVvBc]]></CardId>"
+        + "<UserCardCode><![CDATA[452998530302]]></UserCardCode>"
+        + "<ConsumeSource><![CDATA[FROM_API]]></ConsumeSource>"
+        + "<LocationName><![CDATA[]]></LocationName>"
+        + "<StaffOpenId><![CDATA[oZI8Fj040-be6rlDohc6gkoPOQTQ]]></StaffOpenId>"
+        + "<VerifyCode><![CDATA[]]></VerifyCode>"
+        + "<RemarkAmount><![CDATA[]]></RemarkAmount>"
+        + "<OuterStr><![CDATA[xxxxx]]></OuterStr>"
+        + "<IsGiveByFriend>0</IsGiveByFriend>"
+        + "<Unknown><Nested>ignored</Nested></Unknown>"
+        + "</xml>"},
+      {"<xml>"
+        + "<ToUserName><![CDATA[gh_1a2b3c4d]]></ToUserName>"
+        + "<FromUserName><![CDATA[oAbCdEf]]></FromUserName>"
+        + "<CreateTime>1492744812</CreateTime>"
+        + "<MsgType><![CDATA[device_event]]></MsgType>"
+        + "<Event><![CDATA[subscribe_status]]></Event>"
+        + "<DeviceType><![CDATA[gh_1a2b3c4d]]></DeviceType>"
+        + "<DeviceID><![CDATA[device_id]]></DeviceID>"
+        + "<OpType>1</OpType>"
+        + "<OpenID><![CDATA[oAbCdEf]]></OpenID>"
+        + "<HardWare>"
+        + " <MessageView><![CDATA[myrank]]></MessageView>"
+        + " <MessageAction><![CDATA[ranklist]]></MessageAction>"
+        + "</HardWare>"
+        + "</xml>"},
+    };
+  }
+
+  @Test(dataProvider = "messages")
+  public void testSameAsXStream(String xml) throws Exception {
+    WxMpXmlMessage expected = XStreamTransformer.fromXml(WxMpXmlMessage.class, xml);
+    WxMpXmlMessage actual = WxMpXmlMessageParser.fromXml(xml);
+    assertSameProperties(actual, expected, "");
+  }
+
+  public void testEmptyNumber() {
+    WxMpXmlMessage message = WxMpXmlMessageParser.fromXml("<xml><CreateTime></CreateTime><MsgId/></xml>");
+    Assert.assertNull(message.getCreateTime());
+    Assert.assertNull(message.getMsgId());
+  }
+
+  /**
+   * XStream不调用构造函数，没有出现的嵌套对象是null，解析器则是空对象，两者视为相同
+   */
+  private static void assertSameProperties(Object actual, Object expected, String path) throws Exception {
+    if (actual == null) {
+      if (expected != null) {
+        assertSameProperties(expected, null, path);
+      }
+      return;
+    }
+
+    for (Method method : actual.getClass().getMethods()) {
+      if (Modifier.isStatic(method.getModifiers()) || method.getParameterTypes().length != 0
+        || method.getDeclaringClass() == Object.class
+        || !(method.getName().startsWith("get") || method.getName().startsWith("is"))) {
+        continue;
+      }
+
+      String name = path + method.getName();
+      Object actualValue = method.invoke(actual);
+      Object expectedValue = expected == null ? null : method.invoke(expected);
+      if (isNestedBean(method.getReturnType())) {
+        assertSameProperties(actualValue, expectedValue, name + ".");
+      } else if (actualValue instanceof Collection) {
+        Collection<?> actualList = (Collection<?>) actualValue;
+        Collection<?> expectedList = expectedValue == null ? Collections.emptyList() : (Collection<?>) expectedValue;
+        Assert.assertEquals(actualList.size(), expectedList.size(), name);
+        Iterator<?> expectedItems = expectedList.iterator();
+        for (Object actualItem : actualList) {
+          assertSameProperties(actualItem, expectedItems.next(), name + ".");
+        }
+      } else {
+        Assert.assertEquals(actualValue, expectedValue, name);
+      }
+    }
+  }
+
+  @Test(expectedExceptions = StreamException.class)
+  public void testInvalidXml() {
+    WxMpXmlMessageParser.fromXml("<xml><ToUserName>toUser</xml>");
+  }
+
+  private static boolean isNestedBean(Class<?> type) {
+    return type.getPackage() != null && type.getPackage().getName().startsWith("me.chanjar.weixin");
+  }
+
+}
@@ -0,0 +1,56 @@
+package me.chanjar.weixin.mp.util.xml;
+
+import me.chanjar.weixin.mp.bean.message.WxMpXmlOutMessage;
+import me.chanjar.weixin.mp.bean.message.WxMpXmlOutTextMessage;
+import me.chanjar.weixin.mp.bean.message.WxMpXmlOutTransferKefuMessage;
+import me.chanjar.weixin.mp.bean.message.WxMpXmlOutVoiceMessage;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+@Test
+public class WxMpXmlOutMessageWriterTest {
+
+  public void testCDataEscape() {
+    WxMpXmlOutTextMessage m = WxMpXmlOutMessage.TEXT()
+      .content("a]]>b<c>")
+      .fromUser("from")
+      .toUser("to")
+      .build();
+    m.setCreateTime(1122L);
+
+    Assert.assertEquals(m.toXml(), "<xml>"
+      + "<ToUserName><![CDATA[to]]></ToUserName>"
+      + "<FromUserName><![CDATA[from]]></FromUserName>"
+      + "<CreateTime>1122</CreateTime>"
+      + "<MsgType><![CDATA[text]]></MsgType>"
+      + "<Content><![CDATA[a]]]]><![CDATA[>b<c>]]></Content>"
+      + "</xml>");
+  }
+
+  public void testNullOmitted() {
+    WxMpXmlOutVoiceMessage voice = new WxMpXmlOutVoiceMessage();
+    Assert.assertEquals(voice.toXml(), "<xml><MsgType><![CDATA[voice]]></MsgType></xml>");
+
+    WxMpXmlOutTransferKefuMessage kefu = new WxMpXmlOutTransferKefuMessage();
+    kefu.setToUserName("to");
+    Assert.assertEquals(kefu.toXml(),
+      "<xml><ToUserName><![CDATA[to]]></ToUserName><MsgType><![CDATA[transfer_customer_service]]></MsgType></xml>");
+  }
+
+  public void testWriteTo() throws IOException {
+    WxMpXmlOutTextMessage m = WxMpXmlOutMessage.TEXT()
+      .content("中文")
+      .fromUser("from")
+      .toUser("to")
+      .build();
+
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    m.writeTo(os);
+    Assert.assertEquals(new String(os.toByteArray(), StandardCharsets.UTF_8), m.toXml());
+  }
+
+}
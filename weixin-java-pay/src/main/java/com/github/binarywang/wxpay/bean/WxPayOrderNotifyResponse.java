@@ -1,11 +1,10 @@
 package com.github.binarywang.wxpay.bean;
 
-import com.thoughtworks.xstream.XStream;
+import com.github.binarywang.wxpay.util.WxPayXmlCodec;
 import com.thoughtworks.xstream.annotations.XStreamAlias;
 import com.thoughtworks.xstream.annotations.XStreamConverter;
 import com.thoughtworks.xstream.annotations.XStreamOmitField;
 import me.chanjar.weixin.common.util.xml.XStreamCDataConverter;
-import me.chanjar.weixin.common.util.xml.XStreamInitializer;
 
 @XStreamAlias("xml")
 public class WxPayOrderNotifyResponse {
@@ -33,16 +32,12 @@ public class WxPayOrderNotifyResponse {
 
   public static String fail(String msg) {
     WxPayOrderNotifyResponse response = new WxPayOrderNotifyResponse(FAIL, msg);
-    XStream xstream = XStreamInitializer.getInstance();
-    xstream.autodetectAnnotations(true);
-    return xstream.toXML(response);
+    return WxPayXmlCodec.xstream(WxPayOrderNotifyResponse.class).toXML(response);
   }
 
   public static String success(String msg) {
     WxPayOrderNotifyResponse response = new WxPayOrderNotifyResponse(SUCCESS, msg);
-    XStream xstream = XStreamInitializer.getInstance();
-    xstream.autodetectAnnotations(true);
-    return xstream.toXML(response);
+    return WxPayXmlCodec.xstream(WxPayOrderNotifyResponse.class).toXML(response);
   }
 
   public String getReturnCode() {
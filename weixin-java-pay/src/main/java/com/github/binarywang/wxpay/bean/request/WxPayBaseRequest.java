@@ -3,12 +3,12 @@ package com.github.binarywang.wxpay.bean.request;
 import com.github.binarywang.wxpay.config.WxPayConfig;
 import com.github.binarywang.wxpay.exception.WxPayException;
 import com.github.binarywang.wxpay.util.SignUtils;
-import com.thoughtworks.xstream.XStream;
+import com.github.binarywang.wxpay.util.WxPayXmlCodec;
 import com.thoughtworks.xstream.annotations.XStreamAlias;
 import me.chanjar.weixin.common.exception.WxErrorException;
 import me.chanjar.weixin.common.util.BeanUtils;
 import me.chanjar.weixin.common.util.ToStringUtils;
-import me.chanjar.weixin.common.util.xml.XStreamInitializer;
+import me.chanjar.weixin.common.util.XmlBeanAccessor;
 import org.apache.commons.lang3.StringUtils;
 
 import java.math.BigDecimal;
@@ -200,9 +200,7 @@ public abstract class WxPayBaseRequest {
   }
 
   public String toXML() {
-    XStream xstream = XStreamInitializer.getInstance();
-    xstream.processAnnotations(this.getClass());
-    return xstream.toXML(this);
+    return WxPayXmlCodec.xstream(this.getClass()).toXML(this);
   }
 
   /**
@@ -238,8 +236,22 @@ public abstract class WxPayBaseRequest {
       this.setNonceStr(String.valueOf(System.currentTimeMillis()));
     }
 
-    //设置签名字段的值
-    this.setSign(SignUtils.createSign(this, config.getMchKey()));
+    //设置签名字段的值，请求中指定了sign_type时按其签名
+    this.setSign(SignUtils.createSign(this, this.getSignTypeValue(), config.getMchKey()));
+  }
+
+  /**
+   * 签名使用的类型，部分请求带有sign_type字段，没有该字段或未设置时返回null，即按MD5签名。
+   * 微信的响应大多不带sign_type，校验响应签名时应使用这个值
+   */
+  public String getSignTypeValue() {
+    XmlBeanAccessor.Property signType = XmlBeanAccessor.of(this.getClass()).getProperty("sign_type");
+    if (signType == null) {
+      return null;
+    }
+
+    Object value = signType.get(this);
+    return value == null ? null : value.toString();
   }
 
 }
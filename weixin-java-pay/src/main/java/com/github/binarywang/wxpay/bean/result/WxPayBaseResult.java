@@ -1,29 +1,18 @@
 package com.github.binarywang.wxpay.bean.result;
 
 import com.github.binarywang.wxpay.exception.WxPayException;
-import com.github.binarywang.wxpay.service.impl.WxPayServiceImpl;
+import com.github.binarywang.wxpay.service.WxPayService;
 import com.github.binarywang.wxpay.util.SignUtils;
-import com.google.common.base.Joiner;
+import com.github.binarywang.wxpay.util.WxPayXmlCodec;
 import com.google.common.collect.Maps;
-import com.thoughtworks.xstream.XStream;
 import com.thoughtworks.xstream.annotations.XStreamAlias;
 import me.chanjar.weixin.common.util.ToStringUtils;
-import me.chanjar.weixin.common.util.xml.XStreamInitializer;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
-
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
+
 import java.math.BigDecimal;
+import java.util.Collections;
 import java.util.Map;
 
 /**
@@ -34,6 +23,11 @@ import java.util.Map;
  * </pre>
  */
 public abstract class WxPayBaseResult {
+  /**
+   * 组装代金券时允许的最大coupon_count，防止伪造的通知按超大下标分配内存
+   */
+  static final int MAX_COUPON_COUNT = 100;
+
   /**
    * 返回状态码
    */
@@ -100,9 +94,9 @@ public abstract class WxPayBaseResult {
   private String xmlString;
 
   /**
-   * xml的Document对象，用于解析xml文本
+   * xml根元素下的全部字段，用于校验签名和读取带下标的字段
    */
-  private Document xmlDoc;
+  private Map<String, String> xmlFields;
 
   /**
    * 将单位分转换成单位圆
@@ -117,10 +111,11 @@ public abstract class WxPayBaseResult {
    * 从xml字符串创建bean对象
    */
   public static <T extends WxPayBaseResult> T fromXML(String xmlString, Class<T> clz) {
-    XStream xstream = XStreamInitializer.getInstance();
-    xstream.processAnnotations(clz);
-    T result = (T) xstream.fromXML(xmlString);
-    result.setXmlString(xmlString);
+    Map<String, String> fields = WxPayXmlCodec.parseFields(xmlString);
+    T result = WxPayXmlCodec.bind(fields, clz);
+    WxPayBaseResult baseResult = result;
+    baseResult.xmlString = xmlString;
+    baseResult.xmlFields = Collections.unmodifiableMap(fields);
     return result;
   }
 
@@ -130,6 +125,7 @@ public abstract class WxPayBaseResult {
 
   public void setXmlString(String xmlString) {
     this.xmlString = xmlString;
+    this.xmlFields = null;
   }
 
   protected Logger getLogger() {
@@ -233,63 +229,32 @@ public abstract class WxPayBaseResult {
    * 将bean通过保存的xml字符串转换成map
    */
   public Map<String, String> toMap() {
-    if (StringUtils.isBlank(this.xmlString)) {
-      throw new RuntimeException("xml数据有问题，请核实！");
-    }
-
-    Map<String, String> result = Maps.newHashMap();
-    Document doc = this.getXmlDoc();
-
-    try {
-      NodeList list = (NodeList) XPathFactory.newInstance().newXPath()
-        .compile("/xml/*")
-        .evaluate(doc, XPathConstants.NODESET);
-      int len = list.getLength();
-      for (int i = 0; i < len; i++) {
-        result.put(list.item(i).getNodeName(), list.item(i).getTextContent());
-      }
-    } catch (XPathExpressionException e) {
-      throw new RuntimeException("非法的xml文本内容：" + xmlString);
-    }
-
-    return result;
+    return Maps.newHashMap(this.getXmlFields());
   }
 
   /**
-   * 将xml字符串转换成Document对象，以便读取其元素值
+   * 保存的xml字符串中根元素下的全部字段，只解析一次
    */
-  protected Document getXmlDoc() {
-    if (this.xmlDoc != null) {
-      return this.xmlDoc;
+  protected Map<String, String> getXmlFields() {
+    if (this.xmlFields != null) {
+      return this.xmlFields;
     }
 
-    try {
-      this.xmlDoc = DocumentBuilderFactory
-        .newInstance()
-        .newDocumentBuilder()
-        .parse(new ByteArrayInputStream(this.xmlString.getBytes("UTF-8")));
-      return xmlDoc;
-    } catch (SAXException | IOException | ParserConfigurationException e) {
-      throw new RuntimeException("非法的xml文本内容：" + this.xmlString);
+    if (StringUtils.isBlank(this.xmlString)) {
+      throw new RuntimeException("xml数据有问题，请核实！");
     }
 
+    this.xmlFields = Collections.unmodifiableMap(WxPayXmlCodec.parseFields(this.xmlString));
+    return this.xmlFields;
   }
 
   /**
-   * 获取xml中元素的值
+   * 获取xml中元素的值，只支持根元素下的字段，例如getXmlValue("xml/coupon_id_0")，元素不存在时返回空字符串
    */
   protected String getXmlValue(String... path) {
-    Document doc = this.getXmlDoc();
-    String expression = String.format("/%s//text()", Joiner.on("/").join(path));
-    try {
-      return (String) XPathFactory
-        .newInstance()
-        .newXPath()
-        .compile(expression)
-        .evaluate(doc, XPathConstants.STRING);
-    } catch (XPathExpressionException e) {
-      throw new RuntimeException("未找到相应路径的文本：" + expression);
-    }
+    String name = path[path.length - 1];
+    String value = this.getXmlFields().get(name.substring(name.lastIndexOf('/') + 1));
+    return value == null ? "" : value;
   }
 
   /**
@@ -305,12 +270,25 @@ public abstract class WxPayBaseResult {
   }
 
   /**
-   * 校验返回结果签名
+   * 按MD5校验返回结果签名，并校验业务结果
+   *
+   * @see #checkResult(WxPayService, String)
+   */
+  public void checkResult(WxPayService wxPayService) throws WxPayException {
+    this.checkResult(wxPayService, null);
+  }
+
+  /**
+   * 校验返回结果签名和业务结果
+   * 微信的响应大多不带sign_type，而是按请求的签名类型签名，所以签名类型由调用方传入
+   *
+   * @param wxPayService 提供商户密钥
+   * @param signType     请求使用的签名类型，见 {@link com.github.binarywang.wxpay.constant.WxPayConstants.SignType}，为空时按MD5校验
    */
-  public void checkResult(WxPayServiceImpl wxPayService) throws WxPayException {
+  public void checkResult(WxPayService wxPayService, String signType) throws WxPayException {
     //校验返回结果签名
     Map<String, String> map = toMap();
-    if (getSign() != null && !SignUtils.checkSign(map, wxPayService.getConfig().getMchKey())) {
+    if (getSign() != null && !SignUtils.checkSign(map, signType, wxPayService.getConfig().getMchKey())) {
       this.getLogger().debug("校验结果签名失败，参数：{}", map);
       throw new WxPayException("参数格式校验错误！");
     }
@@ -1,14 +1,15 @@
 package com.github.binarywang.wxpay.bean.result;
 
 import com.github.binarywang.wxpay.bean.WxPayOrderNotifyCoupon;
-import com.github.binarywang.wxpay.converter.WxPayOrderNotifyResultConverter;
-import com.thoughtworks.xstream.XStream;
+import com.github.binarywang.wxpay.exception.WxPayException;
+import com.github.binarywang.wxpay.service.WxPayService;
 import com.thoughtworks.xstream.annotations.XStreamAlias;
 import me.chanjar.weixin.common.util.BeanUtils;
 import me.chanjar.weixin.common.util.ToStringUtils;
-import me.chanjar.weixin.common.util.xml.XStreamInitializer;
+import org.apache.commons.lang3.StringUtils;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -228,15 +229,49 @@ public class WxPayOrderNotifyResult extends WxPayBaseResult implements Serializa
   @XStreamAlias("time_end")
   private String timeEnd;
 
+  /**
+   * 从xml创建对象并组装couponList，不校验签名。
+   * 处理微信的通知时请使用 {@link com.github.binarywang.wxpay.service.WxPayService#getOrderNotifyResult(String)}，
+   * 它在校验签名之后才组装couponList
+   */
   public static WxPayOrderNotifyResult fromXML(String xmlString) {
-    XStream xstream = XStreamInitializer.getInstance();
-    xstream.processAnnotations(WxPayOrderNotifyResult.class);
-    xstream.registerConverter(new WxPayOrderNotifyResultConverter(xstream.getMapper(), xstream.getReflectionProvider()));
-    WxPayOrderNotifyResult result = (WxPayOrderNotifyResult) xstream.fromXML(xmlString);
-    result.setXmlString(xmlString);
+    WxPayOrderNotifyResult result = WxPayBaseResult.fromXML(xmlString, WxPayOrderNotifyResult.class);
+    result.composeCoupons();
     return result;
   }
 
+  /**
+   * 通过xml中的coupon_id_$n、coupon_type_$n、coupon_fee_$n组装couponList属性内容，只读取coupon_count以内的下标
+   *
+   * @throws IllegalArgumentException coupon_count超出范围
+   */
+  public void composeCoupons() {
+    int count = this.couponCount == null ? 0 : this.couponCount;
+    if (count < 0 || count > MAX_COUPON_COUNT) {
+      throw new IllegalArgumentException("代金券使用数量超出范围：" + count);
+    }
+
+    Map<String, String> fields = this.getXmlFields();
+    List<WxPayOrderNotifyCoupon> coupons = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      WxPayOrderNotifyCoupon coupon = new WxPayOrderNotifyCoupon();
+      coupon.setCouponId(fields.get("coupon_id_" + i));
+      coupon.setCouponType(fields.get("coupon_type_" + i));
+      String fee = fields.get("coupon_fee_" + i);
+      coupon.setCouponFee(StringUtils.isBlank(fee) ? null : Integer.valueOf(fee.trim()));
+      coupons.add(coupon);
+    }
+    this.couponList = coupons;
+  }
+
+  /**
+   * 通知没有对应的请求，按通知中的sign_type校验签名，没有时按MD5
+   */
+  @Override
+  public void checkResult(WxPayService wxPayService) throws WxPayException {
+    this.checkResult(wxPayService, this.toMap().get("sign_type"));
+  }
+
   public Integer getCouponCount() {
     return couponCount;
   }
@@ -375,6 +410,11 @@ public class WxPayOrderNotifyResult extends WxPayBaseResult implements Serializa
 
   @Override
   public Map<String, String> toMap() {
+    if (StringUtils.isNotBlank(this.getXmlString())) {
+      // 从xml解析得到的结果，直接使用原始字段，保证与微信签名时的参数一致
+      return super.toMap();
+    }
+
     Map<String, String> resultMap = BeanUtils.xmlBean2Map(this);
     if (this.getCouponCount() != null && this.getCouponCount() > 0) {
       for (int i = 0; i < this.getCouponCount(); i++) {
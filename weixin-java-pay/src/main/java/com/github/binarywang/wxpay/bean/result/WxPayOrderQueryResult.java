@@ -390,8 +390,13 @@ public class WxPayOrderQueryResult extends WxPayBaseResult {
 
   /**
    * 通过xml组装coupons属性内容
+   *
+   * @throws IllegalArgumentException coupon_count超出范围
    */
   public void composeCoupons() {
+    if (this.couponCount != null && this.couponCount > MAX_COUPON_COUNT) {
+      throw new IllegalArgumentException("代金券使用数量超出范围：" + this.couponCount);
+    }
     if (this.couponCount != null && this.couponCount > 0) {
       this.coupons = Lists.newArrayList();
       for (int i = 0; i < this.couponCount; i++) {
@@ -218,6 +218,7 @@ public class WxPayRefundQueryResult extends WxPayBaseResult {
             )
           );
         }
+        refundRecord.setRefundCoupons(coupons);
       }
 
     }
@@ -28,6 +28,10 @@ public class WxPayConfig {
   private SSLContext sslContext;
   private String keyPath;
   private boolean useSandboxEnv = false;
+  private int httpConnectionTimeout = 5000;
+  private int httpTimeout = 10000;
+  private int httpMaxConnPerHost = 20;
+  private int httpMaxTotalConn = 50;
 
   public String getKeyPath() {
     return keyPath;
@@ -147,6 +151,51 @@ public class WxPayConfig {
     this.useSandboxEnv = useSandboxEnv;
   }
 
+  /**
+   * http请求建立连接的超时时间（单位毫秒），默认5000
+   */
+  public int getHttpConnectionTimeout() {
+    return this.httpConnectionTimeout;
+  }
+
+  public void setHttpConnectionTimeout(int httpConnectionTimeout) {
+    this.httpConnectionTimeout = httpConnectionTimeout;
+  }
+
+  /**
+   * http请求等待响应数据的超时时间（单位毫秒），默认10000
+   */
+  public int getHttpTimeout() {
+    return this.httpTimeout;
+  }
+
+  public void setHttpTimeout(int httpTimeout) {
+    this.httpTimeout = httpTimeout;
+  }
+
+  /**
+   * 连接池中每个地址的最大连接数，默认20
+   * 使用证书的请求和普通请求各有一个连接池
+   */
+  public int getHttpMaxConnPerHost() {
+    return this.httpMaxConnPerHost;
+  }
+
+  public void setHttpMaxConnPerHost(int httpMaxConnPerHost) {
+    this.httpMaxConnPerHost = httpMaxConnPerHost;
+  }
+
+  /**
+   * 连接池的最大连接数，默认50
+   */
+  public int getHttpMaxTotalConn() {
+    return this.httpMaxTotalConn;
+  }
+
+  public void setHttpMaxTotalConn(int httpMaxTotalConn) {
+    this.httpMaxTotalConn = httpMaxTotalConn;
+  }
+
   public SSLContext initSSLContext() throws WxPayException {
     if (StringUtils.isBlank(mchId)) {
       throw new IllegalArgumentException("请确保商户号mchId已设置");
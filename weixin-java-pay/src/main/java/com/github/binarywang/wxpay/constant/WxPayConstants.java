@@ -0,0 +1,18 @@
+package com.github.binarywang.wxpay.constant;
+
+/**
+ * <pre>
+ * 微信支付常量类
+ * </pre>
+ */
+public class WxPayConstants {
+
+  /**
+   * 签名类型，对应请求参数sign_type
+   */
+  public static class SignType {
+    public static final String MD5 = "MD5";
+    public static final String HMAC_SHA256 = "HMAC-SHA256";
+  }
+
+}
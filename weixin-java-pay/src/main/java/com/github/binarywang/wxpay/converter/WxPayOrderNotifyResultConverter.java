@@ -2,9 +2,6 @@ package com.github.binarywang.wxpay.converter;
 
 import com.github.binarywang.wxpay.bean.WxPayOrderNotifyCoupon;
 import com.github.binarywang.wxpay.bean.result.WxPayOrderNotifyResult;
-import com.google.common.base.Function;
-import com.google.common.collect.Maps;
-import com.thoughtworks.xstream.annotations.XStreamAlias;
 import com.thoughtworks.xstream.converters.MarshallingContext;
 import com.thoughtworks.xstream.converters.UnmarshallingContext;
 import com.thoughtworks.xstream.converters.reflection.AbstractReflectionConverter;
@@ -12,14 +9,12 @@ import com.thoughtworks.xstream.converters.reflection.ReflectionProvider;
 import com.thoughtworks.xstream.io.HierarchicalStreamReader;
 import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
 import com.thoughtworks.xstream.mapper.Mapper;
+import me.chanjar.weixin.common.util.XmlBeanAccessor;
 import org.apache.commons.lang3.StringUtils;
 
-import java.beans.PropertyDescriptor;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 public class WxPayOrderNotifyResultConverter extends AbstractReflectionConverter {
 
@@ -67,17 +62,17 @@ public class WxPayOrderNotifyResultConverter extends AbstractReflectionConverter
   @Override
   public Object unmarshal(HierarchicalStreamReader reader, UnmarshallingContext context) {
     WxPayOrderNotifyResult obj = new WxPayOrderNotifyResult();
-
-    List<Field> fields = new ArrayList<>(Arrays.asList(obj.getClass().getDeclaredFields()));
-    fields.addAll(Arrays.asList(obj.getClass().getSuperclass().getDeclaredFields()));
-    Map<String, Field> fieldMap = getFieldMap(fields);
+    XmlBeanAccessor accessor = XmlBeanAccessor.of(WxPayOrderNotifyResult.class);
 
     List<WxPayOrderNotifyCoupon> coupons = new ArrayList<>(10);
     while (reader.hasMoreChildren()) {
       reader.moveDown();
-      if (fieldMap.containsKey(reader.getNodeName())) {
-        Field field = fieldMap.get(reader.getNodeName());
-        setFieldValue(context, obj, field);
+      XmlBeanAccessor.Property property = accessor.getProperty(reader.getNodeName());
+      if (property != null) {
+        Object val = context.convertAnother(obj, property.getType());
+        if (val != null) {
+          property.set(obj, val);
+        }
       } else if (StringUtils.startsWith(reader.getNodeName(), "coupon_id_")) {
         String id = (String) context.convertAnother(obj, String.class);
         getIndex(coupons, reader.getNodeName()).setCouponId(id);
@@ -95,30 +90,6 @@ public class WxPayOrderNotifyResultConverter extends AbstractReflectionConverter
     return obj;
   }
 
-  private void setFieldValue(UnmarshallingContext context, WxPayOrderNotifyResult obj, Field field) {
-    Object val = context.convertAnother(obj, field.getType());
-    try {
-      if (val != null) {
-        PropertyDescriptor pd = new PropertyDescriptor(field.getName(), obj.getClass());
-        pd.getWriteMethod().invoke(obj, val);
-      }
-    } catch (Exception e) {
-    }
-  }
-
-  private Map<String, Field> getFieldMap(List<Field> fields) {
-    Map<String, Field> fieldMap = Maps.uniqueIndex(fields, new Function<Field, String>() {
-      @Override
-      public String apply(Field field) {
-        if (field.isAnnotationPresent(XStreamAlias.class)) {
-          return field.getAnnotation(XStreamAlias.class).value();
-        }
-        return field.getName();
-      }
-    });
-    return fieldMap;
-  }
-
   private WxPayOrderNotifyCoupon getIndex(List<WxPayOrderNotifyCoupon> coupons, String nodeName) {
     Integer index = Integer.valueOf(StringUtils.substring(nodeName, nodeName.lastIndexOf("_") + 1));
     if (index >= coupons.size() || coupons.get(index) == null) {
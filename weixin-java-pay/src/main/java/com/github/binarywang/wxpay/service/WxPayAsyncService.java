@@ -0,0 +1,54 @@
+package com.github.binarywang.wxpay.service;
+
+import com.github.binarywang.wxpay.bean.request.WxPayMicropayRequest;
+import com.github.binarywang.wxpay.bean.request.WxPayOrderReverseRequest;
+import com.github.binarywang.wxpay.bean.request.WxPayRefundRequest;
+import com.github.binarywang.wxpay.bean.request.WxPayUnifiedOrderRequest;
+import com.github.binarywang.wxpay.bean.result.WxPayMicropayResult;
+import com.github.binarywang.wxpay.bean.result.WxPayOrderCloseResult;
+import com.github.binarywang.wxpay.bean.result.WxPayOrderQueryResult;
+import com.github.binarywang.wxpay.bean.result.WxPayOrderReverseResult;
+import com.github.binarywang.wxpay.bean.result.WxPayRefundResult;
+import com.github.binarywang.wxpay.bean.result.WxPayUnifiedOrderResult;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * <pre>
+ * 微信支付异步接口，各方法立即返回，不阻塞调用线程
+ * 请求失败时返回的Future以 {@link com.github.binarywang.wxpay.exception.WxPayException} 结束，
+ * 接口说明与 {@link WxPayService} 中的同名方法相同
+ * </pre>
+ */
+public interface WxPayAsyncService extends WxPayService {
+
+  /**
+   * 统一下单，见 {@link WxPayService#unifiedOrder(WxPayUnifiedOrderRequest)}
+   */
+  ListenableFuture<WxPayUnifiedOrderResult> unifiedOrderAsync(WxPayUnifiedOrderRequest request);
+
+  /**
+   * 查询订单，见 {@link WxPayService#queryOrder(String, String)}
+   */
+  ListenableFuture<WxPayOrderQueryResult> queryOrderAsync(String transactionId, String outTradeNo);
+
+  /**
+   * 关闭订单，见 {@link WxPayService#closeOrder(String)}
+   */
+  ListenableFuture<WxPayOrderCloseResult> closeOrderAsync(String outTradeNo);
+
+  /**
+   * 申请退款，需要商户证书，见 {@link WxPayService#refund(WxPayRefundRequest)}
+   */
+  ListenableFuture<WxPayRefundResult> refundAsync(WxPayRefundRequest request);
+
+  /**
+   * 提交刷卡支付，见 {@link WxPayService#micropay(WxPayMicropayRequest)}
+   */
+  ListenableFuture<WxPayMicropayResult> micropayAsync(WxPayMicropayRequest request);
+
+  /**
+   * 撤销订单，需要商户证书，见 {@link WxPayService#reverseOrder(WxPayOrderReverseRequest)}
+   */
+  ListenableFuture<WxPayOrderReverseResult> reverseOrderAsync(WxPayOrderReverseRequest request);
+
+}
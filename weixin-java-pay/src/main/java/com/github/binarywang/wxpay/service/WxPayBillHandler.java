@@ -0,0 +1,21 @@
+package com.github.binarywang.wxpay.service;
+
+import com.github.binarywang.wxpay.bean.result.WxPayBillBaseResult;
+import com.github.binarywang.wxpay.exception.WxPayException;
+
+/**
+ * <pre>
+ * 对账单记录处理器，见 {@link WxPayService#downloadBill(String, String, String, String, WxPayBillHandler)}
+ * 对账单边下载边解析，每解析出一条记录调用一次，不会把整个账单保存在内存中
+ * </pre>
+ */
+public interface WxPayBillHandler {
+
+  /**
+   * 处理一条对账单记录，抛出异常时停止下载
+   *
+   * @param record 对账单记录
+   */
+  void handle(WxPayBillBaseResult record) throws WxPayException;
+
+}
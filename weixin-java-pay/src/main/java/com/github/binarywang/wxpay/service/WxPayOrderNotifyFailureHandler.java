@@ -0,0 +1,21 @@
+package com.github.binarywang.wxpay.service;
+
+import com.github.binarywang.wxpay.bean.result.WxPayOrderNotifyResult;
+
+/**
+ * <pre>
+ * 支付结果通知业务处理失败时的处理器，见 {@link WxPayOrderNotifyPipeline#setFailureHandler(WxPayOrderNotifyFailureHandler)}
+ * 可以把通知保存到死信队列或数据库中，稍后补偿处理
+ * </pre>
+ */
+public interface WxPayOrderNotifyFailureHandler {
+
+  /**
+   * 在处理通知的线程中调用，抛出的异常只会被记录日志
+   *
+   * @param result 支付结果通知
+   * @param e      最后一次处理时抛出的异常
+   */
+  void onFailure(WxPayOrderNotifyResult result, Exception e);
+
+}
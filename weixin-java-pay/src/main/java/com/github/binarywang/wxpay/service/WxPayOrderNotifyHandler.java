@@ -0,0 +1,21 @@
+package com.github.binarywang.wxpay.service;
+
+import com.github.binarywang.wxpay.bean.result.WxPayOrderNotifyResult;
+import com.github.binarywang.wxpay.exception.WxPayException;
+
+/**
+ * <pre>
+ * 支付结果通知处理器，见 {@link WxPayOrderNotifyPipeline}
+ * 同一个transaction_id处理成功后不会再被调用，抛出异常时可能被重试；同一个out_trade_no的通知按到达顺序依次调用，不会并发
+ * </pre>
+ */
+public interface WxPayOrderNotifyHandler {
+
+  /**
+   * 处理一条已经校验过签名的支付结果通知
+   *
+   * @param result 支付结果通知
+   */
+  void handle(WxPayOrderNotifyResult result) throws WxPayException;
+
+}
@@ -0,0 +1,262 @@
+package com.github.binarywang.wxpay.service;
+
+import com.github.binarywang.wxpay.bean.WxPayOrderNotifyResponse;
+import com.github.binarywang.wxpay.bean.result.WxPayOrderNotifyResult;
+import com.github.binarywang.wxpay.exception.WxPayException;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import me.chanjar.weixin.common.api.WxMessageDuplicateChecker;
+import me.chanjar.weixin.common.api.WxMessageInMemoryDuplicateChecker;
+import me.chanjar.weixin.common.api.WxMessageRemovableDuplicateChecker;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <pre>
+ * 支付结果通知的处理流水线
+ * 微信会在24小时内多次重发同一个通知，且可能并发到达，直接使用 {@link WxPayService#getOrderNotifyResult(String)}
+ * 时每个业务处理器都要自己去重和加锁。本类在收到通知时只做一次解析和签名校验，随后按out_trade_no放入对应的队列，
+ * 立即返回应答给微信，业务处理在后台线程中异步执行：
+ * 1. 按out_trade_no的哈希值分到固定的通道，每个通道一个线程和一个有界队列，同一订单的通知依次处理，不会并发；
+ * 2. 在后台线程中按transaction_id去重，同一笔支付只成功调用一次 {@link WxPayOrderNotifyHandler}。
+ *    去重保存在 {@link WxMessageDuplicateChecker} 中，默认是内存实现，多实例部署时可以使用 WxMessageInRedisDuplicateChecker；
+ * 3. 队列已满时应答FAIL，让微信稍后重新发送。去重在入队之后进行，所以被拒绝的通知不会被记为已处理。
+ *
+ * 处理前先记录transaction_id，避免多个实例同时处理同一笔支付；业务处理抛出异常时按 {@link #setMaxAttempts(int)} 重试，
+ * 仍然失败时撤销记录（需要去重器实现 {@link WxMessageRemovableDuplicateChecker}，内置的两种实现都支持），
+ * 再次收到的同一通知会重新处理，并调用 {@link #setFailureHandler(WxPayOrderNotifyFailureHandler)} 设置的处理器。
+ * 返回SUCCESS后微信不再重发，失败的通知需要在失败处理器中保存下来，或者通过查询订单、对账补偿。
+ * 不再使用时调用 {@link #close()}
+ * </pre>
+ */
+public class WxPayOrderNotifyPipeline implements Closeable {
+  /**
+   * 默认通道数
+   */
+  public static final int DEFAULT_LANES = 16;
+
+  /**
+   * 默认每个通道的队列长度
+   */
+  public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+  private static final String SUCCESS_RESPONSE = WxPayOrderNotifyResponse.success("OK");
+  private static final String BUSY_RESPONSE = WxPayOrderNotifyResponse.fail("系统繁忙");
+
+  private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+  private final WxPayService payService;
+  private final WxPayOrderNotifyHandler handler;
+  private final WxMessageDuplicateChecker duplicateChecker;
+  private final ThreadPoolExecutor[] lanes;
+  private volatile int maxAttempts = 1;
+  private volatile WxPayOrderNotifyFailureHandler failureHandler;
+
+  private final AtomicLong acceptedCount = new AtomicLong();
+  private final AtomicLong rejectedCount = new AtomicLong();
+  private final AtomicLong duplicateCount = new AtomicLong();
+  private final AtomicLong handledCount = new AtomicLong();
+  private final AtomicLong failedCount = new AtomicLong();
+
+  /**
+   * 使用内存去重（保存25小时，覆盖微信重发通知的约24小时），默认通道数和队列长度
+   */
+  public WxPayOrderNotifyPipeline(WxPayService payService, WxPayOrderNotifyHandler handler) {
+    this(payService, handler, new WxMessageInMemoryDuplicateChecker(25 * 3600 * 1000L, 3600 * 1000L));
+  }
+
+  public WxPayOrderNotifyPipeline(WxPayService payService, WxPayOrderNotifyHandler handler,
+                                  WxMessageDuplicateChecker duplicateChecker) {
+    this(payService, handler, duplicateChecker, DEFAULT_LANES, DEFAULT_QUEUE_CAPACITY);
+  }
+
+  /**
+   * @param payService       用于解析和校验通知的签名
+   * @param handler          业务处理器
+   * @param duplicateChecker 按transaction_id去重
+   * @param laneCount        通道数，即处理通知的线程数
+   * @param queueCapacity    每个通道最多排队的通知数，超过后应答FAIL
+   */
+  public WxPayOrderNotifyPipeline(WxPayService payService, WxPayOrderNotifyHandler handler,
+                                  WxMessageDuplicateChecker duplicateChecker, int laneCount, int queueCapacity) {
+    if (laneCount <= 0 || queueCapacity <= 0) {
+      throw new IllegalArgumentException("通道数和队列长度必须大于0");
+    }
+
+    this.payService = payService;
+    this.handler = handler;
+    this.duplicateChecker = duplicateChecker;
+    ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("wxpay-notify-%d").setDaemon(true).build();
+    this.lanes = new ThreadPoolExecutor[laneCount];
+    for (int i = 0; i < laneCount; i++) {
+      this.lanes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<Runnable>(queueCapacity), threadFactory);
+    }
+  }
+
+  /**
+   * 处理微信发来的支付结果通知，返回应答给微信的xml
+   *
+   * @param xmlData 通知的xml内容
+   */
+  public String process(String xmlData) {
+    final WxPayOrderNotifyResult result;
+    try {
+      result = this.payService.getOrderNotifyResult(xmlData);
+    } catch (WxPayException e) {
+      return WxPayOrderNotifyResponse.fail(e.getMessage());
+    }
+
+    final String outTradeNo = StringUtils.defaultString(result.getOutTradeNo());
+    ThreadPoolExecutor lane = this.lanes[(outTradeNo.hashCode() & Integer.MAX_VALUE) % this.lanes.length];
+    try {
+      lane.execute(new Runnable() {
+        @Override
+        public void run() {
+          WxPayOrderNotifyPipeline.this.dispatch(result, outTradeNo);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      this.rejectedCount.incrementAndGet();
+      this.log.warn("支付结果通知队列已满，等待微信重新发送，out_trade_no：{}", outTradeNo);
+      return BUSY_RESPONSE;
+    }
+
+    this.acceptedCount.incrementAndGet();
+    return SUCCESS_RESPONSE;
+  }
+
+  /**
+   * 业务处理失败时的最多尝试次数，默认为1即不重试。重试在同一通道中立即进行，会推迟该通道中其他通知的处理
+   */
+  public void setMaxAttempts(int maxAttempts) {
+    if (maxAttempts <= 0) {
+      throw new IllegalArgumentException("尝试次数必须大于0");
+    }
+    this.maxAttempts = maxAttempts;
+  }
+
+  /**
+   * 业务处理重试后仍然失败时调用的处理器，默认只记录日志
+   */
+  public void setFailureHandler(WxPayOrderNotifyFailureHandler failureHandler) {
+    this.failureHandler = failureHandler;
+  }
+
+  private void dispatch(WxPayOrderNotifyResult result, String outTradeNo) {
+    String transactionId = StringUtils.defaultIfEmpty(result.getTransactionId(), outTradeNo);
+    if (this.duplicateChecker.isDuplicate(transactionId)) {
+      this.duplicateCount.incrementAndGet();
+      return;
+    }
+
+    Exception error = null;
+    for (int attempt = 1; attempt <= this.maxAttempts; attempt++) {
+      try {
+        this.handler.handle(result);
+        this.handledCount.incrementAndGet();
+        return;
+      } catch (Exception e) {
+        error = e;
+        this.log.warn("处理支付结果通知失败，第{}次，out_trade_no：{}，transaction_id：{}，异常信息：{}",
+          attempt, outTradeNo, transactionId, e.getMessage());
+      }
+    }
+
+    this.failedCount.incrementAndGet();
+    this.log.error("处理支付结果通知失败，out_trade_no：" + outTradeNo + "，transaction_id：" + transactionId, error);
+    if (this.duplicateChecker instanceof WxMessageRemovableDuplicateChecker) {
+      ((WxMessageRemovableDuplicateChecker) this.duplicateChecker).remove(transactionId);
+    }
+
+    WxPayOrderNotifyFailureHandler failureHandler = this.failureHandler;
+    if (failureHandler != null) {
+      try {
+        failureHandler.onFailure(result, error);
+      } catch (Exception e) {
+        this.log.error("支付结果通知失败处理器抛出异常，out_trade_no：" + outTradeNo, e);
+      }
+    }
+  }
+
+  /**
+   * 已放入队列的通知数（包括重复的通知）
+   */
+  public long getAcceptedCount() {
+    return this.acceptedCount.get();
+  }
+
+  /**
+   * 因队列已满而应答FAIL的通知数
+   */
+  public long getRejectedCount() {
+    return this.rejectedCount.get();
+  }
+
+  /**
+   * 被去重跳过的通知数
+   */
+  public long getDuplicateCount() {
+    return this.duplicateCount.get();
+  }
+
+  /**
+   * 业务处理成功的通知数
+   */
+  public long getHandledCount() {
+    return this.handledCount.get();
+  }
+
+  /**
+   * 重试后业务处理仍然失败的通知数
+   */
+  public long getFailedCount() {
+    return this.failedCount.get();
+  }
+
+  /**
+   * 当前排队等待处理的通知数
+   */
+  public int getQueuedCount() {
+    int count = 0;
+    for (ThreadPoolExecutor lane : this.lanes) {
+      count += lane.getQueue().size();
+    }
+    return count;
+  }
+
+  /**
+   * 不再接收新的通知，已入队的通知处理完后线程退出
+   */
+  @Override
+  public void close() {
+    for (ThreadPoolExecutor lane : this.lanes) {
+      lane.shutdown();
+    }
+  }
+
+  /**
+   * 关闭并等待已入队的通知处理完
+   *
+   * @return 是否在超时前全部处理完
+   */
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    this.close();
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    for (ThreadPoolExecutor lane : this.lanes) {
+      if (!lane.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
@@ -248,6 +248,22 @@ public interface WxPayService {
    */
   WxPayBillResult downloadBill(String billDate, String billType, String tarType, String deviceInfo) throws WxPayException;
 
+  /**
+   * <pre>
+   * 下载对账单，边下载边解析，每条记录交给handler处理，内存占用与账单大小无关，适合记录较多的账单
+   * 参数和注意事项见 {@link #downloadBill(String, String, String, String)}，tarType为GZIP时自动解压
+   * </pre>
+   *
+   * @param billDate   对账单日期
+   * @param billType   账单类型
+   * @param tarType    压缩账单
+   * @param deviceInfo 设备号
+   * @param handler    对账单记录处理器
+   * @return 账单末尾的汇总数据，不包含明细列表
+   */
+  WxPayBillResult downloadBill(String billDate, String billType, String tarType, String deviceInfo,
+                               WxPayBillHandler handler) throws WxPayException;
+
   /**
    * <pre>
    * 提交刷卡支付
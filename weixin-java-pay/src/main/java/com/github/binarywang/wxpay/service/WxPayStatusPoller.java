@@ -0,0 +1,618 @@
+package com.github.binarywang.wxpay.service;
+
+import com.github.binarywang.wxpay.bean.result.WxPayOrderQueryResult;
+import com.github.binarywang.wxpay.bean.result.WxPayRedpackQueryResult;
+import com.github.binarywang.wxpay.bean.result.WxPayRefundQueryResult;
+import com.github.binarywang.wxpay.exception.WxPayException;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import me.chanjar.weixin.common.util.SharedScheduler;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * <pre>
+ * 支付状态轮询器
+ * 被扫支付返回USERPAYING、申请退款、发放红包之后，需要反复查询直到得到最终状态，
+ * 原来的做法是每笔交易占用一个线程循环sleep和查询。本类把所有待查询的交易放在一个时间轮中，
+ * 到期后交给查询线程池执行，查询结果不是最终状态时按退避策略（见 {@link Policy}）计算下次查询时间重新放入时间轮，
+ * 得到最终状态后完成返回的 {@link ListenableFuture}，可以直接get，也可以用Futures.addCallback注册回调。
+ *
+ * 等待中的交易只占用一个很小的对象，不占用线程，几十万笔待查询的交易也只需要少量线程：
+ * 时间轮由 {@link SharedScheduler} 共享的后台线程推进，每个刻度只处理一个槽，只做分发，不执行查询；
+ * 查询在构造时传入的线程池中执行，同一个商户号同时进行的查询不超过 maxConcurrentQueries 个，
+ * 超出的交易按到期顺序排队，所以查询线程池的队列长度也不会超过各商户上限之和。
+ *
+ * 查询抛出 {@link WxPayException}（比如订单尚未生成、网络错误）时按未到最终状态处理继续查询，
+ * 超时后以 {@link WxPayException} 结束，cause为最后一次查询的异常；抛出其他异常或错误时直接以该异常结束。
+ * 商户号没有待查询的交易后会被移除，不会随着商户号的增多而一直占用内存。不再使用时调用 {@link #close()}
+ * </pre>
+ */
+public class WxPayStatusPoller implements Closeable {
+  /**
+   * 默认每个商户号同时进行的查询数
+   */
+  public static final int DEFAULT_MAX_CONCURRENT_QUERIES = 4;
+
+  /**
+   * 默认时间轮刻度：毫秒
+   */
+  public static final long DEFAULT_TICK_MILLIS = 100L;
+
+  /**
+   * 默认时间轮槽数
+   */
+  public static final int DEFAULT_WHEEL_SIZE = 512;
+
+  private static final SharedScheduler.WeakTask<WxPayStatusPoller> TICK_TASK =
+    new SharedScheduler.WeakTask<WxPayStatusPoller>() {
+      @Override
+      public void run(WxPayStatusPoller poller) {
+        poller.tick();
+      }
+    };
+
+  @SuppressWarnings("rawtypes")
+  private static final AtomicIntegerFieldUpdater<PollTask> FINISHED =
+    AtomicIntegerFieldUpdater.newUpdater(PollTask.class, "finished");
+
+  private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+  private final ExecutorService executor;
+  private final boolean ownExecutor;
+  private final int maxConcurrentQueries;
+  private final long tickMillis;
+  private final long startTime;
+
+  /**
+   * 时间轮的各个槽，每个槽是按next串起来的单链表，只在持有this锁时访问
+   */
+  private final PollTask<?>[] wheel;
+  private long currentTick;
+
+  /**
+   * 新加入或重新排期的交易，在下一个刻度时放入时间轮
+   */
+  private final Queue<PollTask<?>> incoming = new ConcurrentLinkedQueue<>();
+  private final ConcurrentMap<String, Merchant> merchants = new ConcurrentHashMap<>();
+  private final AtomicInteger pendingCount = new AtomicInteger();
+  private final ScheduledFuture<?> tickFuture;
+  private volatile boolean closed;
+
+  /**
+   * 使用8个线程执行查询，其余均为默认值
+   */
+  public WxPayStatusPoller() {
+    this(Executors.newFixedThreadPool(8,
+      new ThreadFactoryBuilder().setNameFormat("wxpay-poller-%d").setDaemon(true).build()), true,
+      DEFAULT_MAX_CONCURRENT_QUERIES, DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_SIZE, SharedScheduler.get());
+  }
+
+  /**
+   * @param executor             执行查询的线程池，{@link #close()} 时不会关闭
+   * @param maxConcurrentQueries 每个商户号同时进行的查询数
+   */
+  public WxPayStatusPoller(ExecutorService executor, int maxConcurrentQueries) {
+    this(executor, maxConcurrentQueries, DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_SIZE, SharedScheduler.get());
+  }
+
+  /**
+   * @param executor             执行查询的线程池，{@link #close()} 时不会关闭
+   * @param maxConcurrentQueries 每个商户号同时进行的查询数
+   * @param tickMillis           时间轮刻度，即查询时间的精度：毫秒
+   * @param wheelSize            时间轮槽数，向上取整为2的幂
+   * @param scheduler            推进时间轮的定时任务线程池
+   */
+  public WxPayStatusPoller(ExecutorService executor, int maxConcurrentQueries, long tickMillis, int wheelSize,
+                           ScheduledExecutorService scheduler) {
+    this(executor, false, maxConcurrentQueries, tickMillis, wheelSize, scheduler);
+  }
+
+  private WxPayStatusPoller(ExecutorService executor, boolean ownExecutor, int maxConcurrentQueries,
+                            long tickMillis, int wheelSize, ScheduledExecutorService scheduler) {
+    if (maxConcurrentQueries <= 0 || tickMillis <= 0 || wheelSize <= 0) {
+      throw new IllegalArgumentException("查询数、刻度和槽数必须大于0");
+    }
+
+    this.executor = executor;
+    this.ownExecutor = ownExecutor;
+    this.maxConcurrentQueries = maxConcurrentQueries;
+    this.tickMillis = tickMillis;
+    this.wheel = new PollTask<?>[Integer.highestOneBit(wheelSize - 1 << 1 | 1)];
+    this.startTime = now();
+    this.tickFuture = SharedScheduler.scheduleWeakly(scheduler, this, TICK_TASK, tickMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * 轮询订单状态直到不再是USERPAYING或NOTPAY，使用 {@link Policy#ORDER}
+   *
+   * @param payService    商户对应的支付服务
+   * @param transactionId 微信订单号，与商户订单号二选一
+   * @param outTradeNo    商户订单号
+   */
+  public ListenableFuture<WxPayOrderQueryResult> pollOrder(WxPayService payService, String transactionId,
+                                                           String outTradeNo) {
+    return this.pollOrder(payService, transactionId, outTradeNo, Policy.ORDER);
+  }
+
+  public ListenableFuture<WxPayOrderQueryResult> pollOrder(final WxPayService payService, final String transactionId,
+                                                           final String outTradeNo, Policy policy) {
+    return this.poll(payService.getConfig().getMchId(), new StatusQuery<WxPayOrderQueryResult>() {
+      @Override
+      public WxPayOrderQueryResult query() throws WxPayException {
+        return payService.queryOrder(transactionId, outTradeNo);
+      }
+
+      @Override
+      public boolean isFinal(WxPayOrderQueryResult result) {
+        return !StringUtils.equalsAny(result.getTradeState(), "USERPAYING", "NOTPAY");
+      }
+    }, policy);
+  }
+
+  /**
+   * 轮询退款状态直到所有退款都不再是PROCESSING，使用 {@link Policy#REFUND}，四个参数四选一
+   *
+   * @param payService    商户对应的支付服务
+   * @param transactionId 微信订单号
+   * @param outTradeNo    商户订单号
+   * @param outRefundNo   商户退款单号
+   * @param refundId      微信退款单号
+   */
+  public ListenableFuture<WxPayRefundQueryResult> pollRefund(WxPayService payService, String transactionId,
+                                                             String outTradeNo, String outRefundNo, String refundId) {
+    return this.pollRefund(payService, transactionId, outTradeNo, outRefundNo, refundId, Policy.REFUND);
+  }
+
+  public ListenableFuture<WxPayRefundQueryResult> pollRefund(final WxPayService payService, final String transactionId,
+                                                             final String outTradeNo, final String outRefundNo,
+                                                             final String refundId, Policy policy) {
+    return this.poll(payService.getConfig().getMchId(), new StatusQuery<WxPayRefundQueryResult>() {
+      @Override
+      public WxPayRefundQueryResult query() throws WxPayException {
+        return payService.refundQuery(transactionId, outTradeNo, outRefundNo, refundId);
+      }
+
+      @Override
+      public boolean isFinal(WxPayRefundQueryResult result) {
+        if (result.getRefundRecords() == null || result.getRefundRecords().isEmpty()) {
+          return false;
+        }
+
+        for (WxPayRefundQueryResult.RefundRecord record : result.getRefundRecords()) {
+          if ("PROCESSING".equals(record.getRefundStatus())) {
+            return false;
+          }
+        }
+        return true;
+      }
+    }, policy);
+  }
+
+  /**
+   * 轮询红包状态直到不再是SENDING或RFUND_ING，使用 {@link Policy#REDPACK}
+   *
+   * @param payService 商户对应的支付服务
+   * @param mchBillNo  商户发放红包的商户订单号
+   */
+  public ListenableFuture<WxPayRedpackQueryResult> pollRedpack(WxPayService payService, String mchBillNo) {
+    return this.pollRedpack(payService, mchBillNo, Policy.REDPACK);
+  }
+
+  public ListenableFuture<WxPayRedpackQueryResult> pollRedpack(final WxPayService payService, final String mchBillNo,
+                                                               Policy policy) {
+    return this.poll(payService.getConfig().getMchId(), new StatusQuery<WxPayRedpackQueryResult>() {
+      @Override
+      public WxPayRedpackQueryResult query() throws WxPayException {
+        return payService.queryRedpack(mchBillNo);
+      }
+
+      @Override
+      public boolean isFinal(WxPayRedpackQueryResult result) {
+        return !StringUtils.equalsAny(result.getStatus(), "SENDING", "RFUND_ING");
+      }
+    }, policy);
+  }
+
+  /**
+   * 轮询任意查询直到得到最终状态
+   *
+   * @param mchId  商户号，同一商户号的查询受并发数限制
+   * @param query  查询
+   * @param policy 退避策略
+   * @return 得到最终状态时完成，超时或查询抛出运行时异常时以异常结束，可以取消
+   */
+  public <T> ListenableFuture<T> poll(String mchId, StatusQuery<T> query, Policy policy) {
+    if (this.closed) {
+      throw new IllegalStateException("轮询器已关闭");
+    }
+
+    String key = StringUtils.defaultString(mchId);
+    Merchant merchant;
+    do {
+      merchant = this.merchants.get(key);
+      if (merchant == null) {
+        Merchant created = new Merchant(key);
+        merchant = this.merchants.putIfAbsent(key, created);
+        if (merchant == null) {
+          merchant = created;
+        }
+      }
+      // 商户号刚被移除时重新创建
+    } while (!merchant.addTask());
+
+    long now = now();
+    PollTask<T> task = new PollTask<>(merchant, query, policy, now + policy.timeoutMillis);
+    task.interval = policy.firstIntervalMillis;
+    task.dueTime = now + policy.initialDelayMillis;
+    this.pendingCount.incrementAndGet();
+    this.incoming.add(task);
+    return task.future;
+  }
+
+  /**
+   * 尚未得到最终状态的交易数
+   */
+  public int getPendingCount() {
+    return this.pendingCount.get();
+  }
+
+  /**
+   * 还有待查询交易的商户号数
+   */
+  int getMerchantCount() {
+    return this.merchants.size();
+  }
+
+  /**
+   * 推进时间轮到当前时间，处理所有到期的槽
+   */
+  private synchronized void tick() {
+    if (this.closed) {
+      return;
+    }
+
+    long targetTick = (now() - this.startTime) / this.tickMillis;
+    int mask = this.wheel.length - 1;
+    for (PollTask<?> task; (task = this.incoming.poll()) != null; ) {
+      long dueTick = Math.max((task.dueTime - this.startTime + this.tickMillis - 1) / this.tickMillis, this.currentTick);
+      int slot = (int) (dueTick & mask);
+      task.rounds = (dueTick - this.currentTick) / this.wheel.length;
+      task.next = this.wheel[slot];
+      this.wheel[slot] = task;
+    }
+
+    for (; this.currentTick <= targetTick; this.currentTick++) {
+      int slot = (int) (this.currentTick & mask);
+      PollTask<?> remaining = null;
+      for (PollTask<?> task = this.wheel[slot], next; task != null; task = next) {
+        next = task.next;
+        if (task.future.isDone()) {
+          // 已被调用方取消
+          task.finish();
+        } else if (task.rounds > 0) {
+          task.rounds--;
+          task.next = remaining;
+          remaining = task;
+        } else {
+          task.next = null;
+          task.merchant.submit(task);
+        }
+      }
+      this.wheel[slot] = remaining;
+    }
+  }
+
+  /**
+   * 不再推进时间轮，取消所有尚未得到最终状态的交易；默认构造方法创建的线程池也会被关闭
+   */
+  @Override
+  public void close() {
+    synchronized (this) {
+      if (this.closed) {
+        return;
+      }
+      this.closed = true;
+      this.tickFuture.cancel(false);
+
+      for (PollTask<?> task; (task = this.incoming.poll()) != null; ) {
+        task.cancel();
+      }
+      for (int i = 0; i < this.wheel.length; i++) {
+        for (PollTask<?> task = this.wheel[i]; task != null; task = task.next) {
+          task.cancel();
+        }
+        this.wheel[i] = null;
+      }
+    }
+
+    for (Merchant merchant : this.merchants.values()) {
+      merchant.cancelWaiting();
+    }
+    if (this.ownExecutor) {
+      this.executor.shutdown();
+    }
+  }
+
+  private static long now() {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+  }
+
+  /**
+   * 轮询的查询操作
+   */
+  public interface StatusQuery<T> {
+
+    /**
+     * 查询一次当前状态
+     */
+    T query() throws WxPayException;
+
+    /**
+     * 是否已是最终状态，不需要再查询
+     */
+    boolean isFinal(T result);
+
+  }
+
+  /**
+   * <pre>
+   * 退避策略：第一次查询在initialDelay之后，第二次查询与第一次间隔firstInterval，
+   * 之后每次间隔乘以multiplier，但不超过maxInterval，从开始轮询起超过timeout仍未得到最终状态时结束
+   * </pre>
+   */
+  public static class Policy {
+    /**
+     * 订单：5秒后第一次查询，之后每10秒一次，30秒超时，与被扫支付文档的建议一致
+     */
+    public static final Policy ORDER = new Policy(5000L, 10000L, 10000L, 1, 30000L);
+
+    /**
+     * 退款：10秒后第一次查询，逐步延长到每10分钟一次，24小时超时
+     */
+    public static final Policy REFUND = new Policy(10000L, 600000L, 2, 24 * 3600000L);
+
+    /**
+     * 红包：5秒后第一次查询，逐步延长到每分钟一次，1小时超时
+     */
+    public static final Policy REDPACK = new Policy(5000L, 60000L, 2, 3600000L);
+
+    private final long initialDelayMillis;
+    private final long firstIntervalMillis;
+    private final long maxIntervalMillis;
+    private final double multiplier;
+    private final long timeoutMillis;
+
+    /**
+     * 第一次查询之后的间隔与initialDelay相同
+     *
+     * @param initialDelayMillis 第一次查询的延迟：毫秒
+     * @param maxIntervalMillis  最大查询间隔：毫秒
+     * @param multiplier         每次查询后间隔的倍数，不小于1
+     * @param timeoutMillis      超时时间：毫秒
+     */
+    public Policy(long initialDelayMillis, long maxIntervalMillis, double multiplier, long timeoutMillis) {
+      this(initialDelayMillis, initialDelayMillis, maxIntervalMillis, multiplier, timeoutMillis);
+    }
+
+    /**
+     * @param initialDelayMillis  第一次查询的延迟：毫秒
+     * @param firstIntervalMillis 第一次查询与第二次查询的间隔：毫秒
+     * @param maxIntervalMillis   最大查询间隔：毫秒
+     * @param multiplier          每次查询后间隔的倍数，不小于1
+     * @param timeoutMillis       超时时间：毫秒
+     */
+    public Policy(long initialDelayMillis, long firstIntervalMillis, long maxIntervalMillis, double multiplier,
+                  long timeoutMillis) {
+      if (initialDelayMillis <= 0 || firstIntervalMillis <= 0 || maxIntervalMillis <= 0 || multiplier < 1
+        || timeoutMillis < 0) {
+        throw new IllegalArgumentException("退避策略参数不正确");
+      }
+
+      this.initialDelayMillis = initialDelayMillis;
+      this.firstIntervalMillis = firstIntervalMillis;
+      this.maxIntervalMillis = maxIntervalMillis;
+      this.multiplier = multiplier;
+      this.timeoutMillis = timeoutMillis;
+    }
+
+    long nextInterval(long interval) {
+      return (long) Math.min(interval * this.multiplier, this.maxIntervalMillis);
+    }
+  }
+
+  /**
+   * 限制同一商户号同时进行的查询数，超出的交易在waiting中排队
+   */
+  private class Merchant {
+    private final String key;
+    private final Queue<PollTask<?>> waiting = new ArrayDeque<>();
+    private int running;
+
+    /**
+     * 尚未结束的交易数，减到0时从merchants中移除
+     */
+    private int taskCount;
+    private boolean removed;
+
+    Merchant(String key) {
+      this.key = key;
+    }
+
+    /**
+     * @return 已被移除时返回false，调用方需要重新创建
+     */
+    synchronized boolean addTask() {
+      if (this.removed) {
+        return false;
+      }
+      this.taskCount++;
+      return true;
+    }
+
+    void taskFinished() {
+      synchronized (this) {
+        if (--this.taskCount > 0) {
+          return;
+        }
+        this.removed = true;
+      }
+      WxPayStatusPoller.this.merchants.remove(this.key, this);
+    }
+
+    void submit(PollTask<?> task) {
+      synchronized (this) {
+        if (this.running >= WxPayStatusPoller.this.maxConcurrentQueries) {
+          this.waiting.add(task);
+          return;
+        }
+        this.running++;
+      }
+      this.execute(task);
+    }
+
+    /**
+     * 一次查询结束，交给下一个排队的交易或者释放名额
+     */
+    void release() {
+      PollTask<?> next;
+      synchronized (this) {
+        next = this.waiting.poll();
+        if (next == null) {
+          this.running--;
+          return;
+        }
+      }
+      this.execute(next);
+    }
+
+    synchronized void cancelWaiting() {
+      for (PollTask<?> task; (task = this.waiting.poll()) != null; ) {
+        task.cancel();
+      }
+    }
+
+    private void execute(PollTask<?> task) {
+      try {
+        WxPayStatusPoller.this.executor.execute(task);
+      } catch (RejectedExecutionException e) {
+        task.finish();
+        task.future.setException(e);
+        this.release();
+      }
+    }
+  }
+
+  private class PollTask<T> implements Runnable {
+    private final Merchant merchant;
+    private final StatusQuery<T> query;
+    private final Policy policy;
+    private final long deadline;
+    private final SettableFuture<T> future = SettableFuture.create();
+
+    private long dueTime;
+    private long interval;
+    private long rounds;
+    private PollTask<?> next;
+    private WxPayException lastError;
+
+    /**
+     * 是否已结束并计数，见 {@link #finish()}
+     */
+    volatile int finished;
+
+    PollTask(Merchant merchant, StatusQuery<T> query, Policy policy, long deadline) {
+      this.merchant = merchant;
+      this.query = query;
+      this.policy = policy;
+      this.deadline = deadline;
+    }
+
+    @Override
+    public void run() {
+      try {
+        if (this.future.isDone()) {
+          // 排队期间已被调用方取消
+          this.finish();
+        } else if (this.queryOnce()) {
+          this.reschedule();
+        }
+      } finally {
+        this.merchant.release();
+      }
+    }
+
+    /**
+     * @return 是否需要再次查询
+     */
+    private boolean queryOnce() {
+      try {
+        T result = this.query.query();
+        if (this.query.isFinal(result)) {
+          this.finish();
+          this.future.set(result);
+          return false;
+        }
+      } catch (WxPayException e) {
+        this.lastError = e;
+      } catch (Throwable e) {
+        // 其他异常和错误不再重试，保证future完成，不会一直等待
+        this.finish();
+        this.future.setException(e);
+        return false;
+      }
+
+      long now = now();
+      if (now >= this.deadline) {
+        this.finish();
+        this.future.setException(new WxPayException("轮询超时，仍未得到最终状态", this.lastError));
+        return false;
+      }
+
+      this.dueTime = Math.min(now + this.interval, this.deadline);
+      this.interval = this.policy.nextInterval(this.interval);
+      return true;
+    }
+
+    void cancel() {
+      this.future.cancel(false);
+      this.finish();
+    }
+
+    /**
+     * 交易结束，不论经过哪条路径，只计数一次
+     */
+    void finish() {
+      if (FINISHED.compareAndSet(this, 0, 1)) {
+        WxPayStatusPoller.this.pendingCount.decrementAndGet();
+        this.merchant.taskFinished();
+      }
+    }
+
+    private void reschedule() {
+      WxPayStatusPoller.this.incoming.add(this);
+      if (WxPayStatusPoller.this.closed && WxPayStatusPoller.this.incoming.remove(this)) {
+        WxPayStatusPoller.this.log.debug("轮询器已关闭，取消查询");
+        this.cancel();
+      }
+    }
+  }
+
+}
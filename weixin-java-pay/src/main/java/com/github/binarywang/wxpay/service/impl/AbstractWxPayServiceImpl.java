@@ -0,0 +1,426 @@
+package com.github.binarywang.wxpay.service.impl;
+
+import com.github.binarywang.utils.qrcode.QrcodeUtils;
+import com.github.binarywang.wxpay.bean.request.*;
+import com.github.binarywang.wxpay.bean.result.*;
+import com.github.binarywang.wxpay.config.WxPayConfig;
+import com.github.binarywang.wxpay.exception.WxPayException;
+import com.github.binarywang.wxpay.service.WxPayBillHandler;
+import com.github.binarywang.wxpay.service.WxPayService;
+import com.github.binarywang.wxpay.util.SignUtils;
+import com.github.binarywang.wxpay.util.WxPayBillReader;
+import com.google.common.collect.Maps;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <pre>
+ * 微信支付接口请求抽象实现类，发送http请求的方式由子类实现
+ * Created by Binary Wang on 2016/7/28.
+ * </pre>
+ *
+ * @author binarywang (https://github.com/binarywang)
+ */
+public abstract class AbstractWxPayServiceImpl implements WxPayService {
+  private static final String PAY_BASE_URL = "https://api.mch.weixin.qq.com";
+  protected final Logger log = LoggerFactory.getLogger(this.getClass());
+
+  private WxPayConfig config;
+
+  @Override
+  public WxPayConfig getConfig() {
+    return this.config;
+  }
+
+  @Override
+  public void setConfig(WxPayConfig config) {
+    this.config = config;
+  }
+
+  protected String getPayBaseUrl() {
+    if (this.getConfig().useSandbox()) {
+      return PAY_BASE_URL + "/sandboxnew";
+    }
+
+    return PAY_BASE_URL;
+  }
+
+  @Override
+  public WxPayRefundResult refund(WxPayRefundRequest request) throws WxPayException {
+    return this.execute(request, "/secapi/pay/refund", true, WxPayRefundResult.class);
+  }
+
+  @Override
+  public WxPayRefundQueryResult refundQuery(String transactionId, String outTradeNo, String outRefundNo, String refundId)
+    throws WxPayException {
+    WxPayRefundQueryRequest request = new WxPayRefundQueryRequest();
+    request.setOutTradeNo(StringUtils.trimToNull(outTradeNo));
+    request.setTransactionId(StringUtils.trimToNull(transactionId));
+    request.setOutRefundNo(StringUtils.trimToNull(outRefundNo));
+    request.setRefundId(StringUtils.trimToNull(refundId));
+
+    request.checkAndSign(this.getConfig());
+
+    String url = this.getPayBaseUrl() + "/pay/refundquery";
+    String responseContent = this.post(url, request.toXML(), false);
+    WxPayRefundQueryResult result = WxPayBaseResult.fromXML(responseContent, WxPayRefundQueryResult.class);
+    result.composeRefundRecords();
+    result.checkResult(this, request.getSignTypeValue());
+    return result;
+  }
+
+  @Override
+  public WxPayOrderNotifyResult getOrderNotifyResult(String xmlData) throws WxPayException {
+    try {
+      log.debug("微信支付回调参数详细：{}", xmlData);
+      WxPayOrderNotifyResult result = WxPayBaseResult.fromXML(xmlData, WxPayOrderNotifyResult.class);
+      // 先用原始字段校验签名，再按coupon_count组装代金券
+      result.checkResult(this);
+      result.composeCoupons();
+      log.debug("微信支付回调结果对象：{}", result);
+      return result;
+    } catch (WxPayException e) {
+      log.error(e.getMessage(), e);
+      throw e;
+    } catch (Exception e) {
+      log.error(e.getMessage(), e);
+      throw new WxPayException("发生异常，" + e.getMessage());
+    }
+  }
+
+  @Override
+  public WxPaySendRedpackResult sendRedpack(WxPaySendRedpackRequest request) throws WxPayException {
+    request.checkAndSign(this.getConfig());
+
+    String url = this.getPayBaseUrl() + "/mmpaymkttransfers/sendredpack";
+    if (request.getAmtType() != null) {
+      //裂变红包
+      url = this.getPayBaseUrl() + "/mmpaymkttransfers/sendgroupredpack";
+    }
+
+    String responseContent = this.post(url, request.toXML(), true);
+    WxPaySendRedpackResult result = WxPayBaseResult.fromXML(responseContent, WxPaySendRedpackResult.class);
+    //毋须校验，因为没有返回签名信息
+    // this.checkResult(result);
+    return result;
+  }
+
+  @Override
+  public WxPayRedpackQueryResult queryRedpack(String mchBillNo) throws WxPayException {
+    WxPayRedpackQueryRequest request = new WxPayRedpackQueryRequest();
+    request.setMchBillNo(mchBillNo);
+    request.setBillType("MCHT");
+    return this.execute(request, "/mmpaymkttransfers/gethbinfo", true, WxPayRedpackQueryResult.class);
+  }
+
+  @Override
+  public WxPayOrderQueryResult queryOrder(String transactionId, String outTradeNo) throws WxPayException {
+    WxPayOrderQueryRequest request = this.newOrderQueryRequest(transactionId, outTradeNo);
+    String responseContent = this.post(this.getPayBaseUrl() + "/pay/orderquery", this.signToXml(request), false);
+    return this.parseOrderQueryResult(responseContent, request);
+  }
+
+  @Override
+  public WxPayOrderCloseResult closeOrder(String outTradeNo) throws WxPayException {
+    return this.execute(this.newOrderCloseRequest(outTradeNo), "/pay/closeorder", false, WxPayOrderCloseResult.class);
+  }
+
+  @Override
+  public WxPayUnifiedOrderResult unifiedOrder(WxPayUnifiedOrderRequest request) throws WxPayException {
+    return this.execute(request, "/pay/unifiedorder", false, WxPayUnifiedOrderResult.class);
+  }
+
+  @Override
+  public Map<String, String> getPayInfo(WxPayUnifiedOrderRequest request) throws WxPayException {
+    WxPayUnifiedOrderResult unifiedOrderResult = this.unifiedOrder(request);
+    String prepayId = unifiedOrderResult.getPrepayId();
+    if (StringUtils.isBlank(prepayId)) {
+      throw new RuntimeException(String.format("无法获取prepay id，错误代码： '%s'，信息：%s。",
+        unifiedOrderResult.getErrCode(), unifiedOrderResult.getErrCodeDes()));
+    }
+
+    Map<String, String> payInfo = new HashMap<>();
+    if ("NATIVE".equals(request.getTradeType())) {
+      payInfo.put("codeUrl", unifiedOrderResult.getCodeURL());
+    } else if ("APP".equals(request.getTradeType())) {
+      // APP支付绑定的是微信开放平台上的账号，APPID为开放平台上绑定APP后发放的参数
+      String appId = getConfig().getAppId();
+      Map<String, String> configMap = new HashMap<>();
+      // 此map用于参与调起sdk支付的二次签名,格式全小写，timestamp只能是10位,格式固定，切勿修改
+      String partnerid = getConfig().getMchId();
+      configMap.put("prepayid", prepayId);
+      configMap.put("partnerid", partnerid);
+      configMap.put("package", "Sign=WXPay");
+      configMap.put("timestamp", String.valueOf(System.currentTimeMillis() / 1000));
+      configMap.put("noncestr", String.valueOf(System.currentTimeMillis()));
+      configMap.put("appid", appId);
+      // 此map用于客户端与微信服务器交互
+      payInfo.put("sign", SignUtils.createSign(configMap, this.getConfig().getMchKey()));
+      payInfo.put("prepayId", prepayId);
+      payInfo.put("partnerId", partnerid);
+      payInfo.put("appId", appId);
+      payInfo.put("packageValue", "Sign=WXPay");
+      payInfo.put("timeStamp", String.valueOf(System.currentTimeMillis() / 1000));
+      payInfo.put("nonceStr", String.valueOf(System.currentTimeMillis()));
+    } else if ("JSAPI".equals(request.getTradeType())) {
+      payInfo.put("appId", unifiedOrderResult.getAppid());
+      // 支付签名时间戳，注意微信jssdk中的所有使用timestamp字段均为小写。但最新版的支付后台生成签名使用的timeStamp字段名需大写其中的S字符
+      payInfo.put("timeStamp", String.valueOf(System.currentTimeMillis() / 1000));
+      payInfo.put("nonceStr", String.valueOf(System.currentTimeMillis()));
+      payInfo.put("package", "prepay_id=" + prepayId);
+      payInfo.put("signType", "MD5");
+      payInfo.put("paySign", SignUtils.createSign(payInfo, this.getConfig().getMchKey()));
+    }
+    return payInfo;
+  }
+
+  @Override
+  public WxEntPayResult entPay(WxEntPayRequest request) throws WxPayException {
+    return this.execute(request, "/mmpaymkttransfers/promotion/transfers", true, WxEntPayResult.class);
+  }
+
+  @Override
+  public WxEntPayQueryResult queryEntPay(String partnerTradeNo) throws WxPayException {
+    WxEntPayQueryRequest request = new WxEntPayQueryRequest();
+    request.setPartnerTradeNo(partnerTradeNo);
+    return this.execute(request, "/mmpaymkttransfers/gettransferinfo", true, WxEntPayQueryResult.class);
+  }
+
+  @Override
+  public byte[] createScanPayQrcodeMode1(String productId, File logoFile, Integer sideLength) {
+    String content = this.createScanPayQrcodeMode1(productId);
+    return this.createQrcode(content, logoFile, sideLength);
+  }
+
+  @Override
+  public String createScanPayQrcodeMode1(String productId) {
+    //weixin://wxpay/bizpayurl?sign=XXXXX&appid=XXXXX&mch_id=XXXXX&product_id=XXXXXX&time_stamp=XXXXXX&nonce_str=XXXXX
+    StringBuilder codeUrl = new StringBuilder("weixin://wxpay/bizpayurl?");
+    Map<String, String> params = Maps.newHashMap();
+    params.put("appid", this.getConfig().getAppId());
+    params.put("mch_id", this.getConfig().getMchId());
+    params.put("product_id", productId);
+    params.put("time_stamp", String.valueOf(System.currentTimeMillis() / 1000));//这里需要秒，10位数字
+    params.put("nonce_str", String.valueOf(System.currentTimeMillis()));
+
+    String sign = SignUtils.createSign(params, this.getConfig().getMchKey());
+    params.put("sign", sign);
+
+
+    for (String key : params.keySet()) {
+      codeUrl.append(key + "=" + params.get(key) + "&");
+    }
+
+    String content = codeUrl.toString().substring(0, codeUrl.length() - 1);
+    log.debug("扫码支付模式一生成二维码的URL:{}", content);
+    return content;
+  }
+
+  @Override
+  public byte[] createScanPayQrcodeMode2(String codeUrl, File logoFile, Integer sideLength) {
+    return this.createQrcode(codeUrl, logoFile, sideLength);
+  }
+
+  private byte[] createQrcode(String content, File logoFile, Integer sideLength) {
+    if (sideLength == null || sideLength < 1) {
+      return QrcodeUtils.createQrcode(content, logoFile);
+    }
+
+    return QrcodeUtils.createQrcode(content, sideLength, logoFile);
+  }
+
+  public void report(WxPayReportRequest request) throws WxPayException {
+    this.execute(request, "/payitil/report", false, WxPayCommonResult.class);
+  }
+
+  @Override
+  public WxPayBillResult downloadBill(String billDate, String billType, String tarType, String deviceInfo) throws WxPayException {
+    final List<WxPayBillBaseResult> records = new ArrayList<>();
+    WxPayBillResult result = this.downloadBill(billDate, billType, tarType, deviceInfo, new WxPayBillHandler() {
+      @Override
+      public void handle(WxPayBillBaseResult record) {
+        records.add(record);
+      }
+    });
+
+    if (result == null && records.isEmpty()) {
+      return null;
+    }
+    if (result == null) {
+      result = new WxPayBillResult();
+    }
+    result.setWxPayBillBaseResultLst(records);
+    return result;
+  }
+
+  @Override
+  public WxPayBillResult downloadBill(String billDate, String billType, String tarType, String deviceInfo,
+                                      WxPayBillHandler handler) throws WxPayException {
+    WxPayDownloadBillRequest request = new WxPayDownloadBillRequest();
+    request.setBillType(billType);
+    request.setBillDate(billDate);
+    request.setTarType(tarType);
+    request.setDeviceInfo(deviceInfo);
+
+    request.checkAndSign(this.getConfig());
+
+    String url = this.getPayBaseUrl() + "/pay/downloadbill";
+    try (InputStream in = new BufferedInputStream(this.postForStream(url, request.toXML(), false))) {
+      // 出错时返回的是xml，正常时是对账单内容或者gzip压缩包
+      in.mark(1);
+      int first = in.read();
+      in.reset();
+      if (first == '<') {
+        String responseContent = IOUtils.toString(in, StandardCharsets.UTF_8);
+        WxPayCommonResult result = WxPayBaseResult.fromXML(responseContent, WxPayCommonResult.class);
+        result.checkResult(this, request.getSignTypeValue());
+        return null;
+      }
+
+      WxPayBillReader reader = new WxPayBillReader(in);
+      while (reader.hasNext()) {
+        handler.handle(reader.next());
+      }
+      return reader.getSummary();
+    } catch (IOException | IllegalStateException e) {
+      this.log.error("\n【请求地址】: {}\n【异常信息】：{}", url, e.getMessage());
+      throw new WxPayException("读取对账单失败：" + e.getMessage(), e);
+    }
+  }
+
+  @Override
+  public WxPayMicropayResult micropay(WxPayMicropayRequest request) throws WxPayException {
+    return this.execute(request, "/pay/micropay", false, WxPayMicropayResult.class);
+  }
+
+  @Override
+  public WxPayOrderReverseResult reverseOrder(WxPayOrderReverseRequest request) throws WxPayException {
+    return this.execute(request, "/secapi/pay/reverse", true, WxPayOrderReverseResult.class);
+  }
+
+  @Override
+  public String shorturl(WxPayShorturlRequest request) throws WxPayException {
+    return this.execute(request, "/tools/shorturl", false, WxPayShorturlResult.class).getShortUrl();
+  }
+
+  @Override
+  public String shorturl(String longUrl) throws WxPayException {
+    return this.shorturl(new WxPayShorturlRequest(longUrl));
+  }
+
+  @Override
+  public String authcode2Openid(WxPayAuthcode2OpenidRequest request) throws WxPayException {
+    return this.execute(request, "/tools/authcodetoopenid", false, WxPayAuthcode2OpenidResult.class).getOpenid();
+  }
+
+  @Override
+  public String authcode2Openid(String authCode) throws WxPayException {
+    return this.authcode2Openid(new WxPayAuthcode2OpenidRequest(authCode));
+  }
+
+  @Override
+  public String getSandboxSignKey() throws WxPayException {
+    WxPayDefaultRequest request = new WxPayDefaultRequest();
+    request.checkAndSign(this.getConfig());
+
+    String url = "https://api.mch.weixin.qq.com/sandboxnew/pay/getsignkey";
+    String responseContent = this.post(url, request.toXML(), false);
+    WxPaySandboxSignKeyResult result = WxPayBaseResult.fromXML(responseContent, WxPaySandboxSignKeyResult.class);
+    result.checkResult(this, request.getSignTypeValue());
+    return result.getSandboxSignKey();
+  }
+
+  /**
+   * 签名并发送请求，解析响应并校验签名和业务结果，适用于大部分接口
+   *
+   * @param path   接口地址中域名之后的部分
+   * @param useKey 是否使用商户证书
+   */
+  protected <T extends WxPayBaseResult> T execute(WxPayBaseRequest request, String path, boolean useKey,
+                                                  Class<T> resultClass) throws WxPayException {
+    String responseContent = this.post(this.getPayBaseUrl() + path, this.signToXml(request), useKey);
+    return this.parseResult(responseContent, resultClass, request);
+  }
+
+  /**
+   * 补全公共参数并签名，返回请求的xml内容
+   */
+  protected String signToXml(WxPayBaseRequest request) throws WxPayException {
+    request.checkAndSign(this.getConfig());
+    return request.toXML();
+  }
+
+  /**
+   * 解析响应内容，按请求使用的签名类型校验签名和业务结果
+   */
+  protected <T extends WxPayBaseResult> T parseResult(String responseContent, Class<T> resultClass,
+                                                      WxPayBaseRequest request) throws WxPayException {
+    T result = WxPayBaseResult.fromXML(responseContent, resultClass);
+    result.checkResult(this, request.getSignTypeValue());
+    return result;
+  }
+
+  /**
+   * 解析查询订单的响应，先用原始字段校验签名，再按coupon_count组装代金券
+   */
+  protected WxPayOrderQueryResult parseOrderQueryResult(String responseContent, WxPayBaseRequest request)
+    throws WxPayException {
+    if (StringUtils.isBlank(responseContent)) {
+      throw new WxPayException("无响应结果");
+    }
+
+    WxPayOrderQueryResult result = this.parseResult(responseContent, WxPayOrderQueryResult.class, request);
+    result.composeCoupons();
+    return result;
+  }
+
+  protected WxPayOrderQueryRequest newOrderQueryRequest(String transactionId, String outTradeNo) {
+    WxPayOrderQueryRequest request = new WxPayOrderQueryRequest();
+    request.setOutTradeNo(StringUtils.trimToNull(outTradeNo));
+    request.setTransactionId(StringUtils.trimToNull(transactionId));
+    return request;
+  }
+
+  protected WxPayOrderCloseRequest newOrderCloseRequest(String outTradeNo) {
+    if (StringUtils.isBlank(outTradeNo)) {
+      throw new IllegalArgumentException("out_trade_no不能为空");
+    }
+
+    WxPayOrderCloseRequest request = new WxPayOrderCloseRequest();
+    request.setOutTradeNo(StringUtils.trimToNull(outTradeNo));
+    return request;
+  }
+
+  /**
+   * 发送post请求
+   *
+   * @param url        请求地址
+   * @param requestStr 请求内容（xml）
+   * @param useKey     是否使用商户证书，退款、红包、企业付款、撤销订单等接口需要
+   * @return 返回请求结果
+   */
+  protected abstract String post(String url, String requestStr, boolean useKey) throws WxPayException;
+
+  /**
+   * 发送post请求，以流的形式返回响应内容，用于对账单等较大的响应，调用方负责关闭
+   *
+   * @param url        请求地址
+   * @param requestStr 请求内容（xml）
+   * @param useKey     是否使用商户证书
+   * @return 响应内容的原始字节流
+   */
+  protected abstract InputStream postForStream(String url, String requestStr, boolean useKey) throws WxPayException;
+
+}
@@ -0,0 +1,316 @@
+package com.github.binarywang.wxpay.service.impl;
+
+import com.github.binarywang.wxpay.bean.request.*;
+import com.github.binarywang.wxpay.bean.result.*;
+import com.github.binarywang.wxpay.config.WxPayConfig;
+import com.github.binarywang.wxpay.exception.WxPayException;
+import com.github.binarywang.wxpay.service.WxPayAsyncService;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import me.chanjar.weixin.common.util.http.apache.Utf8ResponseHandler;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.Consts;
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+
+import javax.net.ssl.SSLContext;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * <pre>
+ * 基于httpasyncclient的异步实现，需要自行引入org.apache.httpcomponents:httpasyncclient
+ *
+ * 请求由httpasyncclient的少量I/O线程以非阻塞方式收发，等待响应时不占用任何线程；
+ * 签名、生成xml、解析响应和校验签名都在构造时传入的线程池中执行，不会占用I/O线程。
+ * 普通请求和使用商户证书的请求各用一个客户端，连接保持复用，超时时间和连接池大小见 {@link WxPayConfig}。
+ * 同步接口也可以使用，会阻塞调用线程直到收到响应。不再使用时调用 {@link #close()}
+ * </pre>
+ */
+public class WxPayAsyncServiceImpl extends AbstractWxPayServiceImpl implements WxPayAsyncService, Closeable {
+  private final ListeningExecutorService executor;
+  private final boolean ownExecutor;
+  private volatile CloseableHttpAsyncClient httpClient;
+  private volatile CloseableHttpAsyncClient sslHttpClient;
+
+  /**
+   * 使用线程数与cpu核数相同的线程池执行签名和解析
+   */
+  public WxPayAsyncServiceImpl() {
+    this(Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+      new ThreadFactoryBuilder().setNameFormat("wxpay-async-%d").setDaemon(true).build()), true);
+  }
+
+  /**
+   * @param executor 执行签名和解析的线程池，{@link #close()} 时不会关闭
+   */
+  public WxPayAsyncServiceImpl(ExecutorService executor) {
+    this(executor, false);
+  }
+
+  private WxPayAsyncServiceImpl(ExecutorService executor, boolean ownExecutor) {
+    this.executor = MoreExecutors.listeningDecorator(executor);
+    this.ownExecutor = ownExecutor;
+  }
+
+  @Override
+  public synchronized void setConfig(WxPayConfig config) {
+    super.setConfig(config);
+    this.closeHttpClients();
+  }
+
+  @Override
+  public ListenableFuture<WxPayUnifiedOrderResult> unifiedOrderAsync(WxPayUnifiedOrderRequest request) {
+    return this.submit(request, "/pay/unifiedorder", false, this.parser(WxPayUnifiedOrderResult.class));
+  }
+
+  @Override
+  public ListenableFuture<WxPayOrderQueryResult> queryOrderAsync(String transactionId, String outTradeNo) {
+    return this.submit(this.newOrderQueryRequest(transactionId, outTradeNo), "/pay/orderquery", false,
+      new ResultParser<WxPayOrderQueryResult>() {
+        @Override
+        public WxPayOrderQueryResult parse(String responseContent, WxPayBaseRequest request) throws WxPayException {
+          return WxPayAsyncServiceImpl.this.parseOrderQueryResult(responseContent, request);
+        }
+      });
+  }
+
+  @Override
+  public ListenableFuture<WxPayOrderCloseResult> closeOrderAsync(String outTradeNo) {
+    return this.submit(this.newOrderCloseRequest(outTradeNo), "/pay/closeorder", false,
+      this.parser(WxPayOrderCloseResult.class));
+  }
+
+  @Override
+  public ListenableFuture<WxPayRefundResult> refundAsync(WxPayRefundRequest request) {
+    return this.submit(request, "/secapi/pay/refund", true, this.parser(WxPayRefundResult.class));
+  }
+
+  @Override
+  public ListenableFuture<WxPayMicropayResult> micropayAsync(WxPayMicropayRequest request) {
+    return this.submit(request, "/pay/micropay", false, this.parser(WxPayMicropayResult.class));
+  }
+
+  @Override
+  public ListenableFuture<WxPayOrderReverseResult> reverseOrderAsync(WxPayOrderReverseRequest request) {
+    return this.submit(request, "/secapi/pay/reverse", true, this.parser(WxPayOrderReverseResult.class));
+  }
+
+  @Override
+  protected String post(String url, String requestStr, boolean useKey) throws WxPayException {
+    return this.await(this.postAsync(url, requestStr, useKey));
+  }
+
+  /**
+   * httpasyncclient默认会把响应内容全部读入内存，这里返回的是已读取内容的流
+   */
+  @Override
+  protected InputStream postForStream(String url, String requestStr, boolean useKey) throws WxPayException {
+    HttpResponse response = this.await(this.executeAsync(url, requestStr, useKey));
+    this.log.info("\n【请求地址】: {}\n【请求参数】：{}", url, requestStr);
+    StatusLine statusLine = response.getStatusLine();
+    if (statusLine.getStatusCode() >= 300 || response.getEntity() == null) {
+      throw new WxPayException("请求失败：" + statusLine);
+    }
+
+    try {
+      return response.getEntity().getContent();
+    } catch (IOException e) {
+      throw new WxPayException(e.getMessage(), e);
+    }
+  }
+
+  private <V> V await(ListenableFuture<V> future) throws WxPayException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new WxPayException("请求被中断", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof WxPayException) {
+        throw (WxPayException) e.getCause();
+      }
+      throw new WxPayException(e.getCause().getMessage(), e.getCause());
+    }
+  }
+
+  /**
+   * 在线程池中签名，异步发送请求，收到响应后再回到线程池中解析
+   */
+  private <T extends WxPayBaseResult> ListenableFuture<T> submit(final WxPayBaseRequest request, final String path,
+                                                                final boolean useKey, final ResultParser<T> parser) {
+    final String url = this.getPayBaseUrl() + path;
+    ListenableFuture<String> requestXml = this.executor.submit(new Callable<String>() {
+      @Override
+      public String call() throws Exception {
+        return WxPayAsyncServiceImpl.this.signToXml(request);
+      }
+    });
+
+    ListenableFuture<String> responseContent = Futures.transformAsync(requestXml, new AsyncFunction<String, String>() {
+      @Override
+      public ListenableFuture<String> apply(String requestStr) throws Exception {
+        return WxPayAsyncServiceImpl.this.postAsync(url, requestStr, useKey);
+      }
+    }, MoreExecutors.directExecutor());
+
+    return Futures.transformAsync(responseContent, new AsyncFunction<String, T>() {
+      @Override
+      public ListenableFuture<T> apply(String content) throws Exception {
+        return Futures.immediateFuture(parser.parse(content, request));
+      }
+    }, this.executor);
+  }
+
+  /**
+   * 异步发送请求，读取响应内容在线程池中进行
+   */
+  private ListenableFuture<String> postAsync(final String url, final String requestStr, boolean useKey)
+    throws WxPayException {
+    ListenableFuture<HttpResponse> response = this.executeAsync(url, requestStr, useKey);
+    return Futures.transformAsync(response, new AsyncFunction<HttpResponse, String>() {
+      @Override
+      public ListenableFuture<String> apply(HttpResponse result) throws Exception {
+        String responseString;
+        try {
+          responseString = Utf8ResponseHandler.INSTANCE.handleResponse(result);
+        } catch (IOException e) {
+          WxPayAsyncServiceImpl.this.log.error("\n【请求地址】: {}\n【请求参数】：{}\n【异常信息】：{}", url, requestStr, e.getMessage());
+          throw new WxPayException(e.getMessage(), e);
+        }
+
+        WxPayAsyncServiceImpl.this.log.info("\n【请求地址】: {}\n【请求参数】：{}\n【响应数据】：{}", url, requestStr, responseString);
+        return Futures.immediateFuture(responseString);
+      }
+    }, this.executor);
+  }
+
+  /**
+   * 异步发送请求，回调在httpasyncclient的I/O线程中执行，只设置结果，不做其他处理。
+   * 子类可以覆盖以更换传输方式
+   */
+  protected ListenableFuture<HttpResponse> executeAsync(final String url, final String requestStr, boolean useKey)
+    throws WxPayException {
+    HttpPost httpPost = new HttpPost(url);
+    httpPost.setEntity(new StringEntity(requestStr, Consts.UTF_8));
+
+    final SettableFuture<HttpResponse> response = SettableFuture.create();
+    this.getHttpClient(useKey).execute(httpPost, new FutureCallback<HttpResponse>() {
+      @Override
+      public void completed(HttpResponse result) {
+        response.set(result);
+      }
+
+      @Override
+      public void failed(Exception e) {
+        WxPayAsyncServiceImpl.this.log.error("\n【请求地址】: {}\n【请求参数】：{}\n【异常信息】：{}", url, requestStr, e.getMessage());
+        response.setException(new WxPayException(e.getMessage(), e));
+      }
+
+      @Override
+      public void cancelled() {
+        response.cancel(false);
+      }
+    });
+    return response;
+  }
+
+  private CloseableHttpAsyncClient getHttpClient(boolean useKey) throws WxPayException {
+    CloseableHttpAsyncClient client = useKey ? this.sslHttpClient : this.httpClient;
+    if (client != null) {
+      return client;
+    }
+
+    synchronized (this) {
+      if (useKey) {
+        if (this.sslHttpClient == null) {
+          this.sslHttpClient = this.createHttpClient(true);
+        }
+        return this.sslHttpClient;
+      }
+
+      if (this.httpClient == null) {
+        this.httpClient = this.createHttpClient(false);
+      }
+      return this.httpClient;
+    }
+  }
+
+  private CloseableHttpAsyncClient createHttpClient(boolean useKey) throws WxPayException {
+    WxPayConfig config = this.getConfig();
+    HttpAsyncClientBuilder builder = HttpAsyncClients.custom()
+      .setMaxConnPerRoute(config.getHttpMaxConnPerHost())
+      .setMaxConnTotal(config.getHttpMaxTotalConn())
+      .setDefaultRequestConfig(RequestConfig.custom()
+        .setConnectTimeout(config.getHttpConnectionTimeout())
+        .setSocketTimeout(config.getHttpTimeout())
+        .build());
+
+    if (useKey) {
+      SSLContext sslContext = config.getSslContext();
+      if (null == sslContext) {
+        sslContext = config.initSSLContext();
+      }
+      builder.setSSLContext(sslContext);
+    }
+
+    CloseableHttpAsyncClient client = builder.build();
+    client.start();
+    return client;
+  }
+
+  private void closeHttpClients() {
+    IOUtils.closeQuietly(this.httpClient);
+    IOUtils.closeQuietly(this.sslHttpClient);
+    this.httpClient = null;
+    this.sslHttpClient = null;
+  }
+
+  /**
+   * 关闭httpclient，以及默认构造方法创建的线程池
+   */
+  @Override
+  public synchronized void close() {
+    this.closeHttpClients();
+    if (this.ownExecutor) {
+      this.executor.shutdown();
+    }
+  }
+
+  /**
+   * 按默认方式解析响应并校验签名，适用于大部分接口
+   */
+  private <T extends WxPayBaseResult> ResultParser<T> parser(final Class<T> resultClass) {
+    return new ResultParser<T>() {
+      @Override
+      public T parse(String responseContent, WxPayBaseRequest request) throws WxPayException {
+        return WxPayAsyncServiceImpl.this.parseResult(responseContent, resultClass, request);
+      }
+    };
+  }
+
+  /**
+   * 在线程池中解析响应内容
+   */
+  private interface ResultParser<T extends WxPayBaseResult> {
+    T parse(String responseContent, WxPayBaseRequest request) throws WxPayException;
+  }
+
+}
@@ -0,0 +1,179 @@
+package com.github.binarywang.wxpay.service.impl;
+
+import com.github.binarywang.wxpay.config.WxPayConfig;
+import com.github.binarywang.wxpay.exception.WxPayException;
+import me.chanjar.weixin.common.util.http.apache.DefaultApacheHttpClientBuilder;
+import me.chanjar.weixin.common.util.http.apache.DefaultApacheHttpClientBuilder.IdleConnectionMonitorThread;
+import me.chanjar.weixin.common.util.http.apache.Utf8ResponseHandler;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.Consts;
+import org.apache.http.HttpEntity;
+import org.apache.http.StatusLine;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+
+import javax.net.ssl.SSLContext;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * <pre>
+ * apache httpclient方式实现
+ * 普通请求和使用商户证书的请求各用一个带连接池的httpclient，连接保持复用，不再每次请求都重新进行TLS握手；
+ * 商户证书只在第一次需要时加载一次。超时时间和连接池大小见 {@link WxPayConfig}，
+ * 调用 {@link #setConfig(WxPayConfig)} 后会关闭原有的连接池，按新的配置重新创建httpclient，
+ * 此时正在进行的请求会失败。不再使用时调用 {@link #close()} 关闭连接池和闲置连接监控线程
+ * </pre>
+ */
+public class WxPayServiceApacheHttpImpl extends AbstractWxPayServiceImpl implements Closeable {
+  private volatile PooledHttpClient httpClient;
+  private volatile PooledHttpClient sslHttpClient;
+
+  @Override
+  public synchronized void setConfig(WxPayConfig config) {
+    super.setConfig(config);
+    this.closeHttpClients();
+  }
+
+  /**
+   * 关闭连接池和闲置连接监控线程，之后再发送请求会重新创建
+   */
+  @Override
+  public synchronized void close() {
+    this.closeHttpClients();
+  }
+
+  private void closeHttpClients() {
+    if (this.httpClient != null) {
+      this.httpClient.close();
+      this.httpClient = null;
+    }
+    if (this.sslHttpClient != null) {
+      this.sslHttpClient.close();
+      this.sslHttpClient = null;
+    }
+  }
+
+  @Override
+  protected String post(String url, String requestStr, boolean useKey) throws WxPayException {
+    HttpPost httpPost = new HttpPost(url);
+    httpPost.setEntity(new StringEntity(requestStr, Consts.UTF_8));
+    try (CloseableHttpResponse response = this.getHttpClient(useKey).execute(httpPost)) {
+      String responseString = Utf8ResponseHandler.INSTANCE.handleResponse(response);
+      this.log.info("\n【请求地址】: {}\n【请求参数】：{}\n【响应数据】：{}", url, requestStr, responseString);
+      return responseString;
+    } catch (IOException e) {
+      this.log.error("\n【请求地址】: {}\n【请求参数】：{}\n【异常信息】：{}", url, requestStr, e.getMessage());
+      throw new WxPayException(e.getMessage(), e);
+    } finally {
+      httpPost.releaseConnection();
+    }
+  }
+
+  @Override
+  protected InputStream postForStream(String url, String requestStr, boolean useKey) throws WxPayException {
+    HttpPost httpPost = new HttpPost(url);
+    httpPost.setEntity(new StringEntity(requestStr, Consts.UTF_8));
+    this.log.info("\n【请求地址】: {}\n【请求参数】：{}", url, requestStr);
+    final CloseableHttpResponse response;
+    try {
+      response = this.getHttpClient(useKey).execute(httpPost);
+    } catch (IOException e) {
+      this.log.error("\n【请求地址】: {}\n【请求参数】：{}\n【异常信息】：{}", url, requestStr, e.getMessage());
+      throw new WxPayException(e.getMessage(), e);
+    }
+
+    StatusLine statusLine = response.getStatusLine();
+    HttpEntity entity = response.getEntity();
+    if (statusLine.getStatusCode() >= 300 || entity == null) {
+      IOUtils.closeQuietly(response);
+      throw new WxPayException("请求失败：" + statusLine);
+    }
+
+    try {
+      // 关闭流时释放连接，连接回到连接池
+      return new FilterInputStream(entity.getContent()) {
+        @Override
+        public void close() throws IOException {
+          try {
+            super.close();
+          } finally {
+            response.close();
+          }
+        }
+      };
+    } catch (IOException e) {
+      IOUtils.closeQuietly(response);
+      throw new WxPayException(e.getMessage(), e);
+    }
+  }
+
+  private CloseableHttpClient getHttpClient(boolean useKey) throws WxPayException {
+    PooledHttpClient client = useKey ? this.sslHttpClient : this.httpClient;
+    if (client != null) {
+      return client.client;
+    }
+
+    synchronized (this) {
+      if (useKey) {
+        if (this.sslHttpClient == null) {
+          this.sslHttpClient = this.createHttpClient(true);
+        }
+        return this.sslHttpClient.client;
+      }
+
+      if (this.httpClient == null) {
+        this.httpClient = this.createHttpClient(false);
+      }
+      return this.httpClient.client;
+    }
+  }
+
+  private PooledHttpClient createHttpClient(boolean useKey) throws WxPayException {
+    WxPayConfig config = this.getConfig();
+    DefaultApacheHttpClientBuilder builder = DefaultApacheHttpClientBuilder.get();
+    builder.setConnectionTimeout(config.getHttpConnectionTimeout());
+    builder.setSoTimeout(config.getHttpTimeout());
+    builder.setMaxConnPerHost(config.getHttpMaxConnPerHost());
+    builder.setMaxTotalConn(config.getHttpMaxTotalConn());
+
+    if (useKey) {
+      SSLContext sslContext = config.getSslContext();
+      if (null == sslContext) {
+        sslContext = config.initSSLContext();
+      }
+      builder.sslConnectionSocketFactory(new SSLConnectionSocketFactory(sslContext));
+    }
+
+    CloseableHttpClient client = builder.build();
+    return new PooledHttpClient(client, builder.getIdleConnectionMonitorThread());
+  }
+
+  /**
+   * httpclient和它独占的连接池、闲置连接监控线程
+   */
+  private static class PooledHttpClient {
+    private final CloseableHttpClient client;
+    private final IdleConnectionMonitorThread monitor;
+
+    PooledHttpClient(CloseableHttpClient client, IdleConnectionMonitorThread monitor) {
+      this.client = client;
+      this.monitor = monitor;
+    }
+
+    /**
+     * 连接池是共享模式，关闭httpclient不会关闭连接池，需要单独关闭
+     */
+    void close() {
+      IOUtils.closeQuietly(this.client);
+      this.monitor.shutdown();
+      this.monitor.getConnectionManager().shutdown();
+    }
+  }
+
+}
@@ -0,0 +1,102 @@
+package com.github.binarywang.wxpay.service.impl;
+
+import com.github.binarywang.wxpay.config.WxPayConfig;
+import com.github.binarywang.wxpay.exception.WxPayException;
+import jodd.http.HttpRequest;
+import jodd.http.HttpResponse;
+import jodd.http.net.SSLSocketHttpConnectionProvider;
+import org.apache.commons.lang3.CharEncoding;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.net.ssl.SSLContext;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * <pre>
+ * jodd-http方式实现，jodd-http没有连接池，每次请求都会新建连接
+ * 使用商户证书的连接提供者只在第一次需要时创建一次
+ * </pre>
+ */
+public class WxPayServiceJoddHttpImpl extends AbstractWxPayServiceImpl {
+  private SSLSocketHttpConnectionProvider sslConnectionProvider;
+
+  @Override
+  public synchronized void setConfig(WxPayConfig config) {
+    super.setConfig(config);
+    this.sslConnectionProvider = null;
+  }
+
+  @Override
+  protected String post(String url, String requestStr, boolean useKey) throws WxPayException {
+    try {
+      String responseString = this.getResponseString(this.send(url, requestStr, useKey));
+
+      this.log.info("\n【请求地址】: {}\n【请求参数】：{}\n【响应数据】：{}", url, requestStr, responseString);
+      return responseString;
+    } catch (WxPayException e) {
+      throw e;
+    } catch (Exception e) {
+      this.log.error("\n【请求地址】: {}\n【请求参数】：{}\n【异常信息】：{}", url, requestStr, e.getMessage());
+      throw new WxPayException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * jodd-http会把响应内容全部读入内存，这里只是把原始字节包装成流
+   */
+  @Override
+  protected InputStream postForStream(String url, String requestStr, boolean useKey) throws WxPayException {
+    try {
+      HttpResponse response = this.send(url, requestStr, useKey);
+      this.log.info("\n【请求地址】: {}\n【请求参数】：{}", url, requestStr);
+      return new ByteArrayInputStream(response.body().getBytes(CharEncoding.ISO_8859_1));
+    } catch (WxPayException e) {
+      throw e;
+    } catch (Exception e) {
+      this.log.error("\n【请求地址】: {}\n【请求参数】：{}\n【异常信息】：{}", url, requestStr, e.getMessage());
+      throw new WxPayException(e.getMessage(), e);
+    }
+  }
+
+  private HttpResponse send(String url, String requestStr, boolean useKey) throws WxPayException,
+    UnsupportedEncodingException {
+    HttpRequest request = HttpRequest.post(url)
+      .connectionTimeout(this.getConfig().getHttpConnectionTimeout())
+      .timeout(this.getConfig().getHttpTimeout());
+    if (useKey) {
+      request.withConnectionProvider(this.getSslConnectionProvider()).bodyText(requestStr);
+    } else {
+      request.body(new String(requestStr.getBytes(CharEncoding.UTF_8), CharEncoding.ISO_8859_1));
+    }
+    return request.send();
+  }
+
+  private synchronized SSLSocketHttpConnectionProvider getSslConnectionProvider() throws WxPayException {
+    if (this.sslConnectionProvider == null) {
+      SSLContext sslContext = this.getConfig().getSslContext();
+      if (null == sslContext) {
+        sslContext = this.getConfig().initSSLContext();
+      }
+      this.sslConnectionProvider = new SSLSocketHttpConnectionProvider(sslContext);
+    }
+    return this.sslConnectionProvider;
+  }
+
+  private String getResponseString(HttpResponse response) {
+    this.log.debug("【微信服务器响应头信息】：\n{}", response.toString(false));
+
+    String responseString = response.bodyText();
+
+    if (StringUtils.isBlank(response.charset())) {
+      try {
+        responseString = new String(response.bodyText().getBytes(CharEncoding.ISO_8859_1), CharEncoding.UTF_8);
+      } catch (UnsupportedEncodingException e) {
+        e.printStackTrace();
+      }
+    }
+    return responseString;
+  }
+
+}
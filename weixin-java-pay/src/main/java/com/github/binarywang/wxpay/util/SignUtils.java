@@ -1,22 +1,55 @@
 package com.github.binarywang.wxpay.util;
 
-import me.chanjar.weixin.common.util.BeanUtils;
-import org.apache.commons.codec.digest.DigestUtils;
+import com.github.binarywang.wxpay.constant.WxPayConstants.SignType;
+import me.chanjar.weixin.common.util.XmlBeanAccessor;
 import org.apache.commons.lang3.StringUtils;
 
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.SortedMap;
-import java.util.TreeMap;
 
 /**
  * <pre>
  * 签名相关工具类
+ * 支持MD5和HMAC-SHA256两种签名类型，每个线程缓存一个MessageDigest，以及按商户密钥初始化好的Mac，
+ * 参数逐个写入摘要，不再拼接待签名字符串，结果直接编码为大写十六进制
  * Created by Binary Wang on 2017-3-23.
  * @author <a href="https://github.com/binarywang">binarywang(Binary Wang)</a>
  * </pre>
  */
 public class SignUtils {
 
+  /**
+   * 每个线程最多缓存的HMAC-SHA256商户密钥数量
+   */
+  private static final int MAX_CACHED_MAC_KEYS = 16;
+
+  private static final char[] HEX_CHARS = "0123456789ABCDEF".toCharArray();
+
+  private static final byte[] KEY_PREFIX = "key=".getBytes(StandardCharsets.UTF_8);
+
+  private static final Comparator<Map.Entry<String, String>> KEY_ORDER = new Comparator<Map.Entry<String, String>>() {
+    @Override
+    public int compare(Map.Entry<String, String> o1, Map.Entry<String, String> o2) {
+      return o1.getKey().compareTo(o2.getKey());
+    }
+  };
+
+  private static final ThreadLocal<Signer> SIGNERS = new ThreadLocal<Signer>() {
+    @Override
+    protected Signer initialValue() {
+      return new Signer();
+    }
+  };
+
   /**
    * 微信公众号支付签名算法(详见:https://pay.weixin.qq.com/wiki/doc/api/tools/cash_coupon.php?chapter=4_3)
    *
@@ -25,7 +58,27 @@ public class SignUtils {
    * @return 签名字符串
    */
   public static String createSign(Object xmlBean, String signKey) {
-    return createSign(BeanUtils.xmlBean2Map(xmlBean), signKey);
+    return createSign(xmlBean, SignType.MD5, signKey);
+  }
+
+  /**
+   * 微信支付签名算法(详见:https://pay.weixin.qq.com/wiki/doc/api/tools/cash_coupon.php?chapter=4_3)
+   *
+   * @param xmlBean  Bean需要标记有XML注解
+   * @param signType 签名类型，见 {@link SignType}，为空时使用MD5
+   * @param signKey  签名Key
+   * @return 签名字符串
+   */
+  public static String createSign(Object xmlBean, String signType, String signKey) {
+    Signer signer = SIGNERS.get().begin(signType, signKey);
+    // 属性已按元素名排好序，直接写入摘要，不需要先转换成map
+    for (XmlBeanAccessor.Property property : XmlBeanAccessor.of(xmlBean.getClass()).getSortedProperties()) {
+      Object value = property.get(xmlBean);
+      if (value != null) {
+        signer.append(property.getName(), value.toString());
+      }
+    }
+    return signer.finish(signKey);
   }
 
   /**
@@ -43,18 +96,28 @@ public class SignUtils {
 //      //return "ABCDEFGHIJKLMNOPQRSTUVWXYZ123456";
 //    }
 
-    SortedMap<String, String> sortedMap = new TreeMap<>(params);
+    return createSign(params, SignType.MD5, signKey);
+  }
 
-    StringBuilder toSign = new StringBuilder();
-    for (String key : sortedMap.keySet()) {
-      String value = params.get(key);
-      if (StringUtils.isNotEmpty(value) && !"sign".equals(key) && !"key".equals(key)) {
-        toSign.append(key).append("=").append(value).append("&");
-      }
-    }
+  /**
+   * 微信支付签名算法(详见:https://pay.weixin.qq.com/wiki/doc/api/tools/cash_coupon.php?chapter=4_3)
+   *
+   * @param params   参数信息
+   * @param signType 签名类型，见 {@link SignType}，为空时使用MD5
+   * @param signKey  签名Key
+   * @return 签名字符串
+   */
+  @SuppressWarnings("unchecked")
+  public static String createSign(Map<String, String> params, String signType, String signKey) {
+    // 只对entry数组排序，不再复制成TreeMap后再逐个查找
+    Map.Entry<String, String>[] entries = params.entrySet().toArray(new Map.Entry[params.size()]);
+    Arrays.sort(entries, KEY_ORDER);
 
-    toSign.append("key=").append(signKey);
-    return DigestUtils.md5Hex(toSign.toString()).toUpperCase();
+    Signer signer = SIGNERS.get().begin(signType, signKey);
+    for (Map.Entry<String, String> entry : entries) {
+      signer.append(entry.getKey(), entry.getValue());
+    }
+    return signer.finish(signKey);
   }
 
   /**
@@ -66,7 +129,25 @@ public class SignUtils {
    * @see #checkSign(Map, String)
    */
   public static boolean checkSign(Object xmlBean, String signKey) {
-    return checkSign(BeanUtils.xmlBean2Map(xmlBean), signKey);
+    return checkSign(xmlBean, SignType.MD5, signKey);
+  }
+
+  /**
+   * 校验签名是否正确
+   *
+   * @param xmlBean  Bean需要标记有XML注解
+   * @param signType 签名类型，见 {@link SignType}，为空时使用MD5
+   * @param signKey  校验的签名Key
+   * @return true - 签名校验成功，false - 签名校验失败或不支持的签名类型
+   */
+  public static boolean checkSign(Object xmlBean, String signType, String signKey) {
+    if (!isSupported(signType)) {
+      return false;
+    }
+
+    XmlBeanAccessor.Property signProperty = XmlBeanAccessor.of(xmlBean.getClass()).getProperty("sign");
+    Object sign = signProperty == null ? null : signProperty.get(xmlBean);
+    return sign != null && signEquals(createSign(xmlBean, signType, signKey), sign.toString());
   }
 
   /**
@@ -78,7 +159,148 @@ public class SignUtils {
    * @see #checkSign(Map, String)
    */
   public static boolean checkSign(Map<String, String> params, String signKey) {
-    String sign = createSign(params, signKey);
-    return sign.equals(params.get("sign"));
+    return checkSign(params, SignType.MD5, signKey);
+  }
+
+  /**
+   * 校验签名是否正确
+   *
+   * @param params   需要校验的参数Map
+   * @param signType 签名类型，见 {@link SignType}，为空时使用MD5
+   * @param signKey  校验的签名Key
+   * @return true - 签名校验成功，false - 签名校验失败或不支持的签名类型
+   */
+  public static boolean checkSign(Map<String, String> params, String signType, String signKey) {
+    if (!isSupported(signType)) {
+      return false;
+    }
+
+    String sign = params.get("sign");
+    return sign != null && signEquals(createSign(params, signType, signKey), sign);
   }
+
+  /**
+   * 是否是支持的签名类型，为空时按MD5
+   */
+  private static boolean isSupported(String signType) {
+    return StringUtils.isEmpty(signType) || SignType.MD5.equals(signType) || SignType.HMAC_SHA256.equals(signType);
+  }
+
+  /**
+   * 比较时间与签名内容无关
+   */
+  private static boolean signEquals(String expected, String actual) {
+    if (expected.length() != actual.length()) {
+      return false;
+    }
+    int diff = 0;
+    for (int i = 0; i < expected.length(); i++) {
+      diff |= expected.charAt(i) ^ actual.charAt(i);
+    }
+    return diff == 0;
+  }
+
+  /**
+   * 当前线程的签名器，不能被多个线程共享
+   */
+  private static final class Signer {
+    private final MessageDigest md5;
+    private final Map<String, Mac> macs = new LinkedHashMap<String, Mac>(MAX_CACHED_MAC_KEYS, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Mac> eldest) {
+        return this.size() > MAX_CACHED_MAC_KEYS;
+      }
+    };
+    private final byte[] result = new byte[32];
+    private final char[] hex = new char[64];
+
+    /**
+     * 本次签名使用的Mac，MD5签名时为null
+     */
+    private Mac mac;
+
+    Signer() {
+      try {
+        this.md5 = MessageDigest.getInstance("MD5");
+      } catch (GeneralSecurityException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    Signer begin(String signType, String signKey) {
+      if (StringUtils.isEmpty(signType) || SignType.MD5.equals(signType)) {
+        this.mac = null;
+        this.md5.reset();
+      } else if (SignType.HMAC_SHA256.equals(signType)) {
+        this.mac = this.mac(signKey);
+        this.mac.reset();
+      } else {
+        throw new IllegalArgumentException("不支持的签名类型：" + signType);
+      }
+      return this;
+    }
+
+    private Mac mac(String signKey) {
+      Mac mac = this.macs.get(signKey);
+      if (mac == null) {
+        try {
+          mac = Mac.getInstance("HmacSHA256");
+          mac.init(new SecretKeySpec(signKey.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        } catch (GeneralSecurityException e) {
+          throw new IllegalStateException(e);
+        }
+        this.macs.put(signKey, mac);
+      }
+      return mac;
+    }
+
+    void append(String key, String value) {
+      if (StringUtils.isNotEmpty(value) && !"sign".equals(key) && !"key".equals(key)) {
+        this.update(key.getBytes(StandardCharsets.UTF_8));
+        this.update((byte) '=');
+        this.update(value.getBytes(StandardCharsets.UTF_8));
+        this.update((byte) '&');
+      }
+    }
+
+    String finish(String signKey) {
+      this.update(KEY_PREFIX);
+      this.update(signKey.getBytes(StandardCharsets.UTF_8));
+
+      int length;
+      try {
+        if (this.mac == null) {
+          length = this.md5.digest(this.result, 0, this.result.length);
+        } else {
+          length = this.mac.getMacLength();
+          this.mac.doFinal(this.result, 0);
+        }
+      } catch (DigestException | ShortBufferException e) {
+        throw new IllegalStateException(e);
+      }
+
+      for (int i = 0; i < length; i++) {
+        this.hex[i * 2] = HEX_CHARS[(this.result[i] >> 4) & 0x0f];
+        this.hex[i * 2 + 1] = HEX_CHARS[this.result[i] & 0x0f];
+      }
+      return new String(this.hex, 0, length * 2);
+    }
+
+    private void update(byte[] bytes) {
+      if (this.mac == null) {
+        this.md5.update(bytes);
+      } else {
+        this.mac.update(bytes);
+      }
+    }
+
+    private void update(byte b) {
+      if (this.mac == null) {
+        this.md5.update(b);
+      } else {
+        this.mac.update(b);
+      }
+    }
+  }
+
 }
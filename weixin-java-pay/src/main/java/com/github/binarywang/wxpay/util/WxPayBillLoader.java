@@ -0,0 +1,379 @@
+package com.github.binarywang.wxpay.util;
+
+import com.github.binarywang.wxpay.bean.result.WxPayBillResult;
+import com.github.binarywang.wxpay.util.WxPayBillTable.AmountColumn;
+import com.github.binarywang.wxpay.util.WxPayBillTable.CategoryColumn;
+import com.github.binarywang.wxpay.util.WxPayBillTable.TextColumn;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * <pre>
+ * 对账单并行加载器，把已下载的对账单加载为按列存储的 {@link WxPayBillTable}
+ * 文件通过内存映射读取，按行边界切分成若干块，在ForkJoinPool中并行解析，最后按原顺序合并；
+ * 直接解析字节，金额、交易时间不经过字符串转换，字典编码的字段只在第一次出现时创建字符串
+ *
+ * 只支持未压缩的对账单，gzip压缩的账单需要先解压；不需要全部加载到内存时请使用 {@link WxPayBillReader}
+ * </pre>
+ */
+public class WxPayBillLoader {
+
+  private static final int MIN_CHUNK_SIZE = 1024 * 1024;
+
+  private static final byte[] SUMMARY_TITLE = "总交易单数".getBytes(StandardCharsets.UTF_8);
+
+  /**
+   * 每行的字段数
+   */
+  private static final int FIELD_COUNT = 24;
+
+  private static class PoolHolder {
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+  }
+
+  /**
+   * 使用默认的ForkJoinPool（线程数与cpu核数相同）加载对账单文件
+   */
+  public static WxPayBillTable load(Path file) throws IOException {
+    return load(file, PoolHolder.POOL);
+  }
+
+  public static WxPayBillTable load(Path file, ForkJoinPool pool) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("对账单文件超过2G，请使用WxPayBillReader逐行读取");
+      }
+      return load(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), pool);
+    }
+  }
+
+  /**
+   * 使用默认的ForkJoinPool加载对账单内容，读取范围为buffer的position到limit，不改变buffer的position
+   */
+  public static WxPayBillTable load(ByteBuffer buffer) {
+    return load(buffer, PoolHolder.POOL);
+  }
+
+  public static WxPayBillTable load(ByteBuffer buffer, ForkJoinPool pool) {
+    int start = buffer.position();
+    int end = buffer.limit();
+    if (end - start >= 2 && buffer.get(start) == (byte) 0x1f && buffer.get(start + 1) == (byte) 0x8b) {
+      throw new IllegalArgumentException("gzip压缩的对账单需要先解压");
+    }
+
+    // 表头
+    if (end - start >= 3 && buffer.get(start) == (byte) 0xef && buffer.get(start + 1) == (byte) 0xbb
+      && buffer.get(start + 2) == (byte) 0xbf) {
+      start += 3;
+    }
+    int headerEnd = indexOf(buffer, (byte) '\n', start, end);
+    String header = headerEnd < 0 ? null : decode(buffer, start, lineEnd(buffer, start, headerEnd));
+    int dataStart = headerEnd < 0 ? end : headerEnd + 1;
+
+    // 汇总数据在最后几行
+    int summaryStart = findSummary(buffer, dataStart, end);
+    int dataEnd = summaryStart < 0 ? end : summaryStart;
+
+    int parallelism = pool.getParallelism();
+    int chunkSize = Math.max(MIN_CHUNK_SIZE, (dataEnd - dataStart) / (parallelism * 4) + 1);
+    List<ChunkTask> tasks = new ArrayList<>();
+    int chunkStart = dataStart;
+    while (chunkStart < dataEnd) {
+      int chunkEnd = chunkStart + chunkSize;
+      if (chunkEnd >= dataEnd) {
+        chunkEnd = dataEnd;
+      } else {
+        int newline = indexOf(buffer, (byte) '\n', chunkEnd, dataEnd);
+        chunkEnd = newline < 0 ? dataEnd : newline + 1;
+      }
+      tasks.add(new ChunkTask(buffer.duplicate(), chunkStart, chunkEnd));
+      chunkStart = chunkEnd;
+    }
+
+    final List<ChunkTask> chunks = tasks;
+    List<WxPayBillTable> parts = pool.invoke(new RecursiveTask<List<WxPayBillTable>>() {
+      @Override
+      protected List<WxPayBillTable> compute() {
+        ForkJoinTask.invokeAll(chunks);
+        List<WxPayBillTable> results = new ArrayList<>(chunks.size());
+        for (ChunkTask chunk : chunks) {
+          results.add(chunk.join());
+        }
+        return results;
+      }
+    });
+
+    WxPayBillTable table = parts.size() == 1 ? parts.get(0) : WxPayBillTable.concat(parts);
+    table.setHeader(header);
+    if (summaryStart >= 0) {
+      table.setSummary(parseSummary(buffer, summaryStart, end));
+    }
+    return table;
+  }
+
+  /**
+   * 从后往前查找汇总表头所在行的起始位置，没有时返回-1
+   */
+  private static int findSummary(ByteBuffer buffer, int start, int end) {
+    int lineEnd = end;
+    // 汇总表头之后只有一行汇总数据，最多再往前看几行
+    for (int lines = 0; lines < 4 && lineEnd > start; lines++) {
+      int lineStart = lastIndexOf(buffer, (byte) '\n', start, lineEnd - 1) + 1;
+      if (lineStart == 0) {
+        lineStart = start;
+      }
+      if (startsWith(buffer, lineStart, end, SUMMARY_TITLE)) {
+        return lineStart;
+      }
+      lineEnd = lineStart - 1;
+    }
+    return -1;
+  }
+
+  private static WxPayBillResult parseSummary(ByteBuffer buffer, int start, int end) {
+    int titleEnd = indexOf(buffer, (byte) '\n', start, end);
+    int position = titleEnd < 0 ? end : titleEnd + 1;
+    while (position < end) {
+      int newline = indexOf(buffer, (byte) '\n', position, end);
+      int lineEnd = lineEnd(buffer, position, newline < 0 ? end : newline);
+      if (lineEnd > position && buffer.get(position) == '`') {
+        String[] fields = decode(buffer, position + 1, lineEnd).split(",`");
+        WxPayBillResult result = new WxPayBillResult();
+        result.setTotalRecord(fields.length > 0 ? fields[0] : null);
+        result.setTotalFee(fields.length > 1 ? fields[1] : null);
+        result.setTotalRefundFee(fields.length > 2 ? fields[2] : null);
+        result.setTotalCouponFee(fields.length > 3 ? fields[3] : null);
+        result.setTotalPoundageFee(fields.length > 4 ? fields[4] : null);
+        return result;
+      }
+      position = newline < 0 ? end : newline + 1;
+    }
+    return null;
+  }
+
+  /**
+   * 解析一块完整的行，先整块复制到数组中再解析，比逐字节读取ByteBuffer快得多
+   */
+  private static class ChunkTask extends RecursiveTask<WxPayBillTable> {
+    private static final long serialVersionUID = 1L;
+
+    private final transient ByteBuffer buffer;
+    private final int start;
+    private final int end;
+    private final int[] fieldStarts = new int[FIELD_COUNT];
+    private final int[] fieldEnds = new int[FIELD_COUNT];
+    private byte[] data;
+
+    ChunkTask(ByteBuffer buffer, int start, int end) {
+      this.buffer = buffer;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected WxPayBillTable compute() {
+      this.data = new byte[this.end - this.start];
+      // 转为Buffer调用，避免在jdk9及以上编译后运行于jdk7/8时找不到ByteBuffer.position(int)
+      ((Buffer) this.buffer).position(this.start);
+      this.buffer.get(this.data);
+
+      // 按每行约300字节估算行数
+      WxPayBillTable table = new WxPayBillTable(this.data.length / 300 + 1);
+      int position = 0;
+      while (position < this.data.length) {
+        int newline = indexOf(this.data, (byte) '\n', position, this.data.length);
+        int next = newline < 0 ? this.data.length : newline + 1;
+        int lineEnd = newline < 0 ? this.data.length : newline;
+        if (lineEnd > position && this.data[lineEnd - 1] == '\r') {
+          lineEnd--;
+        }
+        if (lineEnd > position && this.data[position] == '`') {
+          this.parseLine(table, position + 1, lineEnd);
+        }
+        position = next;
+      }
+      this.data = null;
+      return table;
+    }
+
+    private void parseLine(WxPayBillTable table, int start, int end) {
+      int count = this.split(start, end);
+      int row = table.addRow();
+      table.setTradeTime(row, count > 0 ? this.parseTime(0) : 0);
+      this.category(table, row, count, 1, CategoryColumn.APP_ID);
+      this.category(table, row, count, 2, CategoryColumn.MCH_ID);
+      this.category(table, row, count, 3, CategoryColumn.SUB_MCH_ID);
+      this.category(table, row, count, 4, CategoryColumn.DEVICE_INFO);
+      this.text(table, row, count, 5, TextColumn.TRANSACTION_ID);
+      this.text(table, row, count, 6, TextColumn.OUT_TRADE_NO);
+      this.text(table, row, count, 7, TextColumn.OPEN_ID);
+      this.category(table, row, count, 8, CategoryColumn.TRADE_TYPE);
+      this.category(table, row, count, 9, CategoryColumn.TRADE_STATE);
+      this.category(table, row, count, 10, CategoryColumn.BANK_TYPE);
+      this.category(table, row, count, 11, CategoryColumn.FEE_TYPE);
+      this.amount(table, row, count, 12, AmountColumn.TOTAL_FEE);
+      this.amount(table, row, count, 13, AmountColumn.COUPON_FEE);
+      this.text(table, row, count, 14, TextColumn.REFUND_ID);
+      this.text(table, row, count, 15, TextColumn.OUT_REFUND_NO);
+      this.amount(table, row, count, 16, AmountColumn.SETTLEMENT_REFUND_FEE);
+      this.amount(table, row, count, 17, AmountColumn.COUPON_REFUND_FEE);
+      this.category(table, row, count, 18, CategoryColumn.REFUND_CHANNEL);
+      this.category(table, row, count, 19, CategoryColumn.REFUND_STATE);
+      this.text(table, row, count, 20, TextColumn.BODY);
+      this.text(table, row, count, 21, TextColumn.ATTACH);
+      this.amount(table, row, count, 22, AmountColumn.POUNDAGE);
+      this.category(table, row, count, 23, CategoryColumn.POUNDAGE_RATE);
+    }
+
+    /**
+     * 按",`"切分，字段内容本身包含逗号时不会被拆开，超出的字段忽略
+     *
+     * @return 字段数
+     */
+    private int split(int start, int end) {
+      byte[] data = this.data;
+      int count = 0;
+      int fieldStart = start;
+      for (int i = start; i < end - 1 && count < FIELD_COUNT; i++) {
+        if (data[i] == ',' && data[i + 1] == '`') {
+          this.fieldStarts[count] = fieldStart;
+          this.fieldEnds[count++] = i;
+          fieldStart = i + 2;
+          i++;
+        }
+      }
+      if (count < FIELD_COUNT) {
+        this.fieldStarts[count] = fieldStart;
+        this.fieldEnds[count++] = end;
+      }
+      return count;
+    }
+
+    private void category(WxPayBillTable table, int row, int count, int index, CategoryColumn column) {
+      if (index < count) {
+        table.set(column, row, this.data, this.fieldStarts[index], this.fieldEnds[index] - this.fieldStarts[index]);
+      }
+    }
+
+    private void text(WxPayBillTable table, int row, int count, int index, TextColumn column) {
+      if (index < count) {
+        int length = this.fieldEnds[index] - this.fieldStarts[index];
+        table.set(column, row, length == 0 ? "" : new String(this.data, this.fieldStarts[index], length, StandardCharsets.UTF_8));
+      }
+    }
+
+    private void amount(WxPayBillTable table, int row, int count, int index, AmountColumn column) {
+      if (index < count) {
+        table.set(column, row, parseAmount(this.data, this.fieldStarts[index], this.fieldEnds[index], column.getScale()));
+      }
+    }
+
+    /**
+     * yyyy-MM-dd HH:mm:ss 转换为 yyyyMMddHHmmss
+     */
+    private long parseTime(int index) {
+      long time = 0;
+      for (int i = this.fieldStarts[index]; i < this.fieldEnds[index]; i++) {
+        byte b = this.data[i];
+        if (b >= '0' && b <= '9') {
+          time = time * 10 + (b - '0');
+        }
+      }
+      return time;
+    }
+  }
+
+  /**
+   * 把小数形式的金额转换为long，例如scale为2时"12.3"转换为1230
+   */
+  static long parseAmount(byte[] data, int start, int end, int scale) {
+    long value = 0;
+    boolean negative = false;
+    int decimals = -1;
+    for (int i = start; i < end; i++) {
+      byte b = data[i];
+      if (b >= '0' && b <= '9') {
+        if (decimals == scale) {
+          continue;
+        }
+        value = value * 10 + (b - '0');
+        if (decimals >= 0) {
+          decimals++;
+        }
+      } else if (b == '.' && decimals < 0) {
+        decimals = 0;
+      } else if (b == '-' && i == start) {
+        negative = true;
+      } else {
+        throw new IllegalArgumentException("对账单金额格式错误：" + new String(data, start, end - start, StandardCharsets.UTF_8));
+      }
+    }
+    for (int i = Math.max(decimals, 0); i < scale; i++) {
+      value *= 10;
+    }
+    return negative ? -value : value;
+  }
+
+  private static int indexOf(byte[] data, byte b, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (data[i] == b) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int lineEnd(ByteBuffer buffer, int start, int newline) {
+    return newline > start && buffer.get(newline - 1) == '\r' ? newline - 1 : newline;
+  }
+
+  private static int indexOf(ByteBuffer buffer, byte b, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (buffer.get(i) == b) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int lastIndexOf(ByteBuffer buffer, byte b, int start, int end) {
+    for (int i = end - 1; i >= start; i--) {
+      if (buffer.get(i) == b) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean startsWith(ByteBuffer buffer, int start, int end, byte[] prefix) {
+    if (end - start < prefix.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (buffer.get(start + i) != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String decode(ByteBuffer buffer, int start, int end) {
+    byte[] bytes = new byte[end - start];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = buffer.get(start + i);
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+}
@@ -0,0 +1,241 @@
+package com.github.binarywang.wxpay.util;
+
+import com.github.binarywang.wxpay.bean.result.WxPayBillBaseResult;
+import com.github.binarywang.wxpay.bean.result.WxPayBillResult;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * <pre>
+ * 对账单流式解析器，从输入流中逐行读取，每次只解析一行，内存占用与账单大小无关
+ * 输入流是gzip压缩包（下载时tar_type为GZIP）时自动解压
+ *
+ * 账单格式：第一行为表头，之后每行一条记录，每个字段以`开头、以逗号分隔，
+ * 记录之后是汇总表头（总交易单数,总交易额,...）和一行汇总数据。
+ * 字段按",`"切分，字段内容本身包含逗号时不会被拆开
+ *
+ * 用法：
+ *   try (WxPayBillReader reader = new WxPayBillReader(inputStream)) {
+ *     while (reader.hasNext()) {
+ *       WxPayBillBaseResult record = reader.next();
+ *       ...
+ *     }
+ *     WxPayBillResult summary = reader.getSummary();
+ *   }
+ * 不是线程安全的
+ * </pre>
+ */
+public class WxPayBillReader implements Iterator<WxPayBillBaseResult>, Closeable {
+
+  private static final String SUMMARY_TITLE = "总交易单数";
+
+  private final BufferedReader reader;
+  private String[] header;
+  private String[] fields = new String[32];
+  private int fieldCount;
+  private WxPayBillBaseResult next;
+  private WxPayBillResult summary;
+  private long recordCount;
+  private boolean finished;
+
+  /**
+   * @param in 对账单内容，为gzip压缩包时自动解压，使用完后由 {@link #close()} 关闭
+   */
+  public WxPayBillReader(InputStream in) throws IOException {
+    InputStream input = in.markSupported() ? in : new BufferedInputStream(in);
+    input.mark(2);
+    int b1 = input.read();
+    int b2 = input.read();
+    input.reset();
+    if (b1 == 0x1f && b2 == 0x8b) {
+      input = new GZIPInputStream(input, 8192);
+    }
+    this.reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8), 64 * 1024);
+  }
+
+  /**
+   * 表头中的字段名称，还没有读到时为null
+   */
+  public String[] getHeader() throws IOException {
+    this.readHeader();
+    return this.header == null ? null : this.header.clone();
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (this.next == null && !this.finished) {
+      try {
+        this.next = this.readRecord();
+      } catch (IOException e) {
+        throw new IllegalStateException("读取对账单失败", e);
+      }
+    }
+    return this.next != null;
+  }
+
+  @Override
+  public WxPayBillBaseResult next() {
+    if (!this.hasNext()) {
+      throw new NoSuchElementException();
+    }
+    WxPayBillBaseResult result = this.next;
+    this.next = null;
+    return result;
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException("remove");
+  }
+
+  /**
+   * 已读取的记录条数
+   */
+  public long getRecordCount() {
+    return this.recordCount;
+  }
+
+  /**
+   * <pre>
+   * 账单末尾的汇总数据，不包含明细列表
+   * 会先跳过还没有读取的记录，账单中没有汇总数据时返回null
+   * </pre>
+   */
+  public WxPayBillResult getSummary() throws IOException {
+    while (!this.finished) {
+      this.next = null;
+      this.readRecord();
+    }
+    return this.summary;
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.reader.close();
+  }
+
+  private void readHeader() throws IOException {
+    if (this.header != null || this.finished) {
+      return;
+    }
+
+    String line = this.reader.readLine();
+    if (line == null) {
+      this.finished = true;
+      return;
+    }
+    if (!line.isEmpty() && line.charAt(0) == '\uFEFF') {
+      line = line.substring(1);
+    }
+    this.header = line.split(",");
+  }
+
+  private WxPayBillBaseResult readRecord() throws IOException {
+    this.readHeader();
+    String line;
+    while (!this.finished && (line = this.reader.readLine()) != null) {
+      if (line.startsWith(SUMMARY_TITLE)) {
+        this.readSummary();
+        break;
+      }
+      if (line.isEmpty() || line.charAt(0) != '`') {
+        continue;
+      }
+
+      this.split(line);
+      this.recordCount++;
+      return this.toRecord();
+    }
+    this.finished = true;
+    return null;
+  }
+
+  private void readSummary() throws IOException {
+    String line;
+    while ((line = this.reader.readLine()) != null) {
+      if (!line.isEmpty() && line.charAt(0) == '`') {
+        this.split(line);
+        WxPayBillResult result = new WxPayBillResult();
+        result.setTotalRecord(this.field(0));
+        result.setTotalFee(this.field(1));
+        result.setTotalRefundFee(this.field(2));
+        result.setTotalCouponFee(this.field(3));
+        result.setTotalPoundageFee(this.field(4));
+        this.summary = result;
+        return;
+      }
+    }
+  }
+
+  /**
+   * 按",`"切分一行，结果保存在复用的fields数组中
+   */
+  private void split(String line) {
+    this.fieldCount = 0;
+    int start = 1;
+    int end;
+    while ((end = line.indexOf(",`", start)) >= 0) {
+      this.addField(line.substring(start, end));
+      start = end + 2;
+    }
+    this.addField(line.substring(start));
+  }
+
+  private void addField(String field) {
+    if (this.fieldCount == this.fields.length) {
+      this.fields = Arrays.copyOf(this.fields, this.fieldCount * 2);
+    }
+    this.fields[this.fieldCount++] = field;
+  }
+
+  private String field(int index) {
+    return index < this.fieldCount ? this.fields[index] : null;
+  }
+
+  /**
+   * <pre>
+   * 字段顺序：
+   * 交易时间,公众账号ID,商户号,子商户号,设备号,微信订单号,商户订单号,用户标识,交易类型,交易状态,付款银行,货币种类,
+   * 总金额,企业红包金额,微信退款单号,商户退款单号,退款金额,企业红包退款金额,退款类型,退款状态,商品名称,商户数据包,手续费,费率
+   * </pre>
+   */
+  private WxPayBillBaseResult toRecord() {
+    WxPayBillBaseResult result = new WxPayBillBaseResult();
+    result.setTradeTime(this.field(0));
+    result.setAppId(this.field(1));
+    result.setMchId(this.field(2));
+    result.setSubMchId(this.field(3));
+    result.setDeviceInfo(this.field(4));
+    result.setTransationId(this.field(5));
+    result.setOutTradeNo(this.field(6));
+    result.setOpenId(this.field(7));
+    result.setTradeType(this.field(8));
+    result.setTradeState(this.field(9));
+    result.setBankType(this.field(10));
+    result.setFeeType(this.field(11));
+    result.setTotalFee(this.field(12));
+    result.setCouponFee(this.field(13));
+    result.setRefundId(this.field(14));
+    result.setOutRefundNo(this.field(15));
+    result.setSettlementRefundFee(this.field(16));
+    result.setCouponRefundFee(this.field(17));
+    result.setRefundChannel(this.field(18));
+    result.setRefundState(this.field(19));
+    result.setBody(this.field(20));
+    result.setAttach(this.field(21));
+    result.setPoundage(this.field(22));
+    result.setPoundageRate(this.field(23));
+    return result;
+  }
+
+}
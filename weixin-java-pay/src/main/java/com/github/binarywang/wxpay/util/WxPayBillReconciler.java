@@ -0,0 +1,547 @@
+package com.github.binarywang.wxpay.util;
+
+import com.github.binarywang.wxpay.bean.result.WxPayBillBaseResult;
+import com.github.binarywang.wxpay.util.WxPayBillTable.AmountColumn;
+import com.github.binarywang.wxpay.util.WxPayBillTable.CategoryColumn;
+import com.github.binarywang.wxpay.util.WxPayBillTable.TextColumn;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <pre>
+ * 对账单与本地订单的对账器
+ * 先把一方（对账单或本地订单，一般选记录较少的一方）全部加入索引，再逐条加入另一方，最后调用 {@link #finish()}，
+ * 发现的差异逐条交给 {@link MismatchHandler}，不会在内存中保存差异列表
+ *
+ * 索引以商户订单号为键，使用开放寻址的哈希表，订单号保存在堆外内存中，金额、状态保存在基本类型数组中，
+ * 每条索引记录约占用80字节加订单号长度，不创建任何对象；另一方的记录只在索引中累加，用完即丢弃，
+ * 因此内存占用只与索引一方的记录数有关
+ *
+ * 对账规则（金额单位均为分）：
+ * 1. 对账单中交易状态为REFUND的行是退款记录，退款金额按订单号累加，其他行是支付记录，提供订单金额和交易状态；
+ * 2. 本地订单提供订单金额、交易状态（使用微信的取值，如SUCCESS、REVOKED）和已退款金额；
+ * 3. 只在一方出现的订单号为 {@link MismatchType#MISSING_IN_BILL} 或 {@link MismatchType#MISSING_IN_LEDGER}；
+ * 4. 双方都有且对账单中有支付记录时，比较订单金额和交易状态；对账单中只有退款记录（支付在之前的账单中）时不比较；
+ * 5. 双方都有时比较退款金额。
+ * 同一订单可能同时有多种差异，每种差异单独输出一条
+ *
+ * 不是线程安全的
+ * </pre>
+ */
+public class WxPayBillReconciler {
+
+  /**
+   * 对账的一方
+   */
+  public enum Side {
+    /**
+     * 微信对账单
+     */
+    BILL,
+    /**
+     * 本地订单
+     */
+    LEDGER
+  }
+
+  public enum MismatchType {
+    /**
+     * 本地有订单，对账单中没有
+     */
+    MISSING_IN_BILL,
+    /**
+     * 对账单中有订单，本地没有
+     */
+    MISSING_IN_LEDGER,
+    /**
+     * 订单金额不一致
+     */
+    AMOUNT_DIFFERS,
+    /**
+     * 交易状态不一致
+     */
+    STATUS_DIFFERS,
+    /**
+     * 退款金额不一致
+     */
+    REFUND_DIFFERS
+  }
+
+  /**
+   * 对账差异的处理器
+   */
+  public interface MismatchHandler {
+    void handle(Mismatch mismatch);
+  }
+
+  private static final String REFUND_STATE = "REFUND";
+
+  private static final int BILL = Side.BILL.ordinal();
+  private static final int LEDGER = Side.LEDGER.ordinal();
+
+  private static final byte PRESENT = 1;
+  private static final byte PAYMENT = 2;
+
+  private static final int MAX_KEY_LENGTH = 255;
+
+  private final Side indexSide;
+  private final MismatchHandler handler;
+  private final long[] mismatchCounts = new long[MismatchType.values().length];
+
+  /**
+   * 交易状态的字典，编码从1开始，0表示没有
+   */
+  private final Map<String, Byte> stateCodes = new HashMap<>();
+  private final List<String> states = new ArrayList<>();
+
+  /**
+   * 订单号保存在堆外内存中，每个订单号之前有一个字节的长度
+   */
+  private ByteBuffer keys;
+
+  private long[] slotHashes;
+  private int[] slotEntries;
+
+  private int size;
+  private int[] keyOffsets;
+  private final long[][] totalFees = new long[2][];
+  private final long[][] refundFees = new long[2][];
+  private final byte[][] stateValues = new byte[2][];
+  private final byte[][] flags = new byte[2][];
+
+  private byte[] keyBuffer = new byte[64];
+  private boolean streaming;
+  private boolean finished;
+  private long streamedCount;
+  private long matchedCount;
+
+  /**
+   * @param indexSide    加入索引的一方，这一方的记录必须先全部加入
+   * @param expectedSize 索引一方的预计记录数，用于预先分配空间
+   * @param handler      对账差异的处理器
+   */
+  public WxPayBillReconciler(Side indexSide, int expectedSize, MismatchHandler handler) {
+    this.indexSide = indexSide;
+    this.handler = handler;
+
+    int capacity = Math.max(16, expectedSize);
+    this.keyOffsets = new int[capacity];
+    for (int side = 0; side < 2; side++) {
+      this.totalFees[side] = new long[capacity];
+      this.refundFees[side] = new long[capacity];
+      this.stateValues[side] = new byte[capacity];
+      this.flags[side] = new byte[capacity];
+    }
+    int slots = Integer.highestOneBit(Math.max(capacity * 2 - 1, 16)) * 2;
+    this.slotHashes = new long[slots];
+    this.slotEntries = new int[slots];
+    this.keys = ByteBuffer.allocateDirect(Math.max(capacity * 24, 4096));
+  }
+
+  /**
+   * 加入一条对账单记录，金额为元
+   */
+  public void addBillRecord(WxPayBillBaseResult record) {
+    this.addBillRecord(record.getOutTradeNo(), parseFen(record.getTotalFee()), record.getTradeState(),
+      parseFen(record.getSettlementRefundFee()));
+  }
+
+  /**
+   * 加入已加载的整个对账单，不需要为每行创建对象
+   */
+  public void addBillTable(WxPayBillTable table) {
+    for (int row = 0; row < table.size(); row++) {
+      this.addBillRecord(table.get(TextColumn.OUT_TRADE_NO, row), table.get(AmountColumn.TOTAL_FEE, row),
+        table.get(CategoryColumn.TRADE_STATE, row), table.get(AmountColumn.SETTLEMENT_REFUND_FEE, row));
+    }
+  }
+
+  /**
+   * 加入一条对账单记录
+   *
+   * @param outTradeNo 商户订单号
+   * @param totalFee   订单金额，单位为分，退款记录忽略
+   * @param tradeState 交易状态，REFUND表示退款记录
+   * @param refundFee  退款金额，单位为分，只对退款记录有效
+   */
+  public void addBillRecord(String outTradeNo, long totalFee, String tradeState, long refundFee) {
+    if (REFUND_STATE.equals(tradeState)) {
+      this.add(Side.BILL, outTradeNo, 0, (byte) 0, refundFee, false);
+    } else {
+      this.add(Side.BILL, outTradeNo, totalFee, this.stateCode(tradeState), 0, true);
+    }
+  }
+
+  /**
+   * 加入一条本地订单
+   *
+   * @param outTradeNo 商户订单号
+   * @param totalFee   订单金额，单位为分
+   * @param tradeState 交易状态，使用微信的取值
+   * @param refundFee  已退款金额，单位为分
+   */
+  public void addLedgerOrder(String outTradeNo, long totalFee, String tradeState, long refundFee) {
+    this.add(Side.LEDGER, outTradeNo, totalFee, this.stateCode(tradeState), refundFee, true);
+  }
+
+  /**
+   * 比较索引中的记录，输出差异，调用后不能再加入记录
+   */
+  public void finish() {
+    if (this.finished) {
+      return;
+    }
+    this.finished = true;
+
+    int index = this.indexSide.ordinal();
+    int other = 1 - index;
+    MismatchType missing = this.indexSide == Side.LEDGER ? MismatchType.MISSING_IN_BILL : MismatchType.MISSING_IN_LEDGER;
+    for (int entry = 0; entry < this.size; entry++) {
+      if ((this.flags[other][entry] & PRESENT) == 0) {
+        this.emit(missing, entry);
+        continue;
+      }
+
+      this.matchedCount++;
+      if ((this.flags[BILL][entry] & PAYMENT) != 0) {
+        if (this.totalFees[BILL][entry] != this.totalFees[LEDGER][entry]) {
+          this.emit(MismatchType.AMOUNT_DIFFERS, entry);
+        }
+        if (this.stateValues[BILL][entry] != this.stateValues[LEDGER][entry]) {
+          this.emit(MismatchType.STATUS_DIFFERS, entry);
+        }
+      }
+      if (this.refundFees[BILL][entry] != this.refundFees[LEDGER][entry]) {
+        this.emit(MismatchType.REFUND_DIFFERS, entry);
+      }
+    }
+  }
+
+  /**
+   * 索引中的订单数
+   */
+  public int getIndexedCount() {
+    return this.size;
+  }
+
+  /**
+   * 另一方加入的记录数
+   */
+  public long getStreamedCount() {
+    return this.streamedCount;
+  }
+
+  /**
+   * 双方都有的订单数，{@link #finish()} 后有效
+   */
+  public long getMatchedCount() {
+    return this.matchedCount;
+  }
+
+  public long getMismatchCount(MismatchType type) {
+    return this.mismatchCounts[type.ordinal()];
+  }
+
+  private void add(Side side, String outTradeNo, long totalFee, byte state, long refundFee, boolean payment) {
+    if (this.finished) {
+      throw new IllegalStateException("对账已结束");
+    }
+    if (outTradeNo == null || outTradeNo.isEmpty()) {
+      throw new IllegalArgumentException("商户订单号不能为空");
+    }
+
+    int length = this.encodeKey(outTradeNo);
+    long hash = hash(this.keyBuffer, length);
+    int slot = this.findSlot(hash, length);
+    int entry = this.slotEntries[slot] - 1;
+
+    if (side == this.indexSide) {
+      if (this.streaming) {
+        throw new IllegalStateException(side + "的记录必须在另一方之前全部加入");
+      }
+      if (entry < 0) {
+        entry = this.insert(slot, hash, length);
+      }
+    } else {
+      this.streaming = true;
+      this.streamedCount++;
+      if (entry < 0) {
+        // 索引中没有，直接输出
+        this.emit(side == Side.BILL ? MismatchType.MISSING_IN_LEDGER : MismatchType.MISSING_IN_BILL,
+          outTradeNo, side, totalFee, state, refundFee);
+        return;
+      }
+    }
+
+    int s = side.ordinal();
+    this.flags[s][entry] |= PRESENT;
+    if (payment) {
+      this.flags[s][entry] |= PAYMENT;
+      this.totalFees[s][entry] = totalFee;
+      this.stateValues[s][entry] = state;
+    }
+    this.refundFees[s][entry] += refundFee;
+  }
+
+  /**
+   * 查找订单号所在的位置，没有时返回可以插入的空位置
+   */
+  private int findSlot(long hash, int length) {
+    int mask = this.slotHashes.length - 1;
+    int slot = (int) hash & mask;
+    while (this.slotEntries[slot] != 0) {
+      if (this.slotHashes[slot] == hash && this.keyEquals(this.keyOffsets[this.slotEntries[slot] - 1], length)) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private boolean keyEquals(int offset, int length) {
+    if ((this.keys.get(offset) & 0xff) != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (this.keys.get(offset + 1 + i) != this.keyBuffer[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int insert(int slot, long hash, int length) {
+    if (this.size == this.keyOffsets.length) {
+      this.growEntries();
+    }
+    if (this.keys.remaining() < length + 1) {
+      this.growKeys(length + 1);
+    }
+
+    int entry = this.size++;
+    this.keyOffsets[entry] = this.keys.position();
+    this.keys.put((byte) length).put(this.keyBuffer, 0, length);
+    this.slotHashes[slot] = hash;
+    this.slotEntries[slot] = entry + 1;
+
+    if (this.size * 2 > this.slotHashes.length) {
+      this.rehash();
+    }
+    return entry;
+  }
+
+  private void growEntries() {
+    int capacity = this.keyOffsets.length * 2;
+    this.keyOffsets = Arrays.copyOf(this.keyOffsets, capacity);
+    for (int side = 0; side < 2; side++) {
+      this.totalFees[side] = Arrays.copyOf(this.totalFees[side], capacity);
+      this.refundFees[side] = Arrays.copyOf(this.refundFees[side], capacity);
+      this.stateValues[side] = Arrays.copyOf(this.stateValues[side], capacity);
+      this.flags[side] = Arrays.copyOf(this.flags[side], capacity);
+    }
+  }
+
+  private void growKeys(int required) {
+    long capacity = Math.max((long) this.keys.capacity() * 2, (long) this.keys.position() + required);
+    if (capacity > Integer.MAX_VALUE) {
+      throw new IllegalStateException("索引中的订单号超过2G，请分批对账");
+    }
+    ByteBuffer keys = ByteBuffer.allocateDirect((int) capacity);
+    // 转为Buffer调用，避免在jdk9及以上编译后运行于jdk7/8时找不到ByteBuffer.flip()
+    ((Buffer) this.keys).flip();
+    keys.put(this.keys);
+    this.keys = keys;
+  }
+
+  private void rehash() {
+    long[] oldHashes = this.slotHashes;
+    int[] oldEntries = this.slotEntries;
+    this.slotHashes = new long[oldHashes.length * 2];
+    this.slotEntries = new int[oldEntries.length * 2];
+    int mask = this.slotHashes.length - 1;
+    for (int i = 0; i < oldEntries.length; i++) {
+      if (oldEntries[i] != 0) {
+        int slot = (int) oldHashes[i] & mask;
+        while (this.slotEntries[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        this.slotHashes[slot] = oldHashes[i];
+        this.slotEntries[slot] = oldEntries[i];
+      }
+    }
+  }
+
+  /**
+   * 订单号编码到keyBuffer中，商户订单号一般只包含ASCII字符，不需要创建byte数组
+   *
+   * @return 字节数
+   */
+  private int encodeKey(String outTradeNo) {
+    int length = outTradeNo.length();
+    if (this.keyBuffer.length < length) {
+      this.keyBuffer = new byte[Math.max(length, this.keyBuffer.length * 2)];
+    }
+    for (int i = 0; i < length; i++) {
+      char c = outTradeNo.charAt(i);
+      if (c >= 0x80) {
+        byte[] bytes = outTradeNo.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_KEY_LENGTH) {
+          throw new IllegalArgumentException("商户订单号过长：" + outTradeNo);
+        }
+        this.keyBuffer = bytes.length > this.keyBuffer.length ? bytes : this.keyBuffer;
+        System.arraycopy(bytes, 0, this.keyBuffer, 0, bytes.length);
+        return bytes.length;
+      }
+      this.keyBuffer[i] = (byte) c;
+    }
+    if (length > MAX_KEY_LENGTH) {
+      throw new IllegalArgumentException("商户订单号过长：" + outTradeNo);
+    }
+    return length;
+  }
+
+  private static long hash(byte[] key, int length) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < length; i++) {
+      hash = (hash ^ key[i]) * 0x100000001b3L;
+    }
+    return hash ^ (hash >>> 32);
+  }
+
+  private byte stateCode(String state) {
+    if (state == null) {
+      return 0;
+    }
+    Byte code = this.stateCodes.get(state);
+    if (code == null) {
+      if (this.states.size() >= Byte.MAX_VALUE) {
+        throw new IllegalArgumentException("交易状态取值过多：" + state);
+      }
+      this.states.add(state);
+      code = (byte) this.states.size();
+      this.stateCodes.put(state, code);
+    }
+    return code;
+  }
+
+  private String state(byte code) {
+    return code == 0 ? null : this.states.get(code - 1);
+  }
+
+  private String key(int entry) {
+    int offset = this.keyOffsets[entry];
+    byte[] bytes = new byte[this.keys.get(offset) & 0xff];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = this.keys.get(offset + 1 + i);
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private void emit(MismatchType type, int entry) {
+    Mismatch mismatch = new Mismatch(type, this.key(entry));
+    if ((this.flags[BILL][entry] & PRESENT) != 0) {
+      mismatch.billTotalFee = this.totalFees[BILL][entry];
+      mismatch.billTradeState = this.state(this.stateValues[BILL][entry]);
+      mismatch.billRefundFee = this.refundFees[BILL][entry];
+    }
+    if ((this.flags[LEDGER][entry] & PRESENT) != 0) {
+      mismatch.ledgerTotalFee = this.totalFees[LEDGER][entry];
+      mismatch.ledgerTradeState = this.state(this.stateValues[LEDGER][entry]);
+      mismatch.ledgerRefundFee = this.refundFees[LEDGER][entry];
+    }
+    this.mismatchCounts[type.ordinal()]++;
+    this.handler.handle(mismatch);
+  }
+
+  private void emit(MismatchType type, String outTradeNo, Side side, long totalFee, byte state, long refundFee) {
+    Mismatch mismatch = new Mismatch(type, outTradeNo);
+    if (side == Side.BILL) {
+      mismatch.billTotalFee = totalFee;
+      mismatch.billTradeState = this.state(state);
+      mismatch.billRefundFee = refundFee;
+    } else {
+      mismatch.ledgerTotalFee = totalFee;
+      mismatch.ledgerTradeState = this.state(state);
+      mismatch.ledgerRefundFee = refundFee;
+    }
+    this.mismatchCounts[type.ordinal()]++;
+    this.handler.handle(mismatch);
+  }
+
+  /**
+   * 元转换为分
+   */
+  private static long parseFen(String amount) {
+    if (amount == null || amount.isEmpty()) {
+      return 0;
+    }
+    byte[] bytes = amount.getBytes(StandardCharsets.UTF_8);
+    return WxPayBillLoader.parseAmount(bytes, 0, bytes.length, 2);
+  }
+
+  /**
+   * 一条对账差异，金额单位为分，没有的一方金额为0、状态为null
+   */
+  public static class Mismatch {
+    private final MismatchType type;
+    private final String outTradeNo;
+    private long billTotalFee;
+    private String billTradeState;
+    private long billRefundFee;
+    private long ledgerTotalFee;
+    private String ledgerTradeState;
+    private long ledgerRefundFee;
+
+    Mismatch(MismatchType type, String outTradeNo) {
+      this.type = type;
+      this.outTradeNo = outTradeNo;
+    }
+
+    public MismatchType getType() {
+      return this.type;
+    }
+
+    public String getOutTradeNo() {
+      return this.outTradeNo;
+    }
+
+    public long getBillTotalFee() {
+      return this.billTotalFee;
+    }
+
+    public String getBillTradeState() {
+      return this.billTradeState;
+    }
+
+    public long getBillRefundFee() {
+      return this.billRefundFee;
+    }
+
+    public long getLedgerTotalFee() {
+      return this.ledgerTotalFee;
+    }
+
+    public String getLedgerTradeState() {
+      return this.ledgerTradeState;
+    }
+
+    public long getLedgerRefundFee() {
+      return this.ledgerRefundFee;
+    }
+
+    @Override
+    public String toString() {
+      return this.type + " " + this.outTradeNo
+        + " bill[" + this.billTotalFee + ", " + this.billTradeState + ", " + this.billRefundFee + "]"
+        + " ledger[" + this.ledgerTotalFee + ", " + this.ledgerTradeState + ", " + this.ledgerRefundFee + "]";
+    }
+  }
+
+}
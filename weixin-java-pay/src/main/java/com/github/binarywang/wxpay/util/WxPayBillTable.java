@@ -0,0 +1,566 @@
+package com.github.binarywang.wxpay.util;
+
+import com.github.binarywang.wxpay.bean.result.WxPayBillBaseResult;
+import com.github.binarywang.wxpay.bean.result.WxPayBillResult;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <pre>
+ * 按列存储的对账单，由 {@link WxPayBillLoader} 并行加载
+ * 金额保存为long（手续费单位为0.00001元，其他金额单位为分），
+ * 交易类型、交易状态、公众账号ID、商户号等取值较少的字段做字典编码，每个不同的值只保存一个字符串；
+ * 交易时间保存为yyyyMMddHHmmss格式的long，例如20170406010002
+ * 按列汇总时只遍历基本类型数组，不需要创建对象
+ * 加载完成后只读，可以被多个线程同时读取
+ * </pre>
+ */
+public class WxPayBillTable {
+
+  /**
+   * 金额列
+   */
+  public enum AmountColumn {
+    /**
+     * 总金额，单位为分
+     */
+    TOTAL_FEE(2),
+    /**
+     * 企业红包（代金券）金额，单位为分
+     */
+    COUPON_FEE(2),
+    /**
+     * 退款金额，单位为分
+     */
+    SETTLEMENT_REFUND_FEE(2),
+    /**
+     * 企业红包（代金券）退款金额，单位为分
+     */
+    COUPON_REFUND_FEE(2),
+    /**
+     * 手续费，单位为0.00001元
+     */
+    POUNDAGE(5);
+
+    private final int scale;
+
+    AmountColumn(int scale) {
+      this.scale = scale;
+    }
+
+    /**
+     * 账单中的小数位数
+     */
+    public int getScale() {
+      return this.scale;
+    }
+  }
+
+  /**
+   * 字典编码的列
+   */
+  public enum CategoryColumn {
+    APP_ID, MCH_ID, SUB_MCH_ID, DEVICE_INFO, TRADE_TYPE, TRADE_STATE, BANK_TYPE, FEE_TYPE,
+    REFUND_CHANNEL, REFUND_STATE, POUNDAGE_RATE
+  }
+
+  /**
+   * 每行取值都不同的文本列
+   */
+  public enum TextColumn {
+    TRANSACTION_ID, OUT_TRADE_NO, OPEN_ID, REFUND_ID, OUT_REFUND_NO, BODY, ATTACH
+  }
+
+  private static final AmountColumn[] AMOUNTS = AmountColumn.values();
+  private static final CategoryColumn[] CATEGORIES = CategoryColumn.values();
+  private static final TextColumn[] TEXTS = TextColumn.values();
+
+  private int size;
+  private long[] tradeTimes;
+  private final long[][] amounts = new long[AMOUNTS.length][];
+  private final int[][] codes = new int[CATEGORIES.length][];
+  private final String[][] texts = new String[TEXTS.length][];
+  private final Dictionary[] dictionaries = new Dictionary[CATEGORIES.length];
+
+  private String header;
+  private WxPayBillResult summary;
+
+  WxPayBillTable(int capacity) {
+    capacity = Math.max(capacity, 16);
+    this.tradeTimes = new long[capacity];
+    for (int i = 0; i < AMOUNTS.length; i++) {
+      this.amounts[i] = new long[capacity];
+    }
+    for (int i = 0; i < CATEGORIES.length; i++) {
+      this.codes[i] = new int[capacity];
+      this.dictionaries[i] = new Dictionary();
+    }
+    for (int i = 0; i < TEXTS.length; i++) {
+      this.texts[i] = new String[capacity];
+    }
+  }
+
+  /**
+   * 记录条数
+   */
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   * 对账单表头
+   */
+  public String getHeader() {
+    return this.header;
+  }
+
+  /**
+   * 账单末尾的汇总数据，不包含明细列表，账单中没有汇总数据时为null
+   */
+  public WxPayBillResult getSummary() {
+    return this.summary;
+  }
+
+  /**
+   * 交易时间，yyyyMMddHHmmss格式
+   */
+  public long getTradeTime(int row) {
+    return this.tradeTimes[this.checkRow(row)];
+  }
+
+  public long get(AmountColumn column, int row) {
+    return this.amounts[column.ordinal()][this.checkRow(row)];
+  }
+
+  /**
+   * 字典编码列的值，账单中没有这个字段时为null
+   */
+  public String get(CategoryColumn column, int row) {
+    return this.dictionaries[column.ordinal()].get(this.codes[column.ordinal()][this.checkRow(row)]);
+  }
+
+  /**
+   * 字典编码列的编码，对应 {@link #getDictionary(CategoryColumn)} 中的下标，账单中没有这个字段时为-1
+   */
+  public int getCode(CategoryColumn column, int row) {
+    return this.codes[column.ordinal()][this.checkRow(row)];
+  }
+
+  /**
+   * 字典编码列的全部取值，按第一次出现的顺序排列
+   */
+  public List<String> getDictionary(CategoryColumn column) {
+    return this.dictionaries[column.ordinal()].values();
+  }
+
+  public String get(TextColumn column, int row) {
+    return this.texts[column.ordinal()][this.checkRow(row)];
+  }
+
+  /**
+   * 复制出一整列金额
+   */
+  public long[] getAmounts(AmountColumn column) {
+    return Arrays.copyOf(this.amounts[column.ordinal()], this.size);
+  }
+
+  /**
+   * 一列金额的合计
+   */
+  public long sum(AmountColumn column) {
+    long[] values = this.amounts[column.ordinal()];
+    long sum = 0;
+    for (int i = 0; i < this.size; i++) {
+      sum += values[i];
+    }
+    return sum;
+  }
+
+  /**
+   * 字典编码列等于value的记录中，一列金额的合计，例如 sum(TOTAL_FEE, TRADE_STATE, "SUCCESS")
+   */
+  public long sum(AmountColumn column, CategoryColumn by, String value) {
+    int code = this.dictionaries[by.ordinal()].find(value);
+    if (code < 0) {
+      return 0;
+    }
+
+    long[] values = this.amounts[column.ordinal()];
+    int[] keys = this.codes[by.ordinal()];
+    long sum = 0;
+    for (int i = 0; i < this.size; i++) {
+      if (keys[i] == code) {
+        sum += values[i];
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * 按字典编码列分组，计算一列金额的合计
+   */
+  public Map<String, Long> sumBy(AmountColumn column, CategoryColumn by) {
+    Dictionary dictionary = this.dictionaries[by.ordinal()];
+    long[] values = this.amounts[column.ordinal()];
+    int[] keys = this.codes[by.ordinal()];
+    long[] sums = new long[dictionary.size()];
+    for (int i = 0; i < this.size; i++) {
+      if (keys[i] >= 0) {
+        sums[keys[i]] += values[i];
+      }
+    }
+
+    Map<String, Long> result = new LinkedHashMap<>();
+    for (int i = 0; i < sums.length; i++) {
+      result.put(dictionary.get(i), sums[i]);
+    }
+    return result;
+  }
+
+  /**
+   * 按字典编码列分组，计算记录条数
+   */
+  public Map<String, Integer> countBy(CategoryColumn by) {
+    Dictionary dictionary = this.dictionaries[by.ordinal()];
+    int[] keys = this.codes[by.ordinal()];
+    int[] counts = new int[dictionary.size()];
+    for (int i = 0; i < this.size; i++) {
+      if (keys[i] >= 0) {
+        counts[keys[i]]++;
+      }
+    }
+
+    Map<String, Integer> result = new LinkedHashMap<>();
+    for (int i = 0; i < counts.length; i++) {
+      result.put(dictionary.get(i), counts[i]);
+    }
+    return result;
+  }
+
+  /**
+   * 转换成一条 {@link WxPayBillBaseResult}，金额还原为账单中的格式
+   */
+  public WxPayBillBaseResult toRecord(int row) {
+    this.checkRow(row);
+    StringBuilder builder = new StringBuilder(32);
+    WxPayBillBaseResult result = new WxPayBillBaseResult();
+    result.setTradeTime(appendTradeTime(builder, this.tradeTimes[row]).toString());
+    result.setAppId(this.get(CategoryColumn.APP_ID, row));
+    result.setMchId(this.get(CategoryColumn.MCH_ID, row));
+    result.setSubMchId(this.get(CategoryColumn.SUB_MCH_ID, row));
+    result.setDeviceInfo(this.get(CategoryColumn.DEVICE_INFO, row));
+    result.setTransationId(this.get(TextColumn.TRANSACTION_ID, row));
+    result.setOutTradeNo(this.get(TextColumn.OUT_TRADE_NO, row));
+    result.setOpenId(this.get(TextColumn.OPEN_ID, row));
+    result.setTradeType(this.get(CategoryColumn.TRADE_TYPE, row));
+    result.setTradeState(this.get(CategoryColumn.TRADE_STATE, row));
+    result.setBankType(this.get(CategoryColumn.BANK_TYPE, row));
+    result.setFeeType(this.get(CategoryColumn.FEE_TYPE, row));
+    result.setTotalFee(this.formatAmount(builder, AmountColumn.TOTAL_FEE, row));
+    result.setCouponFee(this.formatAmount(builder, AmountColumn.COUPON_FEE, row));
+    result.setRefundId(this.get(TextColumn.REFUND_ID, row));
+    result.setOutRefundNo(this.get(TextColumn.OUT_REFUND_NO, row));
+    result.setSettlementRefundFee(this.formatAmount(builder, AmountColumn.SETTLEMENT_REFUND_FEE, row));
+    result.setCouponRefundFee(this.formatAmount(builder, AmountColumn.COUPON_REFUND_FEE, row));
+    result.setRefundChannel(this.get(CategoryColumn.REFUND_CHANNEL, row));
+    result.setRefundState(this.get(CategoryColumn.REFUND_STATE, row));
+    result.setBody(this.get(TextColumn.BODY, row));
+    result.setAttach(this.get(TextColumn.ATTACH, row));
+    result.setPoundage(this.formatAmount(builder, AmountColumn.POUNDAGE, row));
+    result.setPoundageRate(this.get(CategoryColumn.POUNDAGE_RATE, row));
+    return result;
+  }
+
+  /**
+   * 按原对账单的格式输出，包括表头和汇总数据
+   */
+  public void writeTo(Appendable out) throws IOException {
+    StringBuilder line = new StringBuilder(512);
+    if (this.header != null) {
+      out.append(this.header).append("\r\n");
+    }
+
+    for (int row = 0; row < this.size; row++) {
+      line.setLength(0);
+      line.append('`');
+      appendTradeTime(line, this.tradeTimes[row]);
+      this.appendField(line, CategoryColumn.APP_ID, row);
+      this.appendField(line, CategoryColumn.MCH_ID, row);
+      this.appendField(line, CategoryColumn.SUB_MCH_ID, row);
+      this.appendField(line, CategoryColumn.DEVICE_INFO, row);
+      this.appendField(line, TextColumn.TRANSACTION_ID, row);
+      this.appendField(line, TextColumn.OUT_TRADE_NO, row);
+      this.appendField(line, TextColumn.OPEN_ID, row);
+      this.appendField(line, CategoryColumn.TRADE_TYPE, row);
+      this.appendField(line, CategoryColumn.TRADE_STATE, row);
+      this.appendField(line, CategoryColumn.BANK_TYPE, row);
+      this.appendField(line, CategoryColumn.FEE_TYPE, row);
+      this.appendField(line, AmountColumn.TOTAL_FEE, row);
+      this.appendField(line, AmountColumn.COUPON_FEE, row);
+      this.appendField(line, TextColumn.REFUND_ID, row);
+      this.appendField(line, TextColumn.OUT_REFUND_NO, row);
+      this.appendField(line, AmountColumn.SETTLEMENT_REFUND_FEE, row);
+      this.appendField(line, AmountColumn.COUPON_REFUND_FEE, row);
+      this.appendField(line, CategoryColumn.REFUND_CHANNEL, row);
+      this.appendField(line, CategoryColumn.REFUND_STATE, row);
+      this.appendField(line, TextColumn.BODY, row);
+      this.appendField(line, TextColumn.ATTACH, row);
+      this.appendField(line, AmountColumn.POUNDAGE, row);
+      this.appendField(line, CategoryColumn.POUNDAGE_RATE, row);
+      out.append(line).append("\r\n");
+    }
+
+    if (this.summary != null) {
+      out.append("总交易单数,总交易额,总退款金额,总代金券或立减优惠退款金额,手续费总金额\r\n");
+      out.append('`').append(this.summary.getTotalRecord())
+        .append(",`").append(this.summary.getTotalFee())
+        .append(",`").append(this.summary.getTotalRefundFee())
+        .append(",`").append(this.summary.getTotalCouponFee())
+        .append(",`").append(this.summary.getTotalPoundageFee())
+        .append("\r\n");
+    }
+  }
+
+  private void appendField(StringBuilder line, CategoryColumn column, int row) {
+    String value = this.get(column, row);
+    line.append(",`").append(value == null ? "" : value);
+  }
+
+  private void appendField(StringBuilder line, TextColumn column, int row) {
+    String value = this.texts[column.ordinal()][row];
+    line.append(",`").append(value == null ? "" : value);
+  }
+
+  private void appendField(StringBuilder line, AmountColumn column, int row) {
+    appendAmount(line.append(",`"), this.amounts[column.ordinal()][row], column.getScale());
+  }
+
+  private String formatAmount(StringBuilder builder, AmountColumn column, int row) {
+    builder.setLength(0);
+    return appendAmount(builder, this.amounts[column.ordinal()][row], column.getScale()).toString();
+  }
+
+  static StringBuilder appendAmount(StringBuilder builder, long value, int scale) {
+    if (value < 0) {
+      builder.append('-');
+      value = -value;
+    }
+    String digits = Long.toString(value);
+    if (digits.length() <= scale) {
+      builder.append('0').append('.');
+      for (int i = digits.length(); i < scale; i++) {
+        builder.append('0');
+      }
+      return builder.append(digits);
+    }
+    int point = digits.length() - scale;
+    return builder.append(digits, 0, point).append('.').append(digits, point, digits.length());
+  }
+
+  private static StringBuilder appendTradeTime(StringBuilder builder, long time) {
+    if (time == 0) {
+      return builder;
+    }
+    String digits = Long.toString(time);
+    return builder.append(digits, 0, 4).append('-').append(digits, 4, 6).append('-').append(digits, 6, 8)
+      .append(' ').append(digits, 8, 10).append(':').append(digits, 10, 12).append(':').append(digits, 12, 14);
+  }
+
+  private int checkRow(int row) {
+    if (row < 0 || row >= this.size) {
+      throw new IndexOutOfBoundsException("Row: " + row + ", Size: " + this.size);
+    }
+    return row;
+  }
+
+  // 以下方法只在加载时使用
+
+  void setHeader(String header) {
+    this.header = header;
+  }
+
+  void setSummary(WxPayBillResult summary) {
+    this.summary = summary;
+  }
+
+  /**
+   * 新增一行，返回行号，各列的值随后用set方法写入
+   */
+  int addRow() {
+    if (this.size == this.tradeTimes.length) {
+      int capacity = this.size * 2;
+      this.tradeTimes = Arrays.copyOf(this.tradeTimes, capacity);
+      for (int i = 0; i < AMOUNTS.length; i++) {
+        this.amounts[i] = Arrays.copyOf(this.amounts[i], capacity);
+      }
+      for (int i = 0; i < CATEGORIES.length; i++) {
+        this.codes[i] = Arrays.copyOf(this.codes[i], capacity);
+      }
+      for (int i = 0; i < TEXTS.length; i++) {
+        this.texts[i] = Arrays.copyOf(this.texts[i], capacity);
+      }
+    }
+
+    int row = this.size++;
+    for (int i = 0; i < CATEGORIES.length; i++) {
+      this.codes[i][row] = -1;
+    }
+    return row;
+  }
+
+  void setTradeTime(int row, long time) {
+    this.tradeTimes[row] = time;
+  }
+
+  void set(AmountColumn column, int row, long value) {
+    this.amounts[column.ordinal()][row] = value;
+  }
+
+  void set(CategoryColumn column, int row, byte[] data, int offset, int length) {
+    this.codes[column.ordinal()][row] = this.dictionaries[column.ordinal()].code(data, offset, length);
+  }
+
+  void set(TextColumn column, int row, String value) {
+    this.texts[column.ordinal()][row] = value;
+  }
+
+  /**
+   * 按顺序合并分块加载的结果，字典编码重新映射到合并后的字典
+   */
+  static WxPayBillTable concat(List<WxPayBillTable> parts) {
+    int total = 0;
+    for (WxPayBillTable part : parts) {
+      total += part.size;
+    }
+
+    WxPayBillTable table = new WxPayBillTable(total);
+    for (WxPayBillTable part : parts) {
+      int offset = table.size;
+      System.arraycopy(part.tradeTimes, 0, table.tradeTimes, offset, part.size);
+      for (int i = 0; i < AMOUNTS.length; i++) {
+        System.arraycopy(part.amounts[i], 0, table.amounts[i], offset, part.size);
+      }
+      for (int i = 0; i < TEXTS.length; i++) {
+        System.arraycopy(part.texts[i], 0, table.texts[i], offset, part.size);
+      }
+      for (int i = 0; i < CATEGORIES.length; i++) {
+        Dictionary dictionary = part.dictionaries[i];
+        int[] mapping = new int[dictionary.size()];
+        for (int code = 0; code < mapping.length; code++) {
+          mapping[code] = table.dictionaries[i].code(dictionary.get(code));
+        }
+        int[] source = part.codes[i];
+        int[] target = table.codes[i];
+        for (int row = 0; row < part.size; row++) {
+          target[offset + row] = source[row] < 0 ? -1 : mapping[source[row]];
+        }
+      }
+      table.size += part.size;
+    }
+    return table;
+  }
+
+  /**
+   * <pre>
+   * 字典，直接按字节查找，已有的值不需要再创建字符串
+   * 使用开放寻址的哈希表，编码按第一次出现的顺序分配
+   * </pre>
+   */
+  private static final class Dictionary {
+    private final List<String> values = new ArrayList<>();
+    private final List<byte[]> keys = new ArrayList<>();
+    private int[] slots = new int[16];
+
+    int size() {
+      return this.values.size();
+    }
+
+    String get(int code) {
+      return code < 0 ? null : this.values.get(code);
+    }
+
+    List<String> values() {
+      return new ArrayList<>(this.values);
+    }
+
+    int find(String value) {
+      if (value == null) {
+        return -1;
+      }
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      int mask = this.slots.length - 1;
+      for (int slot = hash(bytes, 0, bytes.length) & mask; this.slots[slot] != 0; slot = (slot + 1) & mask) {
+        if (Arrays.equals(this.keys.get(this.slots[slot] - 1), bytes)) {
+          return this.slots[slot] - 1;
+        }
+      }
+      return -1;
+    }
+
+    int code(String value) {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      return this.code(bytes, 0, bytes.length);
+    }
+
+    int code(byte[] data, int offset, int length) {
+      int mask = this.slots.length - 1;
+      int slot = hash(data, offset, length) & mask;
+      for (; this.slots[slot] != 0; slot = (slot + 1) & mask) {
+        if (equals(this.keys.get(this.slots[slot] - 1), data, offset, length)) {
+          return this.slots[slot] - 1;
+        }
+      }
+
+      byte[] key = Arrays.copyOfRange(data, offset, offset + length);
+      this.keys.add(key);
+      this.values.add(new String(key, StandardCharsets.UTF_8));
+      int code = this.values.size() - 1;
+      this.slots[slot] = code + 1;
+
+      if (this.values.size() * 2 > this.slots.length) {
+        this.rehash();
+      }
+      return code;
+    }
+
+    private void rehash() {
+      this.slots = new int[this.slots.length * 2];
+      int mask = this.slots.length - 1;
+      for (int code = 0; code < this.keys.size(); code++) {
+        byte[] key = this.keys.get(code);
+        int slot = hash(key, 0, key.length) & mask;
+        while (this.slots[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        this.slots[slot] = code + 1;
+      }
+    }
+
+    private static int hash(byte[] data, int offset, int length) {
+      int hash = 0x811c9dc5;
+      for (int i = offset; i < offset + length; i++) {
+        hash = (hash ^ data[i]) * 0x01000193;
+      }
+      return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equals(byte[] key, byte[] data, int offset, int length) {
+      if (key.length != length) {
+        return false;
+      }
+      for (int i = 0; i < length; i++) {
+        if (key[i] != data[offset + i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+}
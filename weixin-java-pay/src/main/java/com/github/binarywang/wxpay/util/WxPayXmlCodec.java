@@ -0,0 +1,104 @@
+package com.github.binarywang.wxpay.util;
+
+import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.io.StreamException;
+import me.chanjar.weixin.common.util.XmlBeanAccessor;
+import me.chanjar.weixin.common.util.xml.StaxUtils;
+import me.chanjar.weixin.common.util.xml.XStreamInitializer;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <pre>
+ * 微信支付xml报文的编解码工具，所有方法都是线程安全的
+ *
+ * 解析返回结果时只用StAX读一遍报文，得到根元素下全部字段的Map，再按照字段上的@XStreamAlias设置到结果对象中。
+ * 这个Map同时用于校验签名和读取coupon_id_$n之类带下标的字段，不再需要构建DOM和执行XPath。
+ * 每个类的属性访问器（见 {@link XmlBeanAccessor}）和XStream实例只在第一次使用时创建，之后一直复用。
+ * </pre>
+ */
+public class WxPayXmlCodec {
+
+  private static final ConcurrentMap<Class<?>, XStream> XSTREAMS = new ConcurrentHashMap<>();
+
+  /**
+   * 读取根元素下的全部字段，保持报文中的顺序；带子元素的字段只取其自身的文本
+   *
+   * @throws StreamException xml格式不正确
+   */
+  public static Map<String, String> parseFields(final String xml) {
+    return StaxUtils.read(xml, new StaxUtils.ReadHandler<Map<String, String>>() {
+      @Override
+      public Map<String, String> read(XMLStreamReader reader) throws XMLStreamException {
+        if (StaxUtils.nextElement(reader) != XMLStreamConstants.START_ELEMENT) {
+          throw new StreamException("非法的xml文本内容：" + xml);
+        }
+        Map<String, String> fields = new LinkedHashMap<>();
+        while (StaxUtils.nextElement(reader) == XMLStreamConstants.START_ELEMENT) {
+          String name = reader.getLocalName();
+          fields.put(name, StaxUtils.readText(reader));
+        }
+        return fields;
+      }
+    });
+  }
+
+  /**
+   * 创建对象，并把字段值设置到对应的属性上，没有对应属性的字段会被忽略
+   */
+  public static <T> T bind(Map<String, String> fields, Class<T> clz) {
+    XmlBeanAccessor accessor = XmlBeanAccessor.of(clz);
+    T bean = clz.cast(accessor.newInstance());
+    for (Map.Entry<String, String> entry : fields.entrySet()) {
+      XmlBeanAccessor.Property property = accessor.getProperty(entry.getKey());
+      if (property != null) {
+        setValue(bean, property, entry.getValue());
+      }
+    }
+    return bean;
+  }
+
+  /**
+   * 已经处理过clz上注解的XStream实例，配置完成后的XStream可以被多个线程同时使用
+   */
+  public static XStream xstream(Class<?> clz) {
+    XStream xstream = XSTREAMS.get(clz);
+    if (xstream == null) {
+      xstream = XStreamInitializer.getInstance();
+      xstream.processAnnotations(clz);
+      XStream existing = XSTREAMS.putIfAbsent(clz, xstream);
+      if (existing != null) {
+        xstream = existing;
+      }
+    }
+    return xstream;
+  }
+
+  private static void setValue(Object bean, XmlBeanAccessor.Property property, String text) {
+    Class<?> type = property.getType();
+    if (type == String.class) {
+      property.set(bean, text);
+      return;
+    }
+
+    // 数值为空时保持属性的默认值
+    text = text.trim();
+    if (text.isEmpty()) {
+      return;
+    }
+    if (type == Integer.class || type == int.class) {
+      property.set(bean, Integer.valueOf(text));
+    } else if (type == Long.class || type == long.class) {
+      property.set(bean, Long.valueOf(text));
+    } else if (type == Double.class || type == double.class) {
+      property.set(bean, Double.valueOf(text));
+    }
+  }
+
+}
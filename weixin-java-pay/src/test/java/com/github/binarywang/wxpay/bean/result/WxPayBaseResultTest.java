@@ -1,8 +1,14 @@
 package com.github.binarywang.wxpay.bean.result;
 
+import com.github.binarywang.wxpay.config.WxPayConfig;
+import com.github.binarywang.wxpay.constant.WxPayConstants.SignType;
+import com.github.binarywang.wxpay.exception.WxPayException;
+import com.github.binarywang.wxpay.service.impl.WxPayServiceImpl;
+import com.github.binarywang.wxpay.util.SignUtils;
 import org.testng.*;
 import org.testng.annotations.*;
 
+import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -61,4 +67,38 @@ public class WxPayBaseResultTest {
     System.out.println(map);
   }
 
+  /**
+   * 响应中没有sign_type，按请求的签名类型校验
+   */
+  @Test
+  public void testCheckResultWithRequestSignType() throws WxPayException {
+    WxPayConfig config = new WxPayConfig();
+    config.setMchKey("192006250b4c09247ec02edce69f6a2d");
+    WxPayServiceImpl payService = new WxPayServiceImpl();
+    payService.setConfig(config);
+
+    Map<String, String> fields = new HashMap<>();
+    fields.put("return_code", "SUCCESS");
+    fields.put("result_code", "SUCCESS");
+    fields.put("out_trade_no", "1415659990");
+    String sign = SignUtils.createSign(fields, SignType.HMAC_SHA256, config.getMchKey());
+    WxPayOrderCloseResult result = WxPayBaseResult.fromXML("<xml><return_code>SUCCESS</return_code>"
+      + "<result_code>SUCCESS</result_code><out_trade_no>1415659990</out_trade_no>"
+      + "<sign>" + sign + "</sign></xml>", WxPayOrderCloseResult.class);
+
+    result.checkResult(payService, SignType.HMAC_SHA256);
+    try {
+      result.checkResult(payService);
+      Assert.fail("按MD5校验应当失败");
+    } catch (WxPayException e) {
+      Assert.assertEquals(e.getMessage(), "参数格式校验错误！");
+    }
+    try {
+      result.checkResult(payService, "RSA");
+      Assert.fail("不支持的签名类型应当校验失败");
+    } catch (WxPayException e) {
+      Assert.assertEquals(e.getMessage(), "参数格式校验错误！");
+    }
+  }
+
 }
@@ -1,5 +1,8 @@
 package com.github.binarywang.wxpay.bean.result;
 
+import com.github.binarywang.wxpay.config.WxPayConfig;
+import com.github.binarywang.wxpay.exception.WxPayException;
+import com.github.binarywang.wxpay.service.impl.WxPayServiceImpl;
 import org.testng.*;
 import org.testng.annotations.*;
 
@@ -55,4 +58,42 @@ public class WxPayOrderNotifyResultTest {
     Assert.assertEquals(result.getCouponList().get(1).getCouponId(), "10001");
   }
 
+  @Test
+  public void testCouponIndexOutOfRange() {
+    WxPayOrderNotifyResult result = WxPayOrderNotifyResult.fromXML("<xml>"
+      + "<coupon_count>1</coupon_count>"
+      + "<coupon_id_0>10000</coupon_id_0>"
+      + "<coupon_id_2000000000>10001</coupon_id_2000000000>"
+      + "</xml>");
+    Assert.assertEquals(result.getCouponList().size(), 1);
+    Assert.assertEquals(result.getCouponList().get(0).getCouponId(), "10000");
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testCouponCountTooLarge() {
+    WxPayOrderNotifyResult.fromXML("<xml><coupon_count>2000000000</coupon_count></xml>");
+  }
+
+  /**
+   * 签名错误的通知在组装代金券之前就被拒绝
+   */
+  @Test
+  public void testSignCheckedBeforeCoupons() {
+    WxPayConfig config = new WxPayConfig();
+    config.setMchKey("key");
+    WxPayServiceImpl payService = new WxPayServiceImpl();
+    payService.setConfig(config);
+    try {
+      payService.getOrderNotifyResult("<xml>"
+        + "<return_code>SUCCESS</return_code>"
+        + "<result_code>SUCCESS</result_code>"
+        + "<coupon_count>2000000000</coupon_count>"
+        + "<sign>forged</sign>"
+        + "</xml>");
+      Assert.fail("应当校验签名失败");
+    } catch (WxPayException e) {
+      Assert.assertEquals(e.getMessage(), "参数格式校验错误！");
+    }
+  }
+
 }
@@ -0,0 +1,196 @@
+package com.github.binarywang.wxpay.service;
+
+import com.github.binarywang.wxpay.bean.result.WxPayOrderNotifyResult;
+import com.github.binarywang.wxpay.exception.WxPayException;
+import com.github.binarywang.wxpay.service.impl.WxPayServiceImpl;
+import me.chanjar.weixin.common.api.WxMessageInMemoryDuplicateChecker;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Test
+public class WxPayOrderNotifyPipelineTest {
+
+  /**
+   * 不校验签名，通知内容为"out_trade_no,transaction_id"，内容为"bad"时模拟签名错误
+   */
+  private final WxPayService payService = new WxPayServiceImpl() {
+    @Override
+    public WxPayOrderNotifyResult getOrderNotifyResult(String xmlData) throws WxPayException {
+      if ("bad".equals(xmlData)) {
+        throw new WxPayException("参数格式校验错误！");
+      }
+
+      String[] fields = xmlData.split(",");
+      WxPayOrderNotifyResult result = new WxPayOrderNotifyResult();
+      result.setOutTradeNo(fields[0]);
+      result.setTransactionId(fields[1]);
+      return result;
+    }
+  };
+
+  public void testDuplicate() throws InterruptedException {
+    final List<String> handled = new ArrayList<>();
+    WxPayOrderNotifyPipeline pipeline = new WxPayOrderNotifyPipeline(this.payService, new WxPayOrderNotifyHandler() {
+      @Override
+      public void handle(WxPayOrderNotifyResult result) {
+        handled.add(result.getTransactionId());
+      }
+    });
+
+    for (int i = 0; i < 5; i++) {
+      Assert.assertTrue(pipeline.process("order1,tx1").contains("SUCCESS"));
+    }
+    pipeline.process("order1,tx2");
+    Assert.assertTrue(pipeline.awaitTermination(10, TimeUnit.SECONDS));
+
+    Assert.assertEquals(handled.toString(), "[tx1, tx2]");
+    Assert.assertEquals(pipeline.getAcceptedCount(), 6);
+    Assert.assertEquals(pipeline.getDuplicateCount(), 4);
+    Assert.assertEquals(pipeline.getHandledCount(), 2);
+  }
+
+  public void testInvalidNotify() {
+    WxPayOrderNotifyPipeline pipeline = new WxPayOrderNotifyPipeline(this.payService, new WxPayOrderNotifyHandler() {
+      @Override
+      public void handle(WxPayOrderNotifyResult result) {
+        Assert.fail("不应处理签名错误的通知");
+      }
+    });
+
+    Assert.assertTrue(pipeline.process("bad").contains("FAIL"));
+    Assert.assertEquals(pipeline.getAcceptedCount(), 0);
+    pipeline.close();
+  }
+
+  public void testSerializedPerOrder() throws InterruptedException {
+    final ConcurrentMap<String, AtomicInteger> running = new ConcurrentHashMap<>();
+    final AtomicInteger overlapped = new AtomicInteger();
+    final WxPayOrderNotifyPipeline pipeline = new WxPayOrderNotifyPipeline(this.payService,
+      new WxPayOrderNotifyHandler() {
+        @Override
+        public void handle(WxPayOrderNotifyResult result) throws WxPayException {
+          AtomicInteger counter = running.get(result.getOutTradeNo());
+          if (counter.incrementAndGet() > 1) {
+            overlapped.incrementAndGet();
+          }
+          try {
+            Thread.sleep(1);
+          } catch (InterruptedException e) {
+            throw new WxPayException("中断");
+          }
+          counter.decrementAndGet();
+          if (result.getTransactionId().endsWith("-13")) {
+            throw new WxPayException("业务处理失败");
+          }
+        }
+      }, new WxMessageInMemoryDuplicateChecker(), 4, 1000);
+
+    for (int i = 0; i < 5; i++) {
+      running.put("order" + i, new AtomicInteger());
+    }
+    Thread[] senders = new Thread[4];
+    for (int t = 0; t < senders.length; t++) {
+      final int sender = t;
+      senders[t] = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 50; i++) {
+            pipeline.process("order" + i % 5 + ",tx" + sender + "-" + i);
+          }
+        }
+      };
+      senders[t].start();
+    }
+    for (Thread sender : senders) {
+      sender.join();
+    }
+    Assert.assertTrue(pipeline.awaitTermination(30, TimeUnit.SECONDS));
+
+    Assert.assertEquals(overlapped.get(), 0);
+    Assert.assertEquals(pipeline.getAcceptedCount(), 200);
+    Assert.assertEquals(pipeline.getHandledCount(), 196);
+    Assert.assertEquals(pipeline.getFailedCount(), 4);
+  }
+
+  public void testRetryAndFailureHandler() throws InterruptedException {
+    final ConcurrentMap<String, AtomicInteger> attempts = new ConcurrentHashMap<>();
+    final List<String> failed = new ArrayList<>();
+    WxPayOrderNotifyPipeline pipeline = new WxPayOrderNotifyPipeline(this.payService, new WxPayOrderNotifyHandler() {
+      @Override
+      public void handle(WxPayOrderNotifyResult result) throws WxPayException {
+        attempts.putIfAbsent(result.getTransactionId(), new AtomicInteger());
+        int attempt = attempts.get(result.getTransactionId()).incrementAndGet();
+        // tx1前两次失败，tx2总是失败
+        if ("tx2".equals(result.getTransactionId()) || attempt <= 2) {
+          throw new WxPayException("业务处理失败");
+        }
+      }
+    }, new WxMessageInMemoryDuplicateChecker(), 1, 100);
+    pipeline.setMaxAttempts(3);
+    pipeline.setFailureHandler(new WxPayOrderNotifyFailureHandler() {
+      @Override
+      public void onFailure(WxPayOrderNotifyResult result, Exception e) {
+        failed.add(result.getTransactionId() + ":" + e.getMessage());
+      }
+    });
+
+    pipeline.process("order1,tx1");
+    pipeline.process("order2,tx2");
+    // 失败的通知已撤销去重记录，再次收到时重新处理；成功的通知仍被去重
+    pipeline.process("order1,tx1");
+    pipeline.process("order2,tx2");
+    Assert.assertTrue(pipeline.awaitTermination(10, TimeUnit.SECONDS));
+
+    Assert.assertEquals(attempts.get("tx1").get(), 3);
+    Assert.assertEquals(attempts.get("tx2").get(), 6);
+    Assert.assertEquals(failed.toString(), "[tx2:业务处理失败, tx2:业务处理失败]");
+    Assert.assertEquals(pipeline.getHandledCount(), 1);
+    Assert.assertEquals(pipeline.getFailedCount(), 2);
+    Assert.assertEquals(pipeline.getDuplicateCount(), 1);
+  }
+
+  public void testRejectWhenQueueFull() throws InterruptedException {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final List<String> handled = new ArrayList<>();
+    WxPayOrderNotifyPipeline pipeline = new WxPayOrderNotifyPipeline(this.payService, new WxPayOrderNotifyHandler() {
+      @Override
+      public void handle(WxPayOrderNotifyResult result) {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        handled.add(result.getTransactionId());
+      }
+    }, new WxMessageInMemoryDuplicateChecker(), 1, 1);
+
+    Assert.assertTrue(pipeline.process("order1,tx1").contains("SUCCESS"));
+    Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+    Assert.assertTrue(pipeline.process("order2,tx2").contains("SUCCESS"));
+    Assert.assertTrue(pipeline.process("order3,tx3").contains("FAIL"));
+    Assert.assertEquals(pipeline.getRejectedCount(), 1);
+    Assert.assertEquals(pipeline.getQueuedCount(), 1);
+
+    release.countDown();
+    // 被拒绝的通知没有记为已处理，微信重发后可以正常处理
+    while (pipeline.getQueuedCount() > 0) {
+      Thread.sleep(1);
+    }
+    Assert.assertTrue(pipeline.process("order3,tx3").contains("SUCCESS"));
+    Assert.assertTrue(pipeline.awaitTermination(10, TimeUnit.SECONDS));
+
+    Assert.assertEquals(handled.toString(), "[tx1, tx2, tx3]");
+    Assert.assertEquals(pipeline.getDuplicateCount(), 0);
+  }
+
+}
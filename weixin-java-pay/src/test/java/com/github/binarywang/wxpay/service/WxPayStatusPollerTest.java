@@ -0,0 +1,273 @@
+package com.github.binarywang.wxpay.service;
+
+import com.github.binarywang.wxpay.bean.result.WxPayOrderQueryResult;
+import com.github.binarywang.wxpay.bean.result.WxPayRedpackQueryResult;
+import com.github.binarywang.wxpay.bean.result.WxPayRefundQueryResult;
+import com.github.binarywang.wxpay.config.WxPayConfig;
+import com.github.binarywang.wxpay.exception.WxPayException;
+import com.github.binarywang.wxpay.service.WxPayStatusPoller.Policy;
+import com.github.binarywang.wxpay.service.impl.WxPayServiceImpl;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Test
+public class WxPayStatusPollerTest {
+  private static final Policy FAST = new Policy(20L, 50L, 2, 10000L);
+
+  private ExecutorService executor;
+  private ScheduledExecutorService scheduler;
+
+  @BeforeMethod
+  public void setUp() {
+    this.executor = Executors.newFixedThreadPool(8);
+    this.scheduler = Executors.newSingleThreadScheduledExecutor();
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    this.executor.shutdownNow();
+    this.scheduler.shutdownNow();
+  }
+
+  public void testPollUntilFinal() throws Exception {
+    WxPayStatusPoller poller = this.createPoller(4);
+    FakePayService payService = new FakePayService("1000001", 2, 0);
+
+    WxPayOrderQueryResult order = poller.pollOrder(payService, null, "order1", FAST).get(10, TimeUnit.SECONDS);
+    Assert.assertEquals(order.getTradeState(), "SUCCESS");
+    WxPayRefundQueryResult refund = poller.pollRefund(payService, null, null, "refund1", null, FAST)
+      .get(10, TimeUnit.SECONDS);
+    Assert.assertEquals(refund.getRefundRecords().get(0).getRefundStatus(), "SUCCESS");
+    WxPayRedpackQueryResult redpack = poller.pollRedpack(payService, "redpack1", FAST).get(10, TimeUnit.SECONDS);
+    Assert.assertEquals(redpack.getStatus(), "SENT");
+
+    Assert.assertEquals(payService.queries.get(), 9);
+    Assert.assertEquals(poller.getPendingCount(), 0);
+    poller.close();
+  }
+
+  public void testTimeout() throws Exception {
+    WxPayStatusPoller poller = this.createPoller(4);
+    FakePayService payService = new FakePayService("1000001", Integer.MAX_VALUE, 0);
+    payService.error = new WxPayException("ORDERNOTEXIST");
+
+    ListenableFuture<WxPayOrderQueryResult> future = poller.pollOrder(payService, null, "order1",
+      new Policy(10L, 20L, 1, 100L));
+    try {
+      future.get(10, TimeUnit.SECONDS);
+      Assert.fail("应当超时");
+    } catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof WxPayException);
+      Assert.assertSame(e.getCause().getCause(), payService.error);
+    }
+    Assert.assertTrue(payService.queries.get() > 1);
+    Assert.assertEquals(poller.getPendingCount(), 0);
+    poller.close();
+  }
+
+  public void testFirstInterval() throws Exception {
+    WxPayStatusPoller poller = this.createPoller(4);
+    final List<Long> queryTimes = Collections.synchronizedList(new ArrayList<Long>());
+    WxPayStatusPoller.StatusQuery<Integer> query = new WxPayStatusPoller.StatusQuery<Integer>() {
+      @Override
+      public Integer query() {
+        queryTimes.add(System.nanoTime());
+        return queryTimes.size();
+      }
+
+      @Override
+      public boolean isFinal(Integer result) {
+        return result >= 2;
+      }
+    };
+
+    long start = System.nanoTime();
+    poller.poll("1000001", query, new Policy(20L, 300L, 300L, 1, 10000L)).get(10, TimeUnit.SECONDS);
+    Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(queryTimes.get(0) - start) < 250);
+    Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(queryTimes.get(1) - queryTimes.get(0)) >= 250);
+    poller.close();
+  }
+
+  public void testQueryError() throws Exception {
+    WxPayStatusPoller poller = this.createPoller(1);
+    final Error error = new NoClassDefFoundError("模拟查询时抛出的错误");
+    ListenableFuture<Object> future = poller.poll("1000001", new WxPayStatusPoller.StatusQuery<Object>() {
+      @Override
+      public Object query() {
+        throw error;
+      }
+
+      @Override
+      public boolean isFinal(Object result) {
+        return true;
+      }
+    }, FAST);
+
+    try {
+      future.get(10, TimeUnit.SECONDS);
+      Assert.fail("查询抛出错误时应当失败");
+    } catch (ExecutionException e) {
+      Assert.assertSame(e.getCause(), error);
+    }
+    Assert.assertEquals(poller.getPendingCount(), 0);
+
+    // 名额已释放，同一商户号的查询可以继续进行
+    FakePayService payService = new FakePayService("1000001", 0, 0);
+    Assert.assertEquals(poller.pollOrder(payService, null, "order1", FAST).get(10, TimeUnit.SECONDS).getTradeState(),
+      "SUCCESS");
+    poller.close();
+  }
+
+  public void testMerchantRemoved() throws Exception {
+    WxPayStatusPoller poller = this.createPoller(4);
+    for (int i = 0; i < 100; i++) {
+      poller.pollOrder(new FakePayService("merchant" + i, 1, 0), null, "order1", FAST).get(10, TimeUnit.SECONDS);
+    }
+    Assert.assertEquals(poller.getMerchantCount(), 0);
+
+    ListenableFuture<WxPayOrderQueryResult> cancelled = poller.pollOrder(new FakePayService("1000001", 0, 0), null,
+      "order1", new Policy(3600000L, 3600000L, 1, 24 * 3600000L));
+    Assert.assertEquals(poller.getMerchantCount(), 1);
+    cancelled.cancel(false);
+    poller.close();
+    Assert.assertEquals(poller.getMerchantCount(), 0);
+    Assert.assertEquals(poller.getPendingCount(), 0);
+  }
+
+  public void testConcurrencyPerMerchant() throws Exception {
+    WxPayStatusPoller poller = this.createPoller(2);
+    FakePayService merchantA = new FakePayService("1000001", 3, 5);
+    FakePayService merchantB = new FakePayService("1000002", 3, 5);
+
+    List<ListenableFuture<WxPayOrderQueryResult>> futures = new ArrayList<>();
+    for (int i = 0; i < 40; i++) {
+      futures.add(poller.pollOrder(merchantA, null, "A" + i, FAST));
+      futures.add(poller.pollOrder(merchantB, null, "B" + i, FAST));
+    }
+    for (ListenableFuture<WxPayOrderQueryResult> future : futures) {
+      Assert.assertEquals(future.get(30, TimeUnit.SECONDS).getTradeState(), "SUCCESS");
+    }
+
+    Assert.assertEquals(merchantA.maxRunning.get(), 2);
+    Assert.assertEquals(merchantB.maxRunning.get(), 2);
+    Assert.assertEquals(merchantA.queries.get(), 160);
+    poller.close();
+  }
+
+  public void testCancelAndClose() throws Exception {
+    WxPayStatusPoller poller = this.createPoller(4);
+    FakePayService payService = new FakePayService("1000001", 0, 0);
+
+    ListenableFuture<WxPayOrderQueryResult> cancelled = poller.pollOrder(payService, null, "cancelled", FAST);
+    cancelled.cancel(false);
+    List<ListenableFuture<WxPayOrderQueryResult>> futures = new ArrayList<>();
+    Policy slow = new Policy(3600000L, 3600000L, 1, 24 * 3600000L);
+    for (int i = 0; i < 100000; i++) {
+      futures.add(poller.pollOrder(payService, null, "order" + i, slow));
+    }
+    Thread.sleep(200);
+    Assert.assertEquals(poller.getPendingCount(), 100000);
+    Assert.assertEquals(payService.queries.get(), 0);
+
+    poller.close();
+    Assert.assertEquals(poller.getPendingCount(), 0);
+    for (ListenableFuture<WxPayOrderQueryResult> future : futures) {
+      Assert.assertTrue(future.isCancelled());
+    }
+  }
+
+  private WxPayStatusPoller createPoller(int maxConcurrentQueries) {
+    return new WxPayStatusPoller(this.executor, maxConcurrentQueries, 10L, 64, this.scheduler);
+  }
+
+  /**
+   * 每笔交易前pendingTimes次查询返回处理中，之后返回最终状态，每次查询耗时queryMillis
+   */
+  private static class FakePayService extends WxPayServiceImpl {
+    private final int pendingTimes;
+    private final long queryMillis;
+    private final ConcurrentMap<String, AtomicInteger> queried = new ConcurrentHashMap<>();
+    private final AtomicInteger queries = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private volatile WxPayException error;
+
+    FakePayService(String mchId, int pendingTimes, long queryMillis) {
+      WxPayConfig config = new WxPayConfig();
+      config.setMchId(mchId);
+      this.setConfig(config);
+      this.pendingTimes = pendingTimes;
+      this.queryMillis = queryMillis;
+    }
+
+    @Override
+    public WxPayOrderQueryResult queryOrder(String transactionId, String outTradeNo) throws WxPayException {
+      WxPayOrderQueryResult result = new WxPayOrderQueryResult();
+      result.setTradeState(this.query(outTradeNo) ? "SUCCESS" : "USERPAYING");
+      return result;
+    }
+
+    @Override
+    public WxPayRefundQueryResult refundQuery(String transactionId, String outTradeNo, String outRefundNo,
+                                              String refundId) throws WxPayException {
+      WxPayRefundQueryResult.RefundRecord record = new WxPayRefundQueryResult.RefundRecord();
+      record.setRefundStatus(this.query(outRefundNo) ? "SUCCESS" : "PROCESSING");
+      WxPayRefundQueryResult result = new WxPayRefundQueryResult();
+      result.setRefundRecords(Collections.singletonList(record));
+      return result;
+    }
+
+    @Override
+    public WxPayRedpackQueryResult queryRedpack(String mchBillNo) throws WxPayException {
+      WxPayRedpackQueryResult result = new WxPayRedpackQueryResult();
+      result.setStatus(this.query(mchBillNo) ? "SENT" : "SENDING");
+      return result;
+    }
+
+    /**
+     * @return 是否已是最终状态
+     */
+    private boolean query(String no) throws WxPayException {
+      this.queries.incrementAndGet();
+      int current = this.running.incrementAndGet();
+      while (true) {
+        int max = this.maxRunning.get();
+        if (current <= max || this.maxRunning.compareAndSet(max, current)) {
+          break;
+        }
+      }
+
+      try {
+        if (this.queryMillis > 0) {
+          Thread.sleep(this.queryMillis);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        this.running.decrementAndGet();
+      }
+
+      if (this.error != null) {
+        throw this.error;
+      }
+      this.queried.putIfAbsent(no, new AtomicInteger());
+      return this.queried.get(no).incrementAndGet() > this.pendingTimes;
+    }
+  }
+
+}
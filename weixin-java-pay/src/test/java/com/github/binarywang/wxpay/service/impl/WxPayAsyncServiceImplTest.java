@@ -0,0 +1,163 @@
+package com.github.binarywang.wxpay.service.impl;
+
+import com.github.binarywang.wxpay.bean.request.WxPayUnifiedOrderRequest;
+import com.github.binarywang.wxpay.bean.result.WxPayOrderQueryResult;
+import com.github.binarywang.wxpay.bean.result.WxPayUnifiedOrderResult;
+import com.github.binarywang.wxpay.config.WxPayConfig;
+import com.github.binarywang.wxpay.exception.WxPayException;
+import com.github.binarywang.wxpay.util.SignUtils;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 用替换了传输方式的异步服务验证签名、解析和异常的传递，不需要访问微信服务器
+ */
+@Test
+public class WxPayAsyncServiceImplTest {
+  private static final String MCH_KEY = "192006250b4c09247ec02edce69f6a2d";
+
+  public void testSuccess() throws Exception {
+    Map<String, String> response = newResponse("SUCCESS");
+    response.put("prepay_id", "wx201410272009395522657a690389285100");
+    StubAsyncService service = new StubAsyncService(toXml(response));
+
+    WxPayUnifiedOrderResult result = service.unifiedOrderAsync(newRequest()).get(10, TimeUnit.SECONDS);
+    Assert.assertEquals(result.getPrepayId(), "wx201410272009395522657a690389285100");
+    Assert.assertTrue(service.requestXml.contains("<sign>"));
+    Assert.assertEquals(service.requestUrl, "https://api.mch.weixin.qq.com/pay/unifiedorder");
+    service.close();
+  }
+
+  public void testQueryOrderComposesCoupons() throws Exception {
+    Map<String, String> response = newResponse("SUCCESS");
+    response.put("trade_state", "SUCCESS");
+    response.put("coupon_count", "1");
+    response.put("coupon_id_0", "10000");
+    response.put("coupon_fee_0", "100");
+    StubAsyncService service = new StubAsyncService(toXml(response));
+
+    WxPayOrderQueryResult result = service.queryOrderAsync(null, "1415659990").get(10, TimeUnit.SECONDS);
+    Assert.assertEquals(result.getTradeState(), "SUCCESS");
+    Assert.assertEquals(result.getCoupons().size(), 1);
+    Assert.assertEquals(result.getCoupons().get(0).getCouponId(), "10000");
+    service.close();
+  }
+
+  public void testFailResult() throws Exception {
+    Map<String, String> response = newResponse("FAIL");
+    response.put("err_code", "ORDERPAID");
+    response.put("err_code_des", "商户订单已支付");
+    StubAsyncService service = new StubAsyncService(toXml(response));
+
+    try {
+      service.unifiedOrderAsync(newRequest()).get(10, TimeUnit.SECONDS);
+      Assert.fail("业务结果为FAIL时应当失败");
+    } catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof WxPayException);
+      Assert.assertEquals(((WxPayException) e.getCause()).getErrCode(), "ORDERPAID");
+    }
+    service.close();
+  }
+
+  public void testTransportError() throws Exception {
+    StubAsyncService service = new StubAsyncService(null);
+    service.error = new WxPayException("Connection refused", new IOException("Connection refused"));
+
+    try {
+      service.unifiedOrderAsync(newRequest()).get(10, TimeUnit.SECONDS);
+      Assert.fail("请求失败时应当失败");
+    } catch (ExecutionException e) {
+      Assert.assertSame(e.getCause(), service.error);
+    }
+
+    // 同步接口抛出同一个异常
+    try {
+      service.unifiedOrder(newRequest());
+      Assert.fail("请求失败时应当失败");
+    } catch (WxPayException e) {
+      Assert.assertSame(e, service.error);
+    }
+    service.close();
+  }
+
+  private static WxPayUnifiedOrderRequest newRequest() {
+    return WxPayUnifiedOrderRequest.newBuilder()
+      .body("JSAPI支付测试")
+      .outTradeNo("1415659990")
+      .totalFee(1)
+      .spbillCreateIp("14.23.150.211")
+      .notifyURL("http://wxpay.wxutil.com/pub_v2/pay/notify.v2.php")
+      .tradeType("JSAPI")
+      .openid("oUpF8uMuAJO_M2pxb1Q9zNjWeS6o")
+      .build();
+  }
+
+  private static Map<String, String> newResponse(String resultCode) {
+    Map<String, String> response = new TreeMap<>();
+    response.put("return_code", "SUCCESS");
+    response.put("return_msg", "OK");
+    response.put("appid", "wx2421b1c4370ec43b");
+    response.put("mch_id", "10000100");
+    response.put("nonce_str", "IITRi8Iabbblz1Jc");
+    response.put("result_code", resultCode);
+    return response;
+  }
+
+  private static String toXml(Map<String, String> response) {
+    StringBuilder xml = new StringBuilder("<xml>");
+    for (Map.Entry<String, String> entry : response.entrySet()) {
+      xml.append('<').append(entry.getKey()).append("><![CDATA[").append(entry.getValue())
+        .append("]]></").append(entry.getKey()).append('>');
+    }
+    xml.append("<sign>").append(SignUtils.createSign(response, MCH_KEY)).append("</sign>");
+    return xml.append("</xml>").toString();
+  }
+
+  /**
+   * 不发送请求，直接返回给定的响应或异常
+   */
+  private static class StubAsyncService extends WxPayAsyncServiceImpl {
+    private final String responseXml;
+    private volatile WxPayException error;
+    private volatile String requestUrl;
+    private volatile String requestXml;
+
+    StubAsyncService(String responseXml) {
+      super(MoreExecutors.newDirectExecutorService());
+      WxPayConfig config = new WxPayConfig();
+      config.setAppId("wx2421b1c4370ec43b");
+      config.setMchId("10000100");
+      config.setMchKey(MCH_KEY);
+      this.setConfig(config);
+      this.responseXml = responseXml;
+    }
+
+    @Override
+    protected ListenableFuture<HttpResponse> executeAsync(String url, String requestStr, boolean useKey) {
+      this.requestUrl = url;
+      this.requestXml = requestStr;
+      if (this.error != null) {
+        return Futures.immediateFailedFuture(this.error);
+      }
+
+      HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+      response.setEntity(new StringEntity(this.responseXml, ContentType.TEXT_PLAIN.withCharset("UTF-8")));
+      return Futures.immediateFuture(response);
+    }
+  }
+
+}
@@ -0,0 +1,98 @@
+package com.github.binarywang.wxpay.service.impl;
+
+import com.github.binarywang.wxpay.config.WxPayConfig;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * 用本地http服务验证请求内容的编码以及连接的复用，不需要访问微信服务器
+ */
+@Test
+public class WxPayServiceApacheHttpImplTest {
+  private final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+  private HttpServer server;
+  private String url;
+
+  @BeforeClass
+  public void startServer() throws IOException {
+    this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    this.server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        WxPayServiceApacheHttpImplTest.this.clientPorts.add(exchange.getRemoteAddress().getPort());
+        byte[] body = IOUtils.toByteArray(exchange.getRequestBody());
+        exchange.getResponseHeaders().add("Content-Type", "text/plain");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+          out.write(body);
+        }
+      }
+    });
+    this.server.start();
+    this.url = "http://127.0.0.1:" + this.server.getAddress().getPort() + "/pay/unifiedorder";
+  }
+
+  @AfterClass
+  public void stopServer() {
+    this.server.stop(0);
+  }
+
+  public void testPostReusesConnection() throws Exception {
+    WxPayServiceApacheHttpImpl service = new WxPayServiceApacheHttpImpl();
+    service.setConfig(new WxPayConfig());
+
+    String xml = "<xml><body><![CDATA[支付测试]]></body></xml>";
+    for (int i = 0; i < 10; i++) {
+      assertEquals(service.post(this.url, xml, false), xml);
+    }
+    assertEquals(this.clientPorts.size(), 1);
+  }
+
+  public void testSetConfigAndCloseReleasePools() throws Exception {
+    int before = countMonitorThreads();
+    WxPayServiceApacheHttpImpl service = new WxPayServiceApacheHttpImpl();
+    service.setConfig(new WxPayConfig());
+    service.post(this.url, "<xml/>", false);
+    assertEquals(countMonitorThreads(), before + 1);
+
+    // 重新设置配置后旧的连接池和监控线程被关闭
+    service.setConfig(new WxPayConfig());
+    service.post(this.url, "<xml/>", false);
+    assertEquals(countMonitorThreads(), before + 1);
+
+    service.close();
+    assertEquals(countMonitorThreads(), before);
+  }
+
+  /**
+   * 等待已关闭的监控线程退出后，返回存活的闲置连接监控线程数
+   */
+  private static int countMonitorThreads() throws InterruptedException {
+    int count = 0;
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if ("IdleConnectionMonitorThread".equals(thread.getName())) {
+        thread.join(100);
+        if (thread.isAlive()) {
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+
+}
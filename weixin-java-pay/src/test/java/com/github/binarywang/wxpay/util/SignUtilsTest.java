@@ -0,0 +1,100 @@
+package com.github.binarywang.wxpay.util;
+
+import com.github.binarywang.wxpay.bean.request.WxPayUnifiedOrderRequest;
+import com.github.binarywang.wxpay.constant.WxPayConstants.SignType;
+import me.chanjar.weixin.common.exception.WxErrorException;
+import me.chanjar.weixin.common.util.BeanUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@Test
+public class SignUtilsTest {
+
+  static WxPayUnifiedOrderRequest newRequest() {
+    WxPayUnifiedOrderRequest request = WxPayUnifiedOrderRequest.newBuilder()
+      .appid("wx2421b1c4370ec43b")
+      .mchId("10000100")
+      .nonceStr("1add1a30ac87aa2db72f57a2375d8fec")
+      .body("JSAPI支付测试")
+      .attach("支付测试")
+      .outTradeNo("1415659990")
+      .totalFee(1)
+      .spbillCreateIp("14.23.150.211")
+      .notifyURL("http://wxpay.wxutil.com/pub_v2/pay/notify.v2.php")
+      .tradeType("JSAPI")
+      .openid("oUpF8uMuAJO_M2pxb1Q9zNjWeS6o")
+      .build();
+    request.setSign("SHOULD_BE_IGNORED");
+    return request;
+  }
+
+  public void testCreateSignFromBean() {
+    WxPayUnifiedOrderRequest request = newRequest();
+    Map<String, String> params = BeanUtils.xmlBean2Map(request);
+    Assert.assertEquals(params.get("total_fee"), "1");
+    Assert.assertEquals(params.get("notify_url"), "http://wxpay.wxutil.com/pub_v2/pay/notify.v2.php");
+    Assert.assertFalse(params.containsKey("device_info"));
+
+    String sign = SignUtils.createSign(request, "192006250b4c09247ec02edce69f6a2d");
+    Assert.assertEquals(sign, SignUtils.createSign(params, "192006250b4c09247ec02edce69f6a2d"));
+
+    params.put("sign", sign);
+    Assert.assertTrue(SignUtils.checkSign(params, "192006250b4c09247ec02edce69f6a2d"));
+  }
+
+  /**
+   * 签名算法文档中的示例
+   */
+  public void testCreateSignWithSignType() {
+    Map<String, String> params = new HashMap<>();
+    params.put("appid", "wxd930ea5d5a258f4f");
+    params.put("mch_id", "10000100");
+    params.put("device_info", "1000");
+    params.put("body", "test");
+    params.put("nonce_str", "ibuaiVcKdpRxkhJA");
+    String key = "192006250b4c09247ec02edce69f6a2d";
+
+    Assert.assertEquals(SignUtils.createSign(params, key), "9A0A8659F005D6984697E2CA0A9CF3B7");
+    Assert.assertEquals(SignUtils.createSign(params, SignType.HMAC_SHA256, key),
+      "6A9AE1657590FD6257D693A078E1C3E4BB6BA4DC30B23E0EE2496E54170DACD6");
+    // 同一线程交替使用不同的签名类型和密钥
+    Assert.assertNotEquals(SignUtils.createSign(params, SignType.HMAC_SHA256, "another"),
+      SignUtils.createSign(params, SignType.HMAC_SHA256, key));
+    Assert.assertEquals(SignUtils.createSign(params, SignType.MD5, key), "9A0A8659F005D6984697E2CA0A9CF3B7");
+
+    params.put("sign", "6A9AE1657590FD6257D693A078E1C3E4BB6BA4DC30B23E0EE2496E54170DACD6");
+    Assert.assertTrue(SignUtils.checkSign(params, SignType.HMAC_SHA256, key));
+    Assert.assertFalse(SignUtils.checkSign(params, key));
+  }
+
+  public void testCheckSignFromBean() {
+    WxPayUnifiedOrderRequest request = newRequest();
+    request.setSign(SignUtils.createSign(request, SignType.HMAC_SHA256, "192006250b4c09247ec02edce69f6a2d"));
+    Assert.assertTrue(SignUtils.checkSign(request, SignType.HMAC_SHA256, "192006250b4c09247ec02edce69f6a2d"));
+    Assert.assertFalse(SignUtils.checkSign(request, "192006250b4c09247ec02edce69f6a2d"));
+  }
+
+  public void testCheckSignWithUnknownSignType() {
+    Map<String, String> params = new HashMap<>();
+    params.put("appid", "wxd930ea5d5a258f4f");
+    params.put("sign", SignUtils.createSign(params, "192006250b4c09247ec02edce69f6a2d"));
+    Assert.assertFalse(SignUtils.checkSign(params, "RSA", "192006250b4c09247ec02edce69f6a2d"));
+    Assert.assertFalse(SignUtils.checkSign(newRequest(), "RSA", "192006250b4c09247ec02edce69f6a2d"));
+  }
+
+  public void testCheckRequiredFields() {
+    WxPayUnifiedOrderRequest request = newRequest();
+    request.setOutTradeNo(" ");
+    request.setTotalFee(null);
+    try {
+      BeanUtils.checkRequiredFields(request);
+      Assert.fail();
+    } catch (WxErrorException e) {
+      Assert.assertEquals(e.getError().getErrorMsg(), "必填字段 [outTradeNo, totalFee] 必须提供值");
+    }
+  }
+
+}
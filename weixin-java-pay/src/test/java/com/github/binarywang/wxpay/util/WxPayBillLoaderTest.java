@@ -0,0 +1,142 @@
+package com.github.binarywang.wxpay.util;
+
+import com.github.binarywang.wxpay.bean.result.WxPayBillBaseResult;
+import com.github.binarywang.wxpay.util.WxPayBillTable.AmountColumn;
+import com.github.binarywang.wxpay.util.WxPayBillTable.CategoryColumn;
+import com.github.binarywang.wxpay.util.WxPayBillTable.TextColumn;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+@Test
+public class WxPayBillLoaderTest {
+
+  private static final String HEADER = "交易时间,公众账号ID,商户号,子商户号,设备号,微信订单号,商户订单号,用户标识,交易类型,交易状态,付款银行,货币种类,"
+    + "总金额,企业红包金额,微信退款单号,商户退款单号,退款金额,企业红包退款金额,退款类型,退款状态,商品名称,商户数据包,手续费,费率";
+
+  /**
+   * 生成count条记录的对账单，每3条中有1条退款
+   */
+  static String createBill(int count) {
+    StringBuilder bill = new StringBuilder(count * 300).append(HEADER).append("\r\n");
+    long totalFee = 0;
+    long refundFee = 0;
+    for (int i = 0; i < count; i++) {
+      boolean refund = i % 3 == 2;
+      long fee = 100 + i % 1000;
+      bill.append("`2017-04-06 ").append(String.format("%02d:%02d:%02d", i / 3600 % 24, i / 60 % 60, i % 60))
+        .append(",`wx2421b1c437").append(i % 4).append("ec43b,`10000100,`0,`WEB")
+        .append(",`40084507402017040661").append(String.format("%08d", i))
+        .append(",`20170405").append(String.format("%08d", i))
+        .append(",`oUpF8uMuAJO_M2pxb1Q9zNjWeS6o,`").append(i % 2 == 0 ? "NATIVE" : "JSAPI")
+        .append(",`").append(refund ? "REFUND" : "SUCCESS").append(",`CFT,`CNY,`")
+        .append(WxPayBillTable.appendAmount(new StringBuilder(), refund ? 0 : fee, 2)).append(",`0.00");
+      if (refund) {
+        bill.append(",`5000030227201704060").append(String.format("%08d", i))
+          .append(",`R").append(i).append(",`").append(WxPayBillTable.appendAmount(new StringBuilder(), fee, 2))
+          .append(",`0.00,`ORIGINAL,`SUCCESS");
+        refundFee += fee;
+      } else {
+        bill.append(",`0,`0,`0.00,`0.00,`,`");
+        totalFee += fee;
+      }
+      bill.append(",`商品").append(i).append(",含逗号,`attach,`0.00600,`0.60%\r\n");
+    }
+    bill.append("总交易单数,总交易额,总退款金额,总代金券或立减优惠退款金额,手续费总金额\r\n")
+      .append('`').append(count)
+      .append(",`").append(WxPayBillTable.appendAmount(new StringBuilder(), totalFee, 2))
+      .append(",`").append(WxPayBillTable.appendAmount(new StringBuilder(), refundFee, 2))
+      .append(",`0.00,`").append(WxPayBillTable.appendAmount(new StringBuilder(), count * 600L, 5)).append("\r\n");
+    return bill.toString();
+  }
+
+  public void testLoadSameAsReader() throws IOException {
+    String bill = createBill(5000);
+    byte[] bytes = bill.getBytes(StandardCharsets.UTF_8);
+    WxPayBillTable table = WxPayBillLoader.load(ByteBuffer.wrap(bytes));
+
+    Assert.assertEquals(table.size(), 5000);
+    Assert.assertEquals(table.getHeader(), HEADER);
+    try (WxPayBillReader reader = new WxPayBillReader(new ByteArrayInputStream(bytes))) {
+      int row = 0;
+      while (reader.hasNext()) {
+        WxPayBillBaseResult expected = reader.next();
+        WxPayBillBaseResult actual = table.toRecord(row++);
+        Assert.assertEquals(actual.getTradeTime(), expected.getTradeTime());
+        Assert.assertEquals(actual.getAppId(), expected.getAppId());
+        Assert.assertEquals(actual.getTransationId(), expected.getTransationId());
+        Assert.assertEquals(actual.getOutTradeNo(), expected.getOutTradeNo());
+        Assert.assertEquals(actual.getTradeState(), expected.getTradeState());
+        Assert.assertEquals(actual.getTotalFee(), expected.getTotalFee());
+        Assert.assertEquals(actual.getSettlementRefundFee(), expected.getSettlementRefundFee());
+        Assert.assertEquals(actual.getRefundChannel(), expected.getRefundChannel());
+        Assert.assertEquals(actual.getBody(), expected.getBody());
+        Assert.assertEquals(actual.getPoundage(), expected.getPoundage());
+        Assert.assertEquals(actual.getPoundageRate(), expected.getPoundageRate());
+      }
+      Assert.assertEquals(row, 5000);
+      Assert.assertEquals(table.getSummary().getTotalFee(), reader.getSummary().getTotalFee());
+    }
+  }
+
+  public void testChunkedLoadAndAggregate() throws IOException {
+    // 记录较多时分成多块并行解析，合并后与单块结果一致
+    String bill = createBill(20000);
+    Path file = Files.createTempFile("bill", ".csv");
+    try {
+      Files.write(file, bill.getBytes(StandardCharsets.UTF_8));
+      WxPayBillTable table = WxPayBillLoader.load(file, new ForkJoinPool(4));
+
+      Assert.assertEquals(table.size(), 20000);
+      Assert.assertEquals(table.getSummary().getTotalRecord(), "20000");
+      Assert.assertEquals(WxPayBillTable.appendAmount(new StringBuilder(),
+        table.sum(AmountColumn.TOTAL_FEE), 2).toString(), table.getSummary().getTotalFee());
+      Assert.assertEquals(WxPayBillTable.appendAmount(new StringBuilder(),
+        table.sum(AmountColumn.SETTLEMENT_REFUND_FEE, CategoryColumn.TRADE_STATE, "REFUND"), 2).toString(),
+        table.getSummary().getTotalRefundFee());
+      Assert.assertEquals(table.sum(AmountColumn.POUNDAGE), 20000 * 600L);
+
+      Assert.assertEquals(table.getDictionary(CategoryColumn.APP_ID).size(), 4);
+      Map<String, Integer> counts = table.countBy(CategoryColumn.TRADE_STATE);
+      Assert.assertEquals(counts.get("SUCCESS").intValue(), 13334);
+      Assert.assertEquals(counts.get("REFUND").intValue(), 6666);
+      Assert.assertEquals(table.sumBy(AmountColumn.TOTAL_FEE, CategoryColumn.TRADE_STATE).get("REFUND").longValue(), 0);
+
+      Assert.assertEquals(table.getTradeTime(3661), 20170406010101L);
+      Assert.assertEquals(table.get(TextColumn.BODY, 7), "商品7,含逗号");
+      Assert.assertSame(table.get(CategoryColumn.TRADE_TYPE, 0), table.get(CategoryColumn.TRADE_TYPE, 2));
+
+      StringBuilder exported = new StringBuilder();
+      table.writeTo(exported);
+      Assert.assertEquals(exported.toString(), bill);
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  public void testParseAmount() {
+    Assert.assertEquals(parse("0.01", 2), 1);
+    Assert.assertEquals(parse("12.3", 2), 1230);
+    Assert.assertEquals(parse("12", 2), 1200);
+    Assert.assertEquals(parse("-0.50", 2), -50);
+    Assert.assertEquals(parse("0.00600", 5), 600);
+    Assert.assertEquals(parse("", 2), 0);
+    Assert.assertEquals(Arrays.asList(WxPayBillTable.appendAmount(new StringBuilder(), 5, 2).toString(),
+      WxPayBillTable.appendAmount(new StringBuilder(), 1230, 2).toString()), Arrays.asList("0.05", "12.30"));
+  }
+
+  private static long parse(String amount, int scale) {
+    byte[] bytes = amount.getBytes(StandardCharsets.UTF_8);
+    return WxPayBillLoader.parseAmount(bytes, 0, bytes.length, scale);
+  }
+
+}
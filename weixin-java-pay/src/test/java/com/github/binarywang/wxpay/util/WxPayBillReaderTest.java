@@ -0,0 +1,87 @@
+package com.github.binarywang.wxpay.util;
+
+import com.github.binarywang.wxpay.bean.result.WxPayBillBaseResult;
+import com.github.binarywang.wxpay.bean.result.WxPayBillResult;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+@Test
+public class WxPayBillReaderTest {
+
+  private static final String BILL = "交易时间,公众账号ID,商户号,子商户号,设备号,微信订单号,商户订单号,用户标识,交易类型,交易状态,付款银行,货币种类,"
+    + "总金额,企业红包金额,微信退款单号,商户退款单号,退款金额,企业红包退款金额,退款类型,退款状态,商品名称,商户数据包,手续费,费率\r\n"
+    + "`2017-04-06 01:00:02,`wx2421b1c4370ec43b,`10000100,`0,`WEB,`4008450740201704066185813423,`2017040519091071873216,"
+    + "`oUpF8uMuAJO_M2pxb1Q9zNjWeS6o,`NATIVE,`REFUND,`CFT,`CNY,`0.00,`0.00,`50000302272017040600098361543,"
+    + "`20170406010000933,`0.01,`0.00,`ORIGINAL,`SUCCESS,`商品,含逗号,`a,b,`0.00000,`0.60%\r\n"
+    + "`2017-04-06 02:00:02,`wx2421b1c4370ec43b,`10000100,`0,`WEB,`4008450740201704066185813424,`2017040519091071873217,"
+    + "`oUpF8uMuAJO_M2pxb1Q9zNjWeS6o,`NATIVE,`SUCCESS,`CFT,`CNY,`0.01,`0.00,`0,`0,`0.00,`0.00,`,`,`商品,`,`0.00000,`0.60%\r\n"
+    + "总交易单数,总交易额,总退款金额,总代金券或立减优惠退款金额,手续费总金额\r\n"
+    + "`2,`0.02,`0.01,`0.00,`0.00000\r\n";
+
+  public void testRead() throws IOException {
+    this.assertBill(new ByteArrayInputStream(BILL.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  public void testReadGzip() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+      out.write(BILL.getBytes(StandardCharsets.UTF_8));
+    }
+    this.assertBill(new ByteArrayInputStream(bytes.toByteArray()));
+  }
+
+  public void testSummaryWithoutIterating() throws IOException {
+    try (WxPayBillReader reader = new WxPayBillReader(new ByteArrayInputStream(BILL.getBytes(StandardCharsets.UTF_8)))) {
+      Assert.assertEquals(reader.getSummary().getTotalRecord(), "2");
+      Assert.assertFalse(reader.hasNext());
+      Assert.assertEquals(reader.getRecordCount(), 2);
+    }
+  }
+
+  public void testEmpty() throws IOException {
+    try (WxPayBillReader reader = new WxPayBillReader(new ByteArrayInputStream(new byte[0]))) {
+      Assert.assertFalse(reader.hasNext());
+      Assert.assertNull(reader.getSummary());
+    }
+  }
+
+  private void assertBill(InputStream in) throws IOException {
+    List<WxPayBillBaseResult> records = new ArrayList<>();
+    WxPayBillResult summary;
+    try (WxPayBillReader reader = new WxPayBillReader(in)) {
+      Assert.assertEquals(reader.getHeader()[0], "交易时间");
+      while (reader.hasNext()) {
+        records.add(reader.next());
+      }
+      summary = reader.getSummary();
+    }
+
+    Assert.assertEquals(records.size(), 2);
+    WxPayBillBaseResult first = records.get(0);
+    Assert.assertEquals(first.getTradeTime(), "2017-04-06 01:00:02");
+    Assert.assertEquals(first.getOutTradeNo(), "2017040519091071873216");
+    Assert.assertEquals(first.getTradeState(), "REFUND");
+    Assert.assertEquals(first.getSettlementRefundFee(), "0.01");
+    Assert.assertEquals(first.getBody(), "商品,含逗号");
+    Assert.assertEquals(first.getAttach(), "a,b");
+    Assert.assertEquals(first.getPoundageRate(), "0.60%");
+    Assert.assertEquals(records.get(1).getRefundChannel(), "");
+    Assert.assertEquals(records.get(1).getPoundageRate(), "0.60%");
+
+    Assert.assertEquals(summary.getTotalRecord(), "2");
+    Assert.assertEquals(summary.getTotalFee(), "0.02");
+    Assert.assertEquals(summary.getTotalRefundFee(), "0.01");
+    Assert.assertEquals(summary.getTotalCouponFee(), "0.00");
+    Assert.assertEquals(summary.getTotalPoundageFee(), "0.00000");
+  }
+
+}
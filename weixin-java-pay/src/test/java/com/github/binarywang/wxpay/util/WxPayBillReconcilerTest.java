@@ -0,0 +1,152 @@
+package com.github.binarywang.wxpay.util;
+
+import com.github.binarywang.wxpay.bean.result.WxPayBillBaseResult;
+import com.github.binarywang.wxpay.util.WxPayBillReconciler.Mismatch;
+import com.github.binarywang.wxpay.util.WxPayBillReconciler.MismatchHandler;
+import com.github.binarywang.wxpay.util.WxPayBillReconciler.MismatchType;
+import com.github.binarywang.wxpay.util.WxPayBillReconciler.Side;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+@Test
+public class WxPayBillReconcilerTest {
+
+  public void testIndexLedger() {
+    List<Mismatch> mismatches = new ArrayList<>();
+    WxPayBillReconciler reconciler = new WxPayBillReconciler(Side.LEDGER, 4, collect(mismatches));
+    this.addLedger(reconciler);
+    this.addBill(reconciler);
+    reconciler.finish();
+
+    this.assertMismatches(mismatches);
+    Assert.assertEquals(reconciler.getIndexedCount(), 6);
+    Assert.assertEquals(reconciler.getMatchedCount(), 5);
+  }
+
+  public void testIndexBill() {
+    List<Mismatch> mismatches = new ArrayList<>();
+    WxPayBillReconciler reconciler = new WxPayBillReconciler(Side.BILL, 4, collect(mismatches));
+    this.addBill(reconciler);
+    this.addLedger(reconciler);
+    reconciler.finish();
+
+    this.assertMismatches(mismatches);
+    Assert.assertEquals(reconciler.getIndexedCount(), 6);
+    Assert.assertEquals(reconciler.getMatchedCount(), 5);
+  }
+
+  public void testManyOrders() {
+    // 超过预计数量时自动扩容，订单号包含非ASCII字符时也能匹配
+    List<Mismatch> mismatches = new ArrayList<>();
+    WxPayBillReconciler reconciler = new WxPayBillReconciler(Side.LEDGER, 16, collect(mismatches));
+    for (int i = 0; i < 100000; i++) {
+      reconciler.addLedgerOrder("订单" + i, i, "SUCCESS", 0);
+    }
+    for (int i = 0; i < 100000; i++) {
+      reconciler.addBillRecord("订单" + i, i == 500 ? 1 : i, "SUCCESS", 0);
+    }
+    reconciler.finish();
+
+    Assert.assertEquals(reconciler.getMatchedCount(), 100000);
+    Assert.assertEquals(mismatches.size(), 1);
+    Assert.assertEquals(mismatches.get(0).getOutTradeNo(), "订单500");
+    Assert.assertEquals(mismatches.get(0).getType(), MismatchType.AMOUNT_DIFFERS);
+  }
+
+  public void testBillTable() {
+    String bill = WxPayBillLoaderTest.createBill(30);
+    WxPayBillTable table = WxPayBillLoader.load(ByteBuffer.wrap(bill.getBytes(StandardCharsets.UTF_8)));
+    List<Mismatch> mismatches = new ArrayList<>();
+    WxPayBillReconciler reconciler = new WxPayBillReconciler(Side.LEDGER, 30, collect(mismatches));
+    for (int i = 0; i < 30; i++) {
+      boolean refund = i % 3 == 2;
+      reconciler.addLedgerOrder(String.format("20170405%08d", i), refund ? 0 : 100 + i,
+        refund ? null : "SUCCESS", refund ? 100 + i : 0);
+    }
+    reconciler.addBillTable(table);
+    reconciler.finish();
+
+    Assert.assertEquals(reconciler.getMatchedCount(), 30);
+    Assert.assertTrue(mismatches.isEmpty(), mismatches.toString());
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void testIndexSideAfterStreaming() {
+    WxPayBillReconciler reconciler = new WxPayBillReconciler(Side.LEDGER, 4, collect(new ArrayList<Mismatch>()));
+    reconciler.addLedgerOrder("1", 1, "SUCCESS", 0);
+    reconciler.addBillRecord("1", 1, "SUCCESS", 0);
+    reconciler.addLedgerOrder("2", 1, "SUCCESS", 0);
+  }
+
+  /**
+   * A一致，B金额不同，C状态不同，D退款金额不同，E只在本地，F只在对账单，G支付在之前的账单中、这次只有退款
+   */
+  private void addLedger(WxPayBillReconciler reconciler) {
+    reconciler.addLedgerOrder("A", 100, "SUCCESS", 0);
+    reconciler.addLedgerOrder("B", 100, "SUCCESS", 0);
+    reconciler.addLedgerOrder("C", 100, "REVOKED", 0);
+    reconciler.addLedgerOrder("D", 100, "SUCCESS", 30);
+    reconciler.addLedgerOrder("E", 100, "SUCCESS", 0);
+    reconciler.addLedgerOrder("G", 100, "SUCCESS", 50);
+  }
+
+  private void addBill(WxPayBillReconciler reconciler) {
+    reconciler.addBillRecord("A", 100, "SUCCESS", 0);
+    reconciler.addBillRecord("B", 101, "SUCCESS", 0);
+    reconciler.addBillRecord("C", 100, "SUCCESS", 0);
+    reconciler.addBillRecord("D", 100, "SUCCESS", 0);
+    reconciler.addBillRecord("D", 0, "REFUND", 10);
+    reconciler.addBillRecord("D", 0, "REFUND", 10);
+    reconciler.addBillRecord("F", 100, "SUCCESS", 0);
+
+    WxPayBillBaseResult record = new WxPayBillBaseResult();
+    record.setOutTradeNo("G");
+    record.setTotalFee("0.00");
+    record.setTradeState("REFUND");
+    record.setSettlementRefundFee("0.50");
+    reconciler.addBillRecord(record);
+  }
+
+  private void assertMismatches(List<Mismatch> mismatches) {
+    Collections.sort(mismatches, new Comparator<Mismatch>() {
+      @Override
+      public int compare(Mismatch o1, Mismatch o2) {
+        return o1.getOutTradeNo().compareTo(o2.getOutTradeNo());
+      }
+    });
+
+    Assert.assertEquals(mismatches.size(), 5, mismatches.toString());
+    Assert.assertEquals(mismatches.get(0).getOutTradeNo(), "B");
+    Assert.assertEquals(mismatches.get(0).getType(), MismatchType.AMOUNT_DIFFERS);
+    Assert.assertEquals(mismatches.get(0).getBillTotalFee(), 101);
+    Assert.assertEquals(mismatches.get(0).getLedgerTotalFee(), 100);
+    Assert.assertEquals(mismatches.get(1).getOutTradeNo(), "C");
+    Assert.assertEquals(mismatches.get(1).getType(), MismatchType.STATUS_DIFFERS);
+    Assert.assertEquals(mismatches.get(1).getLedgerTradeState(), "REVOKED");
+    Assert.assertEquals(mismatches.get(2).getOutTradeNo(), "D");
+    Assert.assertEquals(mismatches.get(2).getType(), MismatchType.REFUND_DIFFERS);
+    Assert.assertEquals(mismatches.get(2).getBillRefundFee(), 20);
+    Assert.assertEquals(mismatches.get(3).getOutTradeNo(), "E");
+    Assert.assertEquals(mismatches.get(3).getType(), MismatchType.MISSING_IN_BILL);
+    Assert.assertEquals(mismatches.get(4).getOutTradeNo(), "F");
+    Assert.assertEquals(mismatches.get(4).getType(), MismatchType.MISSING_IN_LEDGER);
+    Assert.assertEquals(mismatches.get(4).getBillTotalFee(), 100);
+  }
+
+  private static MismatchHandler collect(final List<Mismatch> mismatches) {
+    return new MismatchHandler() {
+      @Override
+      public void handle(Mismatch mismatch) {
+        mismatches.add(mismatch);
+      }
+    };
+  }
+
+}
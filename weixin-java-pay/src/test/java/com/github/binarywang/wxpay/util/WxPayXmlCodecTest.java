@@ -0,0 +1,78 @@
+package com.github.binarywang.wxpay.util;
+
+import com.github.binarywang.wxpay.bean.result.WxPayRefundQueryResult;
+import com.github.binarywang.wxpay.bean.result.WxPaySendRedpackResult;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+@Test
+public class WxPayXmlCodecTest {
+
+  private static final String XML = "<xml>\n" +
+    "   <return_code><![CDATA[SUCCESS]]></return_code>\n" +
+    "   <return_msg><![CDATA[OK]]></return_msg>\n" +
+    "   <appid><![CDATA[wx2421b1c4370ec43b]]></appid>\n" +
+    "   <mch_id>10000100</mch_id>\n" +
+    "   <out_trade_no>A&amp;B</out_trade_no>\n" +
+    "   <total_fee>101</total_fee>\n" +
+    "   <cash_fee></cash_fee>\n" +
+    "   <refund_count>2</refund_count>\n" +
+    "   <out_refund_no_0><![CDATA[R0]]></out_refund_no_0>\n" +
+    "   <refund_fee_0>60</refund_fee_0>\n" +
+    "   <coupon_refund_count_0>1</coupon_refund_count_0>\n" +
+    "   <coupon_refund_id_0_0>C0</coupon_refund_id_0_0>\n" +
+    "   <coupon_refund_fee_0_0>10</coupon_refund_fee_0_0>\n" +
+    "   <out_refund_no_1><![CDATA[R1]]></out_refund_no_1>\n" +
+    "   <refund_fee_1>41</refund_fee_1>\n" +
+    "</xml>";
+
+  public void testParseFields() {
+    Map<String, String> fields = WxPayXmlCodec.parseFields(XML);
+    Assert.assertEquals(fields.get("return_code"), "SUCCESS");
+    Assert.assertEquals(fields.get("out_trade_no"), "A&B");
+    Assert.assertEquals(fields.get("cash_fee"), "");
+    Assert.assertEquals(new ArrayList<>(fields.keySet()).subList(0, 4),
+      Arrays.asList("return_code", "return_msg", "appid", "mch_id"));
+  }
+
+  @Test(expectedExceptions = RuntimeException.class)
+  public void testParseInvalidXml() {
+    WxPayXmlCodec.parseFields("<xml><return_code>SUCCESS</xml>");
+  }
+
+  public void testFromXml() {
+    WxPayRefundQueryResult result = WxPayRefundQueryResult.fromXML(XML, WxPayRefundQueryResult.class);
+    Assert.assertEquals(result.getReturnCode(), "SUCCESS");
+    Assert.assertEquals(result.getMchId(), "10000100");
+    Assert.assertEquals(result.getOutTradeNo(), "A&B");
+    Assert.assertEquals(result.getTotalFee().intValue(), 101);
+    Assert.assertNull(result.getCashFee());
+    Assert.assertEquals(result.getXmlString(), XML);
+    Assert.assertEquals(result.toMap(), WxPayXmlCodec.parseFields(XML));
+
+    result.composeRefundRecords();
+    List<WxPayRefundQueryResult.RefundRecord> records = result.getRefundRecords();
+    Assert.assertEquals(records.size(), 2);
+    Assert.assertEquals(records.get(0).getOutRefundNo(), "R0");
+    Assert.assertEquals(records.get(0).getRefundFee().intValue(), 60);
+    Assert.assertEquals(records.get(0).getRefundCoupons().size(), 1);
+    Assert.assertEquals(records.get(1).getOutRefundNo(), "R1");
+    Assert.assertEquals(records.get(1).getRefundFee().intValue(), 41);
+    Assert.assertEquals(records.get(1).getRefundChannel(), "");
+    Assert.assertNull(records.get(1).getRefundCoupons());
+  }
+
+  public void testPrimitiveField() {
+    WxPaySendRedpackResult result = WxPaySendRedpackResult.fromXML("<xml>" +
+      "<return_code>SUCCESS</return_code><total_amount>100</total_amount><mch_billno>1</mch_billno></xml>",
+      WxPaySendRedpackResult.class);
+    Assert.assertEquals(result.getTotalAmount(), 100);
+    Assert.assertEquals(result.getMchBillno(), "1");
+  }
+
+}